@@ -0,0 +1,195 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the ConnectN core.
+ * <p>
+ * Every operation is measured on boards from 6x6 to 16x16, with several values of N, in three
+ * positions: empty, midgame (about half full) and near full (about 90% full). Positions are
+ * built from seeded random play that avoids completing a run, so every fork benchmarks the same
+ * positions. Moves are measured together with the undo that takes them back, so the position
+ * stays the same for every invocation.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    /** Board width, height and N, separated by x. */
+    @Param({"6x6x4", "6x6x5", "7x6x4", "7x6x5", "7x6x6", "8x8x4", "8x8x5", "8x8x6", "12x12x4",
+        "12x12x5", "12x12x6", "16x16x4", "16x16x5", "16x16x6"})
+    private String configuration;
+
+    /** How full the board is: empty, midgame or nearFull. */
+    @Param({"empty", "midgame", "nearFull"})
+    private String position;
+
+    /** The board. */
+    private Object board;
+
+    /** A separately built board with the same position. */
+    private Object copy;
+
+    /** The player whose turn it is. */
+    private Object toMove;
+
+    /** An open column, as close to the center as there is. */
+    private int x;
+
+    /**
+     * Build the position.
+     *
+     * @throws Throwable if the game classes cannot be used
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        String[] sizes = configuration.split("x");
+        int width = Integer.parseInt(sizes[0]);
+        int height = Integer.parseInt(sizes[1]);
+        int n = Integer.parseInt(sizes[2]);
+        double fill = 0;
+        if ("midgame".equals(position)) {
+            fill = 0.5;
+        } else if ("nearFull".equals(position)) {
+            fill = 0.9;
+        }
+        Object[] players = Game.players();
+        board = Game.position(width, height, n, fill, players);
+        copy = Game.position(width, height, n, fill, players);
+        toMove = players[(int) Game.GET_MOVE_COUNT.invokeExact(board) % 2];
+        x = Game.openColumn(board, width, height);
+    }
+
+    /**
+     * Drop a tile with setBoardAt(player, x) and take it back.
+     *
+     * @return whether the tile was placed and taken back
+     * @throws Throwable never
+     */
+    @Benchmark
+    public boolean setBoardAtAndUndo() throws Throwable {
+        boolean placed = (boolean) Game.SET_BOARD_AT.invokeExact(board, toMove, x);
+        boolean undone = (boolean) Game.UNDO.invokeExact(board);
+        return placed && undone;
+    }
+
+    /**
+     * Drop a tile with setBoardAt(player, x, y) and take it back.
+     *
+     * @return whether the tile was placed and taken back
+     * @throws Throwable never
+     */
+    @Benchmark
+    public boolean setBoardAtXYAndUndo() throws Throwable {
+        int y = (int) Game.GET_COLUMN_HEIGHT.invokeExact(board, x);
+        boolean placed = (boolean) Game.SET_BOARD_AT_XY.invokeExact(board, toMove, x, y);
+        boolean undone = (boolean) Game.UNDO.invokeExact(board);
+        return placed && undone;
+    }
+
+    /**
+     * Get the winner.
+     *
+     * @return the winner, always null
+     * @throws Throwable never
+     */
+    @Benchmark
+    public Object getWinner() throws Throwable {
+        return (Object) Game.GET_WINNER.invokeExact(board);
+    }
+
+    /**
+     * Check for a winner.
+     *
+     * @return false
+     * @throws Throwable never
+     */
+    @Benchmark
+    public boolean hasWinner() throws Throwable {
+        return (boolean) Game.HAS_WINNER.invokeExact(board);
+    }
+
+    /**
+     * Check whether the game has ended.
+     *
+     * @return false
+     * @throws Throwable never
+     */
+    @Benchmark
+    public boolean gameEnded() throws Throwable {
+        return (boolean) Game.GAME_ENDED.invokeExact(board);
+    }
+
+    /**
+     * Get whose turn it is.
+     *
+     * @return the name of the player to move
+     * @throws Throwable never
+     */
+    @Benchmark
+    public Object whosTurn() throws Throwable {
+        return (Object) Game.WHOS_TURN.invokeExact(board);
+    }
+
+    /**
+     * Get the legal columns.
+     *
+     * @return the column mask
+     * @throws Throwable never
+     */
+    @Benchmark
+    public int legalColumns() throws Throwable {
+        return (int) Game.LEGAL_COLUMNS.invokeExact(board);
+    }
+
+    /**
+     * Get the winning and blocking columns of the player to move.
+     *
+     * @return the two column masks ORed together
+     * @throws Throwable never
+     */
+    @Benchmark
+    public int winningColumns() throws Throwable {
+        return (int) Game.WINNING_COLUMNS.invokeExact(board, toMove)
+                | (int) Game.BLOCKING_COLUMNS.invokeExact(board, toMove);
+    }
+
+    /**
+     * Copy out the grid of owners.
+     *
+     * @return the grid
+     * @throws Throwable never
+     */
+    @Benchmark
+    public Object getBoard() throws Throwable {
+        return (Object) Game.GET_BOARD.invokeExact(board);
+    }
+
+    /**
+     * Compare the board with its separately built copy.
+     *
+     * @return true
+     * @throws Throwable never
+     */
+    @Benchmark
+    public boolean compareBoards() throws Throwable {
+        return (boolean) Game.COMPARE_BOARDS.invokeExact(board, copy);
+    }
+}
@@ -0,0 +1,90 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for creating boards in bulk, with and without handing them back to the shared
+ * pool so that later calls can reuse them.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class CreateManyBenchmark {
+
+    /** Boards created per call. */
+    private static final int COUNT = 16;
+
+    /** N of the boards created. */
+    private static final int N = 4;
+
+    /** Board width and height, separated by x. */
+    @Param({"6x6", "7x6", "8x8", "12x12", "16x16"})
+    private String size;
+
+    /** The board width. */
+    private int width;
+
+    /** The board height. */
+    private int height;
+
+    /** The shared board pool. */
+    private Object pool;
+
+    /**
+     * Parse the size.
+     *
+     * @throws Throwable if the game classes cannot be used
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        String[] sizes = size.split("x");
+        width = Integer.parseInt(sizes[0]);
+        height = Integer.parseInt(sizes[1]);
+        pool = (Object) Game.SHARED_POOL.invokeExact();
+    }
+
+    /**
+     * Create COUNT boards.
+     *
+     * @return the boards
+     * @throws Throwable never
+     */
+    @Benchmark
+    public Object createMany() throws Throwable {
+        return (Object) Game.CREATE_MANY.invokeExact(COUNT, width, height, N);
+    }
+
+    /**
+     * Create COUNT boards and release them to the shared pool.
+     *
+     * @return the number of boards the pool kept
+     * @throws Throwable never
+     */
+    @Benchmark
+    public int createManyAndRelease() throws Throwable {
+        Object[] boards = (Object[]) (Object) Game.CREATE_MANY.invokeExact(COUNT, width, height, N);
+        int kept = 0;
+        for (Object board : boards) {
+            if ((boolean) Game.RELEASE.invokeExact(pool, board)) {
+                kept++;
+            }
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,279 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.util.Random;
+
+/**
+ * Method handles for the game classes, and the positions the benchmarks run on.
+ * <p>
+ * JMH refuses benchmark classes in the default package, where the game classes live, and code
+ * in a named package cannot name them. Benchmarks therefore hold boards and players as Object and
+ * call them through these handles, whose reference types are all erased to Object. The handles
+ * sit in static final fields, which the JIT treats as constants, so a call through one with
+ * invokeExact is inlined like a direct call apart from a cast.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+final class Game {
+
+    /** The ConnectN class. */
+    static final Class<?> CONNECT_N = type("ConnectN");
+
+    /** The Player class. */
+    static final Class<?> PLAYER = type("Player");
+
+    /** The BoardPool class. */
+    static final Class<?> BOARD_POOL = type("BoardPool");
+
+    /** The SparseBoard class. */
+    static final Class<?> SPARSE_BOARD = type("SparseBoard");
+
+    /** The Leaderboard class. */
+    static final Class<?> LEADERBOARD = type("Leaderboard");
+
+    /** The Player[] class. */
+    static final Class<?> PLAYER_ARRAY = Array.newInstance(PLAYER, 0).getClass();
+
+    /** new ConnectN(width, height, n). */
+    static final MethodHandle NEW_BOARD = constructor(CONNECT_N, int.class, int.class, int.class);
+
+    /** new Player(name). */
+    static final MethodHandle NEW_PLAYER = constructor(PLAYER, String.class);
+
+    /** new Player(name, score, id). */
+    static final MethodHandle RESTORE_PLAYER =
+            constructor(PLAYER, String.class, int.class, int.class);
+
+    /** ConnectN.setBoardAt(player, x). */
+    static final MethodHandle SET_BOARD_AT = method(CONNECT_N, "setBoardAt", PLAYER, int.class);
+
+    /** ConnectN.setBoardAt(player, x, y). */
+    static final MethodHandle SET_BOARD_AT_XY =
+            method(CONNECT_N, "setBoardAt", PLAYER, int.class, int.class);
+
+    /** ConnectN.undo(). */
+    static final MethodHandle UNDO = method(CONNECT_N, "undo");
+
+    /** ConnectN.getWinner(). */
+    static final MethodHandle GET_WINNER = method(CONNECT_N, "getWinner");
+
+    /** ConnectN.hasWinner(). */
+    static final MethodHandle HAS_WINNER = method(CONNECT_N, "hasWinner");
+
+    /** ConnectN.gameEnded(). */
+    static final MethodHandle GAME_ENDED = method(CONNECT_N, "gameEnded");
+
+    /** ConnectN.whosTurn(). */
+    static final MethodHandle WHOS_TURN = method(CONNECT_N, "whosTurn");
+
+    /** ConnectN.legalColumns(). */
+    static final MethodHandle LEGAL_COLUMNS = method(CONNECT_N, "legalColumns");
+
+    /** ConnectN.winningColumns(player). */
+    static final MethodHandle WINNING_COLUMNS = method(CONNECT_N, "winningColumns", PLAYER);
+
+    /** ConnectN.blockingColumns(player). */
+    static final MethodHandle BLOCKING_COLUMNS = method(CONNECT_N, "blockingColumns", PLAYER);
+
+    /** ConnectN.findWinner(). */
+    static final MethodHandle FIND_WINNER = method(CONNECT_N, "findWinner");
+
+    /** ConnectN.getBoard(). */
+    static final MethodHandle GET_BOARD = method(CONNECT_N, "getBoard");
+
+    /** ConnectN.getColumnHeight(x). */
+    static final MethodHandle GET_COLUMN_HEIGHT = method(CONNECT_N, "getColumnHeight", int.class);
+
+    /** ConnectN.getMoveCount(). */
+    static final MethodHandle GET_MOVE_COUNT = method(CONNECT_N, "getMoveCount");
+
+    /** ConnectN.compareBoards(first, second). */
+    static final MethodHandle COMPARE_BOARDS =
+            method(CONNECT_N, "compareBoards", CONNECT_N, CONNECT_N);
+
+    /** ConnectN.createMany(number, width, height, n). */
+    static final MethodHandle CREATE_MANY =
+            method(CONNECT_N, "createMany", int.class, int.class, int.class, int.class);
+
+    /** BoardPool.shared(). */
+    static final MethodHandle SHARED_POOL = method(BOARD_POOL, "shared");
+
+    /** BoardPool.release(board). */
+    static final MethodHandle RELEASE = method(BOARD_POOL, "release", CONNECT_N);
+
+    /** new SparseBoard(width, height, n, players). */
+    static final MethodHandle NEW_SPARSE_BOARD =
+            constructor(SPARSE_BOARD, int.class, int.class, int.class, int.class);
+
+    /** SparseBoard.setBoardAt(player, x). */
+    static final MethodHandle SPARSE_SET_BOARD_AT =
+            method(SPARSE_BOARD, "setBoardAt", PLAYER, int.class);
+
+    /** SparseBoard.undo(). */
+    static final MethodHandle SPARSE_UNDO = method(SPARSE_BOARD, "undo");
+
+    /** SparseBoard.hasWinner(). */
+    static final MethodHandle SPARSE_HAS_WINNER = method(SPARSE_BOARD, "hasWinner");
+
+    /** SparseBoard.getMoveCount(). */
+    static final MethodHandle SPARSE_MOVE_COUNT = method(SPARSE_BOARD, "getMoveCount");
+
+    /** SparseBoard.getMoveAt(index). */
+    static final MethodHandle SPARSE_MOVE_AT = method(SPARSE_BOARD, "getMoveAt", int.class);
+
+    /** SparseBoard.getBoardAt(x, y). */
+    static final MethodHandle SPARSE_BOARD_AT =
+            method(SPARSE_BOARD, "getBoardAt", int.class, int.class);
+
+    /** SparseBoard.getTileCount(). */
+    static final MethodHandle SPARSE_TILE_COUNT = method(SPARSE_BOARD, "getTileCount");
+
+    /** new Leaderboard(). */
+    static final MethodHandle NEW_LEADERBOARD = constructor(LEADERBOARD);
+
+    /** Leaderboard.record(gameID, seated, winner). */
+    static final MethodHandle RECORD =
+            method(LEADERBOARD, "record", int.class, PLAYER_ARRAY, PLAYER);
+
+    /** Leaderboard.getRank(playerID). */
+    static final MethodHandle GET_RANK = method(LEADERBOARD, "getRank", int.class);
+
+    /** Leaderboard.getTop(count). */
+    static final MethodHandle GET_TOP = method(LEADERBOARD, "getTop", int.class);
+
+    /** players[index] = player, for a Player[]. */
+    static final MethodHandle SET_PLAYER =
+            erase(MethodHandles.arrayElementSetter(PLAYER_ARRAY));
+
+    /** Game classes are only reached through the handles above. */
+    private Game() { }
+
+    /**
+     * Load a class from the default package.
+     *
+     * @param name the class name
+     * @return the class
+     */
+    private static Class<?> type(final String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Could not load " + name, e);
+        }
+    }
+
+    /**
+     * Erase the reference types of a method handle to Object.
+     *
+     * @param handle the method handle
+     * @return a handle taking and returning Object in place of any other reference type
+     */
+    private static MethodHandle erase(final MethodHandle handle) {
+        return handle.asType(handle.type().erase());
+    }
+
+    /**
+     * Look up a public method and erase its reference types to Object.
+     *
+     * @param owner the class declaring the method
+     * @param name the method name
+     * @param parameters the parameter types
+     * @return the method handle
+     */
+    private static MethodHandle method(final Class<?> owner, final String name,
+            final Class<?>... parameters) {
+        try {
+            return erase(MethodHandles.publicLookup().unreflect(owner.getMethod(name, parameters)));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Could not find " + owner.getName() + "." + name, e);
+        }
+    }
+
+    /**
+     * Look up a public constructor and erase its reference types to Object.
+     *
+     * @param owner the class
+     * @param parameters the parameter types
+     * @return the method handle
+     */
+    private static MethodHandle constructor(final Class<?> owner, final Class<?>... parameters) {
+        try {
+            return erase(MethodHandles.publicLookup()
+                    .unreflectConstructor(owner.getConstructor(parameters)));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException("Could not find a constructor of "
+                    + owner.getName(), e);
+        }
+    }
+
+    /**
+     * Create the two players the benchmarks alternate between.
+     *
+     * @return the players
+     * @throws Throwable if Player cannot be used
+     */
+    static Object[] players() throws Throwable {
+        return new Object[] {
+            (Object) NEW_PLAYER.invokeExact((Object) "first"),
+            (Object) NEW_PLAYER.invokeExact((Object) "second"),
+        };
+    }
+
+    /**
+     * Build a position by seeded random play that never completes a run, so the same arguments
+     * always give the same position.
+     *
+     * @param width the board width
+     * @param height the board height
+     * @param n the N value
+     * @param fill the fraction of cells to fill
+     * @param players the two players, who alternate
+     * @return the board
+     * @throws Throwable if ConnectN cannot be used
+     */
+    static Object position(final int width, final int height, final int n, final double fill,
+            final Object[] players) throws Throwable {
+        Object board = (Object) NEW_BOARD.invokeExact(width, height, n);
+        Random random = new Random(width * 1000 + height * 100 + n);
+        int target = (int) (width * height * fill);
+        int moves = 0;
+        int stuck = 0;
+        while (moves < target && stuck < width * 8) {
+            Object mover = players[moves % 2];
+            if (!(boolean) SET_BOARD_AT.invokeExact(board, mover, random.nextInt(width))) {
+                stuck++;
+            } else if ((boolean) HAS_WINNER.invokeExact(board)) {
+                boolean undone = (boolean) UNDO.invokeExact(board);
+                stuck++;
+            } else {
+                moves++;
+                stuck = 0;
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Pick an open column, preferring the center.
+     *
+     * @param board the board
+     * @param width the board width
+     * @param height the board height
+     * @return an open column
+     * @throws Throwable if ConnectN cannot be used
+     */
+    static int openColumn(final Object board, final int width, final int height)
+            throws Throwable {
+        for (int i = 0; i < width; i++) {
+            int x = width / 2 + (i + 1) / 2;
+            if (i % 2 == 1) {
+                x = width / 2 - (i + 1) / 2;
+            }
+            if ((int) GET_COLUMN_HEIGHT.invokeExact(board, x) < height) {
+                return x;
+            }
+        }
+        throw new IllegalStateException("Board is full");
+    }
+}
@@ -0,0 +1,126 @@
+package benchmarks;
+
+import java.lang.reflect.Array;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for recording results and ranking players on a leaderboard of PLAYERS players
+ * whose wins follow a long tail, as they would on a busy server.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class LeaderboardBenchmark {
+
+    /** Players on the leaderboard, a power of two. */
+    private static final int PLAYERS = 1 << 20;
+
+    /** The leaderboard. */
+    private Object leaderboard;
+
+    /** Every player on it. */
+    private Object[] field;
+
+    /** The next game ID. */
+    private int game;
+
+    /** A counter the benchmarks pick players with. */
+    private int next;
+
+    /**
+     * Build the leaderboard from two games per player.
+     *
+     * @throws Throwable if the game classes cannot be used
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        leaderboard = (Object) Game.NEW_LEADERBOARD.invokeExact();
+        field = new Object[PLAYERS];
+        for (int i = 0; i < field.length; i++) {
+            field[i] = (Object) Game.RESTORE_PLAYER.invokeExact((Object) ("player" + i), 0, i);
+        }
+        Random random = new Random(PLAYERS);
+        for (int i = 0; i < field.length * 2; i++) {
+            Object first = field[(int) (field.length * Math.pow(random.nextDouble(), 3))];
+            Object second = field[random.nextInt(field.length)];
+            record(first, second);
+        }
+    }
+
+    /**
+     * Record a game between two players, won by the first.
+     *
+     * @param first the winner
+     * @param second the loser
+     * @return whether the game was recorded
+     * @throws Throwable never
+     */
+    private boolean record(final Object first, final Object second) throws Throwable {
+        Object seated = Array.newInstance(Game.PLAYER, 2);
+        Game.SET_PLAYER.invokeExact(seated, 0, first);
+        Game.SET_PLAYER.invokeExact(seated, 1, second);
+        return (boolean) Game.RECORD.invokeExact(leaderboard, game++, seated, first);
+    }
+
+    /**
+     * Record a new game.
+     *
+     * @return whether the game was recorded
+     * @throws Throwable never
+     */
+    @Benchmark
+    public boolean record() throws Throwable {
+        next++;
+        return record(field[next & (PLAYERS - 1)], field[(next * 7) & (PLAYERS - 1)]);
+    }
+
+    /**
+     * Get a player's rank.
+     *
+     * @return the rank
+     * @throws Throwable never
+     */
+    @Benchmark
+    public int rank() throws Throwable {
+        return (int) Game.GET_RANK.invokeExact(leaderboard, next++ & (PLAYERS - 1));
+    }
+
+    /**
+     * Get the top ten players.
+     *
+     * @return how many there are
+     * @throws Throwable never
+     */
+    @Benchmark
+    public int top10() throws Throwable {
+        return ((List<?>) (Object) Game.GET_TOP.invokeExact(leaderboard, 10)).size();
+    }
+
+    /**
+     * Get the top hundred players.
+     *
+     * @return how many there are
+     * @throws Throwable never
+     */
+    @Benchmark
+    public int top100() throws Throwable {
+        return ((List<?>) (Object) Game.GET_TOP.invokeExact(leaderboard, 100)).size();
+    }
+}
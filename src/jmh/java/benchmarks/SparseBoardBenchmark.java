@@ -0,0 +1,126 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for SparseBoard, with up to MOVES tiles scattered over boards up to a million
+ * columns wide by random play that never completes a run.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class SparseBoardBenchmark {
+
+    /** Height of the boards. */
+    private static final int HEIGHT = 16;
+
+    /** N of the boards. */
+    private static final int N = 4;
+
+    /** Moves played before the board is measured. */
+    private static final int MOVES = 128;
+
+    /** The board width. */
+    @Param({"16", "4096", "1048576"})
+    private int width;
+
+    /** The board. */
+    private Object board;
+
+    /** The player whose turn it is. */
+    private Object toMove;
+
+    /** The column of each move played, which the benchmarks cycle through. */
+    private int[] columns;
+
+    /** The next entry of columns to use. */
+    private int next;
+
+    /**
+     * Build the position.
+     *
+     * @throws Throwable if the game classes cannot be used
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        Object[] players = Game.players();
+        board = (Object) Game.NEW_SPARSE_BOARD.invokeExact(width, HEIGHT, N, players.length);
+        Random random = new Random(width);
+        int moves = 0;
+        int stuck = 0;
+        while (moves < MOVES && stuck < MOVES) {
+            Object mover = players[moves % 2];
+            if (!(boolean) Game.SPARSE_SET_BOARD_AT.invokeExact(board, mover,
+                    random.nextInt(width))) {
+                stuck++;
+            } else if ((boolean) Game.SPARSE_HAS_WINNER.invokeExact(board)) {
+                boolean undone = (boolean) Game.SPARSE_UNDO.invokeExact(board);
+                stuck++;
+            } else {
+                moves++;
+                stuck = 0;
+            }
+        }
+        toMove = players[moves % 2];
+        columns = new int[moves];
+        for (int i = 0; i < moves; i++) {
+            columns[i] = (int) Game.SPARSE_MOVE_AT.invokeExact(board, i);
+        }
+    }
+
+    /**
+     * Drop a tile on top of one already played and take it back.
+     *
+     * @return whether the tile was placed
+     * @throws Throwable never
+     */
+    @Benchmark
+    public boolean setBoardAtAndUndo() throws Throwable {
+        int x = columns[next++ % columns.length];
+        boolean placed = (boolean) Game.SPARSE_SET_BOARD_AT.invokeExact(board, toMove, x);
+        if (placed) {
+            boolean undone = (boolean) Game.SPARSE_UNDO.invokeExact(board);
+        }
+        return placed;
+    }
+
+    /**
+     * Look up the bottom tile of a column that has one.
+     *
+     * @return the owner
+     * @throws Throwable never
+     */
+    @Benchmark
+    public Object getBoardAt() throws Throwable {
+        int x = columns[next++ % columns.length];
+        return (Object) Game.SPARSE_BOARD_AT.invokeExact(board, x, 0);
+    }
+
+    /**
+     * Count the tiles.
+     *
+     * @return the count
+     * @throws Throwable never
+     */
+    @Benchmark
+    public int getTileCount() throws Throwable {
+        return (int) Game.SPARSE_TILE_COUNT.invokeExact(board);
+    }
+}
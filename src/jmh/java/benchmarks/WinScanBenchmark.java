@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH comparison of the two full-board win scans in ConnectN: the row-mask kernel, and the
+ * per-cell scan it replaced, which the connectn.cellScan system property switches back to.
+ * <p>
+ * ConnectN reads that property once, when it is loaded, so each kernel runs in forks of its own
+ * and both call the public findWinner exactly as the server does. Positions are built by seeded
+ * random play that never completes a run, so both kernels see the same boards and must scan all
+ * of them without finding a winner, which is the worst case for each.
+ * <p>
+ * The measured call goes through a method handle from {@link Game}, which the JIT inlines.
+ */
+@SuppressWarnings("checkstyle:magicnumber")
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class WinScanBenchmark {
+
+    /** Board width, height and N, separated by x. */
+    @Param({"7x6x4", "8x8x5", "12x12x5", "16x16x4", "16x16x6"})
+    private String configuration;
+
+    /** How full the board is. */
+    @Param({"0.5", "0.9"})
+    private double fill;
+
+    /** The board being scanned. */
+    private Object board;
+
+    /**
+     * Build the position.
+     *
+     * @throws Throwable if the game classes cannot be used
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        String[] sizes = configuration.split("x");
+        board = Game.position(Integer.parseInt(sizes[0]), Integer.parseInt(sizes[1]),
+                Integer.parseInt(sizes[2]), fill, Game.players());
+    }
+
+    /**
+     * Scan with the row-mask kernel.
+     *
+     * @return the winner, always null
+     * @throws Throwable if the scan fails
+     */
+    @Benchmark
+    public Object masks() throws Throwable {
+        return (Object) Game.FIND_WINNER.invokeExact(board);
+    }
+
+    /**
+     * Scan cell by cell.
+     *
+     * @return the winner, always null
+     * @throws Throwable if the scan fails
+     */
+    @Benchmark
+    @Fork(value = 2, jvmArgsAppend = "-Dconnectn.cellScan=true")
+    public Object cells() throws Throwable {
+        return (Object) Game.FIND_WINNER.invokeExact(board);
+    }
+}
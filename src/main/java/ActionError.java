@@ -0,0 +1,45 @@
+/**
+ * Why the web server refused an action.
+ * <p>
+ * Requests are checked before they are dispatched, so a refused request is answered with one of
+ * these codes in the "error" field of the response instead of failing partway through with an
+ * exception.
+ */
+public enum ActionError {
+    /** The request body is not a JSON object. */
+    MALFORMED_REQUEST,
+    /** The action is not one the server knows. */
+    UNKNOWN_ACTION,
+    /** A required parameter is missing or has the wrong type. */
+    MISSING_PARAMETER,
+    /** The width, height and N do not describe a playable board. */
+    INVALID_CONFIGURATION,
+    /** The board does not exist, or no longer exists. */
+    UNKNOWN_BOARD,
+    /** The column is off the board. */
+    INVALID_COLUMN,
+    /** The row given is not where a tile dropped in the column would land. */
+    INVALID_POSITION,
+    /** The column has no room left. */
+    COLUMN_FULL,
+    /** It is the other player's turn. */
+    NOT_YOUR_TURN,
+    /** The game has been won or the board is full. */
+    GAME_OVER,
+    /** There is no move to take back. */
+    NOTHING_TO_UNDO,
+    /** There is no undone move to play again. */
+    NOTHING_TO_REDO,
+    /** The board is getting requests faster than its rate limit allows. */
+    RATE_LIMITED,
+    /** Every search worker is busy and the queue for them is full. */
+    SEARCH_BUSY,
+    /** The board was changed by another request while a move was being searched for. */
+    BOARD_CHANGED,
+    /** The board is for more players than the computer can search for. */
+    TOO_MANY_PLAYERS,
+    /** Too many players are already waiting for a game. */
+    MATCH_BUSY,
+    /** Nobody suitable looked for a game before the longest wait ran out. */
+    NO_MATCH
+}
@@ -0,0 +1,332 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes statistics over a file of game records, in parallel and incrementally.
+ * <p>
+ * The records are read in one pass, in batches that are added up on a pool of worker threads.
+ * The batches are merged in file order, and only a few are in flight at a time, so memory use
+ * does not grow with the archive. After each pass the totals are saved to a checkpoint together
+ * with how far into the archive they go. The next run starts from the checkpoint and only reads
+ * the games written since. With follow set, the job keeps going, picking up new games as the
+ * archive grows. A record still being written at the end of the file is left for the next pass.
+ * <p>
+ * Arguments are key=value pairs:
+ * <ul>
+ * <li>archive: the game record file to read (required)</li>
+ * <li>checkpoint: where to keep the totals between runs (default none, which reads the whole
+ * archive every time)</li>
+ * <li>threads: worker threads (default one per core)</li>
+ * <li>follow: if set, how many milliseconds to wait for new games between passes</li>
+ * </ul>
+ */
+public final class ArchiveAnalytics {
+
+    /** Marks the start of a checkpoint file. */
+    private static final int MAGIC = 0x434e4143;
+
+    /** Checkpoint format version. Bump this when the layout changes. */
+    private static final int VERSION = 1;
+
+    /** Records per batch handed to a worker. */
+    private static final int BATCH_SIZE = 4096;
+
+    /** Batches in flight per worker thread. */
+    private static final int BATCHES_PER_THREAD = 2;
+
+    /** Nanoseconds per second, for timing passes. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** Percent, for printing rates. */
+    private static final double PERCENT = 100.0;
+
+    /** The archive to read. */
+    private final Path archive;
+
+    /** Where totals are kept between runs, or null to keep none. */
+    private final Path checkpoint;
+
+    /** The worker threads. */
+    private final ExecutorService workers;
+
+    /** Number of worker threads. */
+    private final int threads;
+
+    /** Totals over the archive up to offset. */
+    private ArchiveStats totals = new ArchiveStats();
+
+    /** How far into the archive the totals go, or zero if the archive has not been read. */
+    private long offset;
+
+    /**
+     * A batch of records and, once a worker is done with it, their statistics.
+     */
+    private static final class Batch {
+        /** The records. */
+        private final List<GameRecord> records = new ArrayList<GameRecord>(BATCH_SIZE);
+        /** Archive offset just past the last record. */
+        private long end;
+        /** Statistics of the records. */
+        private ArchiveStats stats;
+    }
+
+    /**
+     * Set up a job, loading its checkpoint if there is one.
+     *
+     * @param setArchive the archive to read
+     * @param setCheckpoint where to keep totals between runs, or null to keep none
+     * @param setThreads number of worker threads
+     * @throws IOException if the checkpoint exists but cannot be read
+     */
+    public ArchiveAnalytics(final Path setArchive, final Path setCheckpoint, final int setThreads)
+            throws IOException {
+        archive = setArchive;
+        checkpoint = setCheckpoint;
+        threads = setThreads;
+        workers = Executors.newFixedThreadPool(setThreads, runnable -> {
+            Thread thread = new Thread(runnable, "archive-analytics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (checkpoint != null && Files.exists(checkpoint)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(checkpoint))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("Not an archive analytics checkpoint: " + checkpoint);
+                }
+                offset = in.readLong();
+                totals = ArchiveStats.read(in);
+            }
+        }
+    }
+
+    /**
+     * Add the games written to the archive since the last pass, and save the checkpoint.
+     *
+     * @return the number of games added
+     * @throws IOException if the archive cannot be read or the checkpoint cannot be written
+     */
+    public long pass() throws IOException {
+        long before = totals.getGames() + totals.getSkipped();
+        ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<Future<Batch>>();
+        try (GameRecordReader reader = new GameRecordReader(Files.newInputStream(archive))) {
+            reader.seek(Math.max(offset, reader.getOffset()));
+            Batch batch = new Batch();
+            while (true) {
+                GameRecord record;
+                try {
+                    record = reader.read();
+                } catch (EOFException e) {
+                    record = null;
+                }
+                if (record != null) {
+                    batch.records.add(record);
+                    batch.end = reader.getOffset();
+                }
+                if (batch.records.size() == BATCH_SIZE
+                        || (record == null && !batch.records.isEmpty())) {
+                    Batch full = batch;
+                    inFlight.add(workers.submit(() -> analyze(full)));
+                    batch = new Batch();
+                    if (inFlight.size() >= threads * BATCHES_PER_THREAD) {
+                        merge(inFlight.remove());
+                    }
+                }
+                if (record == null) {
+                    break;
+                }
+            }
+        } finally {
+            while (!inFlight.isEmpty()) {
+                merge(inFlight.remove());
+            }
+        }
+        saveCheckpoint();
+        return totals.getGames() + totals.getSkipped() - before;
+    }
+
+    /**
+     * Add up the records of a batch. Runs on a worker thread.
+     *
+     * @param batch the batch
+     * @return the batch, with its statistics
+     */
+    private static Batch analyze(final Batch batch) {
+        ArchiveStats stats = new ArchiveStats();
+        for (GameRecord record : batch.records) {
+            stats.add(record);
+        }
+        batch.stats = stats;
+        return batch;
+    }
+
+    /**
+     * Wait for a batch and add it to the totals.
+     *
+     * @param pending the batch being added up
+     * @throws IOException if the worker failed
+     */
+    private void merge(final Future<Batch> pending) throws IOException {
+        Batch batch;
+        try {
+            batch = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while adding up games", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not add up games", e.getCause());
+        }
+        totals.merge(batch.stats);
+        offset = batch.end;
+    }
+
+    /**
+     * Atomically replace the checkpoint with the current totals.
+     *
+     * @throws IOException if the write fails
+     */
+    private void saveCheckpoint() throws IOException {
+        if (checkpoint == null) {
+            return;
+        }
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(offset);
+            totals.write(out);
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the totals over every game read so far.
+     *
+     * @return the totals
+     */
+    public ArchiveStats getTotals() {
+        return totals;
+    }
+
+    /**
+     * Get how far into the archive the totals go.
+     *
+     * @return the offset in bytes of the first game not yet added
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    /**
+     * Print a summary of the totals.
+     *
+     * @param stats the totals
+     */
+    private static void report(final ArchiveStats stats) {
+        System.out.printf("%d games, %d records skipped%n", stats.getGames(), stats.getSkipped());
+        for (int[] configuration : stats.getConfigurations()) {
+            int width = configuration[0];
+            int height = configuration[1];
+            int n = configuration[2];
+            long[] totals = stats.getTotals(width, height, n);
+            long games = totals[ArchiveStats.GAMES];
+            long finished = games - totals[ArchiveStats.UNFINISHED];
+            long wins = totals[ArchiveStats.FIRST_MOVER_WINS] + totals[ArchiveStats.OTHER_WINS];
+            System.out.println();
+            System.out.printf("%dx%d n=%d: %d games, %d unfinished, avg length %.1f%n", width,
+                    height, n, games, totals[ArchiveStats.UNFINISHED],
+                    (double) totals[ArchiveStats.MOVES] / Math.max(1, games));
+            System.out.printf("  first mover won %.1f%%, lost %.1f%%, drew %.1f%%%n",
+                    PERCENT * totals[ArchiveStats.FIRST_MOVER_WINS] / Math.max(1, finished),
+                    PERCENT * totals[ArchiveStats.OTHER_WINS] / Math.max(1, finished),
+                    PERCENT * totals[ArchiveStats.DRAWS] / Math.max(1, finished));
+            System.out.printf("  wins on rows %.1f%%, columns %.1f%%, rising %.1f%%,"
+                    + " falling %.1f%%%n",
+                    PERCENT * totals[ArchiveStats.ROW_WINS] / Math.max(1, wins),
+                    PERCENT * totals[ArchiveStats.COLUMN_WINS] / Math.max(1, wins),
+                    PERCENT * totals[ArchiveStats.RISING_WINS] / Math.max(1, wins),
+                    PERCENT * totals[ArchiveStats.FALLING_WINS] / Math.max(1, wins));
+            long[][] openings = stats.getOpenings(width, height, n);
+            for (int x = 0; x < width; x++) {
+                long opened = openings[x][ArchiveStats.GAMES];
+                if (opened == 0) {
+                    continue;
+                }
+                System.out.printf("  opening %2d: %10d games  won %5.1f%%  lost %5.1f%%"
+                        + "  drew %5.1f%%%n", x, opened,
+                        PERCENT * openings[x][ArchiveStats.FIRST_MOVER_WINS] / opened,
+                        PERCENT * openings[x][ArchiveStats.OTHER_WINS] / opened,
+                        PERCENT * openings[x][ArchiveStats.DRAWS] / opened);
+            }
+        }
+    }
+
+    /**
+     * Run the job from the command line.
+     *
+     * @param args key=value arguments, described in the class documentation
+     * @throws IOException if the archive or checkpoint cannot be read or written
+     * @throws InterruptedException if interrupted while following the archive
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Arguments must look like key=value: " + arg);
+            }
+            options.put(parts[0], parts[1]);
+        }
+        String archive = options.get("archive");
+        if (archive == null) {
+            throw new IllegalArgumentException("archive=<file> is required");
+        }
+        Path checkpoint = null;
+        if (options.containsKey("checkpoint")) {
+            checkpoint = Paths.get(options.get("checkpoint"));
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+        ArchiveAnalytics job = new ArchiveAnalytics(Paths.get(archive), checkpoint, threads);
+        try {
+            do {
+                long start = System.nanoTime();
+                long added = job.pass();
+                double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+                if (added > 0 || !options.containsKey("follow")) {
+                    System.out.printf("Added %d games in %.1fs (%.0f games/s)%n", added, seconds,
+                            added / seconds);
+                    report(job.getTotals());
+                }
+                if (options.containsKey("follow")) {
+                    Thread.sleep(Long.parseLong(options.get("follow")));
+                }
+            } while (options.containsKey("follow"));
+        } finally {
+            job.shutdown();
+        }
+    }
+}
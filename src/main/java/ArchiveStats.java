@@ -0,0 +1,335 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregate statistics over archived ConnectN games, by board configuration.
+ * <p>
+ * For every width, height and N seen, this counts how the player who moved first did, how long
+ * games lasted, which kind of line ended them, and how each opening column did. Games are added
+ * straight from their records: the moves are dropped into one row mask per seat, and since a
+ * legal game ends at its first run of N, only the last move is checked for one. Nothing about a
+ * game is kept once it is added.
+ * <p>
+ * Like SimulationStats, each worker fills its own instance and instances are merged, so adding a
+ * game needs no synchronization. Instances can also be written out and read back, so a job can
+ * pick up where it left off and only add games it has not seen.
+ */
+public class ArchiveStats {
+
+    /** Index of the game count in a totals or openings array. */
+    public static final int GAMES = 0;
+    /** Index of games won by the player who moved first. */
+    public static final int FIRST_MOVER_WINS = 1;
+    /** Index of games won by any other player. */
+    public static final int OTHER_WINS = 2;
+    /** Index of games that filled the board without a winner. */
+    public static final int DRAWS = 3;
+    /** Length of an openings array, which is indexed by GAMES through DRAWS. */
+    public static final int OPENING_TOTALS = 4;
+    /** Index of games recorded before they were won or drawn. */
+    public static final int UNFINISHED = 4;
+    /** Index of the total number of moves. */
+    public static final int MOVES = 5;
+    /**
+     * Index of games ended by a run along a row. The line counts from ROW_WINS through
+     * FALLING_WINS add up to the number of won games: a winning move that completes runs in
+     * several directions is counted once, by the first of row, column, rising and falling.
+     */
+    public static final int ROW_WINS = 6;
+    /** Index of games ended by a run up a column. */
+    public static final int COLUMN_WINS = 7;
+    /** Index of games ended by a run rising to the right. */
+    public static final int RISING_WINS = 8;
+    /** Index of games ended by a run falling to the right. */
+    public static final int FALLING_WINS = 9;
+    /** Length of a totals array. */
+    public static final int TOTALS = 10;
+
+    /** Column and row steps of the lines counted by ROW_WINS through FALLING_WINS, in order. */
+    private static final int[][] LINES = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+    /** Bits of a configuration key that hold each of width, height and N. */
+    private static final int KEY_BITS = 8;
+
+    /**
+     * Totals and openings of one configuration.
+     */
+    private static final class Configuration {
+        /** Totals, indexed by GAMES, FIRST_MOVER_WINS and so on. */
+        private final long[] totals = new long[TOTALS];
+        /** Totals by the column of the first move, indexed by GAMES through DRAWS. */
+        private final long[][] openings = new long[ConnectN.MAX_WIDTH][OPENING_TOTALS];
+    }
+
+    /** Configurations seen, by key. */
+    private final Map<Integer, Configuration> configurations =
+            new TreeMap<Integer, Configuration>();
+
+    /** Records that were not valid ConnectN games. */
+    private long skipped;
+
+    /** Scratch column heights for the game being added. */
+    private final int[] heights = new int[ConnectN.MAX_WIDTH];
+
+    /** Scratch tiles of each seat by row for the game being added. */
+    private final int[][] rows = new int[ConnectN.MAX_PLAYERS][ConnectN.MAX_HEIGHT];
+
+    /**
+     * Add one game.
+     *
+     * @param record the game
+     */
+    public void add(final GameRecord record) {
+        int width = record.getWidth();
+        int height = record.getHeight();
+        int n = record.getN();
+        int seats = record.getSeatCount();
+        int moves = record.getMoveCount();
+        if (!ConnectN.isValid(width, height, n) || seats > ConnectN.MAX_PLAYERS) {
+            skipped++;
+            return;
+        }
+        if (moves == 0) {
+            Configuration configuration = configuration(width, height, n);
+            configuration.totals[GAMES]++;
+            configuration.totals[UNFINISHED]++;
+            return;
+        }
+
+        for (int seat = 0; seat < seats; seat++) {
+            Arrays.fill(rows[seat], 0, height, 0);
+        }
+        Arrays.fill(heights, 0, width, 0);
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < moves; i++) {
+            x = record.getColumn(i);
+            if (heights[x] >= height) {
+                skipped++;
+                return;
+            }
+            y = heights[x];
+            heights[x]++;
+            rows[record.getSeat(i)][y] |= 1 << x;
+        }
+
+        Configuration configuration = configuration(width, height, n);
+        long[] totals = configuration.totals;
+        int[] winnerRows = rows[record.getSeat(moves - 1)];
+        int outcome = UNFINISHED;
+        for (int line = 0; line < LINES.length && outcome == UNFINISHED; line++) {
+            int dx = LINES[line][0];
+            int dy = LINES[line][1];
+            if (1 + run(winnerRows, width, height, x, y, dx, dy)
+                    + run(winnerRows, width, height, x, y, -dx, -dy) >= n) {
+                totals[ROW_WINS + line]++;
+                outcome = OTHER_WINS;
+                if (record.getSeat(moves - 1) == 0) {
+                    outcome = FIRST_MOVER_WINS;
+                }
+            }
+        }
+        if (outcome == UNFINISHED && moves == width * height) {
+            outcome = DRAWS;
+        }
+        totals[GAMES]++;
+        totals[outcome]++;
+        totals[MOVES] += moves;
+        if (outcome != UNFINISHED) {
+            long[] opening = configuration.openings[record.getColumn(0)];
+            opening[GAMES]++;
+            opening[outcome]++;
+        }
+    }
+
+    /**
+     * Count a seat's consecutive tiles walking away from a cell.
+     *
+     * @param tiles the seat's tiles by row
+     * @param width the width of the board
+     * @param height the height of the board
+     * @param x the starting column, which is not counted
+     * @param y the starting row, which is not counted
+     * @param dx column step
+     * @param dy row step
+     * @return the number of tiles in a row
+     */
+    private static int run(final int[] tiles, final int width, final int height, final int x,
+            final int y, final int dx, final int dy) {
+        int count = 0;
+        int cx = x + dx;
+        int cy = y + dy;
+        while (0 <= cx && cx < width && 0 <= cy && cy < height && (tiles[cy] & (1 << cx)) != 0) {
+            count++;
+            cx += dx;
+            cy += dy;
+        }
+        return count;
+    }
+
+    /**
+     * Add another set of statistics into this one.
+     *
+     * @param other the statistics to add
+     */
+    public void merge(final ArchiveStats other) {
+        for (Map.Entry<Integer, Configuration> entry : other.configurations.entrySet()) {
+            Configuration into = configurations.computeIfAbsent(entry.getKey(),
+                key -> new Configuration());
+            SimulationStats.add(into.totals, entry.getValue().totals);
+            for (int x = 0; x < into.openings.length; x++) {
+                SimulationStats.add(into.openings[x], entry.getValue().openings[x]);
+            }
+        }
+        skipped += other.skipped;
+    }
+
+    /**
+     * Get the configurations that games have been added for.
+     *
+     * @return the width, height and N of each, in order
+     */
+    public List<int[]> getConfigurations() {
+        List<int[]> seen = new ArrayList<int[]>();
+        for (int key : configurations.keySet()) {
+            int mask = (1 << KEY_BITS) - 1;
+            seen.add(new int[] {key >>> (2 * KEY_BITS), (key >>> KEY_BITS) & mask, key & mask});
+        }
+        return seen;
+    }
+
+    /**
+     * Get the totals for a configuration.
+     *
+     * @param width the width
+     * @param height the height
+     * @param n the N value
+     * @return a copy of the totals, indexed by GAMES, FIRST_MOVER_WINS and so on
+     */
+    public long[] getTotals(final int width, final int height, final int n) {
+        Configuration configuration = configurations.get(key(width, height, n));
+        if (configuration == null) {
+            return new long[TOTALS];
+        }
+        return configuration.totals.clone();
+    }
+
+    /**
+     * Get the totals by opening column for a configuration. Unfinished games are left out.
+     *
+     * @param width the width
+     * @param height the height
+     * @param n the N value
+     * @return a copy of the totals for each first column, indexed by GAMES through DRAWS
+     */
+    public long[][] getOpenings(final int width, final int height, final int n) {
+        long[][] openings = new long[width][OPENING_TOTALS];
+        Configuration configuration = configurations.get(key(width, height, n));
+        if (configuration != null) {
+            for (int x = 0; x < width; x++) {
+                openings[x] = configuration.openings[x].clone();
+            }
+        }
+        return openings;
+    }
+
+    /**
+     * Get the number of games added, over all configurations.
+     *
+     * @return the number of games
+     */
+    public long getGames() {
+        long games = 0;
+        for (Configuration configuration : configurations.values()) {
+            games += configuration.totals[GAMES];
+        }
+        return games;
+    }
+
+    /**
+     * Get the number of records that were not valid ConnectN games and were left out.
+     *
+     * @return the number of records skipped
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Write the statistics, to be read back by read.
+     *
+     * @param out where to write
+     * @throws IOException if the stream fails
+     */
+    public void write(final DataOutputStream out) throws IOException {
+        out.writeLong(skipped);
+        out.writeInt(configurations.size());
+        for (Map.Entry<Integer, Configuration> entry : configurations.entrySet()) {
+            out.writeInt(entry.getKey());
+            for (long total : entry.getValue().totals) {
+                out.writeLong(total);
+            }
+            for (long[] opening : entry.getValue().openings) {
+                for (long total : opening) {
+                    out.writeLong(total);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read statistics written by write.
+     *
+     * @param in where to read from
+     * @return the statistics
+     * @throws IOException if the stream fails
+     */
+    public static ArchiveStats read(final DataInputStream in) throws IOException {
+        ArchiveStats stats = new ArchiveStats();
+        stats.skipped = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Configuration configuration = new Configuration();
+            stats.configurations.put(in.readInt(), configuration);
+            for (int t = 0; t < TOTALS; t++) {
+                configuration.totals[t] = in.readLong();
+            }
+            for (long[] opening : configuration.openings) {
+                for (int t = 0; t < OPENING_TOTALS; t++) {
+                    opening[t] = in.readLong();
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Get the totals of a configuration, adding it if it has not been seen.
+     *
+     * @param width the width
+     * @param height the height
+     * @param n the N value
+     * @return the configuration's totals
+     */
+    private Configuration configuration(final int width, final int height, final int n) {
+        return configurations.computeIfAbsent(key(width, height, n), key -> new Configuration());
+    }
+
+    /**
+     * Pack a configuration into a key that sorts by width, then height, then N.
+     *
+     * @param width the width
+     * @param height the height
+     * @param n the N value
+     * @return the key
+     */
+    private static int key(final int width, final int height, final int n) {
+        return (width << (2 * KEY_BITS)) | (height << KEY_BITS) | n;
+    }
+}
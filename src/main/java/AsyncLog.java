@@ -0,0 +1,437 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A structured log that never blocks the threads writing to it.
+ * <p>
+ * Entries are key-value pairs, written one JSON object per line. Logging an entry only claims a
+ * slot in a bounded ring buffer with a compare-and-set and stores a reference; a background
+ * thread formats the entries and writes them to disk. If the buffer is full, the entry is dropped
+ * and counted instead of waiting, and the writer notes in the log how many entries were lost.
+ * <p>
+ * Entries marked as sampleable, like routine access records, are only kept one time in
+ * {@link #SAMPLING} once the buffer is more than half full, which leaves the remaining room for
+ * errors during a storm. Files are rotated when they reach a size limit, keeping a fixed number
+ * of old files as file.1, file.2 and so on.
+ */
+public class AsyncLog {
+
+    /** Once the buffer is half full, sampleable entries are kept one time in this many. */
+    public static final int SAMPLING = 16;
+
+    /** How long the writer sleeps when there is nothing to write. */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * One log entry, as handed from a logging thread to the writer.
+     */
+    private static final class Entry {
+        /** When the entry was logged, in milliseconds since the epoch. */
+        private final long time;
+        /** Alternating keys and values. */
+        private final Object[] fields;
+
+        /**
+         * Create an entry.
+         *
+         * @param setTime when the entry was logged
+         * @param setFields alternating keys and values
+         */
+        Entry(final long setTime, final Object[] setFields) {
+            time = setTime;
+            fields = setFields;
+        }
+    }
+
+    /** The ring buffer. A slot is null until an entry is published in it. */
+    private final AtomicReferenceArray<Entry> slots;
+
+    /** Mask from a sequence number to a slot index. */
+    private final int mask;
+
+    /** Sequence number of the next slot to claim. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Sequence number of the next slot to write. Only the writer advances it. */
+    private final AtomicLong head = new AtomicLong();
+
+    /** Entries accepted into the buffer. */
+    private final LongAdder logged = new LongAdder();
+
+    /** Entries dropped because the buffer was full. */
+    private final LongAdder dropped = new LongAdder();
+
+    /** Sampleable entries skipped because the buffer was busy. */
+    private final LongAdder sampledOut = new LongAdder();
+
+    /** The file being written. */
+    private final Path file;
+
+    /** Size at which the file is rotated. */
+    private final long maxFileBytes;
+
+    /** Rotated files kept. */
+    private final int maxFiles;
+
+    /** The writer thread. */
+    private final Thread writer;
+
+    /** Whether the log is still accepting entries. */
+    private volatile boolean open = true;
+
+    /** The open file, used only by the writer. */
+    private OutputStream out;
+
+    /** Bytes in the open file, used only by the writer. */
+    private long fileBytes;
+
+    /** Drops already reported in the log, used only by the writer. */
+    private long droppedReported;
+
+    /**
+     * Create a log and start its writer.
+     * <p>
+     * The log is flushed and closed when the JVM shuts down.
+     *
+     * @param setFile the file to write; its directory is created if needed
+     * @param capacity entries the buffer holds, rounded up to a power of two
+     * @param setMaxFileBytes size at which the file is rotated
+     * @param setMaxFiles rotated files kept
+     */
+    public AsyncLog(final Path setFile, final int capacity, final long setMaxFileBytes,
+            final int setMaxFiles) {
+        this(setFile, capacity, setMaxFileBytes, setMaxFiles, true);
+    }
+
+    /**
+     * Create a log, starting its writer now or leaving that for later.
+     * <p>
+     * A log whose writer has not started keeps everything in its buffer, which lets tests fill it.
+     *
+     * @param setFile the file to write; its directory is created if needed
+     * @param capacity entries the buffer holds, rounded up to a power of two
+     * @param setMaxFileBytes size at which the file is rotated
+     * @param setMaxFiles rotated files kept
+     * @param startWriter true to start the writer now, false to wait for start
+     */
+    AsyncLog(final Path setFile, final int capacity, final long setMaxFileBytes,
+            final int setMaxFiles, final boolean startWriter) {
+        if (capacity < 2 || capacity > (1 << (Integer.SIZE - 2))) {
+            throw new IllegalArgumentException("Bad log buffer capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        slots = new AtomicReferenceArray<Entry>(size);
+        mask = size - 1;
+        file = setFile;
+        maxFileBytes = setMaxFileBytes;
+        maxFiles = setMaxFiles;
+
+        writer = new Thread(this::drainUntilClosed, "log-writer-" + file.getFileName());
+        writer.setDaemon(true);
+        if (startWriter) {
+            start();
+        }
+    }
+
+    /**
+     * Start the writer, and flush and close the log when the JVM shuts down.
+     */
+    synchronized void start() {
+        if (writer.getState() == Thread.State.NEW) {
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+        }
+    }
+
+    /**
+     * Log an entry that must not be sampled away, like an error.
+     *
+     * @param fields alternating keys and values
+     * @return true if the entry was accepted, false if it was dropped
+     */
+    public boolean log(final Object... fields) {
+        return offer(new Entry(System.currentTimeMillis(), fields));
+    }
+
+    /**
+     * Log a routine entry, which is sampled once the buffer is half full.
+     *
+     * @param fields alternating keys and values
+     * @return true if the entry was accepted, false if it was sampled out or dropped
+     */
+    public boolean logSampled(final Object... fields) {
+        if (tail.get() - head.get() > mask / 2
+                && ThreadLocalRandom.current().nextInt(SAMPLING) != 0) {
+            sampledOut.increment();
+            return false;
+        }
+        return offer(new Entry(System.currentTimeMillis(), fields));
+    }
+
+    /**
+     * Put an entry in the buffer if there is room.
+     *
+     * @param entry the entry
+     * @return true if the entry was accepted, false if it was dropped
+     */
+    private boolean offer(final Entry entry) {
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (!open || sequence - head.get() > mask) {
+                dropped.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+        slots.lazySet((int) sequence & mask, entry);
+        logged.increment();
+        return true;
+    }
+
+    /**
+     * Get the number of entries accepted.
+     *
+     * @return the count
+     */
+    public long getLogged() {
+        return logged.sum();
+    }
+
+    /**
+     * Get the number of entries dropped because the buffer was full.
+     *
+     * @return the count
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Get the number of routine entries skipped by sampling.
+     *
+     * @return the count
+     */
+    public long getSampledOut() {
+        return sampledOut.sum();
+    }
+
+    /**
+     * Stop accepting entries, write everything buffered, and close the file.
+     */
+    public void close() {
+        open = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The writer thread: write entries as they arrive until the log is closed.
+     */
+    private void drainUntilClosed() {
+        while (open || head.get() != tail.get()) {
+            if (drain() > 0) {
+                continue;
+            }
+            if (head.get() != tail.get()) {
+                // A slot has been claimed but its entry is not published yet; it will be soon.
+                Thread.yield();
+            } else {
+                flush();
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+        flush();
+        closeFile();
+    }
+
+    /**
+     * Write every entry that has been published so far.
+     *
+     * @return the number of entries written
+     */
+    private int drain() {
+        int written = 0;
+        long sequence = head.get();
+        while (true) {
+            int index = (int) sequence & mask;
+            Entry entry = slots.get(index);
+            if (entry == null) {
+                break;
+            }
+            slots.lazySet(index, null);
+            sequence++;
+            head.lazySet(sequence);
+            write(format(entry.time, entry.fields));
+            written++;
+        }
+        long droppedNow = dropped.sum();
+        if (droppedNow != droppedReported) {
+            write(format(System.currentTimeMillis(), new Object[] {"event", "dropped",
+                "count", droppedNow - droppedReported}));
+            droppedReported = droppedNow;
+        }
+        return written;
+    }
+
+    /**
+     * Format an entry as one line of JSON.
+     *
+     * @param time when the entry was logged
+     * @param fields alternating keys and values
+     * @return the line, including the newline
+     */
+    static String format(final long time, final Object[] fields) {
+        StringBuilder line = new StringBuilder();
+        line.append("{\"time\":\"").append(Instant.ofEpochMilli(time)).append('"');
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            line.append(",\"");
+            escape(line, String.valueOf(fields[i]));
+            line.append("\":");
+            Object value = fields[i + 1];
+            if (value == null || value instanceof Number || value instanceof Boolean) {
+                line.append(value);
+            } else {
+                line.append('"');
+                escape(line, value.toString());
+                line.append('"');
+            }
+        }
+        return line.append("}\n").toString();
+    }
+
+    /**
+     * Append a string with JSON escapes.
+     *
+     * @param line where to append
+     * @param value the string
+     */
+    private static void escape(final StringBuilder line, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c == '\n') {
+                line.append("\\n");
+            } else if (c < ' ') {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+    }
+
+    /**
+     * Write a line, rotating the file first if it would grow too large.
+     *
+     * @param line the line
+     */
+    private void write(final String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (out != null && fileBytes + bytes.length > maxFileBytes) {
+                closeFile();
+                rotate();
+            }
+            if (out == null) {
+                openFile();
+            }
+            out.write(bytes);
+            fileBytes += bytes.length;
+        } catch (IOException e) {
+            System.err.println("Could not write " + file + ": " + e);
+            closeFile();
+        }
+    }
+
+    /**
+     * Open the log file for appending.
+     *
+     * @throws IOException if the file cannot be opened
+     */
+    private void openFile() throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND));
+        fileBytes = Files.size(file);
+    }
+
+    /**
+     * Shift rotated files up by one, dropping the oldest, and move the current file to file.1.
+     *
+     * @throws IOException if a file cannot be moved
+     */
+    private void rotate() throws IOException {
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = rotated(i);
+            if (Files.exists(from)) {
+                Files.move(from, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Get the path of a rotated file.
+     *
+     * @param generation 1 for the newest rotated file
+     * @return the path
+     */
+    private Path rotated(final int generation) {
+        return Paths.get(file.toString() + "." + generation);
+    }
+
+    /**
+     * Flush buffered output to the file.
+     */
+    private void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Could not write " + file + ": " + e);
+            closeFile();
+        }
+    }
+
+    /**
+     * Close the file, if it is open.
+     */
+    private void closeFile() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Could not close " + file + ": " + e);
+        }
+        out = null;
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded pool of empty ConnectN boards, kept separately for each width, height and N.
+ * <p>
+ * Boards that are no longer needed can be released back to the pool instead of being left for
+ * the garbage collector. Acquiring a board of the same configuration then clears and reuses one
+ * instead of allocating a new board and its arrays. Each reused board gets a fresh ID, so to
+ * callers it is indistinguishable from a new one.
+ * <p>
+ * Each configuration holds at most a fixed number of boards; releases beyond that are simply
+ * dropped. The pool is safe to use from multiple threads.
+ */
+public class BoardPool {
+
+    /** Boards kept per configuration by the shared pool. */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** Bits used for each of width, height and N in a configuration key. */
+    private static final int KEY_BITS = 8;
+
+    /** The pool used by {@link ConnectN#createMany(int, int, int, int) createMany}. */
+    private static final BoardPool SHARED = new BoardPool(DEFAULT_CAPACITY);
+
+    /** Boards kept per configuration. */
+    private final int capacity;
+
+    /** Free boards by configuration key. */
+    private final ConcurrentMap<Integer, BlockingQueue<ConnectN>> free =
+            new ConcurrentHashMap<Integer, BlockingQueue<ConnectN>>();
+
+    /**
+     * Create an empty pool.
+     *
+     * @param setCapacity the most boards kept for any one configuration
+     */
+    public BoardPool(final int setCapacity) {
+        if (setCapacity < 1) {
+            throw new IllegalArgumentException("Pool capacity must be at least one");
+        }
+        capacity = setCapacity;
+    }
+
+    /**
+     * Get the pool shared by the whole process.
+     *
+     * @return the shared pool
+     */
+    public static BoardPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get an empty board, reusing a released one if possible.
+     * <p>
+     * Invalid configurations are not pooled. They are passed straight to the ConnectN
+     * constructor, which leaves the invalid values unset as usual.
+     *
+     * @param width the width of the board
+     * @param height the height of the board
+     * @param n the N value of the board
+     * @return an empty board with a new ID
+     */
+    public ConnectN acquire(final int width, final int height, final int n) {
+        if (ConnectN.isValid(width, height, n)) {
+            ConnectN board = queue(width, height, n).poll();
+            if (board != null) {
+                board.renew();
+                return board;
+            }
+        }
+        return new ConnectN(width, height, n);
+    }
+
+    /**
+     * Get an empty board with an ID that was issued before, reusing a released one if possible.
+     * <p>
+     * Used to bring back boards that were stored away. The board does not count as a new game.
+     *
+     * @param id the ID the board was originally issued
+     * @param width the width of the board
+     * @param height the height of the board
+     * @param n the N value of the board
+     * @return an empty board with the given ID
+     */
+    public ConnectN restore(final int id, final int width, final int height, final int n) {
+        if (ConnectN.isValid(width, height, n)) {
+            ConnectN board = queue(width, height, n).poll();
+            if (board != null) {
+                board.renew(id);
+                return board;
+            }
+        }
+        return ConnectN.restore(id, width, height, n);
+    }
+
+    /**
+     * Return a board to the pool.
+     * <p>
+     * The caller must not use the board afterward. It is cleared right away so that it does not
+     * keep its players reachable while it waits to be reused.
+     *
+     * @param board the board to release
+     * @return true if the board was pooled, false if it was dropped
+     */
+    public boolean release(final ConnectN board) {
+        if (board == null
+                || !ConnectN.isValid(board.getWidth(), board.getHeight(), board.getN())) {
+            return false;
+        }
+        board.reset();
+        board.title = null;
+        return queue(board.getWidth(), board.getHeight(), board.getN()).offer(board);
+    }
+
+    /**
+     * Allocate boards ahead of time so that later acquires do not have to.
+     *
+     * @param width the width of the boards
+     * @param height the height of the boards
+     * @param n the N value of the boards
+     * @param count how many boards to add, up to the pool capacity
+     */
+    public void prefill(final int width, final int height, final int n, final int count) {
+        if (!ConnectN.isValid(width, height, n)) {
+            throw new IllegalArgumentException("Invalid configuration");
+        }
+        BlockingQueue<ConnectN> queue = queue(width, height, n);
+        for (int i = 0; i < count && queue.remainingCapacity() > 0; i++) {
+            queue.offer(new ConnectN(width, height, n));
+        }
+    }
+
+    /**
+     * Get the number of free boards of a configuration.
+     *
+     * @param width the width of the boards
+     * @param height the height of the boards
+     * @param n the N value of the boards
+     * @return how many boards are waiting to be reused
+     */
+    public int available(final int width, final int height, final int n) {
+        return queue(width, height, n).size();
+    }
+
+    /**
+     * Get the queue of free boards for a configuration, creating it if needed.
+     *
+     * @param width the width of the boards
+     * @param height the height of the boards
+     * @param n the N value of the boards
+     * @return the queue
+     */
+    private BlockingQueue<ConnectN> queue(final int width, final int height, final int n) {
+        int key = (((width << KEY_BITS) | height) << KEY_BITS) | n;
+        BlockingQueue<ConnectN> queue = free.get(key);
+        if (queue == null) {
+            queue = free.computeIfAbsent(key,
+                unused -> new ArrayBlockingQueue<ConnectN>(capacity));
+        }
+        return queue;
+    }
+}
@@ -0,0 +1,583 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Idle boards, each packed into a fixed-size slab of memory outside the Java heap.
+ * <p>
+ * A live ConnectN carries its cells, move history, per-row bitmasks and search bookkeeping in a
+ * dozen small objects, around a kilobyte even for a small board. A parked board takes
+ * {@value #SLAB_BYTES} bytes off the heap and 16 bytes of index on it, so a server can hold
+ * millions of slow games without a large heap. A slab holds the board's ID, dimensions, N and
+ * number of players, the players who have moved so far, and every move in the order it was
+ * played, including undone moves that can still be redone. The cells, column heights, turn and
+ * winner all follow from the moves, so taking a board out replays them onto an empty board from
+ * a {@link BoardPool}.
+ * <p>
+ * Slabs are big-endian, like everything written with DataOutputStream, so a snapshot can copy
+ * them out and load them back byte for byte without replaying any moves.
+ * <p>
+ * Boards with a title, with more than two players who have moved, or with a player name that is
+ * null or longer than {@value #NAME_BYTES} bytes of UTF-8 do not fit and are refused. The store
+ * is not safe for use from more than one thread at a time.
+ */
+public class BoardSlabs {
+
+    /** Bytes in one slab. */
+    public static final int SLAB_BYTES = 352;
+
+    /** Most bytes of UTF-8 kept for a player's name. */
+    public static final int NAME_BYTES = 31;
+
+    /** Offset of the board ID in a slab. */
+    private static final int ID = 0;
+
+    /** Offset of the width. */
+    private static final int WIDTH = 4;
+
+    /** Offset of the height. */
+    private static final int HEIGHT = 5;
+
+    /** Offset of N. */
+    private static final int N = 6;
+
+    /** Offset of the number of seated players. */
+    private static final int SEATS = 7;
+
+    /** Offset of the number of moves recorded, including undone ones. */
+    private static final int MOVES = 8;
+
+    /** Offset of the number of recorded moves that were undone. */
+    private static final int REDO = 10;
+
+    /** Offset of the number of players the game is for. */
+    private static final int PLAYERS = 12;
+
+    /** Offset of the first seat record. */
+    private static final int SEAT_RECORDS = 16;
+
+    /** Bytes in a seat record: player ID, score, name length and name. */
+    private static final int SEAT_BYTES = 40;
+
+    /** Offset of the score in a seat record. */
+    private static final int SEAT_SCORE = 4;
+
+    /** Offset of the name length in a seat record. */
+    private static final int SEAT_NAME_LENGTH = 8;
+
+    /** Offset of the name in a seat record. */
+    private static final int SEAT_NAME = 9;
+
+    /** Players a slab has room for. */
+    private static final int MAX_SEATS = 2;
+
+    /** Offset of the moves, one byte each: the column, and the seat above it. */
+    private static final int MOVE_BYTES = SEAT_RECORDS + MAX_SEATS * SEAT_BYTES;
+
+    /** Position of the seat in a move byte. */
+    private static final int SEAT_SHIFT = 4;
+
+    /** Mask for the column in a move byte. */
+    private static final int COLUMN_MASK = 0x0f;
+
+    /** Log2 of the slabs in one buffer. */
+    private static final int SEGMENT_BITS = 14;
+
+    /** Slabs in one buffer. */
+    private static final int SEGMENT_SLABS = 1 << SEGMENT_BITS;
+
+    /** Marks an empty index entry. */
+    private static final int EMPTY = -1;
+
+    /** Move count that marks a freed slab. */
+    private static final short FREE = -1;
+
+    /** Multiplier for spreading board IDs over the index. */
+    private static final int SPREAD = 0x9e3779b9;
+
+    /** Index entries to start with. */
+    private static final int INITIAL_INDEX = 1024;
+
+    /** Empty boards to replay moves onto, and to return boards to. */
+    private final BoardPool pool;
+
+    /** Slab buffers, allocated as they are needed. */
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+
+    /** Slabs that were freed and can be reused. */
+    private int[] freeSlabs = new int[INITIAL_INDEX];
+
+    /** Number of freed slabs. */
+    private int freeCount;
+
+    /** Slabs handed out at least once. */
+    private int slabsUsed;
+
+    /** Board IDs in the index, found by linear probing. */
+    private int[] indexIDs = new int[INITIAL_INDEX];
+
+    /** Slab of each board in the index, or EMPTY. */
+    private int[] indexSlabs = new int[INITIAL_INDEX];
+
+    /** Boards parked. */
+    private int size;
+
+    /** Seat of each move of the board being parked. */
+    private final byte[] seatScratch = new byte[ConnectN.MAX_WIDTH * ConnectN.MAX_HEIGHT];
+
+    /**
+     * Create an empty store.
+     *
+     * @param setPool where empty boards come from, and where parked boards go
+     */
+    public BoardSlabs(final BoardPool setPool) {
+        pool = setPool;
+        Arrays.fill(indexSlabs, EMPTY);
+    }
+
+    /**
+     * Pack a board into a slab.
+     * <p>
+     * The board is left as it was. The caller should stop using it, and can release it to the
+     * pool once it is parked.
+     *
+     * @param board the board, whose ID must not already be parked
+     * @return true if the board was parked, false if it does not fit in a slab
+     */
+    public boolean park(final ConnectN board) {
+        if (board.title != null || find(board.getID()) >= 0
+                || !ConnectN.isValid(board.getWidth(), board.getHeight(), board.getN())) {
+            return false;
+        }
+
+        /*
+         * Undone moves are replayed to read them, then taken back again.
+         */
+        int redo = board.getRedoCount();
+        for (int i = 0; i < redo; i++) {
+            board.redo();
+        }
+        Player[] seats = new Player[MAX_SEATS];
+        byte[][] names = new byte[MAX_SEATS][];
+        int seatCount = 0;
+        int moves = board.getMoveCount();
+        int[] heights = new int[board.getWidth()];
+        boolean fits = true;
+        for (int i = 0; i < moves && fits; i++) {
+            int column = board.getMoveAt(i);
+            Player mover = board.getBoardAt(column, heights[column]);
+            heights[column]++;
+            int seat = 0;
+            while (seat < seatCount && !seats[seat].equals(mover)) {
+                seat++;
+            }
+            if (seat == MAX_SEATS) {
+                fits = false;
+            } else if (seat == seatCount) {
+                names[seat] = nameBytes(mover);
+                fits = names[seat] != null;
+                seats[seat] = mover;
+                seatCount++;
+            }
+            seatScratch[i] = (byte) seat;
+        }
+        if (fits) {
+            int slab = allocate();
+            ByteBuffer segment = segments.get(slab >>> SEGMENT_BITS);
+            int offset = (slab & (SEGMENT_SLABS - 1)) * SLAB_BYTES;
+            segment.putInt(offset + ID, board.getID());
+            segment.put(offset + WIDTH, (byte) board.getWidth());
+            segment.put(offset + HEIGHT, (byte) board.getHeight());
+            segment.put(offset + N, (byte) board.getN());
+            segment.put(offset + SEATS, (byte) seatCount);
+            segment.put(offset + PLAYERS, (byte) board.getPlayers());
+            segment.putShort(offset + MOVES, (short) moves);
+            segment.putShort(offset + REDO, (short) redo);
+            for (int seat = 0; seat < seatCount; seat++) {
+                int record = offset + SEAT_RECORDS + seat * SEAT_BYTES;
+                segment.putInt(record, seats[seat].getID());
+                segment.putInt(record + SEAT_SCORE, seats[seat].getScore());
+                segment.put(record + SEAT_NAME_LENGTH, (byte) names[seat].length);
+                for (int i = 0; i < names[seat].length; i++) {
+                    segment.put(record + SEAT_NAME + i, names[seat][i]);
+                }
+            }
+            for (int i = 0; i < moves; i++) {
+                segment.put(offset + MOVE_BYTES + i,
+                        (byte) (board.getMoveAt(i) | (seatScratch[i] << SEAT_SHIFT)));
+            }
+            insert(board.getID(), slab);
+        }
+        for (int i = 0; i < redo; i++) {
+            board.undo();
+        }
+        return fits;
+    }
+
+    /**
+     * Take a board out of the store.
+     *
+     * @param id the board ID
+     * @return the board, with its position, undo and redo as they were when it was parked, or
+     *         null if no board with that ID is parked
+     */
+    public ConnectN take(final int id) {
+        int entry = find(id);
+        if (entry < 0) {
+            return null;
+        }
+        int slab = indexSlabs[entry];
+        ConnectN board = materialize(slab);
+        remove(entry);
+        freeSlab(slab);
+        return board;
+    }
+
+    /**
+     * Check whether a board is parked.
+     *
+     * @param id the board ID
+     * @return true if the board is in the store
+     */
+    public boolean contains(final int id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Drop a parked board without taking it out.
+     *
+     * @param id the board ID
+     * @return true if the board was in the store
+     */
+    public boolean discard(final int id) {
+        int entry = find(id);
+        if (entry < 0) {
+            return false;
+        }
+        int slab = indexSlabs[entry];
+        remove(entry);
+        freeSlab(slab);
+        return true;
+    }
+
+    /**
+     * Hand each parked board to an action, leaving it parked.
+     * <p>
+     * Each board is built from its slab for the call and released to the pool right after, so
+     * the action must not keep it or change it.
+     *
+     * @param action what to do with each board
+     */
+    public void forEach(final Consumer<ConnectN> action) {
+        for (int entry = 0; entry < indexSlabs.length; entry++) {
+            if (indexSlabs[entry] != EMPTY) {
+                ConnectN board = materialize(indexSlabs[entry]);
+                action.accept(board);
+                pool.release(board);
+            }
+        }
+    }
+
+    /**
+     * Copy the slab of every parked board, in no particular order, leaving them parked.
+     * <p>
+     * Each slab is copied up to its last move, so a board takes its header and seat records plus
+     * a byte per move. This is one bulk copy per board, so unlike {@link #forEach} it builds no
+     * boards and costs about as much as copying the memory. The copy can be written out on
+     * another thread.
+     *
+     * @return the slabs, one after another
+     */
+    public byte[] copySlabs() {
+        /*
+         * Slabs are visited in memory order rather than index order, which would jump around
+         * the segments, and freed slabs are told apart by their move count.
+         */
+        int length = 0;
+        for (int slab = 0; slab < slabsUsed; slab++) {
+            int moves = segments.get(slab >>> SEGMENT_BITS)
+                    .getShort((slab & (SEGMENT_SLABS - 1)) * SLAB_BYTES + MOVES);
+            if (moves != FREE) {
+                length += MOVE_BYTES + moves;
+            }
+        }
+        byte[] copy = new byte[length];
+        int next = 0;
+        for (int segment = 0; segment * SEGMENT_SLABS < slabsUsed; segment++) {
+            ByteBuffer view = segments.get(segment).duplicate();
+            int slabs = Math.min(SEGMENT_SLABS, slabsUsed - segment * SEGMENT_SLABS);
+            for (int offset = 0; offset < slabs * SLAB_BYTES; offset += SLAB_BYTES) {
+                int moves = view.getShort(offset + MOVES);
+                if (moves != FREE) {
+                    view.position(offset);
+                    view.get(copy, next, MOVE_BYTES + moves);
+                    next += MOVE_BYTES + moves;
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Park boards from slabs copied out with {@link #copySlabs}, possibly by another store.
+     * <p>
+     * Every slab is checked before any is parked, so a bad image leaves the store as it was.
+     *
+     * @param slabs the slabs, one after another
+     * @throws IllegalArgumentException if a slab does not hold a board, or holds one that is
+     *         already parked
+     */
+    public void load(final byte[] slabs) {
+        ByteBuffer source = ByteBuffer.wrap(slabs);
+        int offset = 0;
+        while (offset < slabs.length) {
+            if (slabs.length - offset < MOVE_BYTES || !isBoard(source, offset)) {
+                throw new IllegalArgumentException("Slab at " + offset + " does not hold a board");
+            }
+            if (find(source.getInt(offset + ID)) >= 0) {
+                throw new IllegalArgumentException("Board " + source.getInt(offset + ID)
+                        + " is already parked");
+            }
+            offset += MOVE_BYTES + source.getShort(offset + MOVES);
+        }
+        offset = 0;
+        while (offset < slabs.length) {
+            int used = MOVE_BYTES + source.getShort(offset + MOVES);
+            int slab = allocate();
+            ByteBuffer segment = segments.get(slab >>> SEGMENT_BITS).duplicate();
+            segment.position((slab & (SEGMENT_SLABS - 1)) * SLAB_BYTES);
+            segment.put(slabs, offset, used);
+            insert(source.getInt(offset + ID), slab);
+            offset += used;
+        }
+    }
+
+    /**
+     * Get the number of parked boards.
+     *
+     * @return the count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the memory set aside for slabs outside the heap.
+     *
+     * @return the size in bytes
+     */
+    public long getReservedBytes() {
+        return (long) segments.size() * SEGMENT_SLABS * SLAB_BYTES;
+    }
+
+    /**
+     * Encode a player's name for a seat record.
+     *
+     * @param player the player
+     * @return the name in UTF-8, or null if it is null, too long, or does not survive encoding
+     */
+    private static byte[] nameBytes(final Player player) {
+        String name = player.getName();
+        if (name == null) {
+            return null;
+        }
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > NAME_BYTES || !new String(bytes, StandardCharsets.UTF_8).equals(name)) {
+            return null;
+        }
+        return bytes;
+    }
+
+    /**
+     * Check that a slab holds a board that materialize can rebuild.
+     *
+     * @param slab the buffer holding the slab, with at least its header and seat records from
+     *        offset
+     * @param offset where the slab starts
+     * @return true if the dimensions, seats and moves are all in range and the moves are all
+     *         there
+     */
+    private static boolean isBoard(final ByteBuffer slab, final int offset) {
+        int width = slab.get(offset + WIDTH);
+        int height = slab.get(offset + HEIGHT);
+        int seats = slab.get(offset + SEATS);
+        int moves = slab.getShort(offset + MOVES);
+        int redo = slab.getShort(offset + REDO);
+        if (!ConnectN.isValid(width, height, slab.get(offset + N))
+                || seats < 0 || seats > MAX_SEATS || moves < 0 || moves > width * height
+                || redo < 0 || redo > moves || offset + MOVE_BYTES + moves > slab.limit()) {
+            return false;
+        }
+        for (int seat = 0; seat < seats; seat++) {
+            int length = slab.get(offset + SEAT_RECORDS + seat * SEAT_BYTES + SEAT_NAME_LENGTH);
+            if (length < 0 || length > NAME_BYTES) {
+                return false;
+            }
+        }
+        for (int i = 0; i < moves; i++) {
+            int move = slab.get(offset + MOVE_BYTES + i);
+            if ((move & COLUMN_MASK) >= width || move >>> SEAT_SHIFT >= seats) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Build a board from a slab.
+     *
+     * @param slab the slab
+     * @return the board
+     */
+    private ConnectN materialize(final int slab) {
+        ByteBuffer segment = segments.get(slab >>> SEGMENT_BITS);
+        int offset = (slab & (SEGMENT_SLABS - 1)) * SLAB_BYTES;
+        ConnectN board = pool.restore(segment.getInt(offset + ID), segment.get(offset + WIDTH),
+                segment.get(offset + HEIGHT), segment.get(offset + N));
+        board.setPlayers(segment.get(offset + PLAYERS));
+        Player[] seats = new Player[segment.get(offset + SEATS)];
+        for (int seat = 0; seat < seats.length; seat++) {
+            int record = offset + SEAT_RECORDS + seat * SEAT_BYTES;
+            byte[] name = new byte[segment.get(record + SEAT_NAME_LENGTH)];
+            for (int i = 0; i < name.length; i++) {
+                name[i] = segment.get(record + SEAT_NAME + i);
+            }
+            seats[seat] = new Player(new String(name, StandardCharsets.UTF_8),
+                    segment.getInt(record + SEAT_SCORE), segment.getInt(record));
+        }
+        int moves = segment.getShort(offset + MOVES);
+        for (int i = 0; i < moves; i++) {
+            int move = segment.get(offset + MOVE_BYTES + i);
+            board.placeTile(seats[move >>> SEAT_SHIFT], move & COLUMN_MASK);
+        }
+        board.markWinCredited();
+        int redo = segment.getShort(offset + REDO);
+        for (int i = 0; i < redo; i++) {
+            board.undo();
+        }
+        return board;
+    }
+
+    /**
+     * Get a slab to fill, reusing a freed one if there is one.
+     *
+     * @return the slab
+     */
+    private int allocate() {
+        if (freeCount > 0) {
+            freeCount--;
+            return freeSlabs[freeCount];
+        }
+        if (slabsUsed == segments.size() * SEGMENT_SLABS) {
+            segments.add(ByteBuffer.allocateDirect(SEGMENT_SLABS * SLAB_BYTES));
+        }
+        slabsUsed++;
+        return slabsUsed - 1;
+    }
+
+    /**
+     * Return a slab for reuse, marking it free so that copySlabs skips it.
+     *
+     * @param slab the slab
+     */
+    private void freeSlab(final int slab) {
+        segments.get(slab >>> SEGMENT_BITS)
+                .putShort((slab & (SEGMENT_SLABS - 1)) * SLAB_BYTES + MOVES, FREE);
+        if (freeCount == freeSlabs.length) {
+            freeSlabs = Arrays.copyOf(freeSlabs, freeSlabs.length * 2);
+        }
+        freeSlabs[freeCount] = slab;
+        freeCount++;
+    }
+
+    /**
+     * Get where a board ID starts its probe in the index.
+     *
+     * @param id the board ID
+     * @return the first index entry to look at
+     */
+    private int home(final int id) {
+        return (id * SPREAD) & (indexSlabs.length - 1);
+    }
+
+    /**
+     * Find a board in the index.
+     *
+     * @param id the board ID
+     * @return the index entry, or -1 if the board is not parked
+     */
+    private int find(final int id) {
+        int mask = indexSlabs.length - 1;
+        for (int entry = home(id); indexSlabs[entry] != EMPTY; entry = (entry + 1) & mask) {
+            if (indexIDs[entry] == id) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Add a board to the index, growing it to stay at most half full.
+     *
+     * @param id the board ID
+     * @param slab the board's slab
+     */
+    private void insert(final int id, final int slab) {
+        if ((size + 1) * 2 > indexSlabs.length) {
+            int[] oldIDs = indexIDs;
+            int[] oldSlabs = indexSlabs;
+            indexIDs = new int[oldSlabs.length * 2];
+            indexSlabs = new int[oldSlabs.length * 2];
+            Arrays.fill(indexSlabs, EMPTY);
+            for (int entry = 0; entry < oldSlabs.length; entry++) {
+                if (oldSlabs[entry] != EMPTY) {
+                    place(oldIDs[entry], oldSlabs[entry]);
+                }
+            }
+        }
+        place(id, slab);
+        size++;
+    }
+
+    /**
+     * Put a board in the first free index entry from its home.
+     *
+     * @param id the board ID
+     * @param slab the board's slab
+     */
+    private void place(final int id, final int slab) {
+        int mask = indexSlabs.length - 1;
+        int entry = home(id);
+        while (indexSlabs[entry] != EMPTY) {
+            entry = (entry + 1) & mask;
+        }
+        indexIDs[entry] = id;
+        indexSlabs[entry] = slab;
+    }
+
+    /**
+     * Remove an index entry, moving later entries back so that every board stays reachable from
+     * its home.
+     *
+     * @param removed the entry to remove
+     */
+    private void remove(final int removed) {
+        int mask = indexSlabs.length - 1;
+        int hole = removed;
+        indexSlabs[hole] = EMPTY;
+        for (int entry = (hole + 1) & mask; indexSlabs[entry] != EMPTY;
+                entry = (entry + 1) & mask) {
+            int home = home(indexIDs[entry]);
+            if (((entry - home) & mask) >= ((entry - hole) & mask)) {
+                indexIDs[hole] = indexIDs[entry];
+                indexSlabs[hole] = indexSlabs[entry];
+                indexSlabs[entry] = EMPTY;
+                hole = entry;
+            }
+        }
+        size--;
+    }
+}
@@ -0,0 +1,379 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary image of every live ConnectN board.
+ * <p>
+ * The web server keeps all of its state in memory. A snapshot records just enough to rebuild it
+ * after a restart: the board and player ID counters, and for each board its dimensions and
+ * number of players, the players seated at it and its moves in the order they were played, so
+ * that undo keeps working across a restart. Because the image only contains live boards,
+ * restoring it takes time proportional to the number of boards in play, not to the number of
+ * moves ever made.
+ * <p>
+ * Boards parked in {@link BoardSlabs} are recorded as their slabs, copied byte for byte, and are
+ * loaded back into slabs the same way, so neither capturing nor restoring replays their moves.
+ * <p>
+ * Capturing is split from encoding and writing so that the server can take the (cheap) in-memory
+ * image on the event loop and push the rest to a worker thread.
+ */
+public final class BoardSnapshot {
+
+    /** Marks the start of a snapshot file. */
+    private static final int MAGIC = 0x434e534e;
+
+    /** Snapshot format version. Bump this when the layout below changes. */
+    private static final int VERSION = 4;
+
+    /** Number of bits in a byte, used when packing tile owners. */
+    private static final int BITS_PER_BYTE = 8;
+
+    /** The board counter when the snapshot was taken. */
+    private final int totalGames;
+
+    /** The player counter when the snapshot was taken. */
+    private final int globalID;
+
+    /** Number of live boards. */
+    private final int liveCount;
+
+    /** The live boards, encoded by writeBoard. */
+    private final byte[] live;
+
+    /** The slabs of the parked boards. */
+    private final byte[] parkedSlabs;
+
+    /**
+     * Create a captured snapshot.
+     *
+     * @param setLiveCount number of live boards
+     * @param setLive the live boards, encoded
+     * @param setParkedSlabs the slabs of the parked boards
+     */
+    private BoardSnapshot(final int setLiveCount, final byte[] setLive,
+            final byte[] setParkedSlabs) {
+        totalGames = ConnectN.getTotalGames();
+        globalID = Player.getGlobalID();
+        liveCount = setLiveCount;
+        live = setLive;
+        parkedSlabs = setParkedSlabs;
+    }
+
+    /**
+     * Capture an image of the given boards and the global ID counters.
+     * <p>
+     * This only touches memory, so it is safe to call from the thread that owns the boards.
+     *
+     * @param boards the live boards to record
+     * @return the snapshot, which can be encoded on any thread
+     */
+    public static BoardSnapshot capture(final Collection<ConnectN> boards) {
+        return capture(boards, null);
+    }
+
+    /**
+     * Capture an image of the given boards, the boards parked in slabs, and the global ID
+     * counters.
+     * <p>
+     * Live boards are encoded here, since only the thread that owns them may read them. Parked
+     * boards are only copied, one slab at a time.
+     *
+     * @param boards the live boards to record
+     * @param parked the parked boards to record, or null if there are none
+     * @return the snapshot, which can be encoded on any thread
+     */
+    public static BoardSnapshot capture(final Collection<ConnectN> boards,
+            final BoardSlabs parked) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (ConnectN board : boards) {
+                writeBoard(out, board);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode snapshot", e);
+        }
+        byte[] slabs = new byte[0];
+        if (parked != null) {
+            slabs = parked.copySlabs();
+        }
+        return new BoardSnapshot(boards.size(), bytes.toByteArray(), slabs);
+    }
+
+    /**
+     * Encode the snapshot in memory.
+     *
+     * @return the encoded snapshot
+     */
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            encode(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode snapshot", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode the snapshot to a stream: header and counters, the live boards, then the length of
+     * the parked boards' slabs and the slabs.
+     *
+     * @param stream where to write the snapshot
+     * @throws IOException if the stream fails
+     */
+    private void encode(final OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(totalGames);
+        out.writeInt(globalID);
+        out.writeInt(liveCount);
+        out.write(live);
+        out.writeInt(parkedSlabs.length);
+        out.write(parkedSlabs);
+        out.flush();
+    }
+
+    /**
+     * Atomically replace the snapshot file with this snapshot.
+     * <p>
+     * Like {@link #write(byte[], Path)}, this blocks on disk I/O and must not be called from the
+     * event loop.
+     *
+     * @param file where to store it
+     * @throws IOException if the write fails
+     */
+    public void write(final Path file) throws IOException {
+        Path temporary = temporaryFor(file);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+            encode(out);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write one board: header, seated players, move columns and packed tile owners.
+     *
+     * @param out the stream to write to
+     * @param board the board to write
+     * @throws IOException if the stream fails
+     */
+    private static void writeBoard(final DataOutputStream out, final ConnectN board)
+            throws IOException {
+        int width = board.getWidth();
+        int height = board.getHeight();
+        out.writeInt(board.getID());
+        out.writeByte(width);
+        out.writeByte(height);
+        out.writeByte(board.getN());
+        out.writeByte(board.getPlayers());
+        out.writeBoolean(board.title != null);
+        if (board.title != null) {
+            out.writeUTF(board.title);
+        }
+
+        int moveCount = board.getMoveCount();
+        Player[] movers = new Player[moveCount];
+        int[] columnHeights = new int[width];
+        List<Player> seats = new ArrayList<Player>();
+        for (int i = 0; i < moveCount; i++) {
+            int column = board.getMoveAt(i);
+            movers[i] = board.getBoardAt(column, columnHeights[column]);
+            columnHeights[column]++;
+            if (!seats.contains(movers[i])) {
+                seats.add(movers[i]);
+            }
+        }
+        out.writeByte(seats.size());
+        for (Player seat : seats) {
+            out.writeInt(seat.getID());
+            out.writeInt(seat.getScore());
+            out.writeUTF(seat.getName());
+        }
+
+        int bitsPerTile = bitsPerTile(seats.size());
+        out.writeShort(moveCount);
+        for (int i = 0; i < moveCount; i++) {
+            out.writeByte(board.getMoveAt(i));
+        }
+        byte[] packed = new byte[packedLength(moveCount, bitsPerTile)];
+        int bit = 0;
+        for (int i = 0; i < moveCount; i++) {
+            int seat = seats.indexOf(movers[i]);
+            for (int b = 0; b < bitsPerTile; b++, bit++) {
+                if ((seat & (1 << b)) != 0) {
+                    packed[bit / BITS_PER_BYTE] |= 1 << (bit % BITS_PER_BYTE);
+                }
+            }
+        }
+        out.write(packed);
+    }
+
+    /**
+     * Atomically replace the snapshot file with a new image.
+     * <p>
+     * The image is written to a temporary file next to the target and then moved into place, so
+     * a crash during the write never leaves a truncated snapshot behind. This blocks on disk I/O
+     * and must not be called from the event loop.
+     *
+     * @param image the encoded snapshot
+     * @param file where to store it
+     * @throws IOException if the write fails
+     */
+    public static void write(final byte[] image, final Path file) throws IOException {
+        Path temporary = temporaryFor(file);
+        Files.write(temporary, image);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the file a snapshot is written to before it is moved into place.
+     *
+     * @param file where the snapshot is kept
+     * @return the temporary file next to it
+     */
+    private static Path temporaryFor(final Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    /**
+     * Rebuild boards from a snapshot file and restore the global ID counters.
+     *
+     * @param file the snapshot to load
+     * @param parked where to park the boards that were parked when the snapshot was taken
+     * @return the restored live boards, keyed by board ID
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static Map<Integer, ConnectN> read(final Path file, final BoardSlabs parked)
+            throws IOException {
+        return decode(Files.readAllBytes(file), parked);
+    }
+
+    /**
+     * Rebuild boards from an encoded snapshot and restore the global ID counters.
+     *
+     * @param image the encoded snapshot
+     * @param parked where to park the boards that were parked when the snapshot was taken
+     * @return the restored live boards, keyed by board ID
+     * @throws IOException if the image is not a valid snapshot
+     */
+    public static Map<Integer, ConnectN> decode(final byte[] image, final BoardSlabs parked)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(image))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a board snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            int games = in.readInt();
+            int playerID = in.readInt();
+            int boardCount = in.readInt();
+            Map<Integer, ConnectN> boards = new HashMap<Integer, ConnectN>();
+            for (int i = 0; i < boardCount; i++) {
+                ConnectN board = readBoard(in);
+                boards.put(board.getID(), board);
+            }
+            int parkedLength = in.readInt();
+            if (parkedLength < 0 || parkedLength > in.available()) {
+                throw new IOException("Truncated snapshot");
+            }
+            byte[] slabs = new byte[parkedLength];
+            in.readFully(slabs);
+            try {
+                parked.load(slabs);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad parked boards in snapshot", e);
+            }
+            ConnectN.setTotalGames(games);
+            Player.setGlobalID(playerID);
+            return boards;
+        }
+    }
+
+    /**
+     * Read one board written by writeBoard.
+     *
+     * @param in the stream to read from
+     * @return the restored board
+     * @throws IOException if the stream fails
+     */
+    private static ConnectN readBoard(final DataInputStream in) throws IOException {
+        int id = in.readInt();
+        int width = in.readUnsignedByte();
+        int height = in.readUnsignedByte();
+        int n = in.readUnsignedByte();
+        ConnectN board = ConnectN.restore(id, width, height, n);
+        board.setPlayers(in.readUnsignedByte());
+        if (in.readBoolean()) {
+            board.title = in.readUTF();
+        }
+
+        Player[] seats = new Player[in.readUnsignedByte()];
+        for (int i = 0; i < seats.length; i++) {
+            int playerID = in.readInt();
+            int score = in.readInt();
+            seats[i] = new Player(in.readUTF(), score, playerID);
+        }
+
+        int[] columns = new int[in.readUnsignedShort()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = in.readUnsignedByte();
+        }
+        int bitsPerTile = bitsPerTile(seats.length);
+        byte[] packed = new byte[packedLength(columns.length, bitsPerTile)];
+        in.readFully(packed);
+        int bit = 0;
+        for (int column : columns) {
+            int seat = 0;
+            for (int b = 0; b < bitsPerTile; b++, bit++) {
+                if ((packed[bit / BITS_PER_BYTE] & (1 << (bit % BITS_PER_BYTE))) != 0) {
+                    seat |= 1 << b;
+                }
+            }
+            board.placeTile(seats[seat], column);
+        }
+        board.markWinCredited();
+        return board;
+    }
+
+    /**
+     * Number of bits needed to tell the seated players apart.
+     *
+     * @param seatCount the number of players seated at a board
+     * @return bits per tile, which is zero when there is at most one player
+     */
+    private static int bitsPerTile(final int seatCount) {
+        if (seatCount <= 1) {
+            return 0;
+        }
+        return Integer.SIZE - Integer.numberOfLeadingZeros(seatCount - 1);
+    }
+
+    /**
+     * Number of bytes needed to hold the packed tile owners.
+     *
+     * @param moveCount the number of tiles on the board
+     * @param bitsPerTile bits used per tile
+     * @return the packed length in bytes
+     */
+    private static int packedLength(final int moveCount, final int bitsPerTile) {
+        return (moveCount * bitsPerTile + BITS_PER_BYTE - 1) / BITS_PER_BYTE;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * How good one column is for the player to move, as shown in hints.
+ * <p>
+ * The quick checks come first. They cover whether the move wins on the spot, whether it blocks a
+ * column the opponent would win with, and whether it hands the opponent a win on the next move.
+ * A search within a budget then scores the move. Scores are from the mover's side. Positive
+ * scores are good and zero is even, and a score beyond half of {@link SearchPolicy#WIN_SCORE}
+ * means a forced result was found.
+ */
+public class ColumnAnalysis {
+
+    /** The column. */
+    private final int column;
+
+    /** Whether dropping a tile here wins at once. */
+    private final boolean win;
+
+    /** Whether the opponent would win by dropping a tile here. */
+    private final boolean block;
+
+    /** Whether the move loses by force within the depth searched. */
+    private final boolean loss;
+
+    /** The search score. */
+    private final int score;
+
+    /** Moves ahead searched. */
+    private final int depth;
+
+    /**
+     * Create an analysis.
+     *
+     * @param setColumn the column
+     * @param setWin whether the move wins at once
+     * @param setBlock whether the move takes a winning column from the opponent
+     * @param setLoss whether the move loses by force
+     * @param setScore the search score
+     * @param setDepth moves ahead searched
+     */
+    ColumnAnalysis(final int setColumn, final boolean setWin, final boolean setBlock,
+            final boolean setLoss, final int setScore, final int setDepth) {
+        column = setColumn;
+        win = setWin;
+        block = setBlock;
+        loss = setLoss;
+        score = setScore;
+        depth = setDepth;
+    }
+
+    /**
+     * Analyze one column.
+     * <p>
+     * Moves are tried on the board and taken back, so the board must not be shared with another
+     * thread while this runs.
+     *
+     * @param board the board, which must have room in the column
+     * @param player the player to move
+     * @param opponent the other player
+     * @param setColumn the column
+     * @param policy the search to score the move with
+     * @param budget limits on the search
+     * @return the analysis
+     */
+    public static ColumnAnalysis analyze(final ConnectN board, final Player player,
+            final Player opponent, final int setColumn, final SearchPolicy policy,
+            final SearchBudget budget) {
+        int bit = 1 << setColumn;
+        boolean setWin = (board.winningColumns(player) & bit) != 0;
+        boolean setBlock = (board.blockingColumns(player) & bit) != 0;
+        boolean handsOver = false;
+        if (!setWin && board.placeTile(player, setColumn)) {
+            handsOver = board.blockingColumns(player) != 0;
+            board.undo();
+        }
+        int setScore = policy.scoreColumn(board, player, opponent, setColumn, budget);
+        return new ColumnAnalysis(setColumn, setWin, setBlock,
+                handsOver || setScore < -SearchPolicy.WIN_SCORE / 2, setScore, budget.getDepth());
+    }
+
+    /**
+     * Mirror the analyses of a position left to right.
+     *
+     * @param analyses analyses of the open columns, from left to right
+     * @param width the board width
+     * @return the analyses of the mirrored position, from left to right
+     */
+    public static ColumnAnalysis[] mirror(final ColumnAnalysis[] analyses, final int width) {
+        ColumnAnalysis[] mirrored = new ColumnAnalysis[analyses.length];
+        for (int i = 0; i < analyses.length; i++) {
+            ColumnAnalysis other = analyses[analyses.length - 1 - i];
+            mirrored[i] = new ColumnAnalysis(width - 1 - other.column, other.win, other.block,
+                    other.loss, other.score, other.depth);
+        }
+        return mirrored;
+    }
+
+    /**
+     * Get the column.
+     *
+     * @return the column
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * Get whether dropping a tile here wins at once.
+     *
+     * @return true if the move wins
+     */
+    public boolean isWin() {
+        return win;
+    }
+
+    /**
+     * Get whether the opponent would win by dropping a tile here.
+     *
+     * @return true if the move blocks a win
+     */
+    public boolean isBlock() {
+        return block;
+    }
+
+    /**
+     * Get whether the move loses by force within the depth searched.
+     *
+     * @return true if the move loses
+     */
+    public boolean isLoss() {
+        return loss;
+    }
+
+    /**
+     * Get the search score.
+     *
+     * @return the score, from the side of the player to move
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Get how many moves ahead were searched.
+     *
+     * @return the depth, or zero if the budget ran out before the first search finished
+     */
+    public int getDepth() {
+        return depth;
+    }
+}
@@ -1,4 +1,7 @@
-
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A class that implements like a Connect4 game.
@@ -29,6 +32,14 @@ public class ConnectN {
      * Minimum N value.
      */
     public static final int MIN_N = 4;
+    /**
+     * Minimum number of players.
+     */
+    public static final int MIN_PLAYERS = 2;
+    /**
+     * Maximum number of players.
+     */
+    public static final int MAX_PLAYERS = 6;
     /**
      * Public game title.
      */
@@ -52,13 +63,134 @@ public class ConnectN {
      */
     private int n;
     /**
-     * The total number of ConnectN games.
+     * The total number of ConnectN games. Atomic so that boards can be created from many threads.
+     */
+    private static AtomicInteger totalGames = new AtomicInteger();
+    /**
+     * The number of players the game is for, which is also the number of seats.
+     */
+    private int players = MIN_PLAYERS;
+    /**
+     * Tiles in one flat column-major array, cell (x, y) at x * height + y.
+     * <p>
+     * Each cell is zero when empty, or the index of its tile's owner in owners. Walking a
+     * column, row or diagonal is a walk through this array with a fixed stride, and even the
+     * largest board fits in a few cache lines.
+     */
+    private byte[] cells;
+    /**
+     * The players who own tiles on the board, by cell value. Entry zero is unused.
+     * <p>
+     * A player who changes name between moves can hold two seats, so each entry is a player and
+     * the seat their tiles were played from.
+     */
+    private Player[] owners;
+    /**
+     * The seat of each entry in owners.
+     */
+    private byte[] ownerSeats;
+    /**
+     * Entries used in owners, counting the unused entry zero.
+     */
+    private int ownerCount;
+    /**
+     * Most entries in owners, so that any of them fits in a cell.
+     */
+    private static final int MAX_OWNERS = 0xff;
+    /**
+     * Mask that reads a cell as an unsigned owner index.
+     */
+    private static final int CELL_MASK = 0xff;
+    /**
+     * Bits of a history entry that hold the column. Columns are always below MAX_WIDTH.
+     */
+    private static final int COLUMN_MASK = 0x0f;
+    /**
+     * Shift of the owner index within a history entry.
+     */
+    private static final int OWNER_SHIFT = 4;
+    /**
+     * Random keys used to hash positions, one per seat and cell.
+     */
+    private static final long[] ZOBRIST = new long[MAX_PLAYERS * MAX_WIDTH * MAX_HEIGHT];
+    /**
+     * Seed for the hash keys, fixed so that hashes are stable across runs.
+     */
+    private static final long ZOBRIST_SEED = 0x434f4e4e4543544eL;
+    /**
+     * Directions a run can take in a full-board scan, as column and row steps.
+     */
+    private static final int[][] SCAN_DIRECTIONS = {{1, 0}, {0, 1}, {1, 1}, {-1, 1}};
+    /**
+     * Whether full-board scans visit each cell rather than using the row masks.
      */
-    private static int totalGames = 0;
+    private static final boolean CELL_SCAN = Boolean.getBoolean("connectn.cellScan");
+
+    static {
+        Random random = new Random(ZOBRIST_SEED);
+        for (int i = 0; i < ZOBRIST.length; i++) {
+            ZOBRIST[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Number of tiles in each column.
+     */
+    private int[] heights;
+    /**
+     * Moves in the order they were played, each packed as a column and an owner index.
+     * <p>
+     * Entries past moveCount are moves that have been undone and can be redone.
+     */
+    private short[] history;
+    /**
+     * Number of moves currently on the board.
+     */
+    private int moveCount;
+    /**
+     * Number of undone moves that can still be redone.
+     */
+    private int redoCount;
+    /**
+     * Names of the players with tiles on the board, in the order they first moved.
+     */
+    private String[] seatNames = new String[MAX_PLAYERS];
+    /**
+     * Number of tiles each seated player has on the board.
+     */
+    private int[] seatMoves = new int[MAX_PLAYERS];
     /**
-     * The 2D array board for a ConnectN game.
+     * Hash of the current position, updated as tiles are added and removed.
      */
-    private Player[][] board;
+    private long positionHash;
+    /**
+     * Hash of the current position mirrored left to right, updated alongside positionHash.
+     */
+    private long mirrorHash;
+    /**
+     * The player who completed a run of N, or null if nobody has yet.
+     */
+    private Player winner;
+    /**
+     * Whether a winner of this game has been credited with the win.
+     */
+    private boolean scored;
+    /**
+     * Tiles of each seat by row, with bit x of a row set when the seat has a tile in column x.
+     */
+    private int[][] rowTiles;
+    /**
+     * Open cells by row, with bit x of a row set when the next tile in column x lands in it.
+     */
+    private int[] landing;
+    /**
+     * Full columns, with bit x set when column x has no room.
+     */
+    private int fullColumns;
+    /**
+     * Scratch space for scanning runs, one mask per distance along a line.
+     */
+    private int[] runScratch;
 
 
     // All 4 types of constructors
@@ -66,12 +198,12 @@ public class ConnectN {
      * A new ConnectN board with uninitialized width, height, and N value.
      */
     public ConnectN() {
-        id = totalGames;
-        totalGames++;
+        id = totalGames.getAndIncrement();
+        allocate();
     }
 
     /**
-     * A new ConnectN board with dimensions and N copied from another board.
+     * A new ConnectN board with dimensions, N and number of players copied from another board.
      *
      * @param otherBoard The board in which we are copying
      */
@@ -79,9 +211,25 @@ public class ConnectN {
         this.height = otherBoard.getHeight();
         this.width = otherBoard.getWidth();
         this.n = otherBoard.getN();
-        id = totalGames;
-        totalGames++;
-        board = new Player[width][height];
+        this.players = otherBoard.getPlayers();
+        id = totalGames.getAndIncrement();
+        allocate();
+    }
+
+    /**
+     * An empty board with the dimensions, N, players and ID of another, which is not counted as a
+     * game.
+     *
+     * @param otherBoard the board to copy
+     * @param setID the ID to give the new board
+     */
+    private ConnectN(final ConnectN otherBoard, final int setID) {
+        this.height = otherBoard.getHeight();
+        this.width = otherBoard.getWidth();
+        this.n = otherBoard.getN();
+        this.players = otherBoard.getPlayers();
+        id = setID;
+        allocate();
     }
     /**
      * A new ConnectN board with given width and height and an uninitialized N value.
@@ -100,9 +248,8 @@ public class ConnectN {
         } else {
             height = 0;
         }
-        id = totalGames;
-        totalGames++;
-        board = new Player[width][height];
+        id = totalGames.getAndIncrement();
+        allocate();
     }
     /**
      * A new ConnectN board with given width, height and N value.
@@ -112,6 +259,18 @@ public class ConnectN {
      * @param setN the number of spots in a row needed to win
      */
     public ConnectN(final int setWidth, final int setHeight, final int setN) {
+        this(setWidth, setHeight, setN, totalGames.getAndIncrement());
+    }
+
+    /**
+     * A board with given width, height, N value and ID, which is not counted as a game.
+     *
+     * @param setWidth the width of the ConnectN board
+     * @param setHeight the height of the ConnectN board
+     * @param setN the number of spots in a row needed to win
+     * @param setID the ID to give the board
+     */
+    private ConnectN(final int setWidth, final int setHeight, final int setN, final int setID) {
         if (MIN_WIDTH <= setWidth && setWidth <= MAX_WIDTH) {
             width = setWidth;
         } else {
@@ -131,9 +290,8 @@ public class ConnectN {
         } else {
             n = 0;
         }
-        id = totalGames;
-        totalGames++;
-        board = new Player[width][height];
+        id = setID;
+        allocate();
     }
 
 
@@ -171,8 +329,12 @@ public class ConnectN {
      */
     public boolean setHeight(final int newHeight) {
         if (MIN_HEIGHT <= newHeight && newHeight <= MAX_HEIGHT && !gameStarted()) {
-            height = newHeight;
-            board = new Player[width][height];
+            if (newHeight == height) {
+                reset();
+            } else {
+                height = newHeight;
+                allocate();
+            }
             int max = height;
             if (width > height) {
                 max = width;
@@ -193,8 +355,12 @@ public class ConnectN {
      */
     public boolean setWidth(final int newWidth) {
         if (MIN_WIDTH <= newWidth && newWidth <= MAX_WIDTH && !gameStarted()) {
-            width = newWidth;
-            board = new Player[width][height];
+            if (newWidth == width) {
+                reset();
+            } else {
+                width = newWidth;
+                allocate();
+            }
             int max = height;
             if (width > height) {
                 max = width;
@@ -226,13 +392,67 @@ public class ConnectN {
             return false;
         }
     }
+
+    /**
+     * Get the number of players the game is for.
+     *
+     * @return the number of players, from MIN_PLAYERS to MAX_PLAYERS
+     */
+    public int getPlayers() {
+        return players;
+    }
+
+    /**
+     * Attempts to set the number of players the game is for.
+     * <p>
+     * Players take seats in the order they first move, and once every seat is taken, turns go
+     * around the seats in that order. Moves that were undone can no longer be redone.
+     *
+     * @param newPlayers the number of players
+     * @return true if the number of players has been set
+     */
+    public boolean setPlayers(final int newPlayers) {
+        if (!gameStarted() && MIN_PLAYERS <= newPlayers && newPlayers <= MAX_PLAYERS) {
+            players = newPlayers;
+            clearRedo();
+            return true;
+        }
+        return false;
+    }
     /**
      * Gets the total number of games.
      *
      * @return Returns the total number of games
      */
     public static int getTotalGames() {
-        return totalGames;
+        return totalGames.get();
+    }
+
+    /**
+     * Restores the total number of games after loading a snapshot.
+     *
+     * @param setTotalGames the total number of games recorded in the snapshot
+     */
+    static void setTotalGames(final int setTotalGames) {
+        totalGames.set(setTotalGames);
+    }
+
+    /**
+     * Recreates an empty board with a previously issued ID.
+     * <p>
+     * Used when restoring server state from a snapshot, so that clients holding board IDs can
+     * keep playing after a restart, and to bring back boards that were stored away. The board does
+     * not count as a new game.
+     *
+     * @param setID the ID the board was originally issued
+     * @param setWidth the width of the board
+     * @param setHeight the height of the board
+     * @param setN the N value of the board
+     * @return the restored, empty board
+     */
+    static ConnectN restore(final int setID, final int setWidth, final int setHeight,
+            final int setN) {
+        return new ConnectN(setWidth, setHeight, setN, setID);
     }
 
 
@@ -245,23 +465,41 @@ public class ConnectN {
      * @return the new ConnectN board or null
      */
     public static ConnectN create(final int width, final int height, final int n) {
+        if (!isValid(width, height, n)) {
+            return null;
+        } else {
+            ConnectN newBoard = new ConnectN(width, height, n);
+            return newBoard;
+        }
+    }
+
+    /**
+     * Checks whether a board with the given dimensions and N can be created.
+     *
+     * @param width the width of the board
+     * @param height the height of the board
+     * @param n the value of n for the board
+     * @return true if create would succeed with these values
+     */
+    public static boolean isValid(final int width, final int height, final int n) {
         int max = height;
         if (width > height) {
             max = width;
         }
         if (width < MIN_WIDTH || width > MAX_WIDTH) {
-            return null;
+            return false;
         } else if (height < MIN_HEIGHT || height > MAX_HEIGHT) {
-            return null;
+            return false;
         } else if (n < MIN_N || n >= max) {
-            return null;
-        } else {
-            ConnectN newBoard = new ConnectN(width, height, n);
-            return newBoard;
+            return false;
         }
+        return true;
     }
     /**
      * Creates an array of ConnectN boards.
+     * <p>
+     * Boards are taken from the shared {@link BoardPool} when it has any of the right size, so
+     * callers that release boards they are done with avoid reallocating them.
      *
      * @param number number of ConnectN boards in the array
      * @param width the width of the ConnectN boards
@@ -275,8 +513,9 @@ public class ConnectN {
             return null;
         } else {
             ConnectN[] arrayBoards = new ConnectN[number];
+            BoardPool pool = BoardPool.shared();
             for (int i = 0; i < number; i++) {
-                arrayBoards[i] = new ConnectN(width, height, n);
+                arrayBoards[i] = pool.acquire(width, height, n);
             }
             return arrayBoards;
         }
@@ -292,26 +531,8 @@ public class ConnectN {
      * @return true if the move succeeds, false if error
      */
     public boolean setBoardAt(final Player player, final int setX, final int setY) {
-        int nextY = -1;
-        if (gameEnded()) {
-            return false;
-        }
-        if (whosTurn() == null || (player.getName()).equals(whosTurn())) {
-            if (0 <= setX && setX < width && 0 <= setY
-                    && setY < height && board[setX][setY] == null) {
-                for (int i = 0; i < height; i++) {
-                    if (board[setX][i] != null) {
-                        nextY = i + 1;
-                    }
-                }
-                if (nextY == -1 && board[setX][0] == null) {
-                    nextY = 0;
-                }
-                if (nextY == setY && board[setX][setY] == null) {
-                    board[setX][setY] = player;
-                    return true;
-                }
-            }
+        if (0 <= setX && setX < width && setY == heights[setX]) {
+            return setBoardAt(player, setX);
         }
         return false;
     }
@@ -324,26 +545,689 @@ public class ConnectN {
      * @return true if the move succeeds, false if error
      */
     public boolean setBoardAt(final Player player, final int setX) {
-        int nextY;
+        FlightEvents.Move event = new FlightEvents.Move();
+        event.begin();
+        boolean placed = move(player, setX);
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(this, setX, placed);
+            event.commit();
+        }
+        return placed;
+    }
+
+    /**
+     * Drop a tile in a column if the game is still going and it is the player's turn.
+     *
+     * @param player the player attempting to move
+     * @param setX the column to drop the tile in
+     * @return true if the move succeeds, false if error
+     */
+    private boolean move(final Player player, final int setX) {
         if (gameEnded()) {
             return false;
         }
-        if (whosTurn() == null || (player.getName()).equals(whosTurn())) {
-            if (0 <= setX && setX < width) {
-                for (int i = 0; i < height; i++) {
-                    if (board[setX][i] == null) {
-                        nextY = i;
-                        board[setX][nextY] = player;
-                        return true;
-                    }
+        String turn = whosTurn();
+        if (turn == null || (player.getName()).equals(turn)) {
+            if (0 <= setX && setX < width && heights[setX] < height) {
+                int owner = ownerFor(player);
+                if (owner < 0) {
+                    return false;
                 }
-                return false;
+                clearRedo();
+                play(owner, setX);
+                if (winner != null && !scored) {
+                    scored = true;
+                    winner.addScore();
+                }
+                return true;
             }
         }
         return false;
+    }
+
+
+    /**
+     * Drops a tile in a column without checking turns.
+     * <p>
+     * Used to rebuild boards from snapshots, and by move policies that try hypothetical moves
+     * for either side and take them back with undo. Normal play goes through setBoardAt. Like
+     * setBoardAt, this refuses moves once the game has been won, which is what lets undo clear
+     * the winner.
+     *
+     * @param player the player whose tile is placed
+     * @param setX the column to drop the tile in
+     * @return true if the tile was placed, false if the column is full or invalid or the game
+     *         has been won
+     */
+    boolean placeTile(final Player player, final int setX) {
+        if (winner != null || setX < 0 || setX >= width || heights[setX] >= height) {
+            return false;
+        }
+        int owner = ownerFor(player);
+        if (owner < 0) {
+            return false;
+        }
+        clearRedo();
+        play(owner, setX);
+        return true;
+    }
+
+    /**
+     * Drop a sequence of tiles without checking turns, to replay a recorded game.
+     * <p>
+     * Each player's seat is looked up once, when they first move, rather than on every move as
+     * placeTile does. Replaying stops at the first move that is not legal: one into a full or
+     * missing column, or one after the game was won.
+     *
+     * @param players the players by seat
+     * @param columns the column of each move
+     * @param seats the seat of each move
+     * @return the number of moves replayed, which is columns.length if they were all legal
+     */
+    int replayMoves(final Player[] players, final int[] columns, final byte[] seats) {
+        clearRedo();
+        int[] seatOwners = new int[players.length];
+        for (int i = 0; i < columns.length; i++) {
+            int x = columns[i];
+            int seat = seats[i];
+            if (winner != null || x < 0 || x >= width || heights[x] >= height) {
+                markWinCredited();
+                return i;
+            }
+            if (seatOwners[seat] == 0) {
+                seatOwners[seat] = ownerFor(players[seat]);
+                if (seatOwners[seat] < 0) {
+                    markWinCredited();
+                    return i;
+                }
+            }
+            play(seatOwners[seat], x);
+        }
+        markWinCredited();
+        return columns.length;
+    }
+
+    /**
+     * Note that a win among moves rebuilt onto this board was credited when it was first played.
+     * <p>
+     * Boards restored from a snapshot or a slab get their moves back through placeTile, which
+     * never credits a win. Call this once the moves are in and before taking any back, so that
+     * undoing the winning move and playing it again does not credit the winner a second time.
+     */
+    void markWinCredited() {
+        if (winner != null) {
+            scored = true;
+        }
+    }
+
+    /**
+     * Copy the position on this board, for searching it away from the thread that owns the board.
+     * <p>
+     * The copy has this board's ID, dimensions, tiles and move history, so undo on the copy goes
+     * back as far as it would here. It shares the Player objects but nothing else, and it does
+     * not count as a new game.
+     *
+     * @return the copy
+     */
+    ConnectN copyPosition() {
+        ConnectN copy = new ConnectN(this, id);
+        for (int i = 0; i < moveCount; i++) {
+            copy.play(copy.ownerFor(owners[history[i] >>> OWNER_SHIFT]), history[i] & COLUMN_MASK);
+        }
+        return copy;
+    }
+
+    /**
+     * Take back the last move.
+     * <p>
+     * Runs in constant time. The tile, turn, position hash and winner all return to exactly what
+     * they were before the move was played, and the move can be replayed with redo.
+     *
+     * @return true if a move was taken back, false if the board is empty
+     */
+    public boolean undo() {
+        if (moveCount == 0) {
+            return false;
+        }
+        moveCount--;
+        int column = history[moveCount] & COLUMN_MASK;
+        int seat = ownerSeats[history[moveCount] >>> OWNER_SHIFT];
+        heights[column]--;
+        int y = heights[column];
+        cells[column * height + y] = 0;
+        positionHash ^= ZOBRIST[zobristIndex(seat, column, y)];
+        mirrorHash ^= ZOBRIST[zobristIndex(seat, width - 1 - column, y)];
+        int bit = 1 << column;
+        rowTiles[seat][y] &= ~bit;
+        landing[y] |= bit;
+        if (y + 1 < height) {
+            landing[y + 1] &= ~bit;
+        } else {
+            fullColumns &= ~bit;
+        }
+        seatMoves[seat]--;
+        if (seatMoves[seat] == 0) {
+            seatNames[seat] = null;
+        }
+        /*
+         * Moves are refused once someone has won, so the position before any move had no winner.
+         */
+        winner = null;
+        redoCount++;
+        return true;
+    }
 
+    /**
+     * Replay the most recently undone move.
+     *
+     * @return true if a move was replayed, false if there is nothing to redo
+     */
+    public boolean redo() {
+        if (redoCount == 0) {
+            return false;
+        }
+        redoCount--;
+        play(history[moveCount] >>> OWNER_SHIFT, history[moveCount] & COLUMN_MASK);
+        return true;
     }
 
+    /**
+     * Get the number of undone moves that can be replayed.
+     *
+     * @return how many times redo would succeed
+     */
+    public int getRedoCount() {
+        return redoCount;
+    }
+
+    /**
+     * Get the number of tiles in a column.
+     *
+     * @param x the column
+     * @return the number of tiles in the column, or -1 if there is no such column
+     */
+    public int getColumnHeight(final int x) {
+        if (x < 0 || x >= width) {
+            return -1;
+        }
+        return heights[x];
+    }
+
+    /**
+     * Get the number of tiles on the board.
+     *
+     * @return the number of moves played so far
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Get the column of a move that has been played.
+     *
+     * @param index which move, starting from zero for the first move
+     * @return the column the tile was dropped in, or -1 if there is no such move
+     */
+    public int getMoveAt(final int index) {
+        if (index < 0 || index >= moveCount) {
+            return -1;
+        }
+        return history[index] & COLUMN_MASK;
+    }
+
+    /**
+     * Get a hash of the current position that is the same for its mirror image.
+     * <p>
+     * A position and its left-to-right mirror play out the same way with the columns mirrored,
+     * so caches keyed by this hash hold one entry for both. The hash is the smaller of the
+     * position hash and the hash of the mirrored position, which is kept up to date as tiles are
+     * added and removed. Use {@link #canonicalColumn(int)} to translate columns to and from the
+     * orientation the hash stands for.
+     *
+     * @return the canonical position hash
+     */
+    public long getCanonicalHash() {
+        return Math.min(positionHash, mirrorHash);
+    }
+
+    /**
+     * Get whether the canonical hash is that of the mirror image of this board.
+     *
+     * @return true if columns are mirrored in the canonical orientation
+     */
+    public boolean isCanonicalMirror() {
+        return mirrorHash < positionHash;
+    }
+
+    /**
+     * Translate a column between this board and its canonical orientation.
+     * <p>
+     * Mirroring twice gives back the original, so the same call translates both ways.
+     *
+     * @param x the column
+     * @return the matching column in the other orientation
+     */
+    public int canonicalColumn(final int x) {
+        if (isCanonicalMirror()) {
+            return width - 1 - x;
+        }
+        return x;
+    }
+
+    /**
+     * Get the columns a tile can be dropped in.
+     *
+     * @return a mask with bit x set when column x has room, or zero once the game has been won
+     */
+    public int legalColumns() {
+        if (winner != null) {
+            return 0;
+        }
+        return columnMask() & ~fullColumns;
+    }
+
+    /**
+     * Get the columns where a player would complete a run of N by dropping a tile.
+     * <p>
+     * Tiles are also kept as one bitmask per player and row, so this takes a few shifts and ANDs
+     * per line direction for each row where a tile can land, instead of trying every column.
+     *
+     * @param player the player
+     * @return a mask with bit x set when a tile in column x would win for the player, or zero if
+     *         the player has no tiles on the board or the game has been won
+     */
+    public int winningColumns(final Player player) {
+        int seat = seatOf(player);
+        if (seat < 0 || winner != null) {
+            return 0;
+        }
+        return threats(seat);
+    }
+
+    /**
+     * Get the columns a player must block, where another player would win with their next tile.
+     *
+     * @param player the player about to move
+     * @return a mask with bit x set when a tile in column x would win for another player, or
+     *         zero if there is none or the game has been won
+     */
+    public int blockingColumns(final Player player) {
+        if (winner != null) {
+            return 0;
+        }
+        int blocks = 0;
+        for (int seat = 0; seat < players; seat++) {
+            if (seatMoves[seat] > 0 && !Objects.equals(seatNames[seat], player.getName())) {
+                blocks |= threats(seat);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Get a hash of the current position.
+     * <p>
+     * Two boards with the same dimensions and the same tiles, owned by the same seats (in the
+     * order the players first moved), have the same hash, whichever Player objects placed them.
+     *
+     * @return the position hash
+     */
+    public long getPositionHash() {
+        return positionHash;
+    }
+
+    /**
+     * Clear the board in place, keeping its ID, dimensions, N, number of players and title.
+     * <p>
+     * Only the cells that hold tiles are touched, so this costs time proportional to the number
+     * of moves played and allocates nothing. Moves that were undone can no longer be redone.
+     */
+    public void reset() {
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < heights[x]; y++) {
+                cells[x * height + y] = 0;
+            }
+            heights[x] = 0;
+        }
+        for (int owner = 1; owner < ownerCount; owner++) {
+            owners[owner] = null;
+        }
+        ownerCount = 1;
+        moveCount = 0;
+        redoCount = 0;
+        for (int seat = 0; seat < MAX_PLAYERS; seat++) {
+            seatNames[seat] = null;
+            seatMoves[seat] = 0;
+            for (int y = 0; y < height; y++) {
+                rowTiles[seat][y] = 0;
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            landing[y] = 0;
+        }
+        if (height > 0) {
+            landing[0] = columnMask();
+        }
+        fullColumns = 0;
+        positionHash = 0;
+        mirrorHash = 0;
+        winner = null;
+        scored = false;
+    }
+
+    /**
+     * Clear the board and give it a new ID, so that it can be handed out as a new game.
+     * <p>
+     * Used by {@link BoardPool} when it reuses a released board.
+     */
+    void renew() {
+        renew(totalGames.getAndIncrement());
+    }
+
+    /**
+     * Clear the board and give it an ID that was issued before, without counting a new game.
+     * <p>
+     * Used by {@link BoardPool} to bring back boards that were stored away.
+     *
+     * @param setID the ID the board was originally issued
+     */
+    void renew(final int setID) {
+        reset();
+        title = null;
+        players = MIN_PLAYERS;
+        id = setID;
+    }
+
+    /**
+     * Reallocate the board and clear all per-game state for the current dimensions.
+     */
+    private void allocate() {
+        cells = new byte[width * height];
+        owners = new Player[MAX_PLAYERS + 1];
+        ownerSeats = new byte[MAX_PLAYERS + 1];
+        ownerCount = 1;
+        heights = new int[width];
+        history = new short[width * height];
+        moveCount = 0;
+        redoCount = 0;
+        seatNames = new String[MAX_PLAYERS];
+        seatMoves = new int[MAX_PLAYERS];
+        positionHash = 0;
+        mirrorHash = 0;
+        winner = null;
+        scored = false;
+        rowTiles = new int[MAX_PLAYERS][height];
+        landing = new int[height];
+        if (height > 0) {
+            landing[0] = columnMask();
+        }
+        fullColumns = 0;
+        runScratch = new int[Math.max(MAX_WIDTH, MAX_HEIGHT)];
+    }
+
+    /**
+     * Find the seat a player's tiles belong to, or the seat they would take if they moved now.
+     *
+     * @param player the player about to move
+     * @return the seat, or -1 if every seat is held by other players
+     */
+    int seatFor(final Player player) {
+        int seated = seatOf(player);
+        if (seated >= 0) {
+            return seated;
+        }
+        for (int seat = 0; seat < players; seat++) {
+            if (seatMoves[seat] == 0) {
+                return seat;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the seat of a player who has tiles on the board.
+     *
+     * @param player the player
+     * @return the seat, or -1 if the player has no tiles on the board
+     */
+    private int seatOf(final Player player) {
+        for (int seat = 0; seat < players; seat++) {
+            if (seatMoves[seat] > 0 && Objects.equals(seatNames[seat], player.getName())) {
+                return seat;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the owner entry for a player's next tile, adding one if needed.
+     *
+     * @param player the player about to move
+     * @return the index in owners, or -1 if the player has no seat or the table is full
+     */
+    private int ownerFor(final Player player) {
+        int seat = seatFor(player);
+        if (seat < 0) {
+            return -1;
+        }
+        for (int owner = 1; owner < ownerCount; owner++) {
+            if (ownerSeats[owner] == seat && owners[owner].equals(player)) {
+                return owner;
+            }
+        }
+        if (ownerCount > MAX_OWNERS) {
+            return -1;
+        }
+        if (ownerCount == owners.length) {
+            int grown = Math.min(owners.length * 2, MAX_OWNERS + 1);
+            owners = Arrays.copyOf(owners, grown);
+            ownerSeats = Arrays.copyOf(ownerSeats, grown);
+        }
+        owners[ownerCount] = player;
+        ownerSeats[ownerCount] = (byte) seat;
+        ownerCount++;
+        return ownerCount - 1;
+    }
+
+    /**
+     * Drop a tile and update heights, history, seats, hash and winner.
+     * <p>
+     * The caller has already checked that the column has room.
+     *
+     * @param owner the index in owners of the player moving and their seat
+     * @param setX the column to drop the tile in
+     */
+    private void play(final int owner, final int setX) {
+        Player player = owners[owner];
+        int seat = ownerSeats[owner];
+        int y = heights[setX];
+        cells[setX * height + y] = (byte) owner;
+        heights[setX]++;
+        history[moveCount] = (short) (setX | (owner << OWNER_SHIFT));
+        moveCount++;
+        seatNames[seat] = player.getName();
+        seatMoves[seat]++;
+        positionHash ^= ZOBRIST[zobristIndex(seat, setX, y)];
+        mirrorHash ^= ZOBRIST[zobristIndex(seat, width - 1 - setX, y)];
+        int bit = 1 << setX;
+        rowTiles[seat][y] |= bit;
+        landing[y] &= ~bit;
+        if (y + 1 < height) {
+            landing[y + 1] |= bit;
+        } else {
+            fullColumns |= bit;
+        }
+        FlightEvents.WinCheck event = new FlightEvents.WinCheck();
+        event.begin();
+        boolean won = completesRun(setX, y);
+        event.end();
+        if (won) {
+            winner = player;
+        }
+        if (event.shouldCommit()) {
+            event.set(this, setX, won);
+            event.commit();
+        }
+    }
+
+    /**
+     * Forget undone moves once a new move has been played.
+     */
+    private void clearRedo() {
+        redoCount = 0;
+    }
+
+    /**
+     * Get the columns where a seat would complete a run of N with its next tile there.
+     *
+     * @param seat the seat
+     * @return a mask with bit x set when the open cell in column x completes a run
+     */
+    private int threats(final int seat) {
+        if (n <= 0 || seatMoves[seat] < n - 1) {
+            return 0;
+        }
+        int found = 0;
+        for (int y = 0; y < height; y++) {
+            int open = landing[y];
+            if (open != 0) {
+                found |= runsThrough(seat, open, y, 1, 0) | runsThrough(seat, open, y, 0, -1)
+                        | runsThrough(seat, open, y, 1, 1) | runsThrough(seat, open, y, 1, -1);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Find which of some cells in a row would complete a run of N along a line for a seat.
+     * <p>
+     * A cell completes a run when, for some split of N - 1, the seat holds that many cells just
+     * behind it on the line and the rest just ahead. Starting from the cells asked about, masks
+     * of the cells with k tiles behind them and with k tiles ahead are built one distance at a
+     * time, stopping as soon as no cell is left, and the matching pairs are combined.
+     *
+     * @param seat the seat
+     * @param cells the cells to check, as a mask of columns
+     * @param y the row
+     * @param dx column step along the line
+     * @param dy row step along the line
+     * @return the cells that complete a run
+     */
+    private int runsThrough(final int seat, final int cells, final int y, final int dx,
+            final int dy) {
+        int reach = 0;
+        int behind = cells;
+        runScratch[0] = behind;
+        while (reach < n - 1) {
+            behind &= shiftedRow(seat, y - dy * (reach + 1), -dx * (reach + 1));
+            if (behind == 0) {
+                break;
+            }
+            reach++;
+            runScratch[reach] = behind;
+        }
+        int found = 0;
+        if (reach == n - 1) {
+            found = runScratch[reach];
+        }
+        int ahead = cells;
+        for (int k = 1; k < n && ahead != 0; k++) {
+            ahead &= shiftedRow(seat, y + dy * k, dx * k);
+            if (n - 1 - k <= reach) {
+                found |= ahead & runScratch[n - 1 - k];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get a seat's tiles in a row, shifted so that bit x says whether column x + shift is held.
+     *
+     * @param seat the seat
+     * @param y the row, which may be off the board
+     * @param shift how far along the row to look
+     * @return the shifted mask, or zero if the row is off the board
+     */
+    private int shiftedRow(final int seat, final int y, final int shift) {
+        if (y < 0 || y >= height) {
+            return 0;
+        }
+        if (shift >= 0) {
+            return rowTiles[seat][y] >>> shift;
+        }
+        return (rowTiles[seat][y] << -shift) & columnMask();
+    }
+
+    /**
+     * Get a mask with a bit set for every column.
+     *
+     * @return the mask
+     */
+    private int columnMask() {
+        return (1 << width) - 1;
+    }
+
+    /**
+     * Index of the hash key for a seat's tile at a position.
+     *
+     * @param seat the seat owning the tile
+     * @param x the column
+     * @param y the row
+     * @return index into ZOBRIST
+     */
+    private static int zobristIndex(final int seat, final int x, final int y) {
+        return (seat * MAX_WIDTH + x) * MAX_HEIGHT + y;
+    }
+
+    /**
+     * Determine whether the tile at a position is part of a run of N.
+     * <p>
+     * Only lines through the new tile can have changed, so this checks the column, row and both
+     * diagonals around it rather than scanning the whole board. Each check walks the cell array
+     * with a fixed stride.
+     *
+     * @param x the column of the new tile
+     * @param y the row of the new tile
+     * @return true if the tile completes a run of at least N
+     */
+    private boolean completesRun(final int x, final int y) {
+        if (n <= 0) {
+            return false;
+        }
+        int seat = ownerSeats[cells[x * height + y] & CELL_MASK];
+        return 1 + countRun(x, y, 0, -1, seat) >= n
+                || 1 + countRun(x, y, 1, 0, seat) + countRun(x, y, -1, 0, seat) >= n
+                || 1 + countRun(x, y, 1, 1, seat) + countRun(x, y, -1, -1, seat) >= n
+                || 1 + countRun(x, y, 1, -1, seat) + countRun(x, y, -1, 1, seat) >= n;
+    }
+
+    /**
+     * Count consecutive tiles from a seat walking away from a position.
+     *
+     * @param x the starting column, which is not counted
+     * @param y the starting row, which is not counted
+     * @param dx column step
+     * @param dy row step
+     * @param seat the seat whose tiles are counted
+     * @return the number of matching tiles, stopping at N
+     */
+    private int countRun(final int x, final int y, final int dx, final int dy,
+            final int seat) {
+        int count = 0;
+        int cx = x + dx;
+        int cy = y + dy;
+        int stride = dx * height + dy;
+        int cell = cx * height + cy;
+        while (count < n && 0 <= cx && cx < width && 0 <= cy && cy < height
+                && cells[cell] != 0 && ownerSeats[cells[cell] & CELL_MASK] == seat) {
+            count++;
+            cx += dx;
+            cy += dy;
+            cell += stride;
+        }
+        return count;
+    }
 
     /**
      * Gets the current board's id.
@@ -363,15 +1247,19 @@ public class ConnectN {
      */
     public Player[][] getBoard() {
         if (width != 0 && height != 0) {
+            FlightEvents.BoardCopy event = new FlightEvents.BoardCopy();
+            event.begin();
             Player[][] update = new Player[width][height];
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    if (board[x][y] == null) {
-                        continue;
-                    }
-                    update[x][y] = new Player(board[x][y]);
+            for (int x = 0; x < width; x++) {
+                for (int y = 0; y < heights[x]; y++) {
+                    update[x][y] = new Player(owners[cells[x * height + y] & CELL_MASK]);
                 }
             }
+            event.end();
+            if (event.shouldCommit()) {
+                event.set(this);
+                event.commit();
+            }
             return update;
         } else {
             return null;
@@ -387,7 +1275,7 @@ public class ConnectN {
      */
     public Player getBoardAt(final int getX, final int getY) {
         if (0 <= getX && getX < width && 0 <= getY && getY < height) {
-            return board[getX][getY];
+            return owners[cells[getX * height + getY] & CELL_MASK];
         } else {
             return null;
         }
@@ -395,72 +1283,15 @@ public class ConnectN {
 
     /**
      * Return the winner of the game, or null if the game has not ended.
+     * <p>
+     * The winner's score goes up once, when the winning move is played through setBoardAt, so
+     * this can be called any number of times. Taking the winning move back and winning again
+     * does not add another point; the first result of a game is the one that counts.
      *
      * @return the winner of the game
      */
     public Player getWinner() {
-
-        if (gameStarted()) {
-            Player diaR = rightDia();
-            Player diaL = leftDia();
-            if (diaR != null) {
-                diaR.addScore();
-                return diaR;
-            }
-            if (diaL != null) {
-                diaL.addScore();
-                return diaL;
-            }
-            int streak = 0;
-            String lastPlayer = "";
-            String p1;
-            for (int x = 0; x < width; x++) {
-                streak = 0;
-                lastPlayer = "";
-                for (int y = 0; y < height; y++) {
-                    if (board[x][y] == null) {
-                        continue;
-                    } else {
-                    p1 = (board[x][y]).getName();
-                    }
-                    if (p1.equals(lastPlayer)) {
-                        streak++;
-                        if (streak == n) {
-                            board[x][y].addScore();
-                            return board[x][y];
-                        }
-                    } else {
-                        streak = 1;
-                        lastPlayer = p1;
-                    }
-
-                }
-            }
-            for (int y = 0; y < height; y++) {
-                streak = 0;
-                lastPlayer = "";
-                for (int x = 0; x < width; x++) {
-                    if (board[x][y] == null) {
-                        continue;
-                    } else {
-                    p1 = (board[x][y]).getName();
-                    }
-                    if (p1.equals(lastPlayer)) {
-                        streak++;
-                        if (streak == this.n) {
-                            board[x][y].addScore();
-                            return board[x][y];
-                        }
-                    } else {
-                        streak = 1;
-                        lastPlayer = p1;
-                    }
-                }
-            }
-        return null;
-        }
-        return null;
-
+        return winner;
     }
 
 
@@ -481,17 +1312,23 @@ public class ConnectN {
         if (firstBoard.n != secondBoard.n) {
             return false;
         }
-        for (int y = 0; y < firstBoard.height; y++) {
-            for (int x = 0; x < firstBoard.width; x++) {
-                Player first = firstBoard.board[x][y];
-                Player second = secondBoard.board[x][y];
-                if (first == null && second == null) {
-                    continue;
-                } else if (first == null || second == null) {
-                    return false;
-                } else if (!first.equals(second)) {
-                    return false;
-                }
+        return sameTiles(firstBoard, secondBoard);
+    }
+
+    /**
+     * Compare the tiles of two boards of the same dimensions, one flat cell array against the
+     * other.
+     *
+     * @param firstBoard the first board
+     * @param secondBoard the second board
+     * @return true if every cell is empty on both boards or holds equal players
+     */
+    private static boolean sameTiles(final ConnectN firstBoard, final ConnectN secondBoard) {
+        for (int cell = 0; cell < firstBoard.cells.length; cell++) {
+            Player first = firstBoard.owners[firstBoard.cells[cell] & CELL_MASK];
+            Player second = secondBoard.owners[secondBoard.cells[cell] & CELL_MASK];
+            if (!Objects.equals(first, second)) {
+                return false;
             }
         }
         return true;
@@ -516,18 +1353,8 @@ public class ConnectN {
             if (boards[i].n != boards[i + 1].n) {
                 return false;
             }
-            for (int y = 0; y < boards[i].height; y++) {
-                for (int x = 0; x < boards[i].width; x++) {
-                    Player first = boards[i].board[x][y];
-                    Player second = boards[i + 1].board[x][y];
-                    if (first == null && second == null) {
-                        continue;
-                    } else if (first == null || second == null) {
-                        return false;
-                    } else if (!first.equals(second)) {
-                        return false;
-                    }
-                }
+            if (!sameTiles(boards[i], boards[i + 1])) {
+                return false;
             }
         }
         return true;
@@ -574,15 +1401,7 @@ public class ConnectN {
      * @return true if the game has started
      */
     public boolean gameStarted() {
-        boolean flag = false;
-        for (int k = 0; k < height; k++) {
-            for (int i = 0; i < width; i++) {
-                if (board[i][k] != null) {
-                    flag = true;
-                }
-            }
-        }
-        return flag;
+        return moveCount > 0;
     }
 /**
  * Determines whether the game is over or not.
@@ -590,18 +1409,7 @@ public class ConnectN {
  * @return true if the game is over
  */
     public boolean gameEnded() {
-        if (hasWinner() == true) {
-            return true;
-        } else {
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    if (board[x][y] == null) {
-                        return false;
-                    }
-                }
-            }
-            return true;
-        }
+        return winner != null || moveCount == width * height;
     }
 /**
  * Determines whether the ConnectN game has a winner or not.
@@ -609,163 +1417,154 @@ public class ConnectN {
  * @return true if there is a winner, false if not
  */
     public boolean hasWinner() {
+        return winner != null;
+    }
 
-        if (gameStarted()) {
-            if (rightDia() != null) {
-                return true;
+
+    /**
+     * Determines who's turn it is to play.
+     * <p>
+     * Nobody's turn is enforced until every seat has tiles on the board. After that it is the
+     * turn of the seat with the fewest tiles, and on a tie, of the one that moved first.
+     *
+     * @return name of the player who's turn it is
+     */
+    public String whosTurn() {
+        int turn = 0;
+        for (int seat = 0; seat < players; seat++) {
+            if (seatMoves[seat] == 0) {
+                return null;
             }
-            if (leftDia() != null) {
-                return true;
+            if (seatMoves[seat] < seatMoves[turn]) {
+                turn = seat;
             }
-            int streak = 0;
-            String lastPlayer = "";
-            String p1;
-            for (int x = 0; x < width; x++) {
-                streak = 0;
-                lastPlayer = "";
-                for (int y = 0; y < height; y++) {
-                    if (board[x][y] == null) {
-                        continue;
-                    } else {
-                    p1 = (board[x][y]).getName();
-                    }
-                    if (p1.equals(lastPlayer)) {
-                        streak++;
-                        if (streak == n) {
-                            return true;
-                        }
-                    } else {
-                        streak = 1;
-                        lastPlayer = p1;
-                    }
+        }
+        return seatNames[turn];
+    }
 
-                }
+
+    /**
+     * Scan the whole board for a run of N, without relying on the winner found move by move.
+     * <p>
+     * This is for positions that were not built by play, such as imported ones, and for
+     * adjudicating. Each seat's tiles are kept as one bitmask per row, so a run is found by
+     * ANDing N row masks shifted along the line, which checks every column of a row at once. The
+     * connectn.cellScan system property switches to visiting each cell instead.
+     *
+     * @return the player owning a run of at least N, or null if there is none
+     */
+    public Player findWinner() {
+        return findWinner(!CELL_SCAN);
+    }
+
+    /**
+     * Scan the whole board for a run of N with a particular kernel.
+     *
+     * @param useMasks true to scan the row masks, false to visit each cell
+     * @return the player owning a run of at least N, or null if there is none
+     */
+    Player findWinner(final boolean useMasks) {
+        for (int[] direction : SCAN_DIRECTIONS) {
+            Player found = findRun(direction[0], direction[1], useMasks);
+            if (found != null) {
+                return found;
             }
-            for (int y = 0; y < height; y++) {
-                streak = 0;
-                lastPlayer = "";
-                for (int x = 0; x < width; x++) {
-                    if (board[x][y] == null) {
-                        continue;
-                    } else {
-                    p1 = (board[x][y]).getName();
-                    }
-                    if (p1.equals(lastPlayer)) {
-                        streak++;
-                        if (streak == this.n) {
-                            return true;
-                        }
+        }
+        return null;
+    }
+
+    /**
+     * Scan the whole board for a run of N along one direction.
+     *
+     * @param dx column step, -1, 0 or 1
+     * @param dy row step, 0 or 1
+     * @param useMasks true to scan the row masks, false to visit each cell
+     * @return the player owning the first run found, or null if there is none
+     */
+    private Player findRun(final int dx, final int dy, final boolean useMasks) {
+        if (n <= 0) {
+            return null;
+        }
+        if (useMasks) {
+            return maskRun(dx, dy);
+        }
+        return cellRun(dx, dy);
+    }
+
+    /**
+     * Find a run along one direction from the row masks.
+     * <p>
+     * For each seat and starting row, bit x of the running mask says whether the seat holds the
+     * first k cells of the line from column x, so N - 1 shifted ANDs check every run starting in
+     * the row. Shifting left cannot carry bits past the last column, since the running mask
+     * starts as a row of the board. Seats with fewer than N tiles are skipped, and a row stops as
+     * soon as its mask empties.
+     *
+     * @param dx column step, -1, 0 or 1
+     * @param dy row step, 0 or 1
+     * @return the player owning the first run found, or null if there is none
+     */
+    private Player maskRun(final int dx, final int dy) {
+        for (int seat = 0; seat < players; seat++) {
+            if (seatMoves[seat] < n) {
+                continue;
+            }
+            int[] rows = rowTiles[seat];
+            for (int y = 0; y + dy * (n - 1) < height; y++) {
+                int run = rows[y];
+                for (int k = 1; k < n && run != 0; k++) {
+                    if (dx < 0) {
+                        run &= rows[y + dy * k] << k;
                     } else {
-                        streak = 1;
-                        lastPlayer = p1;
+                        run &= rows[y + dy * k] >>> (dx * k);
                     }
                 }
+                if (run != 0) {
+                    return getBoardAt(Integer.numberOfTrailingZeros(run), y);
+                }
             }
-        return false;
         }
-        return false;
-
+        return null;
     }
 
-
     /**
-     * Determines who's turn it is to play.
+     * Find a run along one direction by visiting each cell, as a fallback for maskRun.
      *
-     * @return name of the player who's turn it is
+     * @param dx column step, -1, 0 or 1
+     * @param dy row step, 0 or 1
+     * @return the player owning the first run found, or null if there is none
      */
-    public String whosTurn() {
-        int p1Turns = 0;
-        int p2Turns = 0;
-        String p1 = "";
-        String p2 = "";
-
-        for (int y = 0; y < height; y++) {
+    private Player cellRun(final int dx, final int dy) {
+        for (int y = 0; y + dy * (n - 1) < height; y++) {
             for (int x = 0; x < width; x++) {
-                Player current = board[x][y];
-                if (current == null) {
+                int endX = x + dx * (n - 1);
+                if (cells[x * height + y] == 0 || endX < 0 || endX >= width) {
                     continue;
-                } else {
-                    if (p1.equals("")) {
-                        if (p2.equals("")) {
-                            p2 = current.getName();
-                            p2Turns++;
-                        } else if (p2.equals(current.getName())) {
-                            p2Turns++;
-                        } else {
-                            p1 = (current).getName();
-                            p1Turns++;
-                        }
-                    } else if (p2.equals("")) {
-                        if ((current.getName()).equals(p1)) {
-                            p1Turns++;
-                        } else {
-                            p2 = current.getName();
-                            p2Turns++;
-                        }
-                    } else {
-                        if ((current.getName()).equals(p1)) {
-                            p1Turns++;
-                        } else if (current.getName().equals(p2)) {
-                        p2Turns++;
-                        }
-                    }
+                }
+                int seat = ownerSeats[cells[x * height + y] & CELL_MASK];
+                if (1 + countRun(x, y, dx, dy, seat) >= n) {
+                    return getBoardAt(x, y);
                 }
             }
-        } //FOR LOOPS OVER
-        if (!p1.equals("") && !p2.equals("")) {
-            if (p2Turns > p1Turns) {
-                return p1;
-            }
-            return p2;
         }
-
         return null;
     }
 
-
     /**
      * Determines which player (if any) has won on a positive slope.
      *
-     * @return the player that won, null if n/a
+     * @return the player owning a run of N rising to the right, null if n/a
      */
     public Player rightDia() {
-        for (int row = 0; row < height - n + 1; row++) {
-            for (int column = 0; column < width - n + 1; column++) {
-              if (board[column][row] != null && board[column + 1][row + 1] != null
-                      && board[column + 2][row + 2] != null
-                      && board[column + 3][row + 3] != null) {
-
-                   if ( board[column + 1][row + 1].equals(board[column][row])
-                           && board[column + 2][row + 2].equals(board[column][row]) &&
-                   board[column + 3][row + 3].equals(board[column][row])) {
-                              return board[column][row];
-                              }
-              }
-         }
-       }
-        return null;
+        return findRun(1, 1, !CELL_SCAN);
     }
+
     /**
      * Determines which player (if any) has won on a negative slope.
      *
-     * @return the player that won, null if n/a
+     * @return the player owning a run of N falling to the right, null if n/a
      */
     public Player leftDia() {
-        for (int row = n - 1; row < height; row++) {
-            for (int column = 0; column < width - n + 1; column++) {
-                if (board[column][row] != null && board[column + 1][row - 1] != null
-                        && board[column + 2][row - 2] != null
-                        && board[column + 3][row - 3] != null) {
-                    if(board[column + 1][row - 1].equals(board[column][row])
-                            && board[column + 2][row - 2].equals(board[column][row])
-                        && board[column + 3][row - 3].equals(board[column][row])){
-                        return board[column][row];
-                   }
-                }
-            }
-        }
-        return null;
+        return findRun(-1, 1, !CELL_SCAN);
     }
-
-
 }
@@ -0,0 +1,129 @@
+import java.util.Arrays;
+
+/**
+ * Elo ratings fitted to the results of games between a fixed set of players.
+ * <p>
+ * Ratings are the maximum likelihood fit of the Bradley-Terry model, in which a player rated D
+ * points above another is expected to score 1 / (1 + 10^(-D/400)) against it, with a draw worth
+ * half a point. The fit uses the minorization-maximization iteration, which climbs the likelihood
+ * on every step. Every player is also given one virtual draw against a player rated zero, so that
+ * a player who has won or lost every game still gets a finite rating, and players who have not
+ * played sit at zero. Ratings are then shifted to average zero; only differences mean anything.
+ * <p>
+ * The margin of a rating is the half-width of its 95% confidence interval, from the curvature of
+ * the likelihood at the fit. It treats each rating as if the others were known exactly, so it
+ * is a little narrow when there are only a few players, and ignores that draws make scores less
+ * noisy, which makes it a little wide when there are many draws.
+ */
+public final class EloRatings {
+
+    /** Elo points per natural logarithm unit of strength. */
+    static final double ELO_PER_UNIT = 400 / Math.log(10);
+
+    /** Standard normal quantile of a 95% two-sided interval. */
+    private static final double Z_95 = 1.96;
+
+    /** Score of the virtual draw every player is given. */
+    private static final double PRIOR_SCORE = 0.5;
+
+    /** The fit stops when no strength changes by more than this fraction in a step. */
+    private static final double TOLERANCE = 1e-10;
+
+    /** The fit stops after this many steps even if it has not converged. */
+    private static final int MAX_STEPS = 100000;
+
+    /** Ratings by player. */
+    private final double[] ratings;
+
+    /** Confidence margins by player. */
+    private final double[] margins;
+
+    /**
+     * Fit ratings to game results.
+     *
+     * @param games games[i][j] is the number of games between players i and j, which must equal
+     *        games[j][i]
+     * @param points points[i][j] is the points player i scored against player j, counting a win
+     *        as one and a draw as half
+     */
+    public EloRatings(final long[][] games, final double[][] points) {
+        int players = games.length;
+        double[] scores = new double[players];
+        for (int i = 0; i < players; i++) {
+            scores[i] = PRIOR_SCORE;
+            for (int j = 0; j < players; j++) {
+                scores[i] += points[i][j];
+            }
+        }
+
+        double[] strengths = new double[players];
+        Arrays.fill(strengths, 1.0);
+        for (int step = 0; step < MAX_STEPS; step++) {
+            double change = 0;
+            for (int i = 0; i < players; i++) {
+                double expected = 1 / (strengths[i] + 1);
+                for (int j = 0; j < players; j++) {
+                    if (j != i && games[i][j] > 0) {
+                        expected += games[i][j] / (strengths[i] + strengths[j]);
+                    }
+                }
+                double next = scores[i] / expected;
+                change = Math.max(change, Math.abs(next - strengths[i]) / strengths[i]);
+                strengths[i] = next;
+            }
+            if (change < TOLERANCE) {
+                break;
+            }
+        }
+
+        ratings = new double[players];
+        margins = new double[players];
+        double mean = 0;
+        for (int i = 0; i < players; i++) {
+            ratings[i] = ELO_PER_UNIT * Math.log(strengths[i]);
+            mean += ratings[i] / players;
+
+            double p = strengths[i] / (strengths[i] + 1);
+            double information = p * (1 - p);
+            for (int j = 0; j < players; j++) {
+                if (j != i && games[i][j] > 0) {
+                    p = strengths[i] / (strengths[i] + strengths[j]);
+                    information += games[i][j] * p * (1 - p);
+                }
+            }
+            margins[i] = Z_95 * ELO_PER_UNIT / Math.sqrt(information);
+        }
+        for (int i = 0; i < players; i++) {
+            ratings[i] -= mean;
+        }
+    }
+
+    /**
+     * Get the number of players rated.
+     *
+     * @return the count
+     */
+    public int getPlayers() {
+        return ratings.length;
+    }
+
+    /**
+     * Get a player's rating.
+     *
+     * @param player the player's index
+     * @return the rating, relative to an average of zero
+     */
+    public double getRating(final int player) {
+        return ratings[player];
+    }
+
+    /**
+     * Get the half-width of the 95% confidence interval of a player's rating.
+     *
+     * @param player the player's index
+     * @return the margin, in Elo points
+     */
+    public double getMargin(final int player) {
+        return margins[player];
+    }
+}
@@ -0,0 +1,192 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events emitted from the ConnectN hot paths.
+ * <p>
+ * Every event carries the board's ID, dimensions and N, and JFR records its duration, so a
+ * latency spike in a recording can be traced to the board and configuration that caused it.
+ * <p>
+ * All events are disabled by default and are switched on by a settings profile, like the one in
+ * config/jfr/connectn.jfc:
+ * <pre>
+ * java -XX:StartFlightRecording=settings=config/jfr/connectn.jfc,filename=connectn.jfr ...
+ * </pre>
+ * While an event is disabled, begin, end and shouldCommit do nothing, and the JIT removes the
+ * event object, so instrumented code costs about as much as it did before.
+ */
+public final class FlightEvents {
+
+    /** Events are created through the nested classes. */
+    private FlightEvents() { }
+
+    /**
+     * An event about one board.
+     * <p>
+     * JFR does not record private fields inherited from a superclass, so these are protected.
+     */
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    @Category("ConnectN")
+    @Enabled(false)
+    @StackTrace(false)
+    abstract static class BoardEvent extends Event {
+
+        /** The board's ID. */
+        @Label("Board ID")
+        protected int boardID;
+
+        /** The board's width. */
+        @Label("Width")
+        protected int width;
+
+        /** The board's height. */
+        @Label("Height")
+        protected int height;
+
+        /** The board's N value. */
+        @Label("N")
+        protected int n;
+
+        /** Moves played on the board. */
+        @Label("Moves")
+        protected int moves;
+
+        /**
+         * Describe the board the event is about.
+         *
+         * @param board the board
+         */
+        final void setBoard(final ConnectN board) {
+            boardID = board.getID();
+            width = board.getWidth();
+            height = board.getHeight();
+            n = board.getN();
+            moves = board.getMoveCount();
+        }
+    }
+
+    /**
+     * A tile placed, or refused, by ConnectN.setBoardAt.
+     */
+    @Name("connectn.Move")
+    @Label("Move")
+    @Description("A call to setBoardAt, including the check for a win")
+    @Threshold("100 us")
+    public static final class Move extends BoardEvent {
+
+        /** The column played. */
+        @Label("Column")
+        private int column;
+
+        /** Whether the tile was placed. */
+        @Label("Placed")
+        private boolean placed;
+
+        /**
+         * Record the outcome of the move.
+         *
+         * @param board the board
+         * @param setColumn the column played
+         * @param setPlaced whether the tile was placed
+         */
+        void set(final ConnectN board, final int setColumn, final boolean setPlaced) {
+            setBoard(board);
+            column = setColumn;
+            placed = setPlaced;
+        }
+    }
+
+    /**
+     * A check of whether the last tile completed a run.
+     */
+    @Name("connectn.WinCheck")
+    @Label("Win Check")
+    @Description("The incremental check of whether a tile completes a run of N")
+    @Threshold("20 us")
+    public static final class WinCheck extends BoardEvent {
+
+        /** The column of the tile checked. */
+        @Label("Column")
+        private int column;
+
+        /** Whether the tile won the game. */
+        @Label("Won")
+        private boolean won;
+
+        /**
+         * Record the outcome of the check.
+         *
+         * @param board the board
+         * @param setColumn the column of the tile checked
+         * @param setWon whether the tile won
+         */
+        void set(final ConnectN board, final int setColumn, final boolean setWon) {
+            setBoard(board);
+            column = setColumn;
+            won = setWon;
+        }
+    }
+
+    /**
+     * A copy of the board made by ConnectN.getBoard.
+     */
+    @Name("connectn.BoardCopy")
+    @Label("Board Copy")
+    @Description("A copy of the board's cells returned by getBoard")
+    @Threshold("100 us")
+    public static final class BoardCopy extends BoardEvent {
+
+        /** Cells copied. */
+        @Label("Cells")
+        private int cells;
+
+        /**
+         * Record the copy.
+         *
+         * @param board the board
+         */
+        void set(final ConnectN board) {
+            setBoard(board);
+            cells = board.getWidth() * board.getHeight();
+        }
+    }
+
+    /**
+     * A request handled by WebServer.handleAction.
+     */
+    @Name("connectn.Request")
+    @Label("Request")
+    @Description("An action handled by the web server")
+    @Threshold("1 ms")
+    public static final class Request extends BoardEvent {
+
+        /** The action requested. */
+        @Label("Action")
+        private String action;
+
+        /** Whether the action succeeded. */
+        @Label("Success")
+        private boolean success;
+
+        /**
+         * Record the outcome of the request.
+         *
+         * @param board the board the request was about, or null
+         * @param setAction the action requested
+         * @param setSuccess whether the action succeeded
+         */
+        void set(final ConnectN board, final String setAction, final boolean setSuccess) {
+            if (board != null) {
+                setBoard(board);
+            }
+            action = setAction;
+            success = setSuccess;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The record of one ConnectN game: the board's configuration, who played, and every move in
+ * order.
+ * <p>
+ * A record is what the archive keeps of a game, in the format written by GameRecordWriter. It
+ * holds the moves rather than the final grid, so the game can be replayed, and anything about
+ * it, down to the state after each move, can be worked out again. Players are numbered by seat,
+ * in the order they first moved, and each move records its column and the seat that played it.
+ * Records are immutable.
+ */
+public final class GameRecord {
+
+    /** The ID of the board the game was played on. */
+    private final int id;
+
+    /** The width of the board. */
+    private final int width;
+
+    /** The height of the board. */
+    private final int height;
+
+    /** The run length needed to win. */
+    private final int n;
+
+    /** Player IDs by seat. */
+    private final int[] playerIDs;
+
+    /** Player names by seat. */
+    private final String[] playerNames;
+
+    /** Column of each move. */
+    private final int[] columns;
+
+    /** Seat of each move. */
+    private final byte[] seats;
+
+    /**
+     * Create a record. The arrays are kept, not copied.
+     *
+     * @param setID the board ID
+     * @param setWidth the width
+     * @param setHeight the height
+     * @param setN the run length needed to win
+     * @param setPlayerIDs player IDs by seat
+     * @param setPlayerNames player names by seat
+     * @param setColumns column of each move
+     * @param setSeats seat of each move
+     */
+    GameRecord(final int setID, final int setWidth, final int setHeight, final int setN,
+            final int[] setPlayerIDs, final String[] setPlayerNames, final int[] setColumns,
+            final byte[] setSeats) {
+        id = setID;
+        width = setWidth;
+        height = setHeight;
+        n = setN;
+        playerIDs = setPlayerIDs;
+        playerNames = setPlayerNames;
+        columns = setColumns;
+        seats = setSeats;
+    }
+
+    /**
+     * Record the game played so far on a board.
+     *
+     * @param board the board
+     * @return the record of its moves
+     */
+    public static GameRecord of(final ConnectN board) {
+        int moveCount = board.getMoveCount();
+        int[] columns = new int[moveCount];
+        byte[] seats = new byte[moveCount];
+        int[] columnHeights = new int[board.getWidth()];
+        List<Player> seated = new ArrayList<Player>();
+        for (int i = 0; i < moveCount; i++) {
+            int column = board.getMoveAt(i);
+            Player mover = board.getBoardAt(column, columnHeights[column]);
+            columnHeights[column]++;
+            int seat = seated.indexOf(mover);
+            if (seat < 0) {
+                seat = seated.size();
+                seated.add(mover);
+            }
+            columns[i] = column;
+            seats[i] = (byte) seat;
+        }
+        int[] playerIDs = new int[seated.size()];
+        String[] playerNames = new String[seated.size()];
+        for (int seat = 0; seat < playerIDs.length; seat++) {
+            playerIDs[seat] = seated.get(seat).getID();
+            playerNames[seat] = seated.get(seat).getName();
+        }
+        return new GameRecord(board.getID(), board.getWidth(), board.getHeight(), board.getN(),
+                playerIDs, playerNames, columns, seats);
+    }
+
+    /**
+     * Rebuild the game on a new board by replaying its moves.
+     * <p>
+     * The board has the recorded ID and does not count as a new game. Each seat gets a new
+     * Player with the recorded ID and name and no score.
+     *
+     * @return the board after the last move
+     * @throws IllegalArgumentException if the record does not describe a legal ConnectN game
+     */
+    public ConnectN replay() {
+        if (!ConnectN.isValid(width, height, n) || playerIDs.length > ConnectN.MAX_PLAYERS) {
+            throw new IllegalArgumentException("Record " + id + " is not a valid configuration");
+        }
+        ConnectN board = ConnectN.restore(id, width, height, n);
+        board.setPlayers(Math.max(ConnectN.MIN_PLAYERS, playerIDs.length));
+        Player[] players = new Player[playerIDs.length];
+        for (int seat = 0; seat < players.length; seat++) {
+            players[seat] = new Player(playerNames[seat], 0, playerIDs[seat]);
+        }
+        int replayed = board.replayMoves(players, columns, seats);
+        if (replayed < columns.length) {
+            throw new IllegalArgumentException("Record " + id + " has an illegal move "
+                    + replayed + " in column " + columns[replayed]);
+        }
+        return board;
+    }
+
+    /**
+     * Get the ID of the board the game was played on.
+     *
+     * @return the board ID
+     */
+    public int getID() {
+        return id;
+    }
+
+    /**
+     * Get the width of the board.
+     *
+     * @return the width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the board.
+     *
+     * @return the height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the run length needed to win.
+     *
+     * @return N
+     */
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * Get the number of players who moved.
+     *
+     * @return the number of seats
+     */
+    public int getSeatCount() {
+        return playerIDs.length;
+    }
+
+    /**
+     * Get the ID of the player in a seat.
+     *
+     * @param seat the seat
+     * @return the player's ID
+     */
+    public int getPlayerID(final int seat) {
+        return playerIDs[seat];
+    }
+
+    /**
+     * Get the name of the player in a seat.
+     *
+     * @param seat the seat
+     * @return the player's name
+     */
+    public String getPlayerName(final int seat) {
+        return playerNames[seat];
+    }
+
+    /**
+     * Get the number of moves in the game.
+     *
+     * @return the move count
+     */
+    public int getMoveCount() {
+        return columns.length;
+    }
+
+    /**
+     * Get the column of a move.
+     *
+     * @param index which move, starting from zero
+     * @return the column the tile was dropped in
+     */
+    public int getColumn(final int index) {
+        return columns[index];
+    }
+
+    /**
+     * Get the seat that played a move.
+     *
+     * @param index which move, starting from zero
+     * @return the seat of the player who moved
+     */
+    public int getSeat(final int index) {
+        return seats[index];
+    }
+
+    /**
+     * Define equality for records: two records are equal if they describe the same game, with
+     * the same board, players and moves.
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof GameRecord)) {
+            return false;
+        }
+        GameRecord other = (GameRecord) obj;
+        return id == other.id && width == other.width && height == other.height && n == other.n
+                && Arrays.equals(playerIDs, other.playerIDs)
+                && Arrays.equals(playerNames, other.playerNames)
+                && Arrays.equals(columns, other.columns) && Arrays.equals(seats, other.seats);
+    }
+
+    /**
+     * Define the hash code for records, from the board ID and the moves.
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        return prime * Arrays.hashCode(columns) + id;
+    }
+}
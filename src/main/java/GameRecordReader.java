@@ -0,0 +1,244 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads game records written by GameRecordWriter, one at a time.
+ * <p>
+ * The stream is read in large blocks into a buffer owned by the reader, and records are decoded
+ * straight out of it, so memory use stays the same however long the file is. Each record is
+ * checked as it is read: a record that is cut short or that describes moves off its board is
+ * reported as an IOException, so a damaged archive fails at the damaged record rather than
+ * producing games that cannot be replayed.
+ */
+public final class GameRecordReader implements Closeable {
+
+    /** Longest player name accepted, in bytes, which always fits in the buffer. */
+    private static final int MAX_NAME_BYTES = GameRecordWriter.BUFFER_SIZE;
+
+    /** Most moves accepted in one record. */
+    private static final int MAX_MOVES = 1 << 24;
+
+    /** Longest varint of an int. */
+    private static final int MAX_VARINT_BYTES = 5;
+
+    /** Bits in a byte. */
+    private static final int BYTE_BITS = 8;
+
+    /** Mask for the low byte of an int. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Where records come from. */
+    private final InputStream in;
+
+    /** Bytes read from the stream and not yet decoded. */
+    private final byte[] buffer = new byte[GameRecordWriter.BUFFER_SIZE];
+
+    /** Position of the next byte to decode. */
+    private int position;
+
+    /** Number of valid bytes in the buffer. */
+    private int limit;
+
+    /** Number of records read. */
+    private long records;
+
+    /** Number of bytes read from the stream, including those still in the buffer. */
+    private long streamBytes;
+
+    /**
+     * Start reading a record file.
+     *
+     * @param setIn where to read from; closed when the reader is closed
+     * @throws IOException if the stream does not start with a record file header
+     */
+    public GameRecordReader(final InputStream setIn) throws IOException {
+        in = setIn;
+        int magic = 0;
+        for (int i = 0; i < Integer.BYTES; i++) {
+            magic = (magic << BYTE_BITS) | readByte();
+        }
+        if (magic != GameRecordWriter.MAGIC) {
+            throw new IOException("Not a game record file");
+        }
+        int version = readByte();
+        if (version != GameRecordWriter.VERSION) {
+            throw new IOException("Unsupported game record version " + version);
+        }
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the record, or null at the end of the stream
+     * @throws IOException if the stream fails or the record is damaged
+     */
+    public GameRecord read() throws IOException {
+        if (!fill(1)) {
+            return null;
+        }
+        int id = readVarint();
+        int width = readVarint();
+        int height = readVarint();
+        int n = readVarint();
+        int seatCount = readVarint();
+        if (width <= 0 || height <= 0 || n <= 0 || seatCount < 0
+                || seatCount > ConnectN.MAX_PLAYERS) {
+            throw new IOException("Damaged record header after record " + records);
+        }
+        int[] playerIDs = new int[seatCount];
+        String[] playerNames = new String[seatCount];
+        for (int seat = 0; seat < seatCount; seat++) {
+            playerIDs[seat] = readVarint();
+            int length = readVarint();
+            if (length < 0 || length > MAX_NAME_BYTES) {
+                throw new IOException("Damaged player name after record " + records);
+            }
+            if (!fill(length)) {
+                throw new EOFException("Record " + records + " is cut short");
+            }
+            playerNames[seat] = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+        }
+
+        int moveCount = readVarint();
+        if (moveCount < 0 || moveCount > MAX_MOVES || moveCount > (long) width * height
+                || (moveCount > 0 && seatCount == 0)) {
+            throw new IOException("Damaged move count after record " + records);
+        }
+        int[] columns = new int[moveCount];
+        byte[] seats = new byte[moveCount];
+        for (int i = 0; i < moveCount; i++) {
+            int move = readVarint();
+            if (move < 0 || move / seatCount >= width) {
+                throw new IOException("Damaged move " + i + " after record " + records);
+            }
+            columns[i] = move / seatCount;
+            seats[i] = (byte) (move % seatCount);
+        }
+        records++;
+        return new GameRecord(id, width, height, n, playerIDs, playerNames, columns, seats);
+    }
+
+    /**
+     * Get the number of records read so far.
+     *
+     * @return the count
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Get how far into the stream the reader has decoded, which after a successful read is
+     * where the next record starts.
+     *
+     * @return the offset in bytes from the start of the stream, including the file header
+     */
+    public long getOffset() {
+        return streamBytes - (limit - position);
+    }
+
+    /**
+     * Skip ahead to an offset previously returned by getOffset, so that a job can resume
+     * reading a file where an earlier run stopped.
+     *
+     * @param offset the offset of a record boundary, not before the current offset
+     * @throws IOException if the stream fails or ends before the offset
+     */
+    public void seek(final long offset) throws IOException {
+        long skip = offset - getOffset();
+        if (skip < 0) {
+            throw new IOException("Cannot seek back from " + getOffset() + " to " + offset);
+        }
+        if (skip <= limit - position) {
+            position += (int) skip;
+            return;
+        }
+        skip -= limit - position;
+        position = 0;
+        limit = 0;
+        while (skip > 0) {
+            long skipped = in.skip(skip);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Game record file ends before offset " + offset);
+                }
+                skipped = 1;
+            }
+            streamBytes += skipped;
+            skip -= skipped;
+        }
+    }
+
+    /**
+     * Close the stream.
+     *
+     * @throws IOException if the stream fails
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Decode an unsigned varint.
+     *
+     * @return the value
+     * @throws IOException if the stream fails or ends in the middle of the value
+     */
+    private int readVarint() throws IOException {
+        if (limit - position < MAX_VARINT_BYTES) {
+            fill(MAX_VARINT_BYTES);
+        }
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += GameRecordWriter.VARINT_BITS) {
+            int next = readByte();
+            value |= (next & GameRecordWriter.VARINT_MASK) << shift;
+            if ((next & GameRecordWriter.VARINT_MORE) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Damaged varint after record " + records);
+    }
+
+    /**
+     * Decode one byte.
+     *
+     * @return the byte, from 0 to 255
+     * @throws IOException if the stream fails or has ended
+     */
+    private int readByte() throws IOException {
+        if (position == limit && !fill(1)) {
+            throw new EOFException("Record " + records + " is cut short");
+        }
+        return buffer[position++] & BYTE_MASK;
+    }
+
+    /**
+     * Make sure the buffer holds some number of undecoded bytes, reading more if it does not.
+     *
+     * @param need how many bytes are wanted, at most the buffer size
+     * @return true if they are there, false if the stream ended first
+     * @throws IOException if the stream fails
+     */
+    private boolean fill(final int need) throws IOException {
+        if (limit - position >= need) {
+            return true;
+        }
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        while (limit < need) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+            streamBytes += read;
+        }
+        return true;
+    }
+}
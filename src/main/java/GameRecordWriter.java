@@ -0,0 +1,223 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes game records to a stream in the compact archive format.
+ * <p>
+ * A file starts with a magic number and a version byte, followed by one record after another
+ * with nothing in between. Every number is an unsigned LEB128 varint: seven bits per byte, low
+ * bits first, with the top bit set on every byte but the last. A record is
+ * <ul>
+ * <li>the board ID, width, height and N</li>
+ * <li>the number of seats, then for each seat its player's ID, and its name as a byte count
+ * followed by UTF-8</li>
+ * <li>the number of moves, then each move as column * seats + seat</li>
+ * </ul>
+ * On any ConnectN board a move fits in one byte, so a typical game takes a few dozen bytes, two
+ * orders of magnitude less than the same game as JSON. Writes go through a buffer owned by the
+ * writer, and nothing is kept between records, so memory use does not grow with the number of
+ * games. Writers are safe to share between threads; each record is written whole.
+ */
+public final class GameRecordWriter implements Closeable, Flushable {
+
+    /** Marks the start of a game record file. */
+    static final int MAGIC = 0x434e4752;
+
+    /** Format version. Bump this when the layout above changes. */
+    static final int VERSION = 1;
+
+    /** Size of the write buffer. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Bits of a value carried by each varint byte. */
+    static final int VARINT_BITS = 7;
+
+    /** The varint bits of a byte. */
+    static final int VARINT_MASK = 0x7f;
+
+    /** Set on every varint byte but the last. */
+    static final int VARINT_MORE = 0x80;
+
+    /** Longest varint of an int. */
+    private static final int MAX_VARINT_BYTES = 5;
+
+    /** Bits in a byte. */
+    private static final int BYTE_BITS = 8;
+
+    /** Mask for the low byte of an int. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Where records go. */
+    private final OutputStream out;
+
+    /** Bytes waiting to be written. */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /** Number of bytes in the buffer. */
+    private int position;
+
+    /** Number of records written. */
+    private long records;
+
+    /**
+     * Start a record file on a stream. The file header goes out with the first records.
+     *
+     * @param setOut where to write; closed when the writer is closed
+     */
+    public GameRecordWriter(final OutputStream setOut) {
+        this(setOut, true);
+    }
+
+    /**
+     * Start writing records to a stream.
+     *
+     * @param setOut where to write; closed when the writer is closed
+     * @param header true to start with the file header, false to carry on after existing records
+     */
+    private GameRecordWriter(final OutputStream setOut, final boolean header) {
+        out = setOut;
+        if (!header) {
+            return;
+        }
+        for (int shift = Integer.SIZE - BYTE_BITS; shift >= 0; shift -= BYTE_BITS) {
+            buffer[position++] = (byte) (MAGIC >>> shift);
+        }
+        buffer[position++] = (byte) VERSION;
+    }
+
+    /**
+     * Open a record file to add games to the end of it, creating it if it does not exist.
+     *
+     * @param file the file
+     * @return a writer that appends to the file
+     * @throws IOException if the file cannot be opened
+     */
+    public static GameRecordWriter append(final Path file) throws IOException {
+        boolean empty = !Files.exists(file) || Files.size(file) == 0;
+        return new GameRecordWriter(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND), empty);
+    }
+
+    /**
+     * Write the game played so far on a board.
+     *
+     * @param board the board
+     * @throws IOException if the stream fails
+     */
+    public void write(final ConnectN board) throws IOException {
+        write(GameRecord.of(board));
+    }
+
+    /**
+     * Write a record.
+     *
+     * @param record the record
+     * @throws IOException if the stream fails
+     */
+    public synchronized void write(final GameRecord record) throws IOException {
+        int seatCount = record.getSeatCount();
+        writeVarint(record.getID());
+        writeVarint(record.getWidth());
+        writeVarint(record.getHeight());
+        writeVarint(record.getN());
+        writeVarint(seatCount);
+        for (int seat = 0; seat < seatCount; seat++) {
+            writeVarint(record.getPlayerID(seat));
+            byte[] name = record.getPlayerName(seat).getBytes(StandardCharsets.UTF_8);
+            writeVarint(name.length);
+            writeBytes(name);
+        }
+        int moveCount = record.getMoveCount();
+        writeVarint(moveCount);
+        for (int i = 0; i < moveCount; i++) {
+            writeVarint(record.getColumn(i) * seatCount + record.getSeat(i));
+        }
+        records++;
+    }
+
+    /**
+     * Get the number of records written so far.
+     *
+     * @return the count
+     */
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    /**
+     * Write out everything buffered so far.
+     *
+     * @throws IOException if the stream fails
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Write out everything buffered and close the stream.
+     *
+     * @throws IOException if the stream fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Buffer a value as an unsigned varint.
+     *
+     * @param value the value, treated as unsigned
+     * @throws IOException if the buffer has to be drained and the stream fails
+     */
+    private void writeVarint(final int value) throws IOException {
+        if (position + MAX_VARINT_BYTES > buffer.length) {
+            drain();
+        }
+        int rest = value;
+        while ((rest & ~VARINT_MASK) != 0) {
+            buffer[position++] = (byte) ((rest & VARINT_MASK) | VARINT_MORE);
+            rest >>>= VARINT_BITS;
+        }
+        buffer[position++] = (byte) (rest & BYTE_MASK);
+    }
+
+    /**
+     * Buffer raw bytes, writing them straight through if they do not fit.
+     *
+     * @param bytes the bytes
+     * @throws IOException if the stream fails
+     */
+    private void writeBytes(final byte[] bytes) throws IOException {
+        if (position + bytes.length > buffer.length) {
+            drain();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    /**
+     * Write out the buffer.
+     *
+     * @throws IOException if the stream fails
+     */
+    private void drain() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -0,0 +1,31 @@
+import java.util.Random;
+
+/**
+ * A move policy that takes an immediate win, blocks an immediate loss, and otherwise plays
+ * randomly.
+ */
+public class GreedyPolicy implements MovePolicy {
+
+    /**
+     * Choose a winning column, then a blocking column, then a random one.
+     *
+     * @param board the board to move on
+     * @param player the player about to move
+     * @param opponent the other player
+     * @param random source of randomness
+     * @return the chosen column
+     */
+    @Override
+    public int chooseColumn(final ConnectN board, final Player player, final Player opponent,
+            final Random random) {
+        int win = board.winningColumns(player);
+        if (win != 0) {
+            return Integer.numberOfTrailingZeros(win);
+        }
+        int block = board.blockingColumns(player);
+        if (block != 0) {
+            return Integer.numberOfTrailingZeros(block);
+        }
+        return MovePolicy.randomOpenColumn(board, random);
+    }
+}
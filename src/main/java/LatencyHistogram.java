@@ -0,0 +1,207 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, such as latencies in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets in the style of HdrHistogram: every power of two is
+ * split into 32 equal sub-buckets, so any recorded value is reported within about 3% of its true
+ * value, from single nanoseconds up to hours, in a fixed 15KB of counters. Recording is one
+ * atomic increment plus striped total and maximum updates, so many threads can record at once
+ * without locking or contending on a single counter.
+ * <p>
+ * Readers see a consistent-enough view for monitoring: percentiles computed while other threads
+ * are recording may be off by the handful of values recorded during the computation.
+ */
+public class LatencyHistogram {
+
+    /** Bits of precision kept below the leading bit of each value. */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** Sub-buckets per power of two. */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Total number of buckets, enough for any non-negative long. */
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /** Percent, for percentile arguments. */
+    private static final double PERCENT = 100.0;
+
+    /** Count of values in each bucket. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Total number of values recorded. */
+    private final LongAdder total = new LongAdder();
+
+    /** Sum of all values recorded, for the mean. */
+    private final LongAdder sum = new LongAdder();
+
+    /** Largest value recorded. */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Find the bucket a value is counted in.
+     *
+     * @param value a non-negative value
+     * @return the bucket index
+     */
+    static int bucketFor(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Find the largest value counted in a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the largest value that falls in the bucket
+     */
+    static long highestValueIn(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value the value, clamped to zero if negative
+     */
+    public void record(final long value) {
+        long clamped = Math.max(value, 0);
+        counts.incrementAndGet(bucketFor(clamped));
+        total.increment();
+        sum.add(clamped);
+        max.accumulate(clamped);
+    }
+
+    /**
+     * Add every value recorded in another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(final LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    /**
+     * Get the number of values recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * Get the sum of the values recorded.
+     *
+     * @return the sum
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the largest value recorded.
+     *
+     * @return the maximum, or zero if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the mean of the values recorded.
+     *
+     * @return the mean, or zero if nothing was recorded
+     */
+    public double getMean() {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) sum.sum() / count;
+    }
+
+    /**
+     * Get the value at a percentile.
+     *
+     * @param percentile between 0 and 100
+     * @return the smallest bucket value that at least this percent of values fall at or below,
+     *         or zero if nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / PERCENT * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Get the number of values at or below a bound.
+     * <p>
+     * Only buckets that lie wholly at or below the bound are counted. The result is exact when
+     * the bound is the highest value of its bucket, which is every bound below 64. Otherwise it
+     * leaves out the values sharing a bucket with the bound, all within about 3% of it, so it
+     * never counts a value above the bound.
+     *
+     * @param bound the inclusive upper bound
+     * @return the number of values recorded at or below the bound
+     */
+    public long getCountAtOrBelow(final long bound) {
+        if (bound < 0) {
+            return 0;
+        }
+        int last = bucketFor(bound);
+        if (last + 1 < BUCKETS && highestValueIn(last) > bound) {
+            last--;
+        }
+        long count = 0;
+        for (int i = 0; i <= last; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Forget every value recorded so far.
+     * <p>
+     * Values recorded concurrently with a reset may or may not survive it.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sum.reset();
+        max.reset();
+    }
+}
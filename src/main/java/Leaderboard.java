@@ -0,0 +1,402 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Wins by player across every game, ranked, and safe to update from many threads at once.
+ * <p>
+ * Results are recorded once per game: each game ID is marked in a compact bitmap, so recording
+ * the same game again, for example after its winning move is undone and redone, changes nothing.
+ * Every player seated at a recorded game gets a place on the board, and the winner gets a win.
+ * <p>
+ * Players are kept in a concurrent skip list ordered by wins, most first, then by ID, so a win
+ * moves a player in O(log n) and the top K are the first K entries. Ranks come from a Fenwick
+ * tree of how many players have each number of wins, so the rank of any player, one plus the
+ * number of players with more wins, is also O(log n) however many players there are. Players
+ * with so many wins that they fall outside the tree are counted by walking the few standings
+ * above them. Queries are lock-free and see every update that has finished; one still in flight
+ * may make a rank off by one until it is done. Updates to the same player are serialized.
+ */
+public class Leaderboard {
+
+    /** Marks the start of a saved leaderboard. */
+    private static final int MAGIC = 0x434e4c42;
+
+    /** Saved leaderboard format version. Bump this when the layout changes. */
+    private static final int VERSION = 1;
+
+    /** Win counts tracked by the Fenwick tree. Players with more wins are counted separately. */
+    private static final int COUNTED_WINS = 1 << 16;
+
+    /** Bits of a game ID that pick its place in a chunk of the recorded-games bitmap. */
+    private static final int CHUNK_BITS = 16;
+
+    /** Mask for a game ID's place in its chunk. */
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    /** Shift from a place in a chunk to the long holding it. */
+    private static final int LONG_SHIFT = Integer.numberOfTrailingZeros(Long.SIZE);
+
+    /** Longs in a chunk of the recorded-games bitmap. */
+    private static final int CHUNK_LONGS = 1 << (CHUNK_BITS - LONG_SHIFT);
+
+    /**
+     * A player's place in the standings. Standings are immutable; a win replaces one.
+     */
+    private static final class Standing implements Comparable<Standing> {
+        /** Games won. */
+        private final int wins;
+        /** The player's ID. */
+        private final int id;
+
+        /**
+         * Create a standing.
+         *
+         * @param setWins games won
+         * @param setID the player's ID
+         */
+        Standing(final int setWins, final int setID) {
+            wins = setWins;
+            id = setID;
+        }
+
+        /**
+         * Order standings by wins, most first, then by player ID.
+         *
+         * @param other the standing to compare with
+         * @return negative if this one comes first, positive if the other does, zero if equal
+         */
+        @Override
+        public int compareTo(final Standing other) {
+            if (wins != other.wins) {
+                return Integer.compare(other.wins, wins);
+            }
+            return Integer.compare(id, other.id);
+        }
+    }
+
+    /**
+     * What the leaderboard knows about one player.
+     */
+    private static final class Entry {
+        /** The name the player last played under. */
+        private volatile String name;
+        /** The player's place in the standings, or null until they are first added. */
+        private volatile Standing standing;
+    }
+
+    /** Players by ID. */
+    private final ConcurrentMap<Integer, Entry> players = new ConcurrentHashMap<Integer, Entry>();
+
+    /** Every player's standing, best first. */
+    private final ConcurrentSkipListSet<Standing> standings = new ConcurrentSkipListSet<Standing>();
+
+    /** Fenwick tree of the number of players with each number of wins, offset by one. */
+    private final AtomicLongArray winCounts = new AtomicLongArray(COUNTED_WINS + 1);
+
+    /** Players with COUNTED_WINS or more wins, who are left out of winCounts. */
+    private final AtomicLong beyondCounted = new AtomicLong();
+
+    /** Bitmap of recorded game IDs, in chunks keyed by the ID's upper bits. */
+    private final ConcurrentMap<Integer, AtomicLongArray> recorded =
+            new ConcurrentHashMap<Integer, AtomicLongArray>();
+
+    /** Games recorded. */
+    private final AtomicLong games = new AtomicLong();
+
+    /**
+     * Record the result of a game that has ended.
+     *
+     * @param board the board the game was played on
+     * @return true if the result was recorded, false if the game has not ended or was already
+     *         recorded
+     */
+    public boolean record(final ConnectN board) {
+        if (!board.gameEnded()) {
+            return false;
+        }
+        GameRecord game = GameRecord.of(board);
+        Player[] seated = new Player[game.getSeatCount()];
+        for (int seat = 0; seat < seated.length; seat++) {
+            seated[seat] = new Player(game.getPlayerName(seat), 0, game.getPlayerID(seat));
+        }
+        return record(board.getID(), seated, board.getWinner());
+    }
+
+    /**
+     * Record the result of a game.
+     *
+     * @param gameID the ID of the game, which is the ID of the board it was played on
+     * @param seated the players in the game
+     * @param winner the winner, or null for a draw
+     * @return true if the result was recorded, false if this game was already recorded
+     */
+    public boolean record(final int gameID, final Player[] seated, final Player winner) {
+        if (!markRecorded(gameID)) {
+            return false;
+        }
+        if (winner != null) {
+            update(winner.getID(), winner.getName(), 1);
+        }
+        for (Player player : seated) {
+            if (!player.equals(winner)) {
+                update(player.getID(), player.getName(), 0);
+            }
+        }
+        games.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Check whether a game's result has been recorded.
+     *
+     * @param gameID the ID of the game
+     * @return true if it has
+     */
+    public boolean hasRecorded(final int gameID) {
+        AtomicLongArray chunk = recorded.get(gameID >> CHUNK_BITS);
+        if (chunk == null) {
+            return false;
+        }
+        int place = gameID & CHUNK_MASK;
+        return (chunk.get(place >>> LONG_SHIFT) & (1L << (place & (Long.SIZE - 1)))) != 0;
+    }
+
+    /**
+     * Get the players with the most wins.
+     *
+     * @param count how many players to return at most
+     * @return copies of the players, best first, each with their wins as their score
+     */
+    public List<Player> getTop(final int count) {
+        List<Player> top = new ArrayList<Player>(Math.min(count, players.size()));
+        for (Standing standing : standings) {
+            if (top.size() >= count) {
+                break;
+            }
+            top.add(new Player(players.get(standing.id).name, standing.wins, standing.id));
+        }
+        return top;
+    }
+
+    /**
+     * Get a player's rank: one plus the number of players with more wins, so players with the
+     * same number of wins share a rank.
+     *
+     * @param playerID the player's ID
+     * @return the rank, starting from one, or -1 if the player has not played a recorded game
+     */
+    public int getRank(final int playerID) {
+        Entry entry = players.get(playerID);
+        if (entry == null) {
+            return -1;
+        }
+        Standing standing = entry.standing;
+        if (standing == null) {
+            return -1;
+        }
+        int wins = standing.wins;
+        if (wins >= COUNTED_WINS) {
+            return 1 + standings.headSet(new Standing(wins, Integer.MIN_VALUE)).size();
+        }
+        long ahead = beyondCounted.get() + countUpTo(COUNTED_WINS - 1) - countUpTo(wins);
+        return (int) (1 + ahead);
+    }
+
+    /**
+     * Get a player as the leaderboard knows them.
+     *
+     * @param playerID the player's ID
+     * @return a copy of the player with their wins as their score, or null if they have not
+     *         played a recorded game
+     */
+    public Player getPlayer(final int playerID) {
+        Entry entry = players.get(playerID);
+        if (entry == null) {
+            return null;
+        }
+        Standing standing = entry.standing;
+        if (standing == null) {
+            return null;
+        }
+        return new Player(entry.name, standing.wins, playerID);
+    }
+
+    /**
+     * Get the number of players on the leaderboard.
+     *
+     * @return the number of players who have played a recorded game
+     */
+    public int size() {
+        return players.size();
+    }
+
+    /**
+     * Get the number of games recorded.
+     *
+     * @return the number of games
+     */
+    public long getGames() {
+        return games.get();
+    }
+
+    /**
+     * Write the leaderboard, to be read back by read. The image is consistent if no game is
+     * recorded while it is being written.
+     *
+     * @param out where to write
+     * @throws IOException if the stream fails
+     */
+    public void write(final DataOutputStream out) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (Entry entry : players.values()) {
+            if (entry.standing != null) {
+                entries.add(entry);
+            }
+        }
+        List<Map.Entry<Integer, AtomicLongArray>> chunks =
+                new ArrayList<Map.Entry<Integer, AtomicLongArray>>(recorded.entrySet());
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(games.get());
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            Standing standing = entry.standing;
+            out.writeInt(standing.id);
+            out.writeInt(standing.wins);
+            out.writeUTF(entry.name);
+        }
+        out.writeInt(chunks.size());
+        for (Map.Entry<Integer, AtomicLongArray> chunk : chunks) {
+            out.writeInt(chunk.getKey());
+            for (int i = 0; i < CHUNK_LONGS; i++) {
+                out.writeLong(chunk.getValue().get(i));
+            }
+        }
+    }
+
+    /**
+     * Read a leaderboard written by write.
+     *
+     * @param in where to read from
+     * @return the leaderboard
+     * @throws IOException if the stream fails or does not hold a leaderboard
+     */
+    public static Leaderboard read(final DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a saved leaderboard");
+        }
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.games.set(in.readLong());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int id = in.readInt();
+            int wins = in.readInt();
+            leaderboard.update(id, in.readUTF(), wins);
+        }
+        int chunks = in.readInt();
+        for (int i = 0; i < chunks; i++) {
+            AtomicLongArray chunk = new AtomicLongArray(CHUNK_LONGS);
+            leaderboard.recorded.put(in.readInt(), chunk);
+            for (int j = 0; j < CHUNK_LONGS; j++) {
+                chunk.set(j, in.readLong());
+            }
+        }
+        return leaderboard;
+    }
+
+    /**
+     * Mark a game as recorded.
+     *
+     * @param gameID the ID of the game
+     * @return true if it was not marked before
+     */
+    private boolean markRecorded(final int gameID) {
+        AtomicLongArray chunk = recorded.get(gameID >> CHUNK_BITS);
+        if (chunk == null) {
+            chunk = recorded.computeIfAbsent(gameID >> CHUNK_BITS,
+                unused -> new AtomicLongArray(CHUNK_LONGS));
+        }
+        int place = gameID & CHUNK_MASK;
+        int index = place >>> LONG_SHIFT;
+        long bit = 1L << (place & (Long.SIZE - 1));
+        while (true) {
+            long current = chunk.get(index);
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (chunk.compareAndSet(index, current, current | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Add wins to a player, putting them on the leaderboard if they are not on it yet.
+     *
+     * @param playerID the player's ID
+     * @param name the player's name
+     * @param wins wins to add, which may be zero
+     */
+    private void update(final int playerID, final String name, final int wins) {
+        Entry entry = players.get(playerID);
+        if (entry == null) {
+            entry = players.computeIfAbsent(playerID, unused -> new Entry());
+        }
+        synchronized (entry) {
+            entry.name = name;
+            Standing old = entry.standing;
+            if (old != null && wins == 0) {
+                return;
+            }
+            int total = wins;
+            if (old != null) {
+                total += old.wins;
+                standings.remove(old);
+                count(old.wins, -1);
+            }
+            Standing standing = new Standing(total, playerID);
+            standings.add(standing);
+            count(total, 1);
+            entry.standing = standing;
+        }
+    }
+
+    /**
+     * Change the number of players with some number of wins.
+     *
+     * @param wins the number of wins
+     * @param delta how many players to add, or remove if negative
+     */
+    private void count(final int wins, final int delta) {
+        if (wins >= COUNTED_WINS) {
+            beyondCounted.addAndGet(delta);
+            return;
+        }
+        for (int i = wins + 1; i <= COUNTED_WINS; i += i & -i) {
+            winCounts.addAndGet(i, delta);
+        }
+    }
+
+    /**
+     * Count the players with at most some number of wins, leaving out those beyond the tree.
+     *
+     * @param wins the number of wins, less than COUNTED_WINS
+     * @return the number of players
+     */
+    private long countUpTo(final int wins) {
+        long total = 0;
+        for (int i = wins + 1; i > 0; i -= i & -i) {
+            total += winCounts.get(i);
+        }
+        return total;
+    }
+}
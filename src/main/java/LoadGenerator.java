@@ -0,0 +1,567 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Drives the web server with many virtual clients and reports throughput and latency.
+ * <p>
+ * Each virtual client behaves like one browser with two people taking turns: it creates two
+ * players, then plays game after game, asking for a new board, renaming one of its players, and
+ * dropping tiles in random open columns until someone wins or the board fills up.
+ * <p>
+ * Clients send requests on a fixed schedule rather than as fast as responses come back, and each
+ * latency is measured from when the request was scheduled, not from when it was actually sent. A
+ * server that stalls therefore shows up as a stall for every request that should have been sent
+ * during it, instead of as one slow request followed by a quiet period. This corrects for the
+ * coordinated omission that makes closed-loop load tests report optimistic percentiles. Requests
+ * that fail, are refused or time out are timed the same way, in a row of their own, and count
+ * towards the overall percentiles, so an overloaded server cannot look faster by shedding its
+ * slowest requests. The plain time from send to response is reported alongside for comparison.
+ * <p>
+ * Arguments are key=value pairs, all optional:
+ * <ul>
+ * <li>server: "inprocess" to start a server in this process (default), or "external" to use one
+ * that is already running</li>
+ * <li>limits: "on" to keep the in-process server's per-client and per-board rate limits, which
+ * would otherwise throttle every virtual client as one localhost client (default off)</li>
+ * <li>host, port: where the server listens (default localhost:8126)</li>
+ * <li>clients: number of virtual clients (default 1000)</li>
+ * <li>rate: total requests per second across all clients (default 10000)</li>
+ * <li>duration, warmup: seconds to measure for, and to run before measuring (default 30 and
+ * 5)</li>
+ * <li>size, n: the board size as WIDTHxHEIGHT and the N value of every game (default 7x6 and
+ * 4)</li>
+ * </ul>
+ * Clients are seeded by their index, so runs with the same arguments send the same traffic.
+ */
+public final class LoadGenerator {
+
+    /** The actions clients send, indexed by the constants below. */
+    private static final String[] ACTIONS = {"newPlayer", "newBoard", "changePlayerName",
+        "setBoardAt"};
+
+    /** Index of newPlayer in ACTIONS. */
+    private static final int NEW_PLAYER = 0;
+
+    /** Index of newBoard in ACTIONS. */
+    private static final int NEW_BOARD = 1;
+
+    /** Index of changePlayerName in ACTIONS. */
+    private static final int CHANGE_PLAYER_NAME = 2;
+
+    /** Index of setBoardAt in ACTIONS. */
+    private static final int SET_BOARD_AT = 3;
+
+    /** Port used when none is given, the same as the web server's. */
+    private static final int DEFAULT_PORT = 8126;
+
+    /** Virtual clients used when no number is given. */
+    private static final int DEFAULT_CLIENTS = 1000;
+
+    /** Total request rate used when none is given. */
+    private static final int DEFAULT_RATE = 10000;
+
+    /** Seconds to measure for when no duration is given. */
+    private static final int DEFAULT_DURATION = 30;
+
+    /** Seconds to run before measuring when no warmup is given. */
+    private static final int DEFAULT_WARMUP = 5;
+
+    /** How long to wait for a response before counting the request as failed. */
+    private static final long REQUEST_TIMEOUT_MS = 10000;
+
+    /** How long to wait for the server to start. */
+    private static final long STARTUP_TIMEOUT_MS = 10000;
+
+    /** How long to let outstanding requests finish after the run. */
+    private static final long DRAIN_MS = 1000;
+
+    /** HTTP OK. */
+    private static final int HTTP_OK = 200;
+
+    /** Nanoseconds per second. */
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** Nanoseconds per millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** Percentiles reported for every action. */
+    private static final double[] PERCENTILES = {50.0, 99.0, 99.9};
+
+    /** The Vert.x instance that runs the clients. */
+    private final Vertx vertx;
+
+    /** The HTTP client shared by all virtual clients. */
+    private final HttpClient http;
+
+    /** Where the server listens. */
+    private final String host;
+
+    /** The port the server listens on. */
+    private final int port;
+
+    /** Width of every board. */
+    private final int width;
+
+    /** Height of every board. */
+    private final int height;
+
+    /** N value of every board. */
+    private final int n;
+
+    /** Time between requests of one client, in nanoseconds. */
+    private final long intervalNanos;
+
+    /** Latency of each action, measured from when the request was scheduled. */
+    private final LatencyHistogram[] latencies = new LatencyHistogram[ACTIONS.length];
+
+    /** Latency of requests that failed, measured from when the request was scheduled. */
+    private final LatencyHistogram failures = new LatencyHistogram();
+
+    /** Latency of every request, measured from when the request was actually sent. */
+    private final LatencyHistogram serviceTimes = new LatencyHistogram();
+
+    /** Requests that failed, timed out or were refused. */
+    private final LongAdder errors = new LongAdder();
+
+    /** Games played to the end. */
+    private final LongAdder games = new LongAdder();
+
+    /** Whether clients should keep sending requests. */
+    private volatile boolean running = true;
+
+    /**
+     * One virtual client. Only one of its requests is ever outstanding, and each is sent from the
+     * callback of the one before, so its state needs no synchronization.
+     */
+    private final class VirtualClient {
+
+        /** The client's index, used in player names and as its random seed. */
+        private final int index;
+
+        /** Chooses columns. */
+        private final Random random;
+
+        /** The client's two players, as last returned by the server. */
+        private final JsonObject[] players = new JsonObject[2];
+
+        /** The ID of the client's current board, or -1 if it has none. */
+        private int boardID = -1;
+
+        /** Whether the current game is over and a new board is needed. */
+        private boolean needBoard = true;
+
+        /** Whether a player should be renamed before the next game starts. */
+        private boolean renamePending;
+
+        /** Height of each column of the current board. */
+        private int[] heights;
+
+        /** Moves played in the current game. */
+        private int moves;
+
+        /** Games the client has finished. */
+        private int gamesPlayed;
+
+        /** When the next request is scheduled, from System.nanoTime. */
+        private long scheduled;
+
+        /**
+         * Create a virtual client.
+         *
+         * @param setIndex the client's index
+         */
+        VirtualClient(final int setIndex) {
+            index = setIndex;
+            random = new Random(setIndex);
+        }
+
+        /**
+         * Start sending requests.
+         *
+         * @param setScheduled when the first request is due
+         */
+        void start(final long setScheduled) {
+            scheduled = setScheduled;
+            sendWhenDue();
+        }
+
+        /**
+         * Send the next request when it is due, or right away if it is already late.
+         */
+        private void sendWhenDue() {
+            if (!running) {
+                return;
+            }
+            long delay = scheduled - System.nanoTime();
+            if (delay <= 0) {
+                send();
+            } else {
+                vertx.setTimer((delay + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI,
+                    timerID -> send());
+            }
+        }
+
+        /**
+         * Send whichever request comes next in the client's game.
+         */
+        private void send() {
+            JsonObject body = new JsonObject();
+            int action;
+            int column = -1;
+            if (players[0] == null || players[1] == null) {
+                action = NEW_PLAYER;
+                body.put("name", "client" + index + "-" + seatToCreate());
+            } else if (needBoard) {
+                action = NEW_BOARD;
+                body.put("width", width).put("height", height).put("n", n);
+                if (boardID >= 0) {
+                    body.put("board", boardID);
+                }
+            } else if (renamePending) {
+                action = CHANGE_PLAYER_NAME;
+                int seat = gamesPlayed % 2;
+                body.put("player", players[seat]);
+                body.put("name", "client" + index + "-" + seat + "-game" + gamesPlayed);
+            } else {
+                action = SET_BOARD_AT;
+                column = openColumn();
+                body.put("player", players[moves % 2]).put("board", boardID).put("x", column);
+            }
+
+            long due = scheduled;
+            long sent = System.nanoTime();
+            int chosen = column;
+            /*
+             * A request can fail more than once, for example by timing out and then losing its
+             * connection, but only its first outcome counts and schedules the next request.
+             */
+            boolean[] completed = {false};
+            HttpClientRequest request = http.post(port, host, "/" + ACTIONS[action], response -> {
+                response.exceptionHandler(e -> failed(completed, due, sent));
+                if (response.statusCode() != HTTP_OK) {
+                    response.bodyHandler(buffer -> failed(completed, due, sent));
+                    return;
+                }
+                response.bodyHandler(buffer -> {
+                    if (completed[0]) {
+                        return;
+                    }
+                    completed[0] = true;
+                    long now = System.nanoTime();
+                    latencies[action].record(now - due);
+                    serviceTimes.record(now - sent);
+                    if (!handle(action, chosen, new JsonObject(buffer.toString()))) {
+                        errors.increment();
+                        needBoard = true;
+                    }
+                    next();
+                });
+            });
+            request.exceptionHandler(e -> failed(completed, due, sent));
+            request.setTimeout(REQUEST_TIMEOUT_MS);
+            request.putHeader("content-type", "application/json; charset=utf-8");
+            request.end(body.encode());
+        }
+
+        /**
+         * Get the seat of the next player to create.
+         *
+         * @return 0 or 1
+         */
+        private int seatToCreate() {
+            if (players[0] == null) {
+                return 0;
+            }
+            return 1;
+        }
+
+        /**
+         * Pick a random column that is not full.
+         *
+         * @return the column
+         */
+        private int openColumn() {
+            int x = random.nextInt(width);
+            while (heights[x] >= height) {
+                x = (x + 1) % width;
+            }
+            return x;
+        }
+
+        /**
+         * Update the client's state from a response.
+         *
+         * @param action the action that was sent
+         * @param column the column played, for setBoardAt
+         * @param response the server's response
+         * @return true if the server did what was asked
+         */
+        private boolean handle(final int action, final int column, final JsonObject response) {
+            if (!"true".equals(response.getString("success"))) {
+                return false;
+            }
+            switch (action) {
+                case NEW_PLAYER:
+                    players[seatToCreate()] = new JsonObject(response.getString("player"));
+                    break;
+                case NEW_BOARD:
+                    boardID = Integer.parseInt(response.getString("boardID"));
+                    heights = new int[width];
+                    moves = 0;
+                    needBoard = false;
+                    renamePending = true;
+                    break;
+                case CHANGE_PLAYER_NAME:
+                    players[gamesPlayed % 2] = new JsonObject(response.getString("player"));
+                    renamePending = false;
+                    break;
+                default:
+                    heights[column]++;
+                    moves++;
+                    if (!"null".equals(response.getString("winner")) || moves == width * height) {
+                        games.increment();
+                        gamesPlayed++;
+                        needBoard = true;
+                    }
+                    break;
+            }
+            return true;
+        }
+
+        /**
+         * Count a failed request and carry on with a new game, unless the request already
+         * completed or failed.
+         *
+         * @param completed whether the request has had its outcome, which this sets
+         * @param due when the request was scheduled
+         * @param sent when the request was sent
+         */
+        private void failed(final boolean[] completed, final long due, final long sent) {
+            if (completed[0]) {
+                return;
+            }
+            completed[0] = true;
+            long now = System.nanoTime();
+            failures.record(now - due);
+            serviceTimes.record(now - sent);
+            errors.increment();
+            needBoard = true;
+            next();
+        }
+
+        /**
+         * Schedule the next request one interval after the last one was due.
+         */
+        private void next() {
+            scheduled += intervalNanos;
+            sendWhenDue();
+        }
+    }
+
+    /**
+     * Create a load generator.
+     *
+     * @param setHost the server host
+     * @param setPort the server port
+     * @param clients the number of virtual clients
+     * @param rate total requests per second across all clients
+     * @param setWidth the width of every board
+     * @param setHeight the height of every board
+     * @param setN the N value of every board
+     */
+    public LoadGenerator(final String setHost, final int setPort, final int clients,
+            final int rate, final int setWidth, final int setHeight, final int setN) {
+        if (clients < 1 || rate < 1) {
+            throw new IllegalArgumentException("Need at least one client and one request/s");
+        }
+        if (!ConnectN.isValid(setWidth, setHeight, setN)) {
+            throw new IllegalArgumentException("Invalid board configuration");
+        }
+        host = setHost;
+        port = setPort;
+        width = setWidth;
+        height = setHeight;
+        n = setN;
+        intervalNanos = NANOS_PER_SECOND * clients / rate;
+        for (int i = 0; i < ACTIONS.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+        vertx = Vertx.vertx();
+        http = vertx.createHttpClient(new HttpClientOptions()
+                .setKeepAlive(true)
+                .setMaxPoolSize(clients));
+        long start = System.nanoTime() + intervalNanos;
+        for (int i = 0; i < clients; i++) {
+            new VirtualClient(i).start(start + intervalNanos * i / clients);
+        }
+    }
+
+    /**
+     * Forget everything measured so far, at the end of the warmup.
+     */
+    private void resetMeasurements() {
+        for (LatencyHistogram histogram : latencies) {
+            histogram.reset();
+        }
+        failures.reset();
+        serviceTimes.reset();
+        errors.reset();
+        games.reset();
+    }
+
+    /**
+     * Stop sending requests, let outstanding ones finish, and close the clients.
+     */
+    private void stop() {
+        running = false;
+        try {
+            Thread.sleep(DRAIN_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        http.close();
+        vertx.close();
+    }
+
+    /**
+     * Print one row of the latency table.
+     *
+     * @param name the row name
+     * @param histogram the latencies
+     */
+    private static void printRow(final String name, final LatencyHistogram histogram) {
+        StringBuilder row = new StringBuilder(String.format("%-24s %10d", name,
+                histogram.getCount()));
+        for (double percentile : PERCENTILES) {
+            long value = histogram.getValueAtPercentile(percentile);
+            row.append(String.format(" %10.3f", millis(value)));
+        }
+        row.append(String.format(" %10.3f", millis(histogram.getMax())));
+        System.out.println(row);
+    }
+
+    /**
+     * Convert nanoseconds to milliseconds.
+     *
+     * @param nanos the time in nanoseconds
+     * @return the time in milliseconds
+     */
+    private static double millis(final long nanos) {
+        return (double) nanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Print the results of a run.
+     *
+     * @param seconds how long the measured part of the run took
+     */
+    private void report(final double seconds) {
+        LatencyHistogram all = new LatencyHistogram();
+        for (LatencyHistogram histogram : latencies) {
+            all.add(histogram);
+        }
+        all.add(failures);
+        System.out.printf("Completed %d requests in %.1fs: %.1f requests/s, %.1f games/s,"
+                + " %d errors%n", all.getCount(), seconds, all.getCount() / seconds,
+                games.sum() / seconds, errors.sum());
+        System.out.println();
+        System.out.printf("%-24s %10s %10s %10s %10s %10s%n", "latency (ms)", "count", "p50",
+                "p99", "p99.9", "max");
+        for (int i = 0; i < ACTIONS.length; i++) {
+            printRow(ACTIONS[i], latencies[i]);
+        }
+        printRow("failed", failures);
+        printRow("all", all);
+        printRow("all, uncorrected", serviceTimes);
+    }
+
+    /**
+     * Start a web server in this process and wait until it is listening.
+     *
+     * @param port the port to listen on
+     * @return the Vert.x instance running the server
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static Vertx startServer(final int port) throws InterruptedException {
+        CountDownLatch listening = new CountDownLatch(1);
+        AtomicReference<AsyncResult<HttpServer>> outcome =
+                new AtomicReference<AsyncResult<HttpServer>>();
+        Vertx server = WebServer.start(port, null, result -> {
+            outcome.set(result);
+            listening.countDown();
+        });
+        if (!listening.await(STARTUP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            server.close();
+            throw new IllegalStateException("Server did not start in time");
+        }
+        if (outcome.get().failed()) {
+            server.close();
+            throw new IllegalStateException("Server did not start", outcome.get().cause());
+        }
+        return server;
+    }
+
+    /**
+     * Run a load test.
+     *
+     * @param args key=value options, as described above
+     * @throws InterruptedException if interrupted during the run
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Arguments must look like key=value: " + arg);
+            }
+            options.put(parts[0], parts[1]);
+        }
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", String.valueOf(DEFAULT_PORT)));
+        int clients = Integer.parseInt(options.getOrDefault("clients",
+                String.valueOf(DEFAULT_CLIENTS)));
+        int rate = Integer.parseInt(options.getOrDefault("rate", String.valueOf(DEFAULT_RATE)));
+        long duration = Long.parseLong(options.getOrDefault("duration",
+                String.valueOf(DEFAULT_DURATION)));
+        long warmup = Long.parseLong(options.getOrDefault("warmup",
+                String.valueOf(DEFAULT_WARMUP)));
+        String[] size = options.getOrDefault("size", "7x6").split("x");
+        int n = Integer.parseInt(options.getOrDefault("n", "4"));
+
+        Vertx server = null;
+        if ("inprocess".equals(options.getOrDefault("server", "inprocess"))) {
+            if (!"on".equals(options.getOrDefault("limits", "off"))) {
+                WebServer.disableRateLimits();
+            }
+            server = startServer(port);
+        }
+        System.out.printf("%d clients sending %d requests/s to %s:%d, %ds warmup, %ds measured%n",
+                clients, rate, host, port, warmup, duration);
+
+        LoadGenerator generator = new LoadGenerator(host, port, clients, rate,
+                Integer.parseInt(size[0]), Integer.parseInt(size[1]), n);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+        generator.resetMeasurements();
+        long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        double seconds = (double) (System.nanoTime() - start) / NANOS_PER_SECOND;
+        generator.stop();
+        generator.report(seconds);
+        if (server != null) {
+            server.close();
+        }
+    }
+}
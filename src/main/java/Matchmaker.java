@@ -0,0 +1,402 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Pairs players who want a game on the same kind of board.
+ * <p>
+ * Players join with the width, height and N they want, and optionally a rating and a band: how
+ * far from their own rating an opponent's may be. Each configuration has its own lock-free
+ * queue of waiting tickets. A player who joins looks at the oldest few tickets in their queue and
+ * claims the first one that suits both of them, with a single compare-and-set, so two players
+ * can never claim the same opponent. If none suits, the player waits in the queue.
+ * <p>
+ * Bands widen the longer a player waits, so a player with an unusual rating still gets a game.
+ * Widening, and the rare pair who joined at the same moment and each queued without seeing the
+ * other, are taken care of by {@link #sweep()}, which should be run every few hundred
+ * milliseconds. It pairs tickets that suit each other now, drops tickets that were cancelled or
+ * matched, and gives up on tickets that have waited longer than the longest wait, so no player
+ * waits without bound.
+ *
+ * @param <T> the type of what each ticket stands for, like the request waiting for a match
+ */
+public class Matchmaker<T> {
+
+    /** Rating given by a player who did not give one. */
+    public static final int NO_RATING = Integer.MIN_VALUE;
+
+    /** Band given by a player who will play anyone. */
+    public static final int ANY_BAND = -1;
+
+    /** State of a ticket waiting in its queue. */
+    private static final int WAITING = 0;
+
+    /** State of a ticket that has been paired. */
+    private static final int MATCHED = 1;
+
+    /** State of a ticket that was cancelled or gave up waiting. */
+    private static final int CANCELLED = 2;
+
+    /** State of a ticket that a sweep is pairing, which ends up MATCHED or back to WAITING. */
+    private static final int CLAIMING = 3;
+
+    /** Waiting tickets a player joining looks at before waiting themselves. */
+    private static final int MAX_SCAN = 64;
+
+    /** Bits of a queue key that hold each of width, height and N. */
+    private static final int KEY_BITS = 8;
+
+    /** Nanoseconds per second. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * One player's place in a queue.
+     *
+     * @param <T> the type of what the ticket stands for
+     */
+    public static final class Ticket<T> {
+        /** What the ticket stands for. */
+        private final T owner;
+        /** The player's ID, so that nobody is paired with themselves. */
+        private final int playerID;
+        /** The width wanted. */
+        private final int width;
+        /** The height wanted. */
+        private final int height;
+        /** The N wanted. */
+        private final int n;
+        /** The player's rating, or NO_RATING. */
+        private final int rating;
+        /** How far from the player's rating an opponent's may be, or ANY_BAND. */
+        private final int band;
+        /** When the player joined, from System.nanoTime. */
+        private final long joined;
+        /** WAITING, MATCHED, CANCELLED or CLAIMING. */
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        /**
+         * Create a ticket.
+         *
+         * @param setOwner what the ticket stands for
+         * @param setPlayerID the player's ID
+         * @param setWidth the width wanted
+         * @param setHeight the height wanted
+         * @param setN the N wanted
+         * @param setRating the player's rating, or NO_RATING
+         * @param setBand how far from the player's rating an opponent's may be, or ANY_BAND
+         * @param setJoined when the player joined, from System.nanoTime
+         */
+        @SuppressWarnings("checkstyle:parameternumber")
+        Ticket(final T setOwner, final int setPlayerID, final int setWidth, final int setHeight,
+                final int setN, final int setRating, final int setBand, final long setJoined) {
+            owner = setOwner;
+            playerID = setPlayerID;
+            width = setWidth;
+            height = setHeight;
+            n = setN;
+            rating = setRating;
+            band = setBand;
+            joined = setJoined;
+        }
+
+        /**
+         * Get what the ticket stands for.
+         *
+         * @return the owner
+         */
+        public T getOwner() {
+            return owner;
+        }
+
+        /**
+         * Get the width wanted.
+         *
+         * @return the width
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * Get the height wanted.
+         *
+         * @return the height
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * Get the N wanted.
+         *
+         * @return N
+         */
+        public int getN() {
+            return n;
+        }
+
+        /**
+         * Get when the player joined.
+         *
+         * @return the time, from System.nanoTime
+         */
+        public long getJoined() {
+            return joined;
+        }
+
+        /**
+         * Check whether the ticket has been paired.
+         *
+         * @return true if it has
+         */
+        public boolean isMatched() {
+            return state.get() == MATCHED;
+        }
+
+        /**
+         * Check whether this player would play another now.
+         *
+         * @param other the other player's ticket
+         * @param now the time, from System.nanoTime
+         * @param growth how much bands widen per second of waiting
+         * @return true if the other player's rating is within this player's band
+         */
+        private boolean accepts(final Ticket<T> other, final long now, final double growth) {
+            if (band == ANY_BAND) {
+                return true;
+            }
+            if (other.rating == NO_RATING) {
+                return false;
+            }
+            double widened = band + growth * (now - joined) / NANOS_PER_SECOND;
+            return Math.abs((long) rating - other.rating) <= widened;
+        }
+    }
+
+    /** Waiting tickets by configuration. */
+    private final ConcurrentMap<Integer, ConcurrentLinkedQueue<Ticket<T>>> queues =
+            new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Ticket<T>>>();
+
+    /** Tickets waiting, over every queue. */
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /** Whether a sweep is running. */
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /** How much bands widen per second of waiting. */
+    private final double bandGrowth;
+
+    /** Longest a ticket waits before it gives up, in nanoseconds. */
+    private final long maxWait;
+
+    /** Told about each pair, the player who waited longer first. */
+    private final BiConsumer<Ticket<T>, Ticket<T>> onMatch;
+
+    /** Told about each ticket that gave up waiting. */
+    private final Consumer<Ticket<T>> onExpire;
+
+    /**
+     * Create a matchmaker.
+     *
+     * @param setBandGrowth how much rating bands widen per second of waiting
+     * @param setMaxWaitMs longest a player waits before giving up, in milliseconds
+     * @param setOnMatch told about each pair, the player who waited longer first; it runs on
+     *        the thread that joined or swept
+     * @param setOnExpire told about each ticket that gave up waiting; it runs on the thread that
+     *        swept
+     */
+    public Matchmaker(final double setBandGrowth, final long setMaxWaitMs,
+            final BiConsumer<Ticket<T>, Ticket<T>> setOnMatch,
+            final Consumer<Ticket<T>> setOnExpire) {
+        if (setBandGrowth < 0 || setMaxWaitMs <= 0) {
+            throw new IllegalArgumentException("Band growth and wait must not be negative");
+        }
+        bandGrowth = setBandGrowth;
+        maxWait = TimeUnit.MILLISECONDS.toNanos(setMaxWaitMs);
+        onMatch = setOnMatch;
+        onExpire = setOnExpire;
+    }
+
+    /**
+     * Look for a game, pairing the player at once if someone suitable is waiting.
+     *
+     * @param owner what the ticket stands for
+     * @param playerID the player's ID
+     * @param width the width wanted
+     * @param height the height wanted
+     * @param n the N wanted
+     * @param rating the player's rating, or NO_RATING
+     * @param band how far from the player's rating an opponent's may be, or ANY_BAND
+     * @return the ticket, which is already matched if a pair was made
+     */
+    @SuppressWarnings("checkstyle:parameternumber")
+    public Ticket<T> join(final T owner, final int playerID, final int width, final int height,
+            final int n, final int rating, final int band) {
+        long now = System.nanoTime();
+        Ticket<T> ticket = new Ticket<T>(owner, playerID, width, height, n, rating, band, now);
+        int key = (width << (2 * KEY_BITS)) | (height << KEY_BITS) | n;
+        ConcurrentLinkedQueue<Ticket<T>> queue = queues.get(key);
+        if (queue == null) {
+            queue = queues.computeIfAbsent(key,
+                unused -> new ConcurrentLinkedQueue<Ticket<T>>());
+        }
+
+        int scanned = 0;
+        Iterator<Ticket<T>> waiters = queue.iterator();
+        while (waiters.hasNext() && scanned < MAX_SCAN) {
+            Ticket<T> other = waiters.next();
+            int state = other.state.get();
+            if (state != WAITING) {
+                if (state != CLAIMING) {
+                    waiters.remove();
+                }
+                continue;
+            }
+            scanned++;
+            if (suits(other, ticket, now) && other.state.compareAndSet(WAITING, MATCHED)) {
+                waiters.remove();
+                waiting.decrementAndGet();
+                ticket.state.set(MATCHED);
+                onMatch.accept(other, ticket);
+                return ticket;
+            }
+        }
+        waiting.incrementAndGet();
+        queue.offer(ticket);
+        return ticket;
+    }
+
+    /**
+     * Stop waiting.
+     *
+     * @param ticket the ticket
+     * @return true if the ticket was waiting, false if it was already matched or cancelled
+     */
+    public boolean cancel(final Ticket<T> ticket) {
+        while (true) {
+            if (ticket.state.compareAndSet(WAITING, CANCELLED)) {
+                waiting.decrementAndGet();
+                return true;
+            }
+            if (ticket.state.get() != CLAIMING) {
+                return false;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Pair waiting players who suit each other now, and give up on those who have waited too
+     * long.
+     *
+     * @return the number of pairs made
+     */
+    public int sweep() {
+        return sweep(System.nanoTime());
+    }
+
+    /**
+     * Pair waiting players who suit each other at a given time, and give up on those who have
+     * waited too long by then. Does nothing if another sweep is running.
+     *
+     * @param now the time, from System.nanoTime
+     * @return the number of pairs made
+     */
+    int sweep(final long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return 0;
+        }
+        int pairs = 0;
+        try {
+            for (ConcurrentLinkedQueue<Ticket<T>> queue : queues.values()) {
+                List<Ticket<T>> live = new ArrayList<Ticket<T>>();
+                Iterator<Ticket<T>> waiters = queue.iterator();
+                while (waiters.hasNext()) {
+                    Ticket<T> ticket = waiters.next();
+                    int state = ticket.state.get();
+                    if (state != WAITING) {
+                        if (state != CLAIMING) {
+                            waiters.remove();
+                        }
+                    } else if (now - ticket.joined >= maxWait) {
+                        if (cancel(ticket)) {
+                            waiters.remove();
+                            onExpire.accept(ticket);
+                        }
+                    } else {
+                        live.add(ticket);
+                    }
+                }
+                pairs += pairUp(live, now);
+            }
+        } finally {
+            sweeping.set(false);
+        }
+        return pairs;
+    }
+
+    /**
+     * Pair the waiting tickets of one queue, oldest first, each with the oldest ticket among the
+     * next few that suits it. Paired tickets are left in the queue for the next sweep or join to
+     * unlink, rather than searched for now.
+     *
+     * @param live the tickets that were waiting, oldest first
+     * @param now the time, from System.nanoTime
+     * @return the number of pairs made
+     */
+    private int pairUp(final List<Ticket<T>> live, final long now) {
+        int pairs = 0;
+        for (int i = 0; i < live.size(); i++) {
+            Ticket<T> first = live.get(i);
+            for (int j = i + 1; j < live.size() && j <= i + MAX_SCAN; j++) {
+                Ticket<T> second = live.get(j);
+                if (second.state.get() != WAITING || !suits(first, second, now)) {
+                    continue;
+                }
+                if (!first.state.compareAndSet(WAITING, CLAIMING)) {
+                    break;
+                }
+                if (!second.state.compareAndSet(WAITING, MATCHED)) {
+                    first.state.set(WAITING);
+                    continue;
+                }
+                first.state.set(MATCHED);
+                waiting.addAndGet(-2);
+                onMatch.accept(first, second);
+                pairs++;
+                break;
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Check whether two players would play each other now.
+     *
+     * @param first one player's ticket
+     * @param second the other's
+     * @param now the time, from System.nanoTime
+     * @return true if they are different players and each is within the other's band
+     */
+    private boolean suits(final Ticket<T> first, final Ticket<T> second, final long now) {
+        return first.playerID != second.playerID && first.accepts(second, now, bandGrowth)
+                && second.accepts(first, now, bandGrowth);
+    }
+
+    /**
+     * Get the number of players waiting.
+     *
+     * @return the number of tickets waiting, over every configuration
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.Random;
+
+/**
+ * A strategy for choosing moves in a ConnectN game.
+ * <p>
+ * Policies may try moves on the board they are given, as long as they take every one of them back
+ * with {@link ConnectN#undo() undo()} before returning. That lets them explore positions on one
+ * board instead of copying it.
+ */
+public interface MovePolicy {
+
+    /**
+     * Choose the column to drop a tile in.
+     *
+     * @param board the board to move on, which has at least one open column
+     * @param player the player about to move
+     * @param opponent the other player
+     * @param random source of randomness for tie-breaking
+     * @return the chosen column
+     */
+    int chooseColumn(ConnectN board, Player player, Player opponent, Random random);
+
+    /**
+     * Look up a policy by name.
+     * <p>
+     * Recognized names are "random", "greedy" and "search", optionally followed by a colon and
+     * the search depth, as in "search:6".
+     *
+     * @param name the policy name
+     * @return the policy
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    static MovePolicy forName(final String name) {
+        String[] parts = name.split(":");
+        switch (parts[0]) {
+            case "random":
+                return new RandomPolicy();
+            case "greedy":
+                return new GreedyPolicy();
+            case "search":
+                if (parts.length > 1) {
+                    return new SearchPolicy(Integer.parseInt(parts[1]));
+                }
+                return new SearchPolicy();
+            default:
+                throw new IllegalArgumentException(name + " is not a valid move policy");
+        }
+    }
+
+    /**
+     * Pick a uniformly random open column.
+     *
+     * @param board the board to move on
+     * @param random source of randomness
+     * @return an open column, or -1 if the board is full
+     */
+    static int randomOpenColumn(final ConnectN board, final Random random) {
+        int open = 0;
+        for (int x = 0; x < board.getWidth(); x++) {
+            if (board.getColumnHeight(x) < board.getHeight()) {
+                open++;
+            }
+        }
+        if (open == 0) {
+            return -1;
+        }
+        int pick = random.nextInt(open);
+        for (int x = 0; x < board.getWidth(); x++) {
+            if (board.getColumnHeight(x) < board.getHeight()) {
+                if (pick == 0) {
+                    return x;
+                }
+                pick--;
+            }
+        }
+        return -1;
+    }
+}
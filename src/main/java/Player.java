@@ -1,6 +1,8 @@
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * A class that implements a player for the ConnectN (and possibly other) games.
  * <p>
@@ -11,7 +13,25 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  */
 public class Player {
     /** Class variable that we used to generate a unique ID for each newly created player. */
-    private static int globalID = 0;
+    private static AtomicInteger globalID = new AtomicInteger();
+
+    /**
+     * Get the ID that will be given to the next new player.
+     *
+     * @return the next player ID
+     */
+    static int getGlobalID() {
+        return globalID.get();
+    }
+
+    /**
+     * Restore the ID that will be given to the next new player after loading a snapshot.
+     *
+     * @param setGlobalID the next player ID
+     */
+    static void setGlobalID(final int setGlobalID) {
+        globalID.set(setGlobalID);
+    }
 
     /**
      * The name of the player.
@@ -77,7 +97,7 @@ public class Player {
     public Player(final String setName) {
         this.name = setName;
         this.score = 0;
-        this.id = Player.globalID++;
+        this.id = Player.globalID.getAndIncrement();
     }
 
     /**
@@ -0,0 +1,109 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Analyzes every open column of a position at once, one task per column.
+ * <p>
+ * Each task gets its own copy of the board and its own share of the node budget, and all of
+ * them share the time budget. Columns are independent, so a position is analyzed in about the
+ * time one column takes. A sequential search that scores every column would take about as long
+ * as all of them together.
+ */
+public class PositionAnalyzer {
+
+    /** Runs the column tasks. */
+    private final Executor executor;
+
+    /** The search that scores each column. */
+    private final SearchPolicy policy;
+
+    /**
+     * Create an analyzer.
+     *
+     * @param setExecutor runs the column tasks
+     * @param setPolicy the search that scores each column
+     */
+    public PositionAnalyzer(final Executor setExecutor, final SearchPolicy setPolicy) {
+        executor = setExecutor;
+        policy = setPolicy;
+    }
+
+    /**
+     * Start analyzing every open column of a board.
+     * <p>
+     * Must be called on the thread that owns the board. The board is only read here, to copy it.
+     * When the last column is done, done is called on whichever thread finished it. It gets the
+     * analyses from left to right, or null if a task failed, the executor refused one, or the
+     * analysis was cancelled.
+     *
+     * @param board the board, whose game is not over
+     * @param player the player to move
+     * @param opponent the other player
+     * @param timeNanos how long the analysis may take
+     * @param nodes positions the analysis may visit, shared between the columns
+     * @param done called with the analyses
+     * @return cancels the analysis when run
+     */
+    public Runnable analyze(final ConnectN board, final Player player, final Player opponent,
+            final long timeNanos, final long nodes, final Consumer<ColumnAnalysis[]> done) {
+        int open = 0;
+        for (int x = 0; x < board.getWidth(); x++) {
+            if (board.getColumnHeight(x) < board.getHeight()) {
+                open++;
+            }
+        }
+        ColumnAnalysis[] results = new ColumnAnalysis[open];
+        SearchBudget[] budgets = new SearchBudget[open];
+        for (int i = 0; i < open; i++) {
+            budgets[i] = new SearchBudget(timeNanos, Math.max(1, nodes / open));
+        }
+        Runnable cancel = () -> {
+            for (SearchBudget budget : budgets) {
+                budget.cancel();
+            }
+        };
+        AtomicInteger remaining = new AtomicInteger(open);
+        Runnable columnDone = () -> {
+            if (remaining.decrementAndGet() > 0) {
+                return;
+            }
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null || budgets[i].isCancelled()) {
+                    done.accept(null);
+                    return;
+                }
+            }
+            done.accept(results);
+        };
+
+        int i = 0;
+        for (int x = 0; x < board.getWidth(); x++) {
+            if (board.getColumnHeight(x) >= board.getHeight()) {
+                continue;
+            }
+            int index = i;
+            int column = x;
+            ConnectN position = board.copyPosition();
+            try {
+                executor.execute(() -> {
+                    try {
+                        results[index] = ColumnAnalysis.analyze(position, player, opponent,
+                                column, policy, budgets[index]);
+                    } finally {
+                        columnDone.run();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                cancel.run();
+                for (int skipped = index; skipped < open; skipped++) {
+                    columnDone.run();
+                }
+                break;
+            }
+            i++;
+        }
+        return cancel;
+    }
+}
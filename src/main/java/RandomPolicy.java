@@ -0,0 +1,22 @@
+import java.util.Random;
+
+/**
+ * A move policy that drops tiles in random open columns.
+ */
+public class RandomPolicy implements MovePolicy {
+
+    /**
+     * Choose a uniformly random open column.
+     *
+     * @param board the board to move on
+     * @param player the player about to move
+     * @param opponent the other player
+     * @param random source of randomness
+     * @return the chosen column
+     */
+    @Override
+    public int chooseColumn(final ConnectN board, final Player player, final Player opponent,
+            final Random random) {
+        return MovePolicy.randomOpenColumn(board, random);
+    }
+}
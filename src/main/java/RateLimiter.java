@@ -0,0 +1,136 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Token-bucket rate limits, kept separately for each key, such as a client address or board ID.
+ * <p>
+ * Each bucket refills at a steady rate up to a burst size, and every allowed request takes one
+ * token. Buckets are stored as a single "theoretical arrival time", the generic cell rate
+ * algorithm: the time at which the bucket would be full again. A request is allowed if taking a
+ * token would not push that time more than one burst ahead of now. Checking a key is one
+ * compare-and-set on a long, with no locks and no timers.
+ * <p>
+ * A bucket that has refilled completely is indistinguishable from a new one, so {@link #sweep()}
+ * can drop it to keep the map from growing without bound.
+ *
+ * @param <K> the type of key buckets are kept by
+ */
+public class RateLimiter<K> {
+
+    /** Nanoseconds per second. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** Nanoseconds between tokens. */
+    private final long interval;
+
+    /** How far ahead of now a bucket's full time may be: one interval per token of burst. */
+    private final long tolerance;
+
+    /** The clock buckets are timed by, in nanoseconds. */
+    private final LongSupplier clock;
+
+    /** When each bucket will be full again, by the clock. */
+    private final ConcurrentMap<K, AtomicLong> buckets = new ConcurrentHashMap<K, AtomicLong>();
+
+    /**
+     * Create a rate limiter.
+     *
+     * @param ratePerSecond tokens added to each bucket per second
+     * @param burst tokens each bucket holds
+     */
+    public RateLimiter(final double ratePerSecond, final int burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+
+    /**
+     * Create a rate limiter timed by a given clock, so tests can control time.
+     *
+     * @param ratePerSecond tokens added to each bucket per second
+     * @param burst tokens each bucket holds
+     * @param setClock the clock, in nanoseconds
+     */
+    RateLimiter(final double ratePerSecond, final int burst, final LongSupplier setClock) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        interval = Math.max(1, (long) (NANOS_PER_SECOND / ratePerSecond));
+        tolerance = interval * burst;
+        clock = setClock;
+    }
+
+    /**
+     * Take a token for a key if one is available.
+     *
+     * @param key the key
+     * @return true if the request is allowed, false if the key is over its limit
+     */
+    public boolean tryAcquire(final K key) {
+        long now = clock.getAsLong();
+        AtomicLong full = buckets.get(key);
+        if (full == null) {
+            full = buckets.computeIfAbsent(key, unused -> new AtomicLong(now));
+        }
+        while (true) {
+            long current = full.get();
+            long next = Math.max(current, now) + interval;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (full.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Get how long until a key will have a token again.
+     *
+     * @param key the key
+     * @return the wait in nanoseconds, or zero if a token is available now
+     */
+    public long waitNanos(final K key) {
+        AtomicLong full = buckets.get(key);
+        if (full == null) {
+            return 0;
+        }
+        return Math.max(0, full.get() + interval - tolerance - clock.getAsLong());
+    }
+
+    /**
+     * Forget a key's bucket, for example when the board it limits is gone.
+     *
+     * @param key the key
+     */
+    public void forget(final K key) {
+        buckets.remove(key);
+    }
+
+    /**
+     * Drop every bucket that has refilled completely.
+     *
+     * @return the number of buckets dropped
+     */
+    public int sweep() {
+        long now = clock.getAsLong();
+        int dropped = 0;
+        for (Map.Entry<K, AtomicLong> entry : buckets.entrySet()) {
+            if (entry.getValue().get() - now <= 0 && buckets.remove(entry.getKey(),
+                    entry.getValue())) {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Get the number of buckets being tracked.
+     *
+     * @return the number of keys with a bucket
+     */
+    public int size() {
+        return buckets.size();
+    }
+}
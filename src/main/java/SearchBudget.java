@@ -0,0 +1,115 @@
+/**
+ * Limits on one search: a deadline, a number of positions, and a flag to stop it early.
+ * <p>
+ * A search calls {@link #spend()} once per position it visits and unwinds as soon as it returns
+ * false. The clock and the cancellation flag are only read every {@link #CHECK_INTERVAL}
+ * positions, so keeping to a budget costs a counter increment per node. The search itself runs
+ * on one thread, but {@link #cancel()} may be called from any thread.
+ */
+public class SearchBudget {
+
+    /** Positions visited between reads of the clock and the cancellation flag. */
+    static final int CHECK_INTERVAL = 1 << 10;
+
+    /** When the search must stop, from System.nanoTime. */
+    private final long deadline;
+
+    /** Positions the search may visit. */
+    private final long maxNodes;
+
+    /** Set when whoever asked for the search no longer wants the answer. */
+    private volatile boolean cancelled;
+
+    /** Set once the search has run out of time or positions, or was cancelled. */
+    private boolean exhausted;
+
+    /** Positions visited so far. */
+    private long nodes;
+
+    /** Deepest search completed within the budget. */
+    private int depth;
+
+    /**
+     * Create a budget starting now.
+     *
+     * @param timeNanos how long the search may run, in nanoseconds
+     * @param setMaxNodes how many positions the search may visit
+     */
+    public SearchBudget(final long timeNanos, final long setMaxNodes) {
+        if (timeNanos <= 0 || setMaxNodes <= 0) {
+            throw new IllegalArgumentException("Search budgets must be positive");
+        }
+        deadline = System.nanoTime() + timeNanos;
+        maxNodes = setMaxNodes;
+    }
+
+    /**
+     * Stop the search as soon as it next checks its budget.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Get whether the search was cancelled.
+     *
+     * @return true if cancel has been called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Count one position visited.
+     *
+     * @return true if the search may go on, false if it must stop
+     */
+    boolean spend() {
+        if (exhausted) {
+            return false;
+        }
+        nodes++;
+        if (nodes > maxNodes) {
+            exhausted = true;
+        } else if ((nodes & (CHECK_INTERVAL - 1)) == 0) {
+            exhausted = cancelled || System.nanoTime() - deadline >= 0;
+        }
+        return !exhausted;
+    }
+
+    /**
+     * Get whether the search has used up its budget.
+     *
+     * @return true if the search had to stop
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Note that a search to some depth finished within the budget.
+     *
+     * @param setDepth the depth searched
+     */
+    void completed(final int setDepth) {
+        depth = setDepth;
+    }
+
+    /**
+     * Get the deepest search completed within the budget.
+     *
+     * @return the depth, or zero if not even one move ahead was searched
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Get the number of positions visited.
+     *
+     * @return the count
+     */
+    public long getNodes() {
+        return nodes;
+    }
+}
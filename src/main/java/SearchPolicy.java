@@ -0,0 +1,329 @@
+import java.util.Random;
+
+/**
+ * A move policy that looks a fixed number of moves ahead with alpha-beta search.
+ * <p>
+ * Moves are tried on the board itself and taken back with undo, so a search allocates nothing
+ * per node. Positions that are not decided within the search depth score as even, so this policy
+ * is only as strong as its depth, but it never misses a win or a forced loss inside it.
+ * <p>
+ * Callers that must answer in bounded time can instead search within a {@link SearchBudget},
+ * which deepens one move at a time and keeps the answer from the deepest search that finished.
+ */
+public class SearchPolicy implements MovePolicy {
+
+    /** Depth used when none is given. */
+    public static final int DEFAULT_DEPTH = 4;
+
+    /** Score of a win found at the root. Wins found deeper score lower, so faster wins win. */
+    static final int WIN_SCORE = 1 << 20;
+
+    /** Column orders by board width, center columns first. */
+    private static final int[][] ORDERS = new int[ConnectN.MAX_WIDTH + 1][];
+
+    static {
+        for (int width = 0; width < ORDERS.length; width++) {
+            ORDERS[width] = new int[width];
+            int center = (width - 1) / 2;
+            for (int i = 0; i < width; i++) {
+                if (i % 2 == 1) {
+                    ORDERS[width][i] = center + (i + 1) / 2;
+                } else {
+                    ORDERS[width][i] = center - i / 2;
+                }
+            }
+        }
+    }
+
+    /** How many moves ahead to look. */
+    private final int depth;
+
+    /** Results shared between searches, or null to keep none. */
+    private final TranspositionTable table;
+
+    /**
+     * Create a search policy with the default depth.
+     */
+    public SearchPolicy() {
+        this(DEFAULT_DEPTH);
+    }
+
+    /**
+     * Create a search policy with a given depth.
+     *
+     * @param setDepth how many moves ahead to look, at least one
+     */
+    public SearchPolicy(final int setDepth) {
+        this(setDepth, null);
+    }
+
+    /**
+     * Create a search policy that shares results with other searches through a table.
+     * <p>
+     * The table can be shared by policies searching on many threads at once.
+     *
+     * @param setDepth how many moves ahead to look, at least one
+     * @param setTable the table, or null to keep no results between positions
+     */
+    public SearchPolicy(final int setDepth, final TranspositionTable setTable) {
+        if (setDepth < 1) {
+            throw new IllegalArgumentException("Search depth must be at least one");
+        }
+        depth = setDepth;
+        table = setTable;
+    }
+
+    /**
+     * Choose the column with the best search score, breaking ties toward the center.
+     *
+     * @param board the board to move on
+     * @param player the player about to move
+     * @param opponent the other player
+     * @param random source of randomness, unused since the search is deterministic
+     * @return the chosen column
+     */
+    @Override
+    public int chooseColumn(final ConnectN board, final Player player, final Player opponent,
+            final Random random) {
+        if (table != null) {
+            table.newSearch();
+        }
+        return searchRoot(board, player, opponent, depth, -1, null);
+    }
+
+    /**
+     * Choose a column within a budget, searching one move deeper at a time up to this policy's
+     * depth.
+     * <p>
+     * Each pass tries the best column of the one before first, so deeper passes cut sooner. A
+     * pass cut short by the budget is thrown away, and the best column of the deepest pass that
+     * finished is returned. If not even a one-move search fits in the budget, the most central
+     * open column is returned.
+     *
+     * @param board the board to move on, which has at least one open column
+     * @param player the player about to move
+     * @param opponent the other player
+     * @param budget limits on the search, which also records how deep it got
+     * @return the chosen column, or -1 if the board is full
+     */
+    public int chooseColumn(final ConnectN board, final Player player, final Player opponent,
+            final SearchBudget budget) {
+        int bestColumn = -1;
+        for (int x : centerFirst(board.getWidth())) {
+            if (board.getColumnHeight(x) < board.getHeight()) {
+                bestColumn = x;
+                break;
+            }
+        }
+        if (table != null) {
+            table.newSearch();
+        }
+        int empty = board.getWidth() * board.getHeight() - board.getMoveCount();
+        for (int pass = 1; pass <= Math.min(depth, empty); pass++) {
+            int column = searchRoot(board, player, opponent, pass, bestColumn, budget);
+            if (budget.isExhausted()) {
+                break;
+            }
+            bestColumn = column;
+            budget.completed(pass);
+        }
+        return bestColumn;
+    }
+
+    /**
+     * Score one move within a budget, searching one move deeper at a time up to this policy's
+     * depth.
+     *
+     * @param board the board to move on
+     * @param player the player about to move
+     * @param opponent the other player
+     * @param column the column to score, which must have room
+     * @param budget limits on the search, which also records how deep it got
+     * @return the score of the move for player from the deepest search that finished, or zero
+     *         if none did
+     */
+    public int scoreColumn(final ConnectN board, final Player player, final Player opponent,
+            final int column, final SearchBudget budget) {
+        if (table != null) {
+            table.newSearch();
+        }
+        int score = 0;
+        int empty = board.getWidth() * board.getHeight() - board.getMoveCount();
+        for (int pass = 1; pass <= Math.min(depth, empty); pass++) {
+            if (!board.placeTile(player, column)) {
+                break;
+            }
+            int passScore = -negamax(board, opponent, player, pass - 1, -WIN_SCORE - 1,
+                    WIN_SCORE + 1, budget);
+            board.undo();
+            if (budget.isExhausted()) {
+                break;
+            }
+            score = passScore;
+            budget.completed(pass);
+            if (Math.abs(score) > WIN_SCORE / 2) {
+                break;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Search every move from the root and return the best, breaking ties toward the center.
+     *
+     * @param board the board to move on
+     * @param player the player about to move
+     * @param opponent the other player
+     * @param passDepth how many moves ahead to look
+     * @param first a column to try before the others, or -1
+     * @param budget limits on the search, or null for none
+     * @return the best column, which is meaningless if the budget ran out
+     */
+    private int searchRoot(final ConnectN board, final Player player,
+            final Player opponent, final int passDepth, final int first,
+            final SearchBudget budget) {
+        int[] order = centerFirst(board.getWidth());
+        int bestColumn = -1;
+        int bestScore = -WIN_SCORE - 1;
+        for (int i = -1; i < order.length; i++) {
+            int x = first;
+            if (i >= 0) {
+                x = order[i];
+                if (x == first) {
+                    continue;
+                }
+            }
+            if (x < 0 || !board.placeTile(player, x)) {
+                continue;
+            }
+            int score = -negamax(board, opponent, player, passDepth - 1, -WIN_SCORE - 1,
+                    -bestScore, budget);
+            board.undo();
+            if (budget != null && budget.isExhausted()) {
+                break;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestColumn = x;
+            }
+        }
+        return bestColumn;
+    }
+
+    /**
+     * Score the position just reached, from the point of view of the player to move.
+     *
+     * @param board the board, whose last move was made by the opponent of player
+     * @param player the player to move
+     * @param opponent the player who just moved
+     * @param remaining moves left to search
+     * @param alpha the score player is already guaranteed
+     * @param beta the score opponent is already guaranteed
+     * @param budget limits on the search, or null for none
+     * @return the score of the position for player, or zero if the budget ran out
+     */
+    private int negamax(final ConnectN board, final Player player, final Player opponent,
+            final int remaining, final int alpha, final int beta, final SearchBudget budget) {
+        if (budget != null && !budget.spend()) {
+            return 0;
+        }
+        if (board.hasWinner()) {
+            return -WIN_SCORE + board.getMoveCount();
+        }
+        if (remaining == 0 || board.getMoveCount() == board.getWidth() * board.getHeight()) {
+            return 0;
+        }
+        if (board.winningColumns(player) != 0) {
+            return WIN_SCORE - board.getMoveCount() - 1;
+        }
+        if (remaining == 1) {
+            return 0;
+        }
+        /*
+         * If the opponent threatens to win, any move but a block loses at once, so only blocks
+         * need to be searched.
+         */
+        int moves = board.blockingColumns(player);
+        if (moves == 0) {
+            moves = board.legalColumns();
+        }
+
+        /*
+         * A stored result that looked at least as far ahead settles the position if it is exact
+         * or a bound outside the window. Otherwise its best column is tried first.
+         */
+        long key = 0;
+        int first = -1;
+        if (table != null) {
+            key = TranspositionTable.key(board, board.seatFor(player));
+            long stored = table.probe(key);
+            if (stored != 0) {
+                int score = TranspositionTable.score(stored);
+                int bound = TranspositionTable.bound(stored);
+                if (TranspositionTable.depth(stored) >= remaining
+                        && (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER && score >= beta)
+                        || (bound == TranspositionTable.UPPER && score <= alpha))) {
+                    return score;
+                }
+                if (TranspositionTable.column(stored) >= 0) {
+                    first = board.canonicalColumn(TranspositionTable.column(stored));
+                }
+            }
+        }
+
+        int[] order = centerFirst(board.getWidth());
+        int best = -WIN_SCORE - 1;
+        int bestColumn = -1;
+        int floor = alpha;
+        for (int i = -1; i < order.length; i++) {
+            int x = first;
+            if (i >= 0) {
+                x = order[i];
+                if (x == first) {
+                    continue;
+                }
+            }
+            if (x < 0 || (moves & (1 << x)) == 0 || !board.placeTile(player, x)) {
+                continue;
+            }
+            int score = -negamax(board, opponent, player, remaining - 1, -beta, -floor, budget);
+            board.undo();
+            if (budget != null && budget.isExhausted()) {
+                return 0;
+            }
+            if (score > best) {
+                best = score;
+                bestColumn = x;
+            }
+            if (best > floor) {
+                floor = best;
+            }
+            if (floor >= beta) {
+                break;
+            }
+        }
+        if (table != null) {
+            int bound = TranspositionTable.EXACT;
+            if (best <= alpha) {
+                bound = TranspositionTable.UPPER;
+            } else if (best >= beta) {
+                bound = TranspositionTable.LOWER;
+            }
+            table.store(key, remaining, bound, best, board.canonicalColumn(bestColumn));
+        }
+        return best;
+    }
+
+    /**
+     * Get the columns of a board ordered from the center outward.
+     * <p>
+     * Center columns take part in more lines, so trying them first makes alpha-beta cut sooner.
+     *
+     * @param width the board width
+     * @return the column order, which must not be modified
+     */
+    static int[] centerFirst(final int width) {
+        return ORDERS[width];
+    }
+}
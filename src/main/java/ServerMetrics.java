@@ -0,0 +1,484 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.vertx.core.Vertx;
+
+/**
+ * Runtime metrics for the web server, rendered in the Prometheus text format.
+ * <p>
+ * Every recording method is lock-free: counts are striped LongAdders and latencies go into
+ * {@link LatencyHistogram LatencyHistograms}, so request handlers on any thread can record without
+ * contending with each other or with a scrape in progress. Rendering reads the counters as they
+ * are, which is what Prometheus expects of counters that only ever go up.
+ */
+public class ServerMetrics {
+
+    /** Upper bounds of the histogram buckets exported for latencies, in seconds. */
+    private static final double[] BUCKETS = {0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025,
+        0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5};
+
+    /** Nanoseconds per second. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** Milliseconds per second. */
+    private static final double MILLIS_PER_SECOND = 1e3;
+
+    /** How often event-loop lag is sampled, in milliseconds. */
+    private static final long LAG_INTERVAL_MS = 100;
+
+    /**
+     * Counts and latencies for one action.
+     */
+    private static final class ActionMetrics {
+        /** Requests handled. */
+        private final LongAdder requests = new LongAdder();
+        /** Requests that failed with an exception. */
+        private final LongAdder errors = new LongAdder();
+        /** Requests handled without error that reported failure, like a move out of turn. */
+        private final LongAdder rejected = new LongAdder();
+        /** Time to handle each request. */
+        private final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    /** Metrics for each action, by name. */
+    private final ConcurrentMap<String, ActionMetrics> actions =
+            new ConcurrentHashMap<String, ActionMetrics>();
+
+    /** Requests refused before dispatch, by ActionError ordinal. */
+    private final LongAdder[] actionErrors = new LongAdder[ActionError.values().length];
+
+    /** Tiles placed. */
+    private final LongAdder moves = new LongAdder();
+
+    /** Games won. */
+    private final LongAdder wins = new LongAdder();
+
+    /** Time to place a tile, which includes checking whether it completes a run. */
+    private final LatencyHistogram moveTime = new LatencyHistogram();
+
+    /** How late event-loop timers fire. */
+    private final LatencyHistogram eventLoopLag = new LatencyHistogram();
+
+    /** How long players waited for a game before they were paired. */
+    private final LatencyHistogram matchWait = new LatencyHistogram();
+
+    /** Players who gave up waiting for a game. */
+    private final LongAdder matchTimeouts = new LongAdder();
+
+    /** The most recent event-loop lag, in nanoseconds. */
+    private volatile long lastEventLoopLag;
+
+    /** Logs whose entry and drop counts are reported, by name. */
+    private final ConcurrentMap<String, AsyncLog> logs = new ConcurrentHashMap<String, AsyncLog>();
+
+    /** Requests turned away before they were handled, by reason. */
+    private final ConcurrentMap<String, LongAdder> shed =
+            new ConcurrentHashMap<String, LongAdder>();
+
+    /** Other gauges, like queue depths, by metric name. */
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    /**
+     * A value read when metrics are rendered.
+     */
+    private static final class Gauge {
+        /** The help text. */
+        private final String help;
+        /** Reads the value. */
+        private final LongSupplier value;
+
+        /**
+         * Create a gauge.
+         *
+         * @param setHelp the help text
+         * @param setValue reads the value
+         */
+        Gauge(final String setHelp, final LongSupplier setValue) {
+            help = setHelp;
+            value = setValue;
+        }
+    }
+
+    /**
+     * Create metrics with every count at zero.
+     */
+    public ServerMetrics() {
+        for (int i = 0; i < actionErrors.length; i++) {
+            actionErrors[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Get the metrics of an action, creating them if needed.
+     *
+     * @param action the action name
+     * @return its metrics
+     */
+    private ActionMetrics action(final String action) {
+        ActionMetrics metrics = actions.get(action);
+        if (metrics == null) {
+            metrics = actions.computeIfAbsent(action, unused -> new ActionMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * Record a handled request.
+     * <p>
+     * The caller should map unrecognized actions to a single name, so that clients cannot create
+     * an unbounded number of time series.
+     *
+     * @param action the action name
+     * @param nanos how long the request took to handle
+     * @param success whether the action reported success
+     * @param error whether the action failed with an exception
+     */
+    public void recordRequest(final String action, final long nanos, final boolean success,
+            final boolean error) {
+        ActionMetrics metrics = action(action);
+        metrics.requests.increment();
+        metrics.latency.record(nanos);
+        if (error) {
+            metrics.errors.increment();
+        } else if (!success) {
+            metrics.rejected.increment();
+        }
+    }
+
+    /**
+     * Record a request refused before it was dispatched.
+     *
+     * @param error why it was refused
+     */
+    public void recordActionError(final ActionError error) {
+        actionErrors[error.ordinal()].increment();
+    }
+
+    /**
+     * Record a tile placed on a board.
+     *
+     * @param nanos how long placing the tile and checking for a win took
+     * @param won whether the tile won the game
+     */
+    public void recordMove(final long nanos, final boolean won) {
+        moves.increment();
+        moveTime.record(nanos);
+        if (won) {
+            wins.increment();
+        }
+    }
+
+    /**
+     * Record a player paired with an opponent.
+     *
+     * @param nanos how long the player waited
+     */
+    public void recordMatch(final long nanos) {
+        matchWait.record(nanos);
+    }
+
+    /**
+     * Record a player who waited the longest wait without being paired.
+     */
+    public void recordMatchTimeout() {
+        matchTimeouts.increment();
+    }
+
+    /**
+     * Report a log's entry, sampling and drop counts.
+     *
+     * @param name the log's name
+     * @param log the log
+     */
+    public void watchLog(final String name, final AsyncLog log) {
+        logs.put(name, log);
+    }
+
+    /**
+     * Record a request turned away before it was handled, like one over a rate limit.
+     *
+     * @param reason why it was turned away
+     */
+    public void recordShed(final String reason) {
+        LongAdder count = shed.get(reason);
+        if (count == null) {
+            count = shed.computeIfAbsent(reason, unused -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    /**
+     * Report a value that is read whenever metrics are rendered, like the depth of a queue.
+     *
+     * @param name the metric name
+     * @param help the help text
+     * @param value reads the value; it must be safe to call from any thread
+     */
+    public void gauge(final String name, final String help, final LongSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /**
+     * Start measuring how late the event loop runs timers.
+     * <p>
+     * A timer is set every 100ms, and the difference between when it was due and when it fired
+     * is recorded. Anything that blocks the event loop shows up as lag. Timers fire on the
+     * context that set them, so this must be called on the context that handles requests; called
+     * from any other thread it would measure an idle event loop of its own.
+     *
+     * @param vertx the Vert.x instance whose event loop to measure
+     */
+    public void monitorEventLoop(final Vertx vertx) {
+        long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LAG_INTERVAL_MS);
+        vertx.setTimer(LAG_INTERVAL_MS, timerID -> {
+            long lag = Math.max(0, System.nanoTime() - due);
+            lastEventLoopLag = lag;
+            eventLoopLag.record(lag);
+            monitorEventLoop(vertx);
+        });
+    }
+
+    /**
+     * Render every metric in the Prometheus text exposition format.
+     *
+     * @param liveBoards the number of boards currently in use
+     * @return the metrics text
+     */
+    public String render(final int liveBoards) {
+        StringBuilder out = new StringBuilder();
+        Map<String, ActionMetrics> sorted = new TreeMap<String, ActionMetrics>(actions);
+
+        header(out, "connectn_requests_total", "counter", "Requests handled, by action.");
+        for (Map.Entry<String, ActionMetrics> entry : sorted.entrySet()) {
+            sample(out, "connectn_requests_total", actionLabel(entry),
+                    entry.getValue().requests.sum());
+        }
+        header(out, "connectn_request_errors_total", "counter",
+                "Requests that failed with an exception, by action.");
+        for (Map.Entry<String, ActionMetrics> entry : sorted.entrySet()) {
+            sample(out, "connectn_request_errors_total", actionLabel(entry),
+                    entry.getValue().errors.sum());
+        }
+        header(out, "connectn_requests_rejected_total", "counter",
+                "Requests refused by the game rules, like moves out of turn, by action.");
+        for (Map.Entry<String, ActionMetrics> entry : sorted.entrySet()) {
+            sample(out, "connectn_requests_rejected_total", actionLabel(entry),
+                    entry.getValue().rejected.sum());
+        }
+        header(out, "connectn_action_errors_total", "counter",
+                "Requests refused before dispatch, by error code.");
+        for (ActionError error : ActionError.values()) {
+            sample(out, "connectn_action_errors_total", "code=\"" + error.name() + "\"",
+                    actionErrors[error.ordinal()].sum());
+        }
+        header(out, "connectn_request_duration_seconds", "histogram",
+                "Time to handle a request, by action.");
+        for (Map.Entry<String, ActionMetrics> entry : sorted.entrySet()) {
+            histogram(out, "connectn_request_duration_seconds", actionLabel(entry) + ",",
+                    entry.getValue().latency);
+        }
+
+        header(out, "connectn_boards", "gauge", "Boards currently in use.");
+        sample(out, "connectn_boards", "", liveBoards);
+        header(out, "connectn_players_created_total", "counter", "Players created.");
+        sample(out, "connectn_players_created_total", "", Player.getGlobalID());
+        header(out, "connectn_games_total", "counter", "Games created.");
+        sample(out, "connectn_games_total", "", ConnectN.getTotalGames());
+        header(out, "connectn_moves_total", "counter",
+                "Tiles placed. Take the rate for moves per second.");
+        sample(out, "connectn_moves_total", "", moves.sum());
+        header(out, "connectn_wins_total", "counter", "Games won.");
+        sample(out, "connectn_wins_total", "", wins.sum());
+        header(out, "connectn_move_duration_seconds", "histogram",
+                "Time to place a tile, including checking whether it wins.");
+        histogram(out, "connectn_move_duration_seconds", "", moveTime);
+        header(out, "connectn_match_wait_seconds", "histogram",
+                "Time players waited for a game before they were paired.");
+        histogram(out, "connectn_match_wait_seconds", "", matchWait);
+        header(out, "connectn_match_timeouts_total", "counter",
+                "Players who gave up waiting for a game.");
+        sample(out, "connectn_match_timeouts_total", "", matchTimeouts.sum());
+
+        header(out, "vertx_event_loop_lag_seconds", "gauge",
+                "How late the most recent event-loop timer fired.");
+        sample(out, "vertx_event_loop_lag_seconds", "", lastEventLoopLag / NANOS_PER_SECOND);
+        header(out, "vertx_event_loop_lag_distribution_seconds", "histogram",
+                "How late event-loop timers fire.");
+        histogram(out, "vertx_event_loop_lag_distribution_seconds", "", eventLoopLag);
+
+        Map<String, AsyncLog> sortedLogs = new TreeMap<String, AsyncLog>(logs);
+        header(out, "connectn_log_entries_total", "counter", "Log entries accepted, by log.");
+        for (Map.Entry<String, AsyncLog> entry : sortedLogs.entrySet()) {
+            sample(out, "connectn_log_entries_total", logLabel(entry),
+                    entry.getValue().getLogged());
+        }
+        header(out, "connectn_log_dropped_total", "counter",
+                "Log entries dropped because the buffer was full, by log.");
+        for (Map.Entry<String, AsyncLog> entry : sortedLogs.entrySet()) {
+            sample(out, "connectn_log_dropped_total", logLabel(entry),
+                    entry.getValue().getDropped());
+        }
+        header(out, "connectn_log_sampled_out_total", "counter",
+                "Routine log entries skipped by sampling under load, by log.");
+        for (Map.Entry<String, AsyncLog> entry : sortedLogs.entrySet()) {
+            sample(out, "connectn_log_sampled_out_total", logLabel(entry),
+                    entry.getValue().getSampledOut());
+        }
+
+        header(out, "connectn_requests_shed_total", "counter",
+                "Requests turned away before they were handled, by reason.");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(shed).entrySet()) {
+            sample(out, "connectn_requests_shed_total",
+                    "reason=\"" + escape(entry.getKey()) + "\"", entry.getValue().sum());
+        }
+        for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()) {
+            header(out, entry.getKey(), "gauge", entry.getValue().help);
+            sample(out, entry.getKey(), "", entry.getValue().value.getAsLong());
+        }
+
+        renderJvm(out);
+        return out.toString();
+    }
+
+    /**
+     * Render JVM memory, garbage collection and thread figures.
+     *
+     * @param out where to render
+     */
+    private static void renderJvm(final StringBuilder out) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        header(out, "jvm_memory_bytes_used", "gauge", "Memory used, by area.");
+        sample(out, "jvm_memory_bytes_used", "area=\"heap\"", heap.getUsed());
+        sample(out, "jvm_memory_bytes_used", "area=\"nonheap\"", nonHeap.getUsed());
+        header(out, "jvm_memory_bytes_committed", "gauge", "Memory committed, by area.");
+        sample(out, "jvm_memory_bytes_committed", "area=\"heap\"", heap.getCommitted());
+        sample(out, "jvm_memory_bytes_committed", "area=\"nonheap\"", nonHeap.getCommitted());
+        header(out, "jvm_memory_bytes_max", "gauge", "Most memory that can be used, by area.");
+        sample(out, "jvm_memory_bytes_max", "area=\"heap\"", heap.getMax());
+        sample(out, "jvm_memory_bytes_max", "area=\"nonheap\"", nonHeap.getMax());
+
+        header(out, "jvm_gc_collection_seconds", "summary",
+                "Time spent in garbage collection, by collector.");
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String labels = "gc=\"" + escape(collector.getName()) + "\"";
+            sample(out, "jvm_gc_collection_seconds_count", labels,
+                    collector.getCollectionCount());
+            sample(out, "jvm_gc_collection_seconds_sum", labels,
+                    collector.getCollectionTime() / MILLIS_PER_SECOND);
+        }
+
+        header(out, "jvm_threads_current", "gauge", "Live threads.");
+        sample(out, "jvm_threads_current", "",
+                ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    /**
+     * Get the label of an action entry.
+     *
+     * @param entry the entry
+     * @return the action label
+     */
+    private static String actionLabel(final Map.Entry<String, ActionMetrics> entry) {
+        return "action=\"" + escape(entry.getKey()) + "\"";
+    }
+
+    /**
+     * Get the label of a log entry.
+     *
+     * @param entry the entry
+     * @return the log label
+     */
+    private static String logLabel(final Map.Entry<String, AsyncLog> entry) {
+        return "log=\"" + escape(entry.getKey()) + "\"";
+    }
+
+    /**
+     * Escape a label value.
+     *
+     * @param value the value
+     * @return the value with backslashes, quotes and newlines escaped
+     */
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Render the help and type lines of a metric.
+     *
+     * @param out where to render
+     * @param name the metric name
+     * @param type the metric type
+     * @param help the help text
+     */
+    private static void header(final StringBuilder out, final String name, final String type,
+            final String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Render one sample.
+     *
+     * @param out where to render
+     * @param name the metric name
+     * @param labels the labels, without braces, or an empty string for none
+     * @param value the value
+     */
+    private static void sample(final StringBuilder out, final String name, final String labels,
+            final double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Render a latency histogram as cumulative buckets in seconds.
+     *
+     * @param out where to render
+     * @param name the metric name
+     * @param labels labels to put before the bucket bound, each followed by a comma
+     * @param histogram the latencies, in nanoseconds
+     */
+    private static void histogram(final StringBuilder out, final String name,
+            final String labels, final LatencyHistogram histogram) {
+        for (double bound : BUCKETS) {
+            sample(out, name + "_bucket", labels + "le=\"" + bound + "\"",
+                    histogram.getCountAtOrBelow((long) (bound * NANOS_PER_SECOND)));
+        }
+        long count = histogram.getCountAtOrBelow(Long.MAX_VALUE);
+        sample(out, name + "_bucket", labels + "le=\"+Inf\"", count);
+        sample(out, name + "_sum", withoutTrailingComma(labels),
+                histogram.getSum() / NANOS_PER_SECOND);
+        sample(out, name + "_count", withoutTrailingComma(labels), count);
+    }
+
+    /**
+     * Remove the comma that separates a label list from the bucket bound.
+     *
+     * @param labels the labels
+     * @return the labels without a trailing comma
+     */
+    private static String withoutTrailingComma(final String labels) {
+        if (labels.endsWith(",")) {
+            return labels.substring(0, labels.length() - 1);
+        }
+        return labels;
+    }
+}
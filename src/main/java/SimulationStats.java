@@ -0,0 +1,164 @@
+/**
+ * Aggregate results of simulated ConnectN games.
+ * <p>
+ * Each worker of a parallel simulation fills its own instance, and instances are merged at the
+ * end, so recording a game needs no synchronization.
+ */
+public class SimulationStats {
+
+    /** Index of the game count in a totals array. */
+    public static final int GAMES = 0;
+    /** Index of the first player's wins in a totals array, and the outcome of such a game. */
+    public static final int FIRST_PLAYER_WIN = 1;
+    /** Index of the second player's wins in a totals array, and the outcome of such a game. */
+    public static final int SECOND_PLAYER_WIN = 2;
+    /** Index of the draw count in a totals array, and the outcome of a drawn game. */
+    public static final int DRAW = 3;
+    /** Index of the total number of moves in a totals array. */
+    public static final int MOVES = 4;
+    /** Length of a totals array. */
+    public static final int TOTALS = 5;
+
+    /** Width, height and N of each configuration. */
+    private final int[][] configurations;
+
+    /** Totals for each configuration. */
+    private final long[][] totals;
+
+    /** Number of games of each length, in moves. */
+    private final long[] lengths = new long[ConnectN.MAX_WIDTH * ConnectN.MAX_HEIGHT + 1];
+
+    /** Games won by the first policy. */
+    private long firstPolicyWins;
+
+    /** Games won by the second policy. */
+    private long secondPolicyWins;
+
+    /**
+     * Create empty statistics.
+     *
+     * @param setConfigurations width, height and N of each configuration played
+     */
+    public SimulationStats(final int[][] setConfigurations) {
+        configurations = setConfigurations;
+        totals = new long[configurations.length][TOTALS];
+    }
+
+    /**
+     * Record the result of one game.
+     *
+     * @param configuration index of the configuration played
+     * @param outcome FIRST_PLAYER_WIN, SECOND_PLAYER_WIN or DRAW
+     * @param firstPolicyWon true if the first policy won the game
+     * @param moves how many moves the game lasted
+     */
+    public void record(final int configuration, final int outcome, final boolean firstPolicyWon,
+            final int moves) {
+        totals[configuration][GAMES]++;
+        totals[configuration][outcome]++;
+        totals[configuration][MOVES] += moves;
+        lengths[moves]++;
+        if (outcome != DRAW) {
+            if (firstPolicyWon) {
+                firstPolicyWins++;
+            } else {
+                secondPolicyWins++;
+            }
+        }
+    }
+
+    /**
+     * Add another set of results for the same configurations into this one.
+     *
+     * @param other the results to add
+     */
+    public void merge(final SimulationStats other) {
+        for (int i = 0; i < totals.length; i++) {
+            add(totals[i], other.totals[i]);
+        }
+        add(lengths, other.lengths);
+        firstPolicyWins += other.firstPolicyWins;
+        secondPolicyWins += other.secondPolicyWins;
+    }
+
+    /**
+     * Add one array of counts into another.
+     *
+     * @param into the counts to add to
+     * @param from the counts to add
+     */
+    static void add(final long[] into, final long[] from) {
+        for (int i = 0; i < into.length; i++) {
+            into[i] += from[i];
+        }
+    }
+
+    /**
+     * Get the number of configurations.
+     *
+     * @return the number of configurations
+     */
+    public int getConfigurationCount() {
+        return configurations.length;
+    }
+
+    /**
+     * Get a configuration.
+     *
+     * @param configuration the configuration index
+     * @return the width, height and N of the configuration
+     */
+    public int[] getConfiguration(final int configuration) {
+        return configurations[configuration].clone();
+    }
+
+    /**
+     * Get the totals for a configuration.
+     *
+     * @param configuration the configuration index
+     * @return a copy of the totals, indexed by GAMES, FIRST_PLAYER_WIN and so on
+     */
+    public long[] getTotals(final int configuration) {
+        return totals[configuration].clone();
+    }
+
+    /**
+     * Get the number of games of each length.
+     *
+     * @return a copy of the histogram, indexed by number of moves
+     */
+    public long[] getLengthHistogram() {
+        return lengths.clone();
+    }
+
+    /**
+     * Get the total number of games played.
+     *
+     * @return the number of games
+     */
+    public long getGames() {
+        long games = 0;
+        for (long[] configurationTotals : totals) {
+            games += configurationTotals[GAMES];
+        }
+        return games;
+    }
+
+    /**
+     * Get the number of games won by the first policy.
+     *
+     * @return the number of wins
+     */
+    public long getFirstPolicyWins() {
+        return firstPolicyWins;
+    }
+
+    /**
+     * Get the number of games won by the second policy.
+     *
+     * @return the number of wins
+     */
+    public long getSecondPolicyWins() {
+        return secondPolicyWins;
+    }
+}
@@ -0,0 +1,314 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Plays large numbers of ConnectN games between two move policies, without the web server.
+ * <p>
+ * Games are spread across all cores with a parallel stream. Each worker thread keeps one board
+ * per configuration and resets it when a game finishes, so boards are reused instead of
+ * allocated per game. Results are aggregated per configuration and printed
+ * as win rates for the first and second player, by board size and by N, plus a histogram of game
+ * lengths.
+ * <p>
+ * Arguments are key=value pairs, all optional:
+ * <ul>
+ * <li>games: number of games to play (default 100000)</li>
+ * <li>first, second: the policies of the two sides, as accepted by
+ * {@link MovePolicy#forName(String) MovePolicy.forName()} (default random)</li>
+ * <li>sizes: comma-separated WIDTHxHEIGHT board sizes (default 7x6)</li>
+ * <li>n: comma-separated N values (default 4)</li>
+ * <li>record: a file to append every game to, in the format of {@link GameRecordWriter}
+ * (default none)</li>
+ * </ul>
+ * Configurations are all combinations of sizes and N values, and games are dealt out round-robin
+ * between them. The two policies swap sides on every other game, so each policy moves first in
+ * half the games.
+ */
+public final class Simulator {
+
+    /** Number of games played when none is given. */
+    private static final int DEFAULT_GAMES = 100000;
+
+    /** Nanoseconds per second, for timing the run. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** Percent, for printing rates. */
+    private static final double PERCENT = 100.0;
+
+    /** Width of the bars in the game length histogram. */
+    private static final int HISTOGRAM_BAR = 50;
+
+    /** The board configurations to play. */
+    private final int[][] configurations;
+
+    /** The policy of the side that moves first in even-numbered games. */
+    private final MovePolicy firstPolicy;
+
+    /** The policy of the side that moves first in odd-numbered games. */
+    private final MovePolicy secondPolicy;
+
+    /**
+     * Per-thread players and boards, so that nothing is allocated per game.
+     */
+    private final ThreadLocal<Seat> seats = ThreadLocal.withInitial(Seat::new);
+
+    /** Where finished games are recorded, or null to record none. */
+    private GameRecordWriter recorder;
+
+    /**
+     * A worker thread's two players and one reusable board per configuration.
+     */
+    private static final class Seat {
+        /** The player using the first policy. */
+        private final Player first = new Player("first");
+        /** The player using the second policy. */
+        private final Player second = new Player("second");
+        /** Boards by configuration index. */
+        private final Map<Integer, ConnectN> boards = new HashMap<Integer, ConnectN>();
+    }
+
+    /**
+     * Create a simulator.
+     *
+     * @param setConfigurations width, height and N of each configuration to play
+     * @param setFirstPolicy the first policy
+     * @param setSecondPolicy the second policy
+     */
+    public Simulator(final int[][] setConfigurations, final MovePolicy setFirstPolicy,
+            final MovePolicy setSecondPolicy) {
+        for (int[] configuration : setConfigurations) {
+            if (!ConnectN.isValid(configuration[0], configuration[1], configuration[2])) {
+                throw new IllegalArgumentException("Invalid configuration " + configuration[0]
+                        + "x" + configuration[1] + " n=" + configuration[2]);
+            }
+        }
+        configurations = setConfigurations;
+        firstPolicy = setFirstPolicy;
+        secondPolicy = setSecondPolicy;
+    }
+
+    /**
+     * Record every finished game from now on.
+     *
+     * @param setRecorder where to write the games, or null to stop recording
+     */
+    public void setRecorder(final GameRecordWriter setRecorder) {
+        recorder = setRecorder;
+    }
+
+    /**
+     * Play games in parallel and aggregate the results.
+     *
+     * @param games how many games to play
+     * @return statistics keyed by configuration index
+     */
+    public SimulationStats run(final int games) {
+        return IntStream.range(0, games).parallel().collect(
+            () -> new SimulationStats(configurations), this::play, SimulationStats::merge);
+    }
+
+    /**
+     * Play one game on this thread's board and record the result.
+     *
+     * @param stats where to record the result
+     * @param game the game number, which picks the configuration and who moves first
+     */
+    private void play(final SimulationStats stats, final int game) {
+        int configuration = game % configurations.length;
+        Seat seat = seats.get();
+        ConnectN board = seat.boards.get(configuration);
+        if (board == null) {
+            int[] dimensions = configurations[configuration];
+            board = new ConnectN(dimensions[0], dimensions[1], dimensions[2]);
+            seat.boards.put(configuration, board);
+        }
+        Random random = ThreadLocalRandom.current();
+
+        Player mover = seat.first;
+        Player waiting = seat.second;
+        MovePolicy moverPolicy = firstPolicy;
+        MovePolicy waitingPolicy = secondPolicy;
+        boolean firstPolicyStarts = (game / configurations.length) % 2 == 0;
+        if (!firstPolicyStarts) {
+            mover = seat.second;
+            waiting = seat.first;
+            moverPolicy = secondPolicy;
+            waitingPolicy = firstPolicy;
+        }
+        Player starter = mover;
+
+        while (!board.gameEnded()) {
+            int column = moverPolicy.chooseColumn(board, mover, waiting, random);
+            if (!board.setBoardAt(mover, column)) {
+                throw new IllegalStateException("Policy chose an illegal move: " + column);
+            }
+            Player nextMover = waiting;
+            waiting = mover;
+            mover = nextMover;
+            MovePolicy nextPolicy = waitingPolicy;
+            waitingPolicy = moverPolicy;
+            moverPolicy = nextPolicy;
+        }
+
+        int outcome = SimulationStats.DRAW;
+        if (board.hasWinner()) {
+            if (waiting == starter) {
+                outcome = SimulationStats.FIRST_PLAYER_WIN;
+            } else {
+                outcome = SimulationStats.SECOND_PLAYER_WIN;
+            }
+        }
+        boolean firstPolicyWon = outcome != SimulationStats.DRAW && waiting == seat.first;
+        stats.record(configuration, outcome, firstPolicyWon, board.getMoveCount());
+        if (recorder != null) {
+            try {
+                recorder.write(board);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        board.reset();
+    }
+
+    /**
+     * Parse a comma-separated list of WIDTHxHEIGHT sizes and N values into configurations.
+     *
+     * @param sizes the board sizes
+     * @param ns the N values
+     * @return every combination of size and N
+     */
+    static int[][] parseConfigurations(final String sizes, final String ns) {
+        List<int[]> parsed = new ArrayList<int[]>();
+        for (String size : sizes.split(",")) {
+            String[] dimensions = size.trim().split("x");
+            for (String n : ns.split(",")) {
+                parsed.add(new int[] {Integer.parseInt(dimensions[0]),
+                    Integer.parseInt(dimensions[1]), Integer.parseInt(n.trim())});
+            }
+        }
+        return parsed.toArray(new int[0][]);
+    }
+
+    /**
+     * Print a summary of simulation results.
+     *
+     * @param stats the results to print
+     * @param seconds how long the simulation took
+     */
+    private static void report(final SimulationStats stats, final double seconds) {
+        System.out.printf("%d games in %.1fs (%.0f games/s)%n", stats.getGames(), seconds,
+                stats.getGames() / seconds);
+        System.out.printf("First policy won %.1f%%, second policy won %.1f%%%n",
+                PERCENT * stats.getFirstPolicyWins() / stats.getGames(),
+                PERCENT * stats.getSecondPolicyWins() / stats.getGames());
+
+        System.out.println();
+        System.out.println("By configuration:");
+        for (int i = 0; i < stats.getConfigurationCount(); i++) {
+            int[] configuration = stats.getConfiguration(i);
+            printRow(configuration[0] + "x" + configuration[1] + " n=" + configuration[2],
+                    stats.getTotals(i));
+        }
+
+        Map<String, long[]> bySize = new TreeMap<String, long[]>();
+        Map<String, long[]> byN = new TreeMap<String, long[]>();
+        for (int i = 0; i < stats.getConfigurationCount(); i++) {
+            int[] configuration = stats.getConfiguration(i);
+            SimulationStats.add(bySize.computeIfAbsent(configuration[0] + "x" + configuration[1],
+                key -> new long[SimulationStats.TOTALS]), stats.getTotals(i));
+            SimulationStats.add(byN.computeIfAbsent("n=" + configuration[2],
+                key -> new long[SimulationStats.TOTALS]), stats.getTotals(i));
+        }
+        System.out.println();
+        System.out.println("By board size:");
+        bySize.forEach(Simulator::printRow);
+        System.out.println();
+        System.out.println("By N:");
+        byN.forEach(Simulator::printRow);
+
+        System.out.println();
+        System.out.println("Game length:");
+        long[] lengths = stats.getLengthHistogram();
+        long most = 1;
+        for (long count : lengths) {
+            most = Math.max(most, count);
+        }
+        for (int length = 0; length < lengths.length; length++) {
+            if (lengths[length] == 0) {
+                continue;
+            }
+            StringBuilder bar = new StringBuilder();
+            for (int i = 0; i < lengths[length] * HISTOGRAM_BAR / most; i++) {
+                bar.append('#');
+            }
+            System.out.printf("%4d %10d %s%n", length, lengths[length], bar);
+        }
+    }
+
+    /**
+     * Print one row of win rates.
+     *
+     * @param label what the row describes
+     * @param totals the totals, as returned by SimulationStats.getTotals
+     */
+    private static void printRow(final String label, final long[] totals) {
+        long games = totals[SimulationStats.GAMES];
+        if (games == 0) {
+            return;
+        }
+        System.out.printf("  %-12s %10d games  first %5.1f%%  second %5.1f%%  draw %5.1f%%"
+                + "  avg length %5.1f%n", label, games,
+                PERCENT * totals[SimulationStats.FIRST_PLAYER_WIN] / games,
+                PERCENT * totals[SimulationStats.SECOND_PLAYER_WIN] / games,
+                PERCENT * totals[SimulationStats.DRAW] / games,
+                (double) totals[SimulationStats.MOVES] / games);
+    }
+
+    /**
+     * Run a simulation from the command line.
+     *
+     * @param args key=value arguments, described in the class documentation
+     * @throws IOException if the game record file cannot be written
+     */
+    public static void main(final String[] args) throws IOException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Arguments must look like key=value: " + arg);
+            }
+            options.put(parts[0], parts[1]);
+        }
+        int games = Integer.parseInt(options.getOrDefault("games", String.valueOf(DEFAULT_GAMES)));
+        int[][] configurations = parseConfigurations(options.getOrDefault("sizes", "7x6"),
+                options.getOrDefault("n", "4"));
+        Simulator simulator = new Simulator(configurations,
+                MovePolicy.forName(options.getOrDefault("first", "random")),
+                MovePolicy.forName(options.getOrDefault("second", "random")));
+
+        String recordFile = options.get("record");
+        if (recordFile != null) {
+            simulator.setRecorder(GameRecordWriter.append(Paths.get(recordFile)));
+        }
+
+        long start = System.nanoTime();
+        SimulationStats stats = simulator.run(games);
+        double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+        if (simulator.recorder != null) {
+            simulator.recorder.close();
+            System.out.println("Recorded " + simulator.recorder.getRecords() + " games to "
+                    + recordFile);
+        }
+        report(stats, seconds);
+    }
+}
@@ -0,0 +1,594 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A ConnectN board for very large games, whose memory grows with the tiles played rather than
+ * with its area.
+ * <p>
+ * ConnectN boards are capped at {@value ConnectN#MAX_WIDTH} by {@value ConnectN#MAX_HEIGHT} because
+ * they keep every cell. This board splits the plane into 8x8 tiles and keeps only the tiles
+ * that hold something, as one 64-bit mask per seat, found through a hash index. Column heights
+ * are kept the same way, in chunks of 64 columns. A board thousands of columns wide with a few
+ * hundred moves played holds a few hundred tiles at most.
+ * <p>
+ * A move checks for a win by walking at most N - 1 cells each way along the column, row and
+ * both diagonals, looking up a tile only when the walk crosses into a new one, so each move
+ * costs O(N) whatever the size of the board. Seats and turns work as on ConnectN. Each cell
+ * records only its seat, so getBoardAt answers with the player who last moved from that seat.
+ * Moves can be undone but not redone.
+ * <p>
+ * The web server does not create sparse boards yet, and still caps the boards it serves at
+ * ConnectN's limits.
+ */
+public class SparseBoard {
+
+    /** Log2 of the width and height of a tile. */
+    private static final int TILE_BITS = 3;
+
+    /** Mask for a coordinate within a tile. */
+    private static final int TILE_MASK = (1 << TILE_BITS) - 1;
+
+    /** Log2 of the columns in a chunk of column heights. */
+    private static final int CHUNK_BITS = 6;
+
+    /** Columns in a chunk of column heights. */
+    private static final int CHUNK_COLUMNS = 1 << CHUNK_BITS;
+
+    /** Moves, tiles and chunks to make room for at first. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The width of the board. */
+    private final int width;
+
+    /** The height of the board. */
+    private final int height;
+
+    /** The number of tiles in a row needed to win. */
+    private final int n;
+
+    /** The number of players the game is for. */
+    private final int players;
+
+    /** Tiles that hold something, by tile coordinates. */
+    private final LongIndex tiles = new LongIndex();
+
+    /** Seat masks of each tile, players longs per tile, in the order the tiles were added. */
+    private long[] tileBits;
+
+    /** Chunks of column heights, by chunk number. */
+    private final LongIndex chunks = new LongIndex();
+
+    /** Column heights, CHUNK_COLUMNS per chunk, in the order the chunks were added. */
+    private int[] chunkHeights = new int[INITIAL_CAPACITY * CHUNK_COLUMNS];
+
+    /** Columns of the moves played, in order. */
+    private int[] moveColumns = new int[INITIAL_CAPACITY];
+
+    /** Seats of the moves played, in order. */
+    private byte[] moveSeats = new byte[INITIAL_CAPACITY];
+
+    /** Number of moves played. */
+    private int moveCount;
+
+    /** The player who last moved from each seat, or null for an empty seat. */
+    private final Player[] seatPlayers;
+
+    /** Names of the players in each seat, as they were when the seat was last moved from. */
+    private final String[] seatNames;
+
+    /** Number of tiles each seat has on the board. */
+    private final int[] seatMoves;
+
+    /** The player who completed a run of N, or null if nobody has yet. */
+    private Player winner;
+
+    /**
+     * Create an empty board.
+     *
+     * @param setWidth the width, at least ConnectN.MIN_WIDTH
+     * @param setHeight the height, at least ConnectN.MIN_HEIGHT
+     * @param setN the run length needed to win, at least ConnectN.MIN_N and less than the larger
+     *        of the width and height
+     * @param setPlayers the number of players, from ConnectN.MIN_PLAYERS to ConnectN.MAX_PLAYERS
+     */
+    public SparseBoard(final int setWidth, final int setHeight, final int setN,
+            final int setPlayers) {
+        if (!isValid(setWidth, setHeight, setN, setPlayers)) {
+            throw new IllegalArgumentException("Invalid sparse board configuration");
+        }
+        width = setWidth;
+        height = setHeight;
+        n = setN;
+        players = setPlayers;
+        tileBits = new long[INITIAL_CAPACITY * players];
+        seatPlayers = new Player[players];
+        seatNames = new String[players];
+        seatMoves = new int[players];
+    }
+
+    /**
+     * Checks whether a sparse board can be created with the given configuration.
+     *
+     * @param width the width of the board
+     * @param height the height of the board
+     * @param n the run length needed to win
+     * @param players the number of players
+     * @return true if the constructor would accept these values
+     */
+    public static boolean isValid(final int width, final int height, final int n,
+            final int players) {
+        return width >= ConnectN.MIN_WIDTH && height >= ConnectN.MIN_HEIGHT
+                && n >= ConnectN.MIN_N && n < Math.max(width, height)
+                && players >= ConnectN.MIN_PLAYERS && players <= ConnectN.MAX_PLAYERS;
+    }
+
+    /**
+     * Drops a tile in a particular column.
+     *
+     * @param player the player attempting to move
+     * @param setX the column to drop the tile in
+     * @return true if the move succeeds, false if the game is over, it is another player's turn,
+     *         every seat is held by other players, or the column is full or off the board
+     */
+    public boolean setBoardAt(final Player player, final int setX) {
+        if (gameEnded() || setX < 0 || setX >= width) {
+            return false;
+        }
+        String turn = whosTurn();
+        if (turn != null && !turn.equals(player.getName())) {
+            return false;
+        }
+        int seat = seatFor(player);
+        int y = getColumnHeight(setX);
+        if (seat < 0 || y >= height) {
+            return false;
+        }
+
+        /*
+         * Chunks and tiles are only added once the move is known to be legal, so refused moves
+         * cost no memory.
+         */
+        int column = chunkFor(setX) * CHUNK_COLUMNS + (setX & (CHUNK_COLUMNS - 1));
+        chunkHeights[column]++;
+        int tile = tileFor(setX, y);
+        tileBits[tile * players + seat] |= cellBit(setX, y);
+        if (moveCount == moveColumns.length) {
+            moveColumns = Arrays.copyOf(moveColumns, moveCount * 2);
+            moveSeats = Arrays.copyOf(moveSeats, moveCount * 2);
+        }
+        moveColumns[moveCount] = setX;
+        moveSeats[moveCount] = (byte) seat;
+        moveCount++;
+        seatPlayers[seat] = player;
+        seatNames[seat] = player.getName();
+        seatMoves[seat]++;
+        if (completesRun(setX, y, seat)) {
+            winner = player;
+        }
+        return true;
+    }
+
+    /**
+     * Take back the last move.
+     *
+     * @return true if a move was taken back, false if the board is empty
+     */
+    public boolean undo() {
+        if (moveCount == 0) {
+            return false;
+        }
+        moveCount--;
+        int x = moveColumns[moveCount];
+        int seat = moveSeats[moveCount];
+        int column = chunks.get(x >>> CHUNK_BITS) * CHUNK_COLUMNS + (x & (CHUNK_COLUMNS - 1));
+        chunkHeights[column]--;
+        int y = chunkHeights[column];
+        tileBits[tiles.get(tileKey(x, y)) * players + seat] &= ~cellBit(x, y);
+        seatMoves[seat]--;
+        if (seatMoves[seat] == 0) {
+            seatPlayers[seat] = null;
+            seatNames[seat] = null;
+        }
+        winner = null;
+        return true;
+    }
+
+    /**
+     * Get the player at a specific board position.
+     *
+     * @param getX the column
+     * @param getY the row
+     * @return the player who last moved from the seat owning the tile there, or null if the cell
+     *         is empty or off the board
+     */
+    public Player getBoardAt(final int getX, final int getY) {
+        if (getX < 0 || getX >= width || getY < 0 || getY >= height) {
+            return null;
+        }
+        int tile = tiles.get(tileKey(getX, getY));
+        if (tile < 0) {
+            return null;
+        }
+        long bit = cellBit(getX, getY);
+        for (int seat = 0; seat < players; seat++) {
+            if ((tileBits[tile * players + seat] & bit) != 0) {
+                return seatPlayers[seat];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of tiles in a column.
+     *
+     * @param x the column
+     * @return the number of tiles in the column, or -1 if there is no such column
+     */
+    public int getColumnHeight(final int x) {
+        if (x < 0 || x >= width) {
+            return -1;
+        }
+        int chunk = chunks.get(x >>> CHUNK_BITS);
+        if (chunk < 0) {
+            return 0;
+        }
+        return chunkHeights[chunk * CHUNK_COLUMNS + (x & (CHUNK_COLUMNS - 1))];
+    }
+
+    /**
+     * Get the column of a move that has been played.
+     *
+     * @param index which move, starting from zero for the first move
+     * @return the column the tile was dropped in, or -1 if there is no such move
+     */
+    public int getMoveAt(final int index) {
+        if (index < 0 || index >= moveCount) {
+            return -1;
+        }
+        return moveColumns[index];
+    }
+
+    /**
+     * Get the number of tiles on the board.
+     *
+     * @return the number of moves played
+     */
+    public int getMoveCount() {
+        return moveCount;
+    }
+
+    /**
+     * Get the number of 8x8 tiles that have held something, which is what the board's memory
+     * grows with.
+     *
+     * @return the number of tiles allocated
+     */
+    public int getTileCount() {
+        return tiles.size();
+    }
+
+    /**
+     * Determines who's turn it is to play.
+     * <p>
+     * Nobody's turn is enforced until every seat has tiles on the board. After that it is the
+     * turn of the seat with the fewest tiles, and on a tie, of the one that moved first.
+     *
+     * @return name of the player who's turn it is
+     */
+    public String whosTurn() {
+        int turn = 0;
+        for (int seat = 0; seat < players; seat++) {
+            if (seatMoves[seat] == 0) {
+                return null;
+            }
+            if (seatMoves[seat] < seatMoves[turn]) {
+                turn = seat;
+            }
+        }
+        return seatNames[turn];
+    }
+
+    /**
+     * Get the winner of the game.
+     *
+     * @return the player who completed a run of N, or null if nobody has
+     */
+    public Player getWinner() {
+        return winner;
+    }
+
+    /**
+     * Determines whether the ConnectN game has a winner or not.
+     *
+     * @return true if there is a winner, false if not
+     */
+    public boolean hasWinner() {
+        return winner != null;
+    }
+
+    /**
+     * Determines whether the game is over or not.
+     *
+     * @return true if the game has been won or the board is full
+     */
+    public boolean gameEnded() {
+        return winner != null || moveCount == (long) width * height;
+    }
+
+    /**
+     * Get the width of the board.
+     *
+     * @return the width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the board.
+     *
+     * @return the height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the run length needed to win.
+     *
+     * @return N
+     */
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * Get the number of players the game is for.
+     *
+     * @return the number of players
+     */
+    public int getPlayers() {
+        return players;
+    }
+
+    /**
+     * Find the seat a player's tiles belong to, or the seat they would take if they moved now.
+     *
+     * @param player the player about to move
+     * @return the seat, or -1 if every seat is held by other players
+     */
+    private int seatFor(final Player player) {
+        int free = -1;
+        for (int seat = 0; seat < players; seat++) {
+            if (seatMoves[seat] == 0) {
+                if (free < 0) {
+                    free = seat;
+                }
+            } else if (Objects.equals(seatNames[seat], player.getName())) {
+                return seat;
+            }
+        }
+        return free;
+    }
+
+    /**
+     * Determine whether the tile at a position is part of a run of N.
+     *
+     * @param x the column of the new tile
+     * @param y the row of the new tile
+     * @param seat the seat that played it
+     * @return true if the tile completes a run of at least N
+     */
+    private boolean completesRun(final int x, final int y, final int seat) {
+        return 1 + countRun(x, y, 0, -1, seat) >= n
+                || 1 + countRun(x, y, 1, 0, seat) + countRun(x, y, -1, 0, seat) >= n
+                || 1 + countRun(x, y, 1, 1, seat) + countRun(x, y, -1, -1, seat) >= n
+                || 1 + countRun(x, y, 1, -1, seat) + countRun(x, y, -1, 1, seat) >= n;
+    }
+
+    /**
+     * Count consecutive tiles from a seat walking away from a position.
+     * <p>
+     * The tile index is only consulted when the walk enters a new tile, so a walk of N cells
+     * looks up at most N / 8 + 1 tiles.
+     *
+     * @param x the starting column, which is not counted
+     * @param y the starting row, which is not counted
+     * @param dx column step
+     * @param dy row step
+     * @param seat the seat whose tiles are counted
+     * @return the number of matching tiles, stopping at N - 1
+     */
+    private int countRun(final int x, final int y, final int dx, final int dy, final int seat) {
+        int count = 0;
+        int cx = x + dx;
+        int cy = y + dy;
+        long key = -1;
+        long bits = 0;
+        while (count < n - 1 && 0 <= cx && cx < width && 0 <= cy && cy < height) {
+            long cellKey = tileKey(cx, cy);
+            if (cellKey != key) {
+                key = cellKey;
+                int tile = tiles.get(key);
+                if (tile < 0) {
+                    break;
+                }
+                bits = tileBits[tile * players + seat];
+            }
+            if ((bits & cellBit(cx, cy)) == 0) {
+                break;
+            }
+            count++;
+            cx += dx;
+            cy += dy;
+        }
+        return count;
+    }
+
+    /**
+     * Find the chunk of heights holding a column, adding it if needed.
+     *
+     * @param x the column
+     * @return the chunk's position in chunkHeights, in chunks
+     */
+    private int chunkFor(final int x) {
+        int chunk = chunks.get(x >>> CHUNK_BITS);
+        if (chunk < 0) {
+            chunk = chunks.size();
+            if ((chunk + 1) * CHUNK_COLUMNS > chunkHeights.length) {
+                chunkHeights = Arrays.copyOf(chunkHeights, chunkHeights.length * 2);
+            }
+            chunks.put(x >>> CHUNK_BITS, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Find the tile holding a cell, adding it if needed.
+     *
+     * @param x the column
+     * @param y the row
+     * @return the tile's position in tileBits, in tiles
+     */
+    private int tileFor(final int x, final int y) {
+        long key = tileKey(x, y);
+        int tile = tiles.get(key);
+        if (tile < 0) {
+            tile = tiles.size();
+            if ((tile + 1) * players > tileBits.length) {
+                tileBits = Arrays.copyOf(tileBits, tileBits.length * 2);
+            }
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Get the key of the tile holding a cell.
+     *
+     * @param x the column
+     * @param y the row
+     * @return the tile's column and row, packed into one long
+     */
+    private static long tileKey(final int x, final int y) {
+        return ((long) (x >>> TILE_BITS) << Integer.SIZE) | (y >>> TILE_BITS);
+    }
+
+    /**
+     * Get the bit for a cell within its tile. Cells are numbered up each column of the tile in
+     * turn, so a column of a tile is one byte of the mask.
+     *
+     * @param x the column
+     * @param y the row
+     * @return the cell's bit
+     */
+    private static long cellBit(final int x, final int y) {
+        return 1L << (((x & TILE_MASK) << TILE_BITS) | (y & TILE_MASK));
+    }
+
+    /**
+     * A hash index from long keys to non-negative ints, by open addressing with linear probing.
+     * <p>
+     * Entries are only ever added, which is all the board needs, since tiles and chunks are kept
+     * once they have held something.
+     */
+    private static final class LongIndex {
+
+        /** Multiplier for spreading keys over the table. */
+        private static final long SPREAD = 0x9e3779b97f4a7c15L;
+
+        /** Keys, valid where values is not negative. */
+        private long[] keys = new long[INITIAL_CAPACITY];
+
+        /** Values, or -1 for an empty entry. */
+        private int[] values = new int[INITIAL_CAPACITY];
+
+        /** Log2 of the table size. */
+        private int bits = Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+
+        /** Entries in use. */
+        private int size;
+
+        /**
+         * Create an empty index.
+         */
+        LongIndex() {
+            Arrays.fill(values, -1);
+        }
+
+        /**
+         * Look up a key.
+         *
+         * @param key the key
+         * @return its value, or -1 if it has none
+         */
+        int get(final long key) {
+            int mask = values.length - 1;
+            for (int i = home(key); values[i] >= 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Add a key that is not in the index yet, growing it to stay at most half full.
+         *
+         * @param key the key
+         * @param value its value, not negative
+         */
+        void put(final long key, final int value) {
+            if ((size + 1) * 2 > values.length) {
+                long[] oldKeys = keys;
+                int[] oldValues = values;
+                keys = new long[oldValues.length * 2];
+                values = new int[oldValues.length * 2];
+                Arrays.fill(values, -1);
+                bits++;
+                for (int i = 0; i < oldValues.length; i++) {
+                    if (oldValues[i] >= 0) {
+                        place(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            place(key, value);
+            size++;
+        }
+
+        /**
+         * Get the number of keys in the index.
+         *
+         * @return the count
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Put an entry in the first free slot from its key's home.
+         *
+         * @param key the key
+         * @param value its value
+         */
+        private void place(final long key, final int value) {
+            int mask = values.length - 1;
+            int i = home(key);
+            while (values[i] >= 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        /**
+         * Get where a key starts its probe.
+         *
+         * @param key the key
+         * @return the first slot to look at
+         */
+        private int home(final long key) {
+            return (int) ((key * SPREAD) >>> (Long.SIZE - bits));
+        }
+    }
+}
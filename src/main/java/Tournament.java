@@ -0,0 +1,755 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * Plays a tournament between move policies and rates them.
+ * <p>
+ * The tournament is played in rounds. In a round-robin round every engine meets every other; in
+ * a Swiss round engines are ranked by points so far and paired with the next engine down that
+ * they have met least, and with an odd number of engines the lowest-ranked engine that has sat
+ * out least sits out. Each pairing plays two games on every configuration, one with each engine
+ * moving first. Both games start from the same few random opening moves, different for every
+ * pairing, configuration and round, so that deterministic engines do not play the same game
+ * over and over. The games of a round are spread across all cores with a parallel stream, each
+ * worker thread reusing one board per configuration as the simulator does.
+ * <p>
+ * Ratings are fitted with {@link EloRatings} to every game played. The thread CPU time each
+ * engine spends choosing moves is measured too, so that an engine that only wins by thinking
+ * longer shows up as such.
+ * <p>
+ * Every game is appended to a results file as it finishes. The file starts with a header naming
+ * the format, engines and configurations, followed by fixed-size game records. A tournament
+ * started on an existing file with the same header picks up where the file ends: games already in
+ * it are counted instead of played, and a record cut short by a crash is dropped and replayed.
+ * Swiss pairings depend only on earlier rounds, so they come out the same the second time.
+ * <p>
+ * Arguments are key=value pairs:
+ * <ul>
+ * <li>engines: comma-separated policies as accepted by
+ * {@link MovePolicy#forName(String) MovePolicy.forName()}, at least two (required)</li>
+ * <li>format: round-robin or swiss (default round-robin)</li>
+ * <li>rounds: number of rounds to play (default 10)</li>
+ * <li>sizes: comma-separated WIDTHxHEIGHT board sizes (default 7x6)</li>
+ * <li>n: comma-separated N values (default 4)</li>
+ * <li>openings: number of random opening moves (default 2)</li>
+ * <li>results: the file to stream results to and resume from (default none)</li>
+ * </ul>
+ */
+public final class Tournament implements Closeable {
+
+    /**
+     * How engines are paired in each round.
+     */
+    public enum Format {
+        /** Every engine meets every other engine. */
+        ROUND_ROBIN,
+        /** Engines meet others with about the same points. */
+        SWISS
+    }
+
+    /** Marks the start of a results file. */
+    private static final int MAGIC = 0x434e5452;
+
+    /** Results format version. Bump this when the layout changes. */
+    private static final int VERSION = 1;
+
+    /** Size of a game record: seven ints and two longs. */
+    static final int RECORD_BYTES = 44;
+
+    /** Points for a draw. */
+    private static final double DRAW_POINTS = 0.5;
+
+    /** Rounds played when none are given. */
+    private static final int DEFAULT_ROUNDS = 10;
+
+    /** Random opening moves when none are given. */
+    private static final int DEFAULT_OPENINGS = 2;
+
+    /** Longest time finished games wait in the write buffer. */
+    private static final long FLUSH_NANOS = 1000000000L;
+
+    /** Nanoseconds per second, for timing rounds. */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /** Nanoseconds per millisecond, for printing thinking time. */
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Percent, for printing scores. */
+    private static final double PERCENT = 100.0;
+
+    /** Source of thread CPU times. */
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /** Whether thread CPU time can be measured, or wall time has to stand in for it. */
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported()
+            && THREADS.isThreadCpuTimeEnabled();
+
+    /** Engine names. */
+    private final String[] engines;
+
+    /** Engine policies, by engine. */
+    private final MovePolicy[] policies;
+
+    /** The board configurations to play. */
+    private final int[][] configurations;
+
+    /** How engines are paired. */
+    private final Format format;
+
+    /** Number of random moves each game starts with. */
+    private final int openings;
+
+    /** Games read from the results file and not yet counted, by key. */
+    private final Map<Long, Game> saved = new HashMap<Long, Game>();
+
+    /** Per-thread players and boards, so that nothing is allocated per game. */
+    private final ThreadLocal<Seat> seats = ThreadLocal.withInitial(Seat::new);
+
+    /** games[i][j] is the number of games between engines i and j. */
+    private final long[][] games;
+
+    /** points[i][j] is the points engine i scored against engine j. */
+    private final double[][] points;
+
+    /** Drawn games, by engine. */
+    private final long[] draws;
+
+    /** Moves chosen, by engine, not counting opening moves. */
+    private final long[] moves;
+
+    /** Time spent choosing moves, by engine. */
+    private final long[] nanos;
+
+    /** Rounds sat out, by engine. */
+    private final int[] byes;
+
+    /** Where games are written, or null to write none. */
+    private final DataOutputStream out;
+
+    /** When the results were last flushed. */
+    private long flushed = System.nanoTime();
+
+    /** Number of rounds finished. */
+    private int rounds;
+
+    /** Number of games played, not counting those read from the results file. */
+    private long played;
+
+    /**
+     * One game, to be played or played already.
+     */
+    private static final class Game {
+        /** The round it belongs to. */
+        private final int round;
+        /** The engine moving first. */
+        private final int first;
+        /** The engine moving second. */
+        private final int second;
+        /** The configuration index. */
+        private final int configuration;
+        /** How it ended, as one of the SimulationStats outcomes. */
+        private int outcome;
+        /** Moves chosen by the first engine. */
+        private int firstMoves;
+        /** Moves chosen by the second engine. */
+        private int secondMoves;
+        /** Time the first engine spent choosing moves. */
+        private long firstNanos;
+        /** Time the second engine spent choosing moves. */
+        private long secondNanos;
+
+        /**
+         * Describe a game.
+         *
+         * @param setRound the round
+         * @param setFirst the engine moving first
+         * @param setSecond the engine moving second
+         * @param setConfiguration the configuration index
+         */
+        Game(final int setRound, final int setFirst, final int setSecond,
+                final int setConfiguration) {
+            round = setRound;
+            first = setFirst;
+            second = setSecond;
+            configuration = setConfiguration;
+        }
+    }
+
+    /**
+     * A worker thread's two players and one reusable board per configuration.
+     */
+    private static final class Seat {
+        /** The player moving first. */
+        private final Player first = new Player("first");
+        /** The player moving second. */
+        private final Player second = new Player("second");
+        /** Boards by configuration index. */
+        private final Map<Integer, ConnectN> boards = new HashMap<Integer, ConnectN>();
+    }
+
+    /**
+     * Set up a tournament, resuming from its results file if there is one.
+     *
+     * @param setEngines the engines, as policy names accepted by MovePolicy.forName
+     * @param setConfigurations width, height and N of each configuration to play
+     * @param setFormat how engines are paired
+     * @param setOpenings number of random moves each game starts with
+     * @param results the file to stream results to and resume from, or null to keep none
+     * @throws IOException if the results file cannot be read or written, or belongs to a
+     *         different tournament
+     */
+    public Tournament(final String[] setEngines, final int[][] setConfigurations,
+            final Format setFormat, final int setOpenings, final Path results)
+            throws IOException {
+        if (setEngines.length < 2) {
+            throw new IllegalArgumentException("A tournament needs at least two engines");
+        }
+        if (setOpenings < 0) {
+            throw new IllegalArgumentException("Opening moves cannot be negative");
+        }
+        for (int[] configuration : setConfigurations) {
+            if (!ConnectN.isValid(configuration[0], configuration[1], configuration[2])) {
+                throw new IllegalArgumentException("Invalid configuration " + configuration[0]
+                        + "x" + configuration[1] + " n=" + configuration[2]);
+            }
+        }
+        engines = setEngines.clone();
+        configurations = setConfigurations;
+        format = setFormat;
+        openings = setOpenings;
+        policies = new MovePolicy[engines.length];
+        for (int i = 0; i < engines.length; i++) {
+            policies[i] = MovePolicy.forName(engines[i]);
+        }
+        games = new long[engines.length][engines.length];
+        points = new double[engines.length][engines.length];
+        draws = new long[engines.length];
+        moves = new long[engines.length];
+        nanos = new long[engines.length];
+        byes = new int[engines.length];
+
+        if (results == null) {
+            out = null;
+            return;
+        }
+        byte[] header = header();
+        boolean empty = !Files.exists(results) || Files.size(results) == 0;
+        if (!empty) {
+            load(results, header);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(results,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+        if (empty) {
+            out.write(header);
+            out.flush();
+        }
+    }
+
+    /**
+     * Build the header that starts this tournament's results file.
+     *
+     * @return the header bytes
+     * @throws IOException never, since it is written to memory
+     */
+    private byte[] header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(format.ordinal());
+        header.writeInt(openings);
+        header.writeInt(engines.length);
+        for (String engine : engines) {
+            header.writeUTF(engine);
+        }
+        header.writeInt(configurations.length);
+        for (int[] configuration : configurations) {
+            for (int dimension : configuration) {
+                header.writeInt(dimension);
+            }
+        }
+        header.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Read the games in a results file, dropping a record cut short at the end.
+     *
+     * @param results the file
+     * @param header the header the file must start with
+     * @throws IOException if the file cannot be read, is damaged, or belongs to a different
+     *         tournament
+     */
+    private void load(final Path results, final byte[] header) throws IOException {
+        long size = Files.size(results);
+        if (size < header.length) {
+            throw new IOException(results + " is not the results of this tournament");
+        }
+        long records = (size - header.length) / RECORD_BYTES;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(results)))) {
+            byte[] found = new byte[header.length];
+            in.readFully(found);
+            if (!Arrays.equals(found, header)) {
+                throw new IOException(results + " is not the results of this tournament");
+            }
+            for (long i = 0; i < records; i++) {
+                Game game = new Game(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                game.outcome = in.readInt();
+                game.firstMoves = in.readInt();
+                game.secondMoves = in.readInt();
+                game.firstNanos = in.readLong();
+                game.secondNanos = in.readLong();
+                if (game.round < 0 || game.first < 0 || game.first >= engines.length
+                        || game.second < 0 || game.second >= engines.length
+                        || game.first == game.second || game.configuration < 0
+                        || game.configuration >= configurations.length
+                        || game.outcome < SimulationStats.FIRST_PLAYER_WIN
+                        || game.outcome > SimulationStats.DRAW
+                        || game.firstMoves < 0 || game.secondMoves < 0) {
+                    throw new IOException("Damaged game record " + i + " in " + results);
+                }
+                saved.put(key(game.round, game.first, game.second, game.configuration), game);
+            }
+        }
+        long end = header.length + records * RECORD_BYTES;
+        if (size > end) {
+            try (FileChannel channel = FileChannel.open(results, StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+    }
+
+    /**
+     * Play rounds until a number of them are finished.
+     *
+     * @param total how many rounds the tournament should have
+     * @throws IOException if a game cannot be written to the results file
+     */
+    public void run(final int total) throws IOException {
+        while (rounds < total) {
+            playRound();
+        }
+    }
+
+    /**
+     * Pair the engines and play the next round, counting games already in the results file
+     * instead of playing them again.
+     *
+     * @return the number of games played
+     * @throws IOException if a game cannot be written to the results file
+     */
+    public int playRound() throws IOException {
+        List<Game> pending = new ArrayList<Game>();
+        for (int[] pairing : pair()) {
+            for (int configuration = 0; configuration < configurations.length; configuration++) {
+                for (int side = 0; side < 2; side++) {
+                    int first = pairing[side];
+                    int second = pairing[1 - side];
+                    Game game = saved.remove(key(rounds, first, second, configuration));
+                    if (game == null) {
+                        pending.add(new Game(rounds, first, second, configuration));
+                    } else {
+                        count(game);
+                    }
+                }
+            }
+        }
+
+        List<Game> finished;
+        try {
+            finished = pending.parallelStream().map(this::play).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        for (Game game : finished) {
+            count(game);
+        }
+        if (out != null) {
+            synchronized (out) {
+                out.flush();
+                flushed = System.nanoTime();
+            }
+        }
+        played += finished.size();
+        rounds++;
+        return finished.size();
+    }
+
+    /**
+     * Pair the engines for the next round.
+     *
+     * @return pairs of engine indices
+     */
+    private List<int[]> pair() {
+        List<int[]> pairings = new ArrayList<int[]>();
+        if (format == Format.ROUND_ROBIN) {
+            for (int i = 0; i < engines.length; i++) {
+                for (int j = i + 1; j < engines.length; j++) {
+                    pairings.add(new int[] {i, j});
+                }
+            }
+            return pairings;
+        }
+
+        double[] scores = new double[engines.length];
+        List<Integer> ranking = new ArrayList<Integer>();
+        for (int i = 0; i < engines.length; i++) {
+            for (int j = 0; j < engines.length; j++) {
+                scores[i] += points[i][j];
+            }
+            ranking.add(i);
+        }
+        ranking.sort(Comparator.comparingDouble((Integer i) -> -scores[i])
+                .thenComparingInt(i -> i));
+        if (ranking.size() % 2 == 1) {
+            int bye = ranking.size() - 1;
+            for (int i = ranking.size() - 2; i >= 0; i--) {
+                if (byes[ranking.get(i)] < byes[ranking.get(bye)]) {
+                    bye = i;
+                }
+            }
+            byes[ranking.remove(bye)]++;
+        }
+        while (!ranking.isEmpty()) {
+            int engine = ranking.remove(0);
+            int opponent = 0;
+            for (int i = 1; i < ranking.size(); i++) {
+                if (games[engine][ranking.get(i)] < games[engine][ranking.get(opponent)]) {
+                    opponent = i;
+                }
+            }
+            pairings.add(new int[] {engine, ranking.remove(opponent)});
+        }
+        return pairings;
+    }
+
+    /**
+     * Play one game on this thread's board and write it to the results file.
+     *
+     * @param game the game to play
+     * @return the game, with its result
+     */
+    private Game play(final Game game) {
+        Seat seat = seats.get();
+        int[] dimensions = configurations[game.configuration];
+        ConnectN board = seat.boards.computeIfAbsent(game.configuration,
+            configuration -> new ConnectN(dimensions[0], dimensions[1], dimensions[2]));
+        Random random = ThreadLocalRandom.current();
+        Player[] players = {seat.first, seat.second};
+        int[] sides = {game.first, game.second};
+        long[] thinking = new long[2];
+        int[] chosen = new int[2];
+
+        Random opening = new Random(key(game.round, Math.min(game.first, game.second),
+                Math.max(game.first, game.second), game.configuration));
+        int turn = 0;
+        for (int i = 0; i < openings && !board.gameEnded(); i++) {
+            board.setBoardAt(players[turn], MovePolicy.randomOpenColumn(board, opening));
+            turn = 1 - turn;
+        }
+        while (!board.gameEnded()) {
+            long start = cpuTime();
+            int column = policies[sides[turn]].chooseColumn(board, players[turn],
+                    players[1 - turn], random);
+            thinking[turn] += cpuTime() - start;
+            chosen[turn]++;
+            if (!board.setBoardAt(players[turn], column)) {
+                throw new IllegalStateException(engines[sides[turn]]
+                        + " chose an illegal move: " + column);
+            }
+            turn = 1 - turn;
+        }
+
+        game.outcome = SimulationStats.DRAW;
+        if (board.getWinner() == seat.first) {
+            game.outcome = SimulationStats.FIRST_PLAYER_WIN;
+        } else if (board.getWinner() == seat.second) {
+            game.outcome = SimulationStats.SECOND_PLAYER_WIN;
+        }
+        game.firstMoves = chosen[0];
+        game.secondMoves = chosen[1];
+        game.firstNanos = thinking[0];
+        game.secondNanos = thinking[1];
+        board.reset();
+
+        if (out != null) {
+            try {
+                write(game);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return game;
+    }
+
+    /**
+     * Append a game to the results file, flushing if games have waited long enough.
+     *
+     * @param game the finished game
+     * @throws IOException if the write fails
+     */
+    private void write(final Game game) throws IOException {
+        synchronized (out) {
+            out.writeInt(game.round);
+            out.writeInt(game.first);
+            out.writeInt(game.second);
+            out.writeInt(game.configuration);
+            out.writeInt(game.outcome);
+            out.writeInt(game.firstMoves);
+            out.writeInt(game.secondMoves);
+            out.writeLong(game.firstNanos);
+            out.writeLong(game.secondNanos);
+            long now = System.nanoTime();
+            if (now - flushed > FLUSH_NANOS) {
+                out.flush();
+                flushed = now;
+            }
+        }
+    }
+
+    /**
+     * Add a finished game to the totals.
+     *
+     * @param game the game
+     */
+    private void count(final Game game) {
+        int first = game.first;
+        int second = game.second;
+        games[first][second]++;
+        games[second][first]++;
+        if (game.outcome == SimulationStats.FIRST_PLAYER_WIN) {
+            points[first][second] += 1;
+        } else if (game.outcome == SimulationStats.SECOND_PLAYER_WIN) {
+            points[second][first] += 1;
+        } else {
+            points[first][second] += DRAW_POINTS;
+            points[second][first] += DRAW_POINTS;
+            draws[first]++;
+            draws[second]++;
+        }
+        moves[first] += game.firstMoves;
+        moves[second] += game.secondMoves;
+        nanos[first] += game.firstNanos;
+        nanos[second] += game.secondNanos;
+    }
+
+    /**
+     * Key a game by its round, sides and configuration, which no two games of a tournament share.
+     *
+     * @param round the round
+     * @param first the engine moving first
+     * @param second the engine moving second
+     * @param configuration the configuration index
+     * @return the key
+     */
+    private long key(final int round, final int first, final int second,
+            final int configuration) {
+        return (((long) round * engines.length + first) * engines.length + second)
+                * configurations.length + configuration;
+    }
+
+    /**
+     * Get the time this thread has spent running, or the wall time if that cannot be measured.
+     *
+     * @return a time in nanoseconds, only meaningful relative to another from the same thread
+     */
+    private static long cpuTime() {
+        if (CPU_TIME) {
+            return THREADS.getCurrentThreadCpuTime();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Flush and close the results file.
+     *
+     * @throws IOException if the write fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    /**
+     * Get the number of engines.
+     *
+     * @return the count
+     */
+    public int getEngineCount() {
+        return engines.length;
+    }
+
+    /**
+     * Get an engine's name.
+     *
+     * @param engine the engine's index
+     * @return the policy name it was created from
+     */
+    public String getEngine(final int engine) {
+        return engines[engine];
+    }
+
+    /**
+     * Get the number of rounds finished.
+     *
+     * @return the count
+     */
+    public int getRounds() {
+        return rounds;
+    }
+
+    /**
+     * Get the number of games played by this run, not counting those read from the results file.
+     *
+     * @return the count
+     */
+    public long getPlayed() {
+        return played;
+    }
+
+    /**
+     * Get the number of games played between two engines.
+     *
+     * @param engine one engine's index
+     * @param opponent the other engine's index
+     * @return the count
+     */
+    public long getGames(final int engine, final int opponent) {
+        return games[engine][opponent];
+    }
+
+    /**
+     * Get the points an engine scored against another.
+     *
+     * @param engine the engine's index
+     * @param opponent the opponent's index
+     * @return the points, counting a win as one and a draw as half
+     */
+    public double getPoints(final int engine, final int opponent) {
+        return points[engine][opponent];
+    }
+
+    /**
+     * Get the average time an engine spent choosing a move.
+     *
+     * @param engine the engine's index
+     * @return the time in nanoseconds, or zero if it has not moved
+     */
+    public double getNanosPerMove(final int engine) {
+        if (moves[engine] == 0) {
+            return 0;
+        }
+        return (double) nanos[engine] / moves[engine];
+    }
+
+    /**
+     * Fit ratings to every game counted so far.
+     *
+     * @return the ratings, by engine index
+     */
+    public EloRatings getRatings() {
+        return new EloRatings(games, points);
+    }
+
+    /**
+     * Print the engines from strongest to weakest.
+     */
+    private void report() {
+        EloRatings ratings = getRatings();
+        List<Integer> ranking = new ArrayList<Integer>();
+        for (int i = 0; i < engines.length; i++) {
+            ranking.add(i);
+        }
+        ranking.sort(Comparator.comparingDouble((Integer i) -> -ratings.getRating(i)));
+        System.out.printf("%4s %-20s %6s %6s %8s %7s %7s %10s%n", "rank", "engine", "elo", "+/-",
+                "games", "score", "draws", "ms/move");
+        for (int rank = 0; rank < ranking.size(); rank++) {
+            int engine = ranking.get(rank);
+            long total = 0;
+            double score = 0;
+            for (int opponent = 0; opponent < engines.length; opponent++) {
+                total += games[engine][opponent];
+                score += points[engine][opponent];
+            }
+            System.out.printf("%4d %-20s %6.0f %6.0f %8d %6.1f%% %6.1f%% %10.3f%n", rank + 1,
+                    engines[engine], ratings.getRating(engine), ratings.getMargin(engine), total,
+                    PERCENT * score / Math.max(1, total),
+                    PERCENT * draws[engine] / Math.max(1, total),
+                    getNanosPerMove(engine) / NANOS_PER_MILLI);
+        }
+        if (!CPU_TIME) {
+            System.out.println("Thread CPU time is not available; ms/move is wall time");
+        }
+    }
+
+    /**
+     * Run a tournament from the command line.
+     *
+     * @param args key=value arguments, described in the class documentation
+     * @throws IOException if the results file cannot be read or written
+     */
+    public static void main(final String[] args) throws IOException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Arguments must look like key=value: " + arg);
+            }
+            options.put(parts[0], parts[1]);
+        }
+        String engines = options.get("engines");
+        if (engines == null) {
+            throw new IllegalArgumentException("engines=<policy>,<policy>,... is required");
+        }
+        Format format = Format.valueOf(options.getOrDefault("format", "round-robin")
+                .toUpperCase().replace('-', '_'));
+        int total = Integer.parseInt(options.getOrDefault("rounds",
+                String.valueOf(DEFAULT_ROUNDS)));
+        int[][] configurations = Simulator.parseConfigurations(
+                options.getOrDefault("sizes", "7x6"), options.getOrDefault("n", "4"));
+        int openings = Integer.parseInt(options.getOrDefault("openings",
+                String.valueOf(DEFAULT_OPENINGS)));
+        Path results = null;
+        if (options.containsKey("results")) {
+            results = Paths.get(options.get("results"));
+        }
+
+        try (Tournament tournament = new Tournament(engines.split(","), configurations, format,
+                openings, results)) {
+            while (tournament.getRounds() < total) {
+                long start = System.nanoTime();
+                int played = tournament.playRound();
+                double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+                System.out.printf("Round %d: played %d games in %.1fs%n",
+                        tournament.getRounds(), played, seconds);
+            }
+            System.out.println();
+            tournament.report();
+        }
+    }
+}
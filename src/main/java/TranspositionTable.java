@@ -0,0 +1,292 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A table of search results by position, kept outside the Java heap and shared by every search.
+ * <p>
+ * Entries are 16 bytes, packed into direct byte buffers in buckets of four that share a cache
+ * line, so even a table of gigabytes adds nothing for the garbage collector to trace. Each entry
+ * is two longs: the packed result, and the position key XORed with it. Writers store both without
+ * locking. A reader takes an entry only if the two still XOR to its key, so an entry half written
+ * by one thread and half by another, or one that belongs to another position, reads as a miss.
+ * <p>
+ * A result packs the score, the depth searched, whether the score is exact or a bound, the best
+ * column in canonical orientation, and the generation of the search that stored it. Stores
+ * replace the entry for the same position, then an empty one, then the one least worth keeping,
+ * counting depth for an entry and age against it. The table outlives any one search, so results
+ * carry over between requests and games.
+ */
+public class TranspositionTable {
+
+    /** The score is at most the true score: every move failed low. */
+    public static final int UPPER = 1;
+
+    /** The score is at least the true score: a move failed high. */
+    public static final int LOWER = 2;
+
+    /** The score is exact. */
+    public static final int EXACT = 3;
+
+    /** Bytes in one entry. */
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+
+    /** Entries in a bucket. */
+    private static final int BUCKET_ENTRIES = 4;
+
+    /** Bytes in a bucket, one cache line. */
+    private static final int BUCKET_BYTES = BUCKET_ENTRIES * ENTRY_BYTES;
+
+    /** Log2 of the bytes in one buffer; a direct buffer holds at most 2GB. */
+    private static final int SEGMENT_BITS = 30;
+
+    /** Bits of a result that hold the score. */
+    private static final int SCORE_BITS = 32;
+
+    /** Position of the depth in a result. */
+    private static final int DEPTH_SHIFT = 32;
+
+    /** Position of the bound in a result. */
+    private static final int BOUND_SHIFT = 40;
+
+    /** Position of the best column, plus one, in a result. */
+    private static final int COLUMN_SHIFT = 42;
+
+    /** Position of the generation in a result. */
+    private static final int GENERATION_SHIFT = 48;
+
+    /** Mask for the depth, generation and any other byte-sized field. */
+    private static final int BYTE_MASK = 0xff;
+
+    /** Mask for the bound. */
+    private static final int BOUND_MASK = 0x3;
+
+    /** Mask for the best column, plus one. */
+    private static final int COLUMN_MASK = 0x3f;
+
+    /** Multiplier for mixing fields into a key, and for spreading keys over buckets. */
+    private static final long MIX = 0x9e3779b97f4a7c15L;
+
+    /** The table, split into buffers of at most 1 << SEGMENT_BITS bytes. */
+    private final ByteBuffer[] segments;
+
+    /** Log2 of the number of buckets. */
+    private final int bucketBits;
+
+    /** Generation of the current search, which ages out entries from older ones. */
+    private final AtomicInteger generation = new AtomicInteger(1);
+
+    /** Lookups. */
+    private final LongAdder probes = new LongAdder();
+
+    /** Lookups that found their position. */
+    private final LongAdder hits = new LongAdder();
+
+    /** Results stored. */
+    private final LongAdder stores = new LongAdder();
+
+    /**
+     * Create a table.
+     *
+     * @param bytes how much memory to use, rounded down to a power of two of at least one bucket
+     */
+    public TranspositionTable(final long bytes) {
+        if (bytes < BUCKET_BYTES) {
+            throw new IllegalArgumentException("A transposition table needs at least "
+                    + BUCKET_BYTES + " bytes");
+        }
+        int bits = Long.SIZE - 1 - Long.numberOfLeadingZeros(bytes / BUCKET_BYTES);
+        bucketBits = bits;
+        long total = (long) BUCKET_BYTES << bits;
+        int segmentBytes = (int) Math.min(total, 1L << SEGMENT_BITS);
+        segments = new ByteBuffer[(int) (total / segmentBytes)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentBytes).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Get the key a position is stored under.
+     * <p>
+     * Mirror images share a key, and positions on boards of different shapes, or with a different
+     * seat to move, do not.
+     *
+     * @param board the board
+     * @param seat the seat of the player to move
+     * @return the key
+     */
+    public static long key(final ConnectN board, final int seat) {
+        long key = board.getCanonicalHash();
+        key = key * MIX + board.getWidth();
+        key = key * MIX + board.getHeight();
+        key = key * MIX + board.getN();
+        return key * MIX + seat;
+    }
+
+    /**
+     * Start a new search, so that entries from earlier ones are replaced first.
+     */
+    public void newSearch() {
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Look up a position.
+     *
+     * @param key the position's key
+     * @return the packed result, to be read with the static accessors, or zero if there is none
+     */
+    public long probe(final long key) {
+        probes.increment();
+        long bucket = bucketOffset(key);
+        ByteBuffer segment = segments[(int) (bucket >>> SEGMENT_BITS)];
+        int offset = (int) (bucket & ((1L << SEGMENT_BITS) - 1));
+        for (int i = 0; i < BUCKET_ENTRIES; i++, offset += ENTRY_BYTES) {
+            long result = segment.getLong(offset + Long.BYTES);
+            if (result != 0 && (segment.getLong(offset) ^ result) == key) {
+                hits.increment();
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Store the result of searching a position.
+     *
+     * @param key the position's key
+     * @param depth moves searched below the position
+     * @param bound UPPER, LOWER or EXACT
+     * @param score the score
+     * @param column the best column in canonical orientation, or -1 if there is none
+     */
+    public void store(final long key, final int depth, final int bound, final int score,
+            final int column) {
+        long result = (score & ((1L << SCORE_BITS) - 1))
+                | ((long) Math.min(depth, BYTE_MASK) << DEPTH_SHIFT)
+                | ((long) bound << BOUND_SHIFT)
+                | ((long) (column + 1) << COLUMN_SHIFT)
+                | ((long) (generation.get() & BYTE_MASK) << GENERATION_SHIFT);
+        long bucket = bucketOffset(key);
+        ByteBuffer segment = segments[(int) (bucket >>> SEGMENT_BITS)];
+        int first = (int) (bucket & ((1L << SEGMENT_BITS) - 1));
+        int victim = first;
+        int victimWorth = Integer.MAX_VALUE;
+        for (int i = 0; i < BUCKET_ENTRIES; i++) {
+            int offset = first + i * ENTRY_BYTES;
+            long old = segment.getLong(offset + Long.BYTES);
+            if (old == 0 || (segment.getLong(offset) ^ old) == key) {
+                victim = offset;
+                break;
+            }
+            int worth = depth(old) - age(old);
+            if (worth < victimWorth) {
+                victim = offset;
+                victimWorth = worth;
+            }
+        }
+        segment.putLong(victim, key ^ result);
+        segment.putLong(victim + Long.BYTES, result);
+        stores.increment();
+    }
+
+    /**
+     * Get the score of a result.
+     *
+     * @param result a packed result
+     * @return the score
+     */
+    public static int score(final long result) {
+        return (int) result;
+    }
+
+    /**
+     * Get the depth of a result.
+     *
+     * @param result a packed result
+     * @return moves searched below the position
+     */
+    public static int depth(final long result) {
+        return (int) (result >>> DEPTH_SHIFT) & BYTE_MASK;
+    }
+
+    /**
+     * Get the bound of a result.
+     *
+     * @param result a packed result
+     * @return UPPER, LOWER or EXACT
+     */
+    public static int bound(final long result) {
+        return (int) (result >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /**
+     * Get the best column of a result.
+     *
+     * @param result a packed result
+     * @return the column in canonical orientation, or -1 if there is none
+     */
+    public static int column(final long result) {
+        return ((int) (result >>> COLUMN_SHIFT) & COLUMN_MASK) - 1;
+    }
+
+    /**
+     * Get how many searches ago a result was stored.
+     *
+     * @param result a packed result
+     * @return the number of searches started since
+     */
+    private int age(final long result) {
+        return (generation.get() - (int) (result >>> GENERATION_SHIFT)) & BYTE_MASK;
+    }
+
+    /**
+     * Get where the bucket for a key starts.
+     *
+     * @param key the key
+     * @return the byte offset of the bucket in the whole table
+     */
+    private long bucketOffset(final long key) {
+        if (bucketBits == 0) {
+            return 0;
+        }
+        return ((key * MIX) >>> (Long.SIZE - bucketBits)) * BUCKET_BYTES;
+    }
+
+    /**
+     * Get the number of entries the table holds.
+     *
+     * @return the capacity
+     */
+    public long getCapacity() {
+        return (long) BUCKET_ENTRIES << bucketBits;
+    }
+
+    /**
+     * Get the number of lookups.
+     *
+     * @return the count
+     */
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    /**
+     * Get the number of lookups that found their position.
+     *
+     * @return the count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of results stored.
+     *
+     * @return the count
+     */
+    public long getStores() {
+        return stores.sum();
+    }
+}
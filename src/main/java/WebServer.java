@@ -1,12 +1,35 @@
-import java.security.InvalidParameterException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
@@ -25,9 +48,279 @@ public class WebServer {
      */
     private static final int DEFAULT_SERVER_PORT = 8126;
 
+    /**
+     * Where board snapshots are kept between restarts.
+     */
+    private static final Path SNAPSHOT_FILE = Paths.get("connectn.snapshot");
+
+    /**
+     * How often to snapshot live boards, in milliseconds.
+     */
+    private static final long SNAPSHOT_INTERVAL_MS = 10000;
+
     /** Track boards used by clients. */
     private static Map<Integer, ConnectN> boardMap = new HashMap<Integer, ConnectN>();
 
+    /** Request counts, latencies and other runtime figures, served at /metrics. */
+    private static final ServerMetrics METRICS = new ServerMetrics();
+
+    /** Wins by player over every finished game, served at /leaderboard. */
+    private static Leaderboard leaderboard = new Leaderboard();
+
+    /** Players the leaderboard lists when the client does not say. */
+    private static final int DEFAULT_LEADERS = 10;
+
+    /** Most players the leaderboard lists at once. */
+    private static final int MAX_LEADERS = 100;
+
+    /** Rating points a matchmaking band widens by for each second a player waits. */
+    private static final double MATCH_BAND_GROWTH = 50;
+
+    /** Longest a player waits for a game before being told nobody was found, in milliseconds. */
+    private static final long MATCH_WAIT_MS = 30000;
+
+    /** How often waiting players are swept for pairs and timeouts, in milliseconds. */
+    private static final long MATCH_SWEEP_MS = 200;
+
+    /** Players who may wait for a game at once before new ones are turned away. */
+    private static final int MAX_MATCH_WAITING = 10000;
+
+    /** Pairs players who want a game into new boards. */
+    private static Matchmaker<Seeker> matchmaker = new Matchmaker<Seeker>(MATCH_BAND_GROWTH,
+            MATCH_WAIT_MS, WebServer::startMatch, WebServer::expireMatch);
+
+    /**
+     * Where access and error logs are written.
+     */
+    private static final Path LOG_DIRECTORY = Paths.get("logs");
+
+    /**
+     * Entries each log buffers before it starts dropping them.
+     */
+    private static final int LOG_BUFFER_ENTRIES = 1 << 16;
+
+    /**
+     * Size at which log files are rotated.
+     */
+    private static final long LOG_FILE_BYTES = 64L << 20;
+
+    /**
+     * Rotated log files kept.
+     */
+    private static final int LOG_FILES = 5;
+
+    /**
+     * Requests per second allowed from each client address.
+     */
+    private static final double CLIENT_RATE = 20;
+
+    /**
+     * Requests each client may make in a burst.
+     */
+    private static final int CLIENT_BURST = 40;
+
+    /**
+     * Requests per second allowed on each board.
+     */
+    private static final double BOARD_RATE = 10;
+
+    /**
+     * Requests each board may get in a burst.
+     */
+    private static final int BOARD_BURST = 20;
+
+    /**
+     * Requests handled at once before new ones are turned away.
+     */
+    private static final int MAX_IN_FLIGHT = 1000;
+
+    /**
+     * How often idle rate-limit buckets are dropped, in milliseconds.
+     */
+    private static final long LIMITER_SWEEP_MS = 10000;
+
+    /**
+     * Time a board may go unused before it is parked outside the heap, in milliseconds. This is
+     * well beyond the longest search, so a board is never parked while it is being searched.
+     */
+    private static final long IDLE_BOARD_MS = 60000;
+
+    /**
+     * How often idle boards are parked, in milliseconds.
+     */
+    private static final long IDLE_SWEEP_MS = 10000;
+
+    /** HTTP status for a request with a malformed parameter. */
+    private static final int HTTP_BAD_REQUEST = 400;
+
+    /** HTTP status for a client over its rate limit. */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /** HTTP status for a server with too many requests in flight. */
+    private static final int HTTP_UNAVAILABLE = 503;
+
+    /** Nanoseconds per second, for Retry-After headers. */
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /** Context key of the handler that ends a request's time in flight. */
+    private static final String RELEASE = "release";
+
+    /**
+     * Threads searching for computer moves.
+     */
+    private static final int SEARCH_THREADS = Math.max(1,
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Searches that may wait for a thread before new ones are turned away.
+     */
+    private static final int SEARCH_QUEUE = 64;
+
+    /**
+     * Time a search may take when the client does not say, in milliseconds.
+     */
+    private static final long DEFAULT_SEARCH_MS = 250;
+
+    /**
+     * Most time a client may give a search, in milliseconds.
+     */
+    private static final long MAX_SEARCH_MS = 5000;
+
+    /**
+     * Positions a search may visit when the client does not say.
+     */
+    private static final long DEFAULT_SEARCH_NODES = 2000000;
+
+    /**
+     * Most positions a client may let a search visit.
+     */
+    private static final long MAX_SEARCH_NODES = 50000000;
+
+    /**
+     * Positions whose analyses are kept.
+     */
+    private static final int ANALYSIS_CACHE_SIZE = 4096;
+
+    /**
+     * Megabytes of search results kept between searches, unless the connectn.tt.mb system
+     * property says otherwise.
+     */
+    private static final long DEFAULT_TABLE_MB = 64;
+
+    /** Bytes in a megabyte. */
+    private static final long MEGABYTE = 1L << 20;
+
+    /** Load factor of the analysis cache and board tables. */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** Boards the board tables start with room for. */
+    private static final int INITIAL_BOARDS = 1024;
+
+    /** When each board in boardMap was last used, in System.nanoTime, least recent first. */
+    private static LinkedHashMap<Integer, Long> boardUses =
+            new LinkedHashMap<Integer, Long>(INITIAL_BOARDS, LOAD_FACTOR, true);
+
+    /** Boards nobody has used for a while, packed outside the heap until they are needed. */
+    private static BoardSlabs idleBoards = new BoardSlabs(BoardPool.shared());
+
+    /** Multiplier for mixing fields into a hash key. */
+    private static final long HASH_MULTIPLIER = 31;
+
+    /** Rate limits by client address, or null if limits are off. */
+    private static RateLimiter<String> clientLimiter =
+            new RateLimiter<String>(CLIENT_RATE, CLIENT_BURST);
+
+    /** Rate limits by board ID, or null if limits are off. */
+    private static RateLimiter<Integer> boardLimiter =
+            new RateLimiter<Integer>(BOARD_RATE, BOARD_BURST);
+
+    /** Requests admitted and not yet answered. */
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+
+    /** Runs computer-move searches off the event loop. */
+    private static ThreadPoolExecutor searchPool;
+
+    /** Search results shared by every search, kept across requests and games. */
+    private static TranspositionTable searchTable;
+
+    /** Recent position analyses, least recently used first. Only used on the event loop. */
+    private static Map<Long, CachedAnalysis> analysisCache =
+            new LinkedHashMap<Long, CachedAnalysis>(ANALYSIS_CACHE_SIZE, LOAD_FACTOR, true) {
+                /**
+                 * Drop the least recently used analysis once the cache is full.
+                 *
+                 * @param eldest the least recently used analysis
+                 * @return true if the cache is over its size
+                 */
+                @Override
+                protected boolean removeEldestEntry(
+                        final Map.Entry<Long, CachedAnalysis> eldest) {
+                    return size() > ANALYSIS_CACHE_SIZE;
+                }
+            };
+
+    /** One line per request, sampled under load. */
+    private static AsyncLog accessLog;
+
+    /** One line per failure. */
+    private static AsyncLog errorLog;
+
+    /**
+     * What an action did, collected so that the request can be answered when the action is done,
+     * which for a searched move is later, on another turn of the event loop.
+     */
+    private static final class Reply {
+        /** When handling started, from System.nanoTime. */
+        private final long start = System.nanoTime();
+        /** Flight recorder event spanning the request. */
+        private final FlightEvents.Request event = new FlightEvents.Request();
+        /** Fields sent back in addition to the common ones. */
+        private final JsonObject content = new JsonObject();
+        /** The action requested, or "invalid" if it is not one the server knows. */
+        private String action;
+        /** Whether the action succeeded. */
+        private boolean success = true;
+        /** Whether the action failed with an exception. */
+        private boolean error;
+        /** Why the action was refused, or null. */
+        private ActionError problem;
+        /** The board the action was about, or null. */
+        private ConnectN board;
+        /** The player the action was about, or null. */
+        private Player player;
+
+        /**
+         * Start answering a request.
+         *
+         * @param setAction the action requested
+         */
+        Reply(final String setAction) {
+            action = setAction;
+            event.begin();
+        }
+    }
+
+    /**
+     * A request waiting for an opponent.
+     */
+    private static final class Seeker {
+        /** The routing context of the request. */
+        private final RoutingContext routingContext;
+        /** The reply being built, with the player already checked. */
+        private final Reply reply;
+
+        /**
+         * Start waiting.
+         *
+         * @param setRoutingContext the routing context of the request
+         * @param setReply the reply being built
+         */
+        Seeker(final RoutingContext setRoutingContext, final Reply setReply) {
+            routingContext = setRoutingContext;
+            reply = setReply;
+        }
+    }
+
     /**
      * Handle action generated by the frontend.
      *
@@ -35,78 +328,1193 @@ public class WebServer {
      */
     @SuppressWarnings("checkstyle:methodlength")
     private static void handleAction(final RoutingContext routingContext) {
-
         /*
          * Routing table. There should be a less terrible way to do this, but in Java it gets
          * complicated quickly. This is sufficient for our purposes.
          */
         String action = routingContext.request().getParam("action");
-        JsonObject actionContent = routingContext.getBodyAsJson();
-        JsonObject returnContent = new JsonObject();
-        boolean success = true;
+        Reply reply = new Reply(action);
+        JsonObject actionContent = parseBody(routingContext);
 
         /*
-         * Decode common arguments that accompany several requests.
+         * Decode common arguments that accompany several requests, then check that the action
+         * can be carried out. Refused requests get an error code without throwing anything.
          */
-        Player player = null;
-        if (actionContent.containsKey("player")) {
-            player = Json.decodeValue(actionContent.getJsonObject("player").toBuffer(),
-                    Player.class);
+        if (actionContent == null) {
+            reply.problem = ActionError.MALFORMED_REQUEST;
+        } else {
+            reply.player = decodePlayer(actionContent);
+            Integer boardID = intParam(actionContent, "board");
+            if (boardID != null) {
+                reply.board = liveBoard(boardID);
+            }
+            if (reply.board != null && boardLimiter != null
+                    && !boardLimiter.tryAcquire(boardID)) {
+                reply.problem = ActionError.RATE_LIMITED;
+            } else {
+                reply.problem = validate(action, actionContent, reply.board, reply.player);
+            }
+        }
+        if (reply.problem == ActionError.UNKNOWN_ACTION
+                || reply.problem == ActionError.MALFORMED_REQUEST) {
+            reply.action = "invalid";
         }
 
-        ConnectN board = null;
-        if (actionContent.containsKey("board")) {
-            board = boardMap.get(actionContent.getInteger("board"));
+        if (reply.problem != null) {
+            reply.success = false;
+            METRICS.recordActionError(reply.problem);
+        } else {
+            try {
+                switch (action) {
+                    case "newBoard":
+                        if (reply.board != null) {
+                            boardMap.remove(reply.board.getID());
+                            boardUses.remove(reply.board.getID());
+                            if (boardLimiter != null) {
+                                boardLimiter.forget(reply.board.getID());
+                            }
+                            BoardPool.shared().release(reply.board);
+                        }
+                        reply.board = BoardPool.shared().acquire(intParam(actionContent, "width"),
+                                intParam(actionContent, "height"), intParam(actionContent, "n"));
+                        if (actionContent.containsKey("players")) {
+                            reply.board.setPlayers(intParam(actionContent, "players"));
+                        }
+                        boardMap.put(reply.board.getID(), reply.board);
+                        boardUses.put(reply.board.getID(), System.nanoTime());
+                        break;
+                    case "newPlayer":
+                        reply.player = new Player(actionContent.getString("name"));
+                        break;
+                    case "changePlayerName":
+                        reply.player.setName(actionContent.getString("name"));
+                        break;
+                    case "setBoardAt":
+                        long moveStart = System.nanoTime();
+                        reply.success = reply.board.setBoardAt(reply.player,
+                                intParam(actionContent, "x"));
+                        if (reply.success) {
+                            METRICS.recordMove(System.nanoTime() - moveStart,
+                                    reply.board.hasWinner());
+                            recordResult(reply.board);
+                        }
+                        break;
+                    case "aiMove":
+                        searchMove(routingContext, reply, actionContent);
+                        return;
+                    case "analyze":
+                        analyzePosition(routingContext, reply, actionContent);
+                        return;
+                    case "match":
+                        findMatch(routingContext, reply, actionContent);
+                        return;
+                    case "undo":
+                        reply.success = reply.board.undo();
+                        break;
+                    case "redo":
+                        reply.success = reply.board.redo();
+                        break;
+                    default:
+                        throw new IllegalStateException(action + " passed validation");
+                }
+            } catch (Exception e) {
+                errorLog.log("action", action, "board", boardID(reply.board),
+                        "error", e.toString(), "at", topFrame(e));
+                reply.success = false;
+                reply.error = true;
+            }
         }
+        finish(routingContext, reply);
+    }
 
+    /**
+     * Send transformed data back to the client as a JSON object, and record the request.
+     * <p>
+     * Nothing is sent if the client has already gone away.
+     *
+     * @param routingContext the routing context of the request
+     * @param reply what the action did
+     */
+    private static void finish(final RoutingContext routingContext, final Reply reply) {
+        JsonObject returnContent = reply.content;
+        returnContent.put("success", Json.encode(reply.success));
+        if (reply.problem != null) {
+            returnContent.put("error", reply.problem.name());
+        }
+        if (reply.board != null) {
+            returnContent.put("boardID", Json.encode(reply.board.getID()));
+            returnContent.put("winner", Json.encode(reply.board.getWinner()));
+            returnContent.put("board", Json.encode(reply.board.getBoard()));
+        }
+        if (reply.player != null) {
+            returnContent.put("player", Json.encode(reply.player));
+        }
+        if (reply.problem == ActionError.RATE_LIMITED) {
+            routingContext.response().setStatusCode(HTTP_TOO_MANY_REQUESTS).putHeader(
+                    "Retry-After", retryAfter(boardLimiter.waitNanos(reply.board.getID())));
+        } else if (reply.problem == ActionError.SEARCH_BUSY
+                || reply.problem == ActionError.MATCH_BUSY) {
+            routingContext.response().setStatusCode(HTTP_UNAVAILABLE)
+                    .putHeader("Retry-After", retryAfter(0));
+        }
+        if (!routingContext.response().closed()) {
+            routingContext.response()
+                    .putHeader("content-type", "application/json; charset=utf-8")
+                    .end(returnContent.encode());
+        }
+        if (reply.action == null) {
+            reply.action = "invalid";
+        }
+        long elapsed = System.nanoTime() - reply.start;
+        METRICS.recordRequest(reply.action, elapsed, reply.success, reply.error);
+        accessLog.logSampled("action", reply.action, "board", boardID(reply.board),
+                "client", routingContext.request().remoteAddress().host(),
+                "success", reply.success, "error", reply.problem,
+                "micros", TimeUnit.NANOSECONDS.toMicros(elapsed));
+        reply.event.end();
+        if (reply.event.shouldCommit()) {
+            reply.event.set(reply.board, reply.action, reply.success);
+            reply.event.commit();
+        }
+    }
+
+    /**
+     * Find an opponent for a player and start them on a new board together.
+     * <p>
+     * If someone suitable is already waiting, both requests are answered at once. Otherwise the
+     * request waits in the matchmaker, without counting as in flight, until an opponent joins or
+     * the longest wait runs out. Waiting requests have their own cap. A client that disconnects
+     * stops waiting.
+     *
+     * @param routingContext the routing context of the request
+     * @param reply the reply being built, with the player already checked
+     * @param actionContent the request parameters
+     */
+    private static void findMatch(final RoutingContext routingContext, final Reply reply,
+            final JsonObject actionContent) {
+        if (matchmaker.getWaiting() >= MAX_MATCH_WAITING) {
+            reply.success = false;
+            reply.problem = ActionError.MATCH_BUSY;
+            METRICS.recordActionError(reply.problem);
+            finish(routingContext, reply);
+            return;
+        }
+        int rating = Matchmaker.NO_RATING;
+        int band = Matchmaker.ANY_BAND;
+        if (actionContent.containsKey("rating")) {
+            rating = intParam(actionContent, "rating");
+        }
+        if (actionContent.containsKey("band")) {
+            band = intParam(actionContent, "band");
+        }
+        Matchmaker.Ticket<Seeker> ticket = matchmaker.join(new Seeker(routingContext, reply),
+                reply.player.getID(), intParam(actionContent, "width"),
+                intParam(actionContent, "height"), intParam(actionContent, "n"), rating, band);
+        if (!ticket.isMatched()) {
+            Handler<Void> release = routingContext.get(RELEASE);
+            release.handle(null);
+            routingContext.response().closeHandler(unused -> matchmaker.cancel(ticket));
+        }
+    }
+
+    /**
+     * Start two players who have been paired on a new board, and answer both of their requests.
+     * The player who waited longer is told to move first.
+     * <p>
+     * Called by the matchmaker from a request handler or a sweep, both of which run on the
+     * server's context, so boardMap and both requests are only ever touched from its thread.
+     *
+     * @param first the ticket of the player who waited longer
+     * @param second the ticket of the other player
+     */
+    private static void startMatch(final Matchmaker.Ticket<Seeker> first,
+            final Matchmaker.Ticket<Seeker> second) {
+        ConnectN board = BoardPool.shared().acquire(first.getWidth(), first.getHeight(),
+                first.getN());
+        boardMap.put(board.getID(), board);
+        boardUses.put(board.getID(), System.nanoTime());
+        long now = System.nanoTime();
+        Seeker[] seekers = {first.getOwner(), second.getOwner()};
+        for (int i = 0; i < seekers.length; i++) {
+            Reply reply = seekers[i].reply;
+            reply.board = board;
+            reply.content.put("opponent", Json.encode(seekers[1 - i].reply.player));
+            reply.content.put("moveFirst", Json.encode(i == 0));
+            finish(seekers[i].routingContext, reply);
+        }
+        METRICS.recordMatch(now - first.getJoined());
+        METRICS.recordMatch(now - second.getJoined());
+    }
+
+    /**
+     * Tell a player that nobody suitable was found before the longest wait ran out.
+     *
+     * @param ticket the player's ticket
+     */
+    private static void expireMatch(final Matchmaker.Ticket<Seeker> ticket) {
+        Reply reply = ticket.getOwner().reply;
+        reply.success = false;
+        reply.problem = ActionError.NO_MATCH;
+        METRICS.recordActionError(reply.problem);
+        METRICS.recordMatchTimeout();
+        finish(ticket.getOwner().routingContext, reply);
+    }
+
+    /**
+     * Search for a move for the player to move, and play it once the search is done.
+     * <p>
+     * The event loop never waits for a search. The position is copied here, searched on the
+     * bounded search pool within the time and node budget the client asked for, and the answer
+     * is played back on the event loop, which owns the boards. If every worker is busy and the
+     * queue is full, the request is refused at once. If the client disconnects, its search is
+     * cancelled so the worker can move on.
+     *
+     * @param routingContext the routing context of the request
+     * @param reply the reply being built, with the board and player already checked
+     * @param actionContent the request parameters
+     */
+    private static void searchMove(final RoutingContext routingContext, final Reply reply,
+            final JsonObject actionContent) {
+        ConnectN board = reply.board;
+        Player player = reply.player;
+        ConnectN position = board.copyPosition();
+        Player opponent = opponentOf(board, player);
+        Position before = new Position(board);
+        SearchPolicy policy = new SearchPolicy(board.getWidth() * board.getHeight(), searchTable);
+        SearchBudget budget = new SearchBudget(TimeUnit.MILLISECONDS.toNanos(
+                budgetParam(actionContent, "timeMs", DEFAULT_SEARCH_MS, MAX_SEARCH_MS)),
+                budgetParam(actionContent, "nodes", DEFAULT_SEARCH_NODES, MAX_SEARCH_NODES));
+
+        Handler<Void> release = routingContext.get(RELEASE);
+        routingContext.response().closeHandler(unused -> {
+            budget.cancel();
+            release.handle(null);
+        });
+        Context context = routingContext.vertx().getOrCreateContext();
         try {
-            switch (action) {
-                case "newBoard":
-                    if (board != null) {
-                        boardMap.remove(board.getID());
-                    }
-                    board = new ConnectN(actionContent.getInteger("width"),
-                            actionContent.getInteger("height"),
-                            actionContent.getInteger("n"));
-                    boardMap.put(board.getID(), board);
-                    break;
-                case "newPlayer":
-                    player = new Player(actionContent.getString("name"));
-                    break;
-                case "changePlayerName":
-                    player.setName(actionContent.getString("name"));
-                    break;
-                case "setBoardAt":
-                    if (actionContent.containsKey("y")) {
-                        success = board.setBoardAt(player, actionContent.getInteger("x"),
-                                actionContent.getInteger("y"));
+            searchPool.execute(() -> {
+                int column = -1;
+                try {
+                    column = policy.chooseColumn(position, player, opponent, budget);
+                } catch (RuntimeException e) {
+                    errorLog.log("action", "aiMove", "board", position.getID(),
+                            "error", e.toString(), "at", topFrame(e));
+                }
+                int chosen = column;
+                context.runOnContext(unused ->
+                        playSearchedMove(routingContext, reply, chosen, budget, before));
+            });
+        } catch (RejectedExecutionException e) {
+            reply.success = false;
+            reply.problem = ActionError.SEARCH_BUSY;
+            METRICS.recordActionError(reply.problem);
+            finish(routingContext, reply);
+        }
+    }
+
+    /**
+     * Play the move a search chose, back on the event loop, and answer the request.
+     *
+     * @param routingContext the routing context of the request
+     * @param reply the reply being built
+     * @param column the column chosen, or -1 if the search failed
+     * @param budget the budget the search ran with
+     * @param before the board as it was when the search started
+     */
+    private static void playSearchedMove(final RoutingContext routingContext, final Reply reply,
+            final int column, final SearchBudget budget, final Position before) {
+        ConnectN board = reply.board;
+        if (budget.isCancelled()) {
+            reply.success = false;
+        } else if (column < 0) {
+            reply.success = false;
+            reply.error = true;
+        } else if (moved(reply, before) == null) {
+            long moveStart = System.nanoTime();
+            reply.success = board.setBoardAt(reply.player, column);
+            if (reply.success) {
+                METRICS.recordMove(System.nanoTime() - moveStart, board.hasWinner());
+                recordResult(board);
+            }
+            reply.content.put("column", Json.encode(column));
+            reply.content.put("depth", Json.encode(budget.getDepth()));
+            reply.content.put("nodes", Json.encode(budget.getNodes()));
+        }
+        if (reply.problem != null) {
+            reply.success = false;
+            METRICS.recordActionError(reply.problem);
+        }
+        finish(routingContext, reply);
+    }
+
+    /**
+     * Check whether a board has moved on since a search of it started.
+     * <p>
+     * If it has, the reason is set as the reply's problem, and a board that is gone is dropped
+     * from the reply.
+     *
+     * @param reply the reply being built
+     * @param before the board as it was when the search started
+     * @return UNKNOWN_BOARD or BOARD_CHANGED if the board has moved on, or null if it has not
+     */
+    private static ActionError moved(final Reply reply, final Position before) {
+        if (boardMap.get(before.boardID) != reply.board) {
+            reply.board = null;
+            reply.problem = ActionError.UNKNOWN_BOARD;
+        } else if (!before.matches(reply.board)) {
+            reply.problem = ActionError.BOARD_CHANGED;
+        }
+        return reply.problem;
+    }
+
+    /**
+     * Score every open column for the player to move, and answer with the scores.
+     * <p>
+     * Each column is analyzed by its own task on the search pool, within the time budget the
+     * client asked for and its share of the node budget, so hints come back in about the time
+     * one column takes. Analyses are cached by position, so asking again for the same position,
+     * a transposition of it or its mirror image is answered at once, as long as the cached
+     * analysis is at least as deep as the new request would search. Entries are stored in the
+     * canonical orientation and mirrored on the way in and out as needed. The cache is only used
+     * on the event loop.
+     *
+     * @param routingContext the routing context of the request
+     * @param reply the reply being built, with the board and player already checked
+     * @param actionContent the request parameters
+     */
+    private static void analyzePosition(final RoutingContext routingContext, final Reply reply,
+            final JsonObject actionContent) {
+        ConnectN board = reply.board;
+        Player player = reply.player;
+        long key = analysisKey(board, player);
+        boolean mirrored = board.isCanonicalMirror();
+        long timeNanos = TimeUnit.MILLISECONDS.toNanos(
+                budgetParam(actionContent, "timeMs", DEFAULT_SEARCH_MS, MAX_SEARCH_MS));
+        long nodes = budgetParam(actionContent, "nodes", DEFAULT_SEARCH_NODES, MAX_SEARCH_NODES);
+        CachedAnalysis cached = analysisCache.get(key);
+        if (cached != null && cached.covers(board, timeNanos, nodes)) {
+            ColumnAnalysis[] analyses = cached.analyses;
+            if (mirrored) {
+                analyses = ColumnAnalysis.mirror(analyses, board.getWidth());
+            }
+            reply.content.put("analysis", Json.encode(analyses));
+            reply.content.put("cached", Json.encode(true));
+            finish(routingContext, reply);
+            return;
+        }
+        int open = 0;
+        for (int x = 0; x < board.getWidth(); x++) {
+            if (board.getColumnHeight(x) < board.getHeight()) {
+                open++;
+            }
+        }
+        if (searchPool.getQueue().remainingCapacity() < open) {
+            reply.success = false;
+            reply.problem = ActionError.SEARCH_BUSY;
+            METRICS.recordActionError(reply.problem);
+            finish(routingContext, reply);
+            return;
+        }
+
+        Position before = new Position(board);
+        Context context = routingContext.vertx().getOrCreateContext();
+        PositionAnalyzer analyzer = new PositionAnalyzer(searchPool,
+                new SearchPolicy(board.getWidth() * board.getHeight(), searchTable));
+        Runnable cancel = analyzer.analyze(board, player, opponentOf(board, player), timeNanos,
+                nodes, analysis -> context.runOnContext(unused -> {
+                    if (analysis == null) {
+                        reply.success = false;
+                        reply.error = !routingContext.response().closed();
                     } else {
-                        success = board.setBoardAt(player, actionContent.getInteger("x"));
+                        ColumnAnalysis[] canonical = analysis;
+                        if (mirrored) {
+                            canonical = ColumnAnalysis.mirror(analysis, board.getWidth());
+                        }
+                        CachedAnalysis fresh = new CachedAnalysis(canonical, timeNanos, nodes);
+                        CachedAnalysis old = analysisCache.get(key);
+                        if (old == null || fresh.depth >= old.depth) {
+                            analysisCache.put(key, fresh);
+                        }
+                        if (moved(reply, before) == null) {
+                            reply.content.put("analysis", Json.encode(analysis));
+                            reply.content.put("cached", Json.encode(false));
+                        } else {
+                            reply.success = false;
+                            METRICS.recordActionError(reply.problem);
+                        }
                     }
-                    break;
-                default:
-                    throw new InvalidParameterException(action + " is not a valid action");
+                    finish(routingContext, reply);
+                }));
+        Handler<Void> release = routingContext.get(RELEASE);
+        routingContext.response().closeHandler(unused -> {
+            cancel.run();
+            release.handle(null);
+        });
+    }
+
+    /**
+     * Get the key an analysis is cached under.
+     * <p>
+     * Analyses depend on the tiles, the board's shape, N and number of seats, and on which seat
+     * is to move. The canonical hash covers the tiles by seat, up to mirroring, and the rest is
+     * mixed in.
+     *
+     * @param board the board
+     * @param player the player to move
+     * @return the key
+     */
+    private static long analysisKey(final ConnectN board, final Player player) {
+        long key = board.getCanonicalHash();
+        key = key * HASH_MULTIPLIER + board.getWidth();
+        key = key * HASH_MULTIPLIER + board.getHeight();
+        key = key * HASH_MULTIPLIER + board.getN();
+        key = key * HASH_MULTIPLIER + board.getPlayers();
+        return key * HASH_MULTIPLIER + board.seatFor(player);
+    }
+
+    /**
+     * An analysis in the cache, with what it took to make it.
+     */
+    private static final class CachedAnalysis {
+        /** The analyses of the open columns, in the canonical orientation. */
+        private final ColumnAnalysis[] analyses;
+        /** Moves ahead every column was searched, the shallowest of them. */
+        private final int depth;
+        /** The time budget of the search. */
+        private final long timeNanos;
+        /** The node budget of the search. */
+        private final long nodes;
+
+        /**
+         * Note an analysis and its budget.
+         *
+         * @param setAnalyses the analyses, in the canonical orientation
+         * @param setTimeNanos the time budget of the search
+         * @param setNodes the node budget of the search
+         */
+        CachedAnalysis(final ColumnAnalysis[] setAnalyses, final long setTimeNanos,
+                final long setNodes) {
+            analyses = setAnalyses;
+            timeNanos = setTimeNanos;
+            nodes = setNodes;
+            int shallowest = Integer.MAX_VALUE;
+            for (ColumnAnalysis analysis : setAnalyses) {
+                shallowest = Math.min(shallowest, analysis.getDepth());
             }
-        } catch (Exception e) {
-            System.out.println("Something went wrong: " + e);
-            success = false;
+            depth = shallowest;
         }
 
-        /*
-         * Send transformed data back to the client as a JSON object.
+        /**
+         * Check whether this analysis is as deep as a new search of the position would be.
+         * <p>
+         * That holds if every column was searched to the end of the game, or if the new search
+         * has no more time and no more nodes than this one had, so it would stop no deeper.
+         *
+         * @param board the board being analyzed
+         * @param setTimeNanos the time budget of the new search
+         * @param setNodes the node budget of the new search
+         * @return true if the analysis can be served instead
+         */
+        boolean covers(final ConnectN board, final long setTimeNanos, final long setNodes) {
+            if (depth >= board.getWidth() * board.getHeight() - board.getMoveCount()) {
+                return true;
+            }
+            return setTimeNanos <= timeNanos && setNodes <= nodes;
+        }
+    }
+
+    /**
+     * Where a board stood when a search started, to tell whether it has moved on since.
+     */
+    private static final class Position {
+        /** The board's ID. */
+        private final int boardID;
+        /** Moves played. */
+        private final int moveCount;
+        /** The position hash. */
+        private final long positionHash;
+
+        /**
+         * Note where a board stands.
+         *
+         * @param board the board
+         */
+        Position(final ConnectN board) {
+            boardID = board.getID();
+            moveCount = board.getMoveCount();
+            positionHash = board.getPositionHash();
+        }
+
+        /**
+         * Check whether a board still stands where it did.
+         *
+         * @param board the board
+         * @return true if it has the same ID and position
          */
-        returnContent.put("success", Json.encode(success));
+        boolean matches(final ConnectN board) {
+            return board.getID() == boardID && board.getMoveCount() == moveCount
+                    && board.getPositionHash() == positionHash;
+        }
+    }
+
+    /**
+     * Find a player to stand in for the opponent of the player to move, for searching.
+     * <p>
+     * Search only needs a player with the right seat, which it tells by name, so a placeholder is
+     * used if the opponent has not moved yet.
+     *
+     * @param board the board
+     * @param player the player to move
+     * @return a player in the other seat
+     */
+    private static Player opponentOf(final ConnectN board, final Player player) {
+        for (int x = 0; x < board.getWidth(); x++) {
+            for (int y = 0; y < board.getColumnHeight(x); y++) {
+                Player tile = board.getBoardAt(x, y);
+                if (!tile.getName().equals(player.getName())) {
+                    return tile;
+                }
+            }
+        }
+        return new Player(player.getName() + "'s opponent", 0, 0);
+    }
+
+    /**
+     * Get a search budget parameter.
+     *
+     * @param actionContent the request parameters
+     * @param key the parameter name
+     * @param defaultValue the value if the parameter is missing
+     * @param max the largest value allowed
+     * @return the value, between one and max
+     */
+    private static long budgetParam(final JsonObject actionContent, final String key,
+            final long defaultValue, final long max) {
+        Integer value = intParam(actionContent, key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Math.max(1, Math.min(max, value));
+    }
+
+    /**
+     * Admit an action request, or turn it away as cheaply as possible.
+     * <p>
+     * Runs before the body is read. Requests are refused with 503 while too many are in flight,
+     * and with 429 when their client is over its rate limit, so an aggressive client cannot crowd
+     * out everyone else. Admitted requests count as in flight until their response is sent or
+     * their connection closes. The handler that ends that is kept in the context under
+     * {@link #RELEASE}, for handlers that need a close handler of their own.
+     *
+     * @param routingContext the routing context of the request
+     */
+    private static void admit(final RoutingContext routingContext) {
+        if (IN_FLIGHT.get() >= MAX_IN_FLIGHT) {
+            shed(routingContext, HTTP_UNAVAILABLE, "in_flight_cap", 0);
+            return;
+        }
+        if (clientLimiter != null) {
+            String client = routingContext.request().remoteAddress().host();
+            if (!clientLimiter.tryAcquire(client)) {
+                shed(routingContext, HTTP_TOO_MANY_REQUESTS, "client_rate",
+                        clientLimiter.waitNanos(client));
+                return;
+            }
+        }
+        IN_FLIGHT.incrementAndGet();
+        AtomicBoolean finished = new AtomicBoolean();
+        Handler<Void> release = unused -> {
+            if (finished.compareAndSet(false, true)) {
+                IN_FLIGHT.decrementAndGet();
+            }
+        };
+        routingContext.put(RELEASE, release);
+        routingContext.addBodyEndHandler(release);
+        routingContext.response().closeHandler(release);
+        routingContext.next();
+    }
+
+    /**
+     * Turn a request away without reading it.
+     *
+     * @param routingContext the routing context of the request
+     * @param status the HTTP status to send
+     * @param reason why, for metrics
+     * @param waitNanos how long the client should wait before trying again
+     */
+    private static void shed(final RoutingContext routingContext, final int status,
+            final String reason, final long waitNanos) {
+        METRICS.recordShed(reason);
+        routingContext.response().setStatusCode(status)
+                .putHeader("Retry-After", retryAfter(waitNanos))
+                .end();
+    }
+
+    /**
+     * Format a wait as a Retry-After header value.
+     *
+     * @param waitNanos the wait in nanoseconds
+     * @return whole seconds, at least one
+     */
+    private static String retryAfter(final long waitNanos) {
+        return String.valueOf(Math.max(1, (waitNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND));
+    }
+
+    /**
+     * Turn off per-client and per-board rate limits, for example for a local load test where
+     * every client has the same address. The in-flight cap still applies.
+     * <p>
+     * Must be called before the server is started.
+     */
+    static void disableRateLimits() {
+        clientLimiter = null;
+        boardLimiter = null;
+    }
+
+    /**
+     * Check that an action can be carried out, without changing anything.
+     * <p>
+     * Moves are checked in the same order ConnectN checks them, so a move that passes is one that
+     * setBoardAt will accept.
+     *
+     * @param action the action requested
+     * @param actionContent the request parameters
+     * @param board the board named by the request, or null
+     * @param player the player sent with the request, or null
+     * @return why the action would fail, or null if it can go ahead
+     */
+    private static ActionError validate(final String action, final JsonObject actionContent,
+            final ConnectN board, final Player player) {
+        if (action == null) {
+            return ActionError.UNKNOWN_ACTION;
+        }
+        switch (action) {
+            case "newBoard":
+                Integer width = intParam(actionContent, "width");
+                Integer height = intParam(actionContent, "height");
+                Integer n = intParam(actionContent, "n");
+                if (width == null || height == null || n == null
+                        || notAnInt(actionContent, "players")) {
+                    return ActionError.MISSING_PARAMETER;
+                }
+                Integer players = intParam(actionContent, "players");
+                if (!ConnectN.isValid(width, height, n) || (players != null
+                        && (players < ConnectN.MIN_PLAYERS || players > ConnectN.MAX_PLAYERS))) {
+                    return ActionError.INVALID_CONFIGURATION;
+                }
+                return null;
+            case "newPlayer":
+                if (!(actionContent.getValue("name") instanceof String)) {
+                    return ActionError.MISSING_PARAMETER;
+                }
+                return null;
+            case "changePlayerName":
+                if (player == null || !(actionContent.getValue("name") instanceof String)) {
+                    return ActionError.MISSING_PARAMETER;
+                }
+                return null;
+            case "setBoardAt":
+                return validateMove(actionContent, board, player);
+            case "aiMove":
+            case "analyze":
+                return validateSearch(actionContent, board, player);
+            case "match":
+                return validateMatch(actionContent, player);
+            case "undo":
+            case "redo":
+                ActionError missing = checkBoard(actionContent, board);
+                if (missing != null) {
+                    return missing;
+                }
+                if (action.equals("undo") && board.getMoveCount() == 0) {
+                    return ActionError.NOTHING_TO_UNDO;
+                }
+                if (action.equals("redo") && board.getRedoCount() == 0) {
+                    return ActionError.NOTHING_TO_REDO;
+                }
+                return null;
+            default:
+                return ActionError.UNKNOWN_ACTION;
+        }
+    }
+
+    /**
+     * Check that a move can be played.
+     *
+     * @param actionContent the request parameters
+     * @param board the board named by the request, or null
+     * @param player the player sent with the request, or null
+     * @return why the move would fail, or null if it can be played
+     */
+    private static ActionError validateMove(final JsonObject actionContent, final ConnectN board,
+            final Player player) {
+        ActionError missing = checkBoard(actionContent, board);
+        if (missing != null) {
+            return missing;
+        }
+        Integer x = intParam(actionContent, "x");
+        if (player == null || x == null) {
+            return ActionError.MISSING_PARAMETER;
+        }
+        if (board.gameEnded()) {
+            return ActionError.GAME_OVER;
+        }
+        if (x < 0 || x >= board.getWidth()) {
+            return ActionError.INVALID_COLUMN;
+        }
+        if (actionContent.containsKey("y")) {
+            Integer y = intParam(actionContent, "y");
+            if (y == null) {
+                return ActionError.MISSING_PARAMETER;
+            }
+            if (y != board.getColumnHeight(x)) {
+                return ActionError.INVALID_POSITION;
+            }
+        }
+        String turn = board.whosTurn();
+        if (turn != null && !turn.equals(player.getName())) {
+            return ActionError.NOT_YOUR_TURN;
+        }
+        if (board.getColumnHeight(x) >= board.getHeight()) {
+            return ActionError.COLUMN_FULL;
+        }
+        return null;
+    }
+
+    /**
+     * Check that a move can be searched for.
+     *
+     * @param actionContent the request parameters
+     * @param board the board named by the request, or null
+     * @param player the player to search for, or null
+     * @return why the search cannot be done, or null if it can
+     */
+    private static ActionError validateSearch(final JsonObject actionContent,
+            final ConnectN board, final Player player) {
+        ActionError missing = checkBoard(actionContent, board);
+        if (missing != null) {
+            return missing;
+        }
+        if (player == null || notAnInt(actionContent, "timeMs")
+                || notAnInt(actionContent, "nodes")) {
+            return ActionError.MISSING_PARAMETER;
+        }
+        if (board.gameEnded()) {
+            return ActionError.GAME_OVER;
+        }
+        if (board.getPlayers() > ConnectN.MIN_PLAYERS) {
+            return ActionError.TOO_MANY_PLAYERS;
+        }
+        String turn = board.whosTurn();
+        if (turn != null && !turn.equals(player.getName())) {
+            return ActionError.NOT_YOUR_TURN;
+        }
+        return null;
+    }
+
+    /**
+     * Check that a player can look for a game.
+     * <p>
+     * A band says how far from the player's rating an opponent's may be, so it needs a rating.
+     *
+     * @param actionContent the request parameters
+     * @param player the player looking for a game, or null
+     * @return why the player cannot look for a game, or null if they can
+     */
+    private static ActionError validateMatch(final JsonObject actionContent,
+            final Player player) {
+        Integer width = intParam(actionContent, "width");
+        Integer height = intParam(actionContent, "height");
+        Integer n = intParam(actionContent, "n");
+        if (player == null || width == null || height == null || n == null
+                || notAnInt(actionContent, "rating") || notAnInt(actionContent, "band")) {
+            return ActionError.MISSING_PARAMETER;
+        }
+        Integer band = intParam(actionContent, "band");
+        if (band != null && (band < 0 || !actionContent.containsKey("rating"))) {
+            return ActionError.MISSING_PARAMETER;
+        }
+        if (!ConnectN.isValid(width, height, n)) {
+            return ActionError.INVALID_CONFIGURATION;
+        }
+        return null;
+    }
+
+    /**
+     * Check that a request names a board that exists.
+     *
+     * @param actionContent the request parameters
+     * @param board the board named by the request, or null
+     * @return MISSING_PARAMETER or UNKNOWN_BOARD if there is no board, or null if there is
+     */
+    private static ActionError checkBoard(final JsonObject actionContent, final ConnectN board) {
         if (board != null) {
-            returnContent.put("boardID", Json.encode(board.getID()));
-            returnContent.put("winner", Json.encode(board.getWinner()));
-            returnContent.put("board", Json.encode(board.getBoard()));
+            return null;
+        }
+        if (intParam(actionContent, "board") == null) {
+            return ActionError.MISSING_PARAMETER;
+        }
+        return ActionError.UNKNOWN_BOARD;
+    }
+
+    /**
+     * Parse the request body.
+     * <p>
+     * An empty body is treated as an empty object. Parsing is the only step that can throw on
+     * bad input, and only for bodies that are not JSON at all.
+     *
+     * @param routingContext the routing context of the request
+     * @return the body, or null if it is not a JSON object
+     */
+    private static JsonObject parseBody(final RoutingContext routingContext) {
+        Buffer body = routingContext.getBody();
+        if (body == null || body.length() == 0) {
+            return new JsonObject();
+        }
+        try {
+            return routingContext.getBodyAsJson();
+        } catch (DecodeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get an integer parameter.
+     *
+     * @param actionContent the request parameters
+     * @param key the parameter name
+     * @return the value, or null if it is missing or not an integer
+     */
+    private static Integer intParam(final JsonObject actionContent, final String key) {
+        Object value = actionContent.getValue(key);
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+        if (value instanceof Long && (Long) value == ((Long) value).intValue()) {
+            return ((Long) value).intValue();
+        }
+        return null;
+    }
+
+    /**
+     * Check whether an optional integer parameter is there but is not an integer.
+     *
+     * @param actionContent the request parameters
+     * @param key the parameter name
+     * @return true if the parameter is present and is not an integer
+     */
+    private static boolean notAnInt(final JsonObject actionContent, final String key) {
+        return actionContent.containsKey(key) && intParam(actionContent, key) == null;
+    }
+
+    /**
+     * Decode the player sent with a request, without going through Jackson.
+     *
+     * @param actionContent the request parameters
+     * @return the player, or null if there is none, it has no name, or a field has the wrong type
+     */
+    private static Player decodePlayer(final JsonObject actionContent) {
+        Object value = actionContent.getValue("player");
+        if (!(value instanceof JsonObject)) {
+            return null;
+        }
+        JsonObject fields = (JsonObject) value;
+        Object name = fields.getValue("name");
+        Integer score = intParam(fields, "score");
+        Integer id = intParam(fields, "id");
+        if (!(name instanceof String) || (score == null && fields.containsKey("score"))
+                || (id == null && fields.containsKey("id"))) {
+            return null;
+        }
+        return new Player((String) name, orZero(score), orZero(id));
+    }
+
+    /**
+     * Default a missing number to zero, as Jackson does for missing primitive properties.
+     *
+     * @param value the number, or null
+     * @return the number, or zero if it is null
+     */
+    private static int orZero(final Integer value) {
+        if (value == null) {
+            return 0;
+        }
+        return value;
+    }
+
+    /**
+     * Get the ID of a board for logging.
+     *
+     * @param board the board, or null
+     * @return its ID, or null if there is no board
+     */
+    private static Integer boardID(final ConnectN board) {
+        if (board == null) {
+            return null;
+        }
+        return board.getID();
+    }
+
+    /**
+     * Find where an exception was thrown, for logging.
+     *
+     * @param e the exception
+     * @return the top stack frame, or null if there is none
+     */
+    private static String topFrame(final Throwable e) {
+        StackTraceElement[] trace = e.getStackTrace();
+        if (trace.length == 0) {
+            return null;
+        }
+        return trace[0].toString();
+    }
+
+    /**
+     * Serve runtime metrics in the Prometheus text format.
+     *
+     * @param routingContext the routing context to use when processing the request
+     */
+    private static void handleMetrics(final RoutingContext routingContext) {
+        routingContext.response()
+                .putHeader("content-type", "text/plain; version=0.0.4; charset=utf-8")
+                .end(METRICS.render(boardMap.size() + idleBoards.size()));
+    }
+
+    /**
+     * Put a game on the leaderboard if the move just played ended it.
+     *
+     * @param board the board the move was played on
+     */
+    private static void recordResult(final ConnectN board) {
+        if (board.gameEnded()) {
+            leaderboard.record(board);
         }
-        if (player != null) {
-            returnContent.put("player", Json.encode(player));
+    }
+
+    /**
+     * Serve the leaderboard as JSON.
+     * <p>
+     * The top query parameter says how many of the best players to list, and the optional player
+     * parameter asks for one player's standing and rank as well.
+     *
+     * @param routingContext the routing context to use when processing the request
+     */
+    private static void handleLeaderboard(final RoutingContext routingContext) {
+        Integer top = queryInt(routingContext, "top", DEFAULT_LEADERS);
+        Integer playerID = queryInt(routingContext, "player", -1);
+        if (top == null || top < 0 || playerID == null) {
+            routingContext.response().setStatusCode(HTTP_BAD_REQUEST).end();
+            return;
+        }
+        JsonObject content = new JsonObject();
+        content.put("players", leaderboard.size());
+        content.put("games", leaderboard.getGames());
+        JsonArray leaders = new JsonArray();
+        for (Player leader : leaderboard.getTop(Math.min(top, MAX_LEADERS))) {
+            leaders.add(encodePlayer(leader));
+        }
+        content.put("top", leaders);
+        if (routingContext.request().getParam("player") != null) {
+            Player player = leaderboard.getPlayer(playerID);
+            if (player != null) {
+                content.put("player", encodePlayer(player));
+                content.put("rank", leaderboard.getRank(playerID));
+            }
         }
         routingContext.response()
                 .putHeader("content-type", "application/json; charset=utf-8")
-                .end(returnContent.encode());
+                .end(content.encode());
+    }
+
+    /**
+     * Encode a player with the same fields Jackson gives it, without going through Jackson.
+     *
+     * @param player the player
+     * @return the player's name, score and ID
+     */
+    private static JsonObject encodePlayer(final Player player) {
+        return new JsonObject().put("name", player.getName()).put("score", player.getScore())
+                .put("id", player.getID());
+    }
+
+    /**
+     * Get an integer query parameter.
+     *
+     * @param routingContext the routing context of the request
+     * @param name the parameter name
+     * @param defaultValue the value if the parameter is missing
+     * @return the value, or null if the parameter is there but is not an integer
+     */
+    private static Integer queryInt(final RoutingContext routingContext, final String name,
+            final int defaultValue) {
+        String value = routingContext.request().getParam(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find a board by ID, bringing it back onto the heap if it was parked, and note that it was
+     * used.
+     *
+     * @param boardID the board ID
+     * @return the board, or null if there is no such board
+     */
+    private static ConnectN liveBoard(final int boardID) {
+        ConnectN board = boardMap.get(boardID);
+        if (board == null) {
+            board = idleBoards.take(boardID);
+            if (board == null) {
+                return null;
+            }
+            boardMap.put(boardID, board);
+        }
+        boardUses.put(boardID, System.nanoTime());
+        return board;
+    }
+
+    /**
+     * Park the boards that have gone unused for IDLE_BOARD_MS.
+     * <p>
+     * Boards that do not fit in a slab stay on the heap, and are checked again after another
+     * idle period. Runs on the server's context, since it changes boardMap and returns boards to
+     * the pool.
+     */
+    private static void parkIdleBoards() {
+        long now = System.nanoTime();
+        long idle = TimeUnit.MILLISECONDS.toNanos(IDLE_BOARD_MS);
+        List<Integer> unparked = new ArrayList<Integer>();
+        Iterator<Map.Entry<Integer, Long>> uses = boardUses.entrySet().iterator();
+        while (uses.hasNext()) {
+            Map.Entry<Integer, Long> use = uses.next();
+            if (now - use.getValue() < idle) {
+                break;
+            }
+            uses.remove();
+            ConnectN board = boardMap.get(use.getKey());
+            if (board == null) {
+                continue;
+            }
+            if (idleBoards.park(board)) {
+                boardMap.remove(use.getKey());
+                BoardPool.shared().release(board);
+            } else {
+                unparked.add(use.getKey());
+            }
+        }
+        for (Integer boardID : unparked) {
+            boardUses.put(boardID, now);
+        }
+    }
+
+    /**
+     * Restore boards saved by a previous run of the server, if there are any.
+     *
+     * @param snapshotFile where the snapshot is kept
+     */
+    private static void restoreSnapshot(final Path snapshotFile) {
+        if (!Files.exists(snapshotFile)) {
+            return;
+        }
+        try {
+            Map<Integer, ConnectN> restored = BoardSnapshot.read(snapshotFile, idleBoards);
+            int count = restored.size() + idleBoards.size();
+            long now = System.nanoTime();
+            for (ConnectN board : restored.values()) {
+                if (idleBoards.park(board)) {
+                    BoardPool.shared().release(board);
+                } else {
+                    boardMap.put(board.getID(), board);
+                    boardUses.put(board.getID(), now);
+                }
+            }
+            System.out.println("Restored " + count + " boards from " + snapshotFile);
+        } catch (IOException e) {
+            System.out.println("Could not restore snapshot: " + e);
+        }
+    }
+
+    /**
+     * Get where the leaderboard is kept, next to the board snapshot.
+     *
+     * @param snapshotFile where board snapshots are kept
+     * @return the leaderboard file
+     */
+    private static Path leaderboardFile(final Path snapshotFile) {
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + ".leaderboard");
+    }
+
+    /**
+     * Encode the leaderboard. Called on the event loop, which records every result, so the image
+     * is consistent.
+     *
+     * @return the encoded leaderboard
+     */
+    private static byte[] captureLeaderboard() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            leaderboard.write(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not encode leaderboard", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restore the leaderboard saved by a previous run of the server, if there is one.
+     *
+     * @param snapshotFile where board snapshots are kept
+     */
+    private static void restoreLeaderboard(final Path snapshotFile) {
+        Path file = leaderboardFile(snapshotFile);
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Files.readAllBytes(file)))) {
+            leaderboard = Leaderboard.read(in);
+            System.out.println("Restored " + leaderboard.size() + " players from " + file);
+        } catch (IOException e) {
+            System.out.println("Could not restore leaderboard: " + e);
+        }
+    }
+
+    /**
+     * Periodically snapshot live boards to disk.
+     * <p>
+     * Must be called on the server's context. The timer then fires on the same event loop that
+     * handles requests and owns boardMap and the parked boards, so the image is always consistent.
+     * Capturing only encodes the live boards and copies the parked boards' slabs. Encoding the
+     * rest and writing it to disk happen on a worker thread so they never hold up request
+     * handling.
+     *
+     * @param vertx the Vert.x instance whose event loop owns the boards
+     * @param snapshotFile where to keep the snapshot
+     */
+    private static void scheduleSnapshots(final Vertx vertx, final Path snapshotFile) {
+        vertx.setPeriodic(SNAPSHOT_INTERVAL_MS, timerID -> {
+            BoardSnapshot snapshot = BoardSnapshot.capture(boardMap.values(), idleBoards);
+            byte[] standings = captureLeaderboard();
+            vertx.<Void>executeBlocking(future -> {
+                try {
+                    snapshot.write(snapshotFile);
+                    BoardSnapshot.write(standings, leaderboardFile(snapshotFile));
+                    future.complete();
+                } catch (IOException e) {
+                    future.fail(e);
+                }
+            }, true, result -> {
+                if (result.failed()) {
+                    errorLog.log("event", "snapshot", "file", snapshotFile,
+                            "error", result.cause().toString());
+                }
+            });
+        });
     }
 
     /**
@@ -118,22 +1526,117 @@ public class WebServer {
      * @param unused unused input arguments
      */
     public static void main(final String[] unused) {
+        Vertx vertx = start(DEFAULT_SERVER_PORT, SNAPSHOT_FILE, null);
+
+        /*
+         * Ensure that the server is closed when we exit, to avoid port collisions.
+         */
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                vertx.close();
+            }
+        });
 
+        System.out.println("Starting web server on localhost:" + DEFAULT_SERVER_PORT);
+        System.out.println("If you get a message about an address already in use, please shut\n"
+                + "down other running instances of this web server.");
+    }
+
+    /**
+     * Start the web server on a new Vert.x instance.
+     * <p>
+     * Used by main, and by the load generator to run the server in the same process.
+     *
+     * @param port the port to listen on
+     * @param snapshotFile where to keep board snapshots, or null to keep none
+     * @param listening called once the server is listening or has failed to, or null
+     * @return the Vert.x instance running the server, to close when done
+     */
+    static Vertx start(final int port, final Path snapshotFile,
+            final Handler<AsyncResult<HttpServer>> listening) {
+
+        accessLog = new AsyncLog(LOG_DIRECTORY.resolve("access.log"), LOG_BUFFER_ENTRIES,
+                LOG_FILE_BYTES, LOG_FILES);
+        errorLog = new AsyncLog(LOG_DIRECTORY.resolve("error.log"), LOG_BUFFER_ENTRIES,
+                LOG_FILE_BYTES, LOG_FILES);
+        METRICS.watchLog("access", accessLog);
+        METRICS.watchLog("error", errorLog);
+
+        if (snapshotFile != null) {
+            restoreSnapshot(snapshotFile);
+            restoreLeaderboard(snapshotFile);
+        }
         Vertx vertx = Vertx.vertx();
+        METRICS.gauge("connectn_requests_in_flight", "Requests admitted and not yet answered.",
+                IN_FLIGHT::get);
+        METRICS.gauge("connectn_requests_in_flight_limit",
+                "Requests in flight at which new ones are turned away.", () -> MAX_IN_FLIGHT);
+
+        AtomicInteger searchThreads = new AtomicInteger();
+        searchPool = new ThreadPoolExecutor(SEARCH_THREADS, SEARCH_THREADS, 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(SEARCH_QUEUE), runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "search-worker-" + searchThreads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        ThreadPoolExecutor searches = searchPool;
+        METRICS.gauge("connectn_searches_running", "Computer-move searches running.",
+                searches::getActiveCount);
+        METRICS.gauge("connectn_searches_queued", "Computer-move searches waiting for a thread.",
+                () -> searches.getQueue().size());
+        METRICS.gauge("connectn_analysis_cache_entries", "Position analyses cached.",
+                analysisCache::size);
+        METRICS.gauge("connectn_leaderboard_players", "Players with a recorded game.",
+                () -> leaderboard.size());
+        METRICS.gauge("connectn_leaderboard_games", "Finished games on the leaderboard.",
+                () -> leaderboard.getGames());
+        METRICS.gauge("connectn_boards_parked", "Idle boards packed outside the heap.",
+                idleBoards::size);
+        METRICS.gauge("connectn_board_slab_bytes",
+                "Memory outside the heap set aside for parked boards.",
+                idleBoards::getReservedBytes);
+        METRICS.gauge("connectn_match_waiting", "Players waiting for an opponent.",
+                () -> matchmaker.getWaiting());
+
+        if (searchTable == null) {
+            searchTable = new TranspositionTable(
+                    Long.getLong("connectn.tt.mb", DEFAULT_TABLE_MB) * MEGABYTE);
+        }
+        TranspositionTable table = searchTable;
+        METRICS.gauge("connectn_search_table_entries", "Search results the shared table holds.",
+                table::getCapacity);
+        METRICS.gauge("connectn_search_table_probes", "Lookups in the shared search table.",
+                table::getProbes);
+        METRICS.gauge("connectn_search_table_hits",
+                "Lookups in the shared search table that found their position.", table::getHits);
+        if (clientLimiter != null) {
+            RateLimiter<String> clients = clientLimiter;
+            RateLimiter<Integer> boards = boardLimiter;
+            METRICS.gauge("connectn_rate_limited_clients",
+                    "Client addresses with a rate-limit bucket in use.", clients::size);
+            METRICS.gauge("connectn_rate_limited_boards",
+                    "Boards with a rate-limit bucket in use.", boards::size);
+        }
 
         /*
          * Set up routes to our static assets: index.html, index.js, and index.css. We use a single
          * route here for all GET requests. In a more complex web server this would probably not be
-         * appropriate, but in this simple case it works fine.
+         * appropriate, but in this simple case it works fine. Metrics for Prometheus are served
+         * at /metrics, and the leaderboard at /leaderboard, ahead of the static assets.
          */
         Router router = Router.router(vertx);
+        router.route(HttpMethod.GET, "/metrics").handler(WebServer::handleMetrics);
+        router.route(HttpMethod.GET, "/leaderboard").handler(WebServer::handleLeaderboard);
         router.route().method(HttpMethod.GET).handler(StaticHandler.create());
 
         /*
-         * The BodyHandler ensures that we can retrieve JSON data from our request body. We send all
+         * Action requests are admitted or turned away before their bodies are read. The
+         * BodyHandler ensures that we can retrieve JSON data from our request body. We send all
          * POST requests to the handler defined above. Again, in a more complex server you would
          * want to do something more sophisticated.
          */
+        router.route(HttpMethod.POST, "/:action").handler(WebServer::admit);
         router.route().method(HttpMethod.POST).handler(BodyHandler.create());
         router.route(HttpMethod.POST, "/:action").handler(WebServer::handleAction);
 
@@ -146,21 +1649,36 @@ public class WebServer {
 
         HttpServer server = vertx.createHttpServer();
 
+        server.requestHandler(router::accept);
+
         /*
-         * Ensure that the server is closed when we exit, to avoid port collisions.
+         * Start the server and its timers from one event loop context. Requests are then handled
+         * on that context's thread, and so are the timers that read and change boardMap and the
+         * parked boards, so none of them sees another's changes half made. Timers set from main
+         * instead would each get an event loop of their own.
          */
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            public void run() {
-                vertx.close();
+        Context context = vertx.getOrCreateContext();
+        context.runOnContext(unused -> {
+            METRICS.monitorEventLoop(vertx);
+            vertx.setPeriodic(IDLE_SWEEP_MS, timerID -> parkIdleBoards());
+            vertx.setPeriodic(MATCH_SWEEP_MS, timerID -> matchmaker.sweep());
+            if (snapshotFile != null) {
+                scheduleSnapshots(vertx, snapshotFile);
+            }
+            if (clientLimiter != null) {
+                RateLimiter<String> clients = clientLimiter;
+                RateLimiter<Integer> boards = boardLimiter;
+                vertx.setPeriodic(LIMITER_SWEEP_MS, timerID -> {
+                    clients.sweep();
+                    boards.sweep();
+                });
+            }
+            if (listening != null) {
+                server.listen(port, listening);
+            } else {
+                server.listen(port);
             }
         });
-
-        /*
-         * Start the server.
-         */
-        System.out.println("Starting web server on localhost:" + DEFAULT_SERVER_PORT);
-        System.out.println("If you get a message about an address already in use, please shut\n"
-                + "down other running instances of this web server.");
-        server.requestHandler(router::accept).listen(DEFAULT_SERVER_PORT);
+        return vertx;
     }
 }
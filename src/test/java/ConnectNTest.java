@@ -1,4 +1,23 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -14,9 +33,12 @@ import org.testng.annotations.Test;
 @SuppressWarnings("checkstyle:magicnumber")
 public class ConnectNTest {
 
-    /** Timeout for all tests. These should be quite quick. */
+    /** Timeout for most tests. These should be quite quick. */
     private static final int TEST_TIMEOUT = 100;
 
+    /** Timeout for tests that start threads and use files, which take longer the first time. */
+    private static final int IO_TEST_TIMEOUT = 1000;
+
     /**
      * Test getting and setting the title.
      */
@@ -704,6 +726,1640 @@ public class ConnectNTest {
         Assert.assertTrue(board.setBoardAt(chuchu, 6, 0));
     }
 
+    /**
+     * Test that players alternate once two of them have moved.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testTurnOrder() {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+
+        ConnectN board = new ConnectN(8, 8, 4);
+        Assert.assertEquals(board.whosTurn(), null);
+        Assert.assertTrue(board.setBoardAt(chuchu, 5));
+        Assert.assertEquals(board.whosTurn(), null);
+        Assert.assertTrue(board.setBoardAt(xyz, 2));
+        Assert.assertEquals(board.whosTurn(), "Chuchu");
+        Assert.assertFalse(board.setBoardAt(xyz, 2), "Xyz should have to wait");
+        Assert.assertTrue(board.setBoardAt(chuchu, 0));
+        Assert.assertEquals(board.whosTurn(), "Xyz");
+        Assert.assertFalse(board.setBoardAt(chuchu, 0), "Chuchu should have to wait");
+    }
+
+    /**
+     * Test taking back and replaying moves.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testUndoRedo() {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+
+        ConnectN board = new ConnectN(8, 8, 4);
+        Assert.assertFalse(board.undo(), "Nothing to undo on an empty board");
+        Assert.assertFalse(board.redo(), "Nothing to redo on an empty board");
+        long emptyHash = board.getPositionHash();
+
+        Assert.assertTrue(board.setBoardAt(chuchu, 0));
+        Assert.assertTrue(board.setBoardAt(xyz, 1));
+        long twoMoves = board.getPositionHash();
+        String twoMovesTurn = board.whosTurn();
+        Assert.assertTrue(board.setBoardAt(chuchu, 1));
+        Assert.assertEquals(board.getMoveCount(), 3);
+
+        Assert.assertTrue(board.undo());
+        Assert.assertEquals(board.getMoveCount(), 2);
+        Assert.assertEquals(board.getRedoCount(), 1);
+        Assert.assertEquals(board.getBoardAt(1, 1), null);
+        Assert.assertEquals(board.getPositionHash(), twoMoves);
+        Assert.assertEquals(board.whosTurn(), twoMovesTurn);
+        Assert.assertTrue(board.redo());
+        Assert.assertEquals(board.getBoardAt(1, 1), chuchu);
+        Assert.assertFalse(board.redo());
+
+        Assert.assertTrue(board.undo());
+        Assert.assertTrue(board.undo());
+        Assert.assertTrue(board.undo());
+        Assert.assertFalse(board.gameStarted());
+        Assert.assertEquals(board.getPositionHash(), emptyHash);
+        Assert.assertTrue(board.setWidth(10), "Dimensions can change once all moves are undone");
+
+        /*
+         * A new move discards anything that could have been redone.
+         */
+        board = new ConnectN(8, 8, 4);
+        Assert.assertTrue(board.setBoardAt(chuchu, 0));
+        Assert.assertTrue(board.undo());
+        Assert.assertTrue(board.setBoardAt(chuchu, 3));
+        Assert.assertEquals(board.getRedoCount(), 0);
+        Assert.assertFalse(board.redo());
+        Assert.assertEquals(board.getMoveAt(0), 3);
+
+        /*
+         * Taking back a winning move reopens the game.
+         */
+        board = new ConnectN(8, 8, 4);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(board.setBoardAt(chuchu, i));
+        }
+        Assert.assertTrue(board.hasWinner());
+        Assert.assertFalse(board.placeTile(xyz, 5), "No tiles go in once the game is won");
+        Assert.assertEquals(board.getMoveCount(), 4);
+        Assert.assertTrue(board.hasWinner());
+        Assert.assertTrue(board.undo());
+        Assert.assertFalse(board.hasWinner());
+        Assert.assertFalse(board.gameEnded());
+        Assert.assertTrue(board.redo());
+        Assert.assertTrue(board.hasWinner());
+    }
+
+    /**
+     * Test the legal, winning and blocking column masks.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testColumnMasks() {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+
+        ConnectN board = new ConnectN(6, 6, 4);
+        Assert.assertEquals(board.legalColumns(), 0b111111);
+        Assert.assertEquals(board.winningColumns(chuchu), 0);
+        Assert.assertEquals(board.blockingColumns(chuchu), 0);
+
+        /*
+         * Chuchu has three in a row on the bottom, open at both ends, and Xyz has three stacked
+         * in column 5.
+         */
+        for (int x = 1; x < 4; x++) {
+            Assert.assertTrue(board.setBoardAt(chuchu, x));
+            Assert.assertTrue(board.setBoardAt(xyz, 5));
+        }
+        Assert.assertEquals(board.winningColumns(chuchu), 0b010001);
+        Assert.assertEquals(board.blockingColumns(chuchu), 0b100000);
+        Assert.assertEquals(board.winningColumns(xyz), 0b100000);
+        Assert.assertEquals(board.blockingColumns(xyz), 0b010001);
+
+        Assert.assertTrue(board.setBoardAt(chuchu, 0));
+        Assert.assertEquals(board.legalColumns(), 0, "No moves once the game is won");
+        Assert.assertEquals(board.winningColumns(xyz), 0);
+        Assert.assertTrue(board.undo());
+        Assert.assertEquals(board.winningColumns(chuchu), 0b010001);
+
+        board = new ConnectN(6, 6, 4);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(board.setBoardAt(chuchu, 2));
+            Assert.assertTrue(board.setBoardAt(xyz, 2));
+        }
+        Assert.assertEquals(board.legalColumns(), 0b111011, "Full columns are not legal");
+        Assert.assertTrue(board.undo());
+        Assert.assertEquals(board.legalColumns(), 0b111111);
+    }
+
+    /**
+     * Test that a position and its mirror image share a canonical hash.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testCanonicalHash() {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+
+        ConnectN board = new ConnectN(7, 6, 4);
+        ConnectN mirror = new ConnectN(7, 6, 4);
+        Assert.assertEquals(board.getCanonicalHash(), mirror.getCanonicalHash());
+        int[] moves = {0, 3, 1, 1, 5};
+        for (int i = 0; i < moves.length; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(board.setBoardAt(mover, moves[i]));
+            Assert.assertTrue(mirror.setBoardAt(mover, 6 - moves[i]));
+            Assert.assertEquals(board.getCanonicalHash(), mirror.getCanonicalHash());
+        }
+        Assert.assertNotEquals(board.getPositionHash(), mirror.getPositionHash());
+        Assert.assertNotEquals(board.isCanonicalMirror(), mirror.isCanonicalMirror());
+        for (int x = 0; x < 7; x++) {
+            Assert.assertEquals(board.canonicalColumn(x), mirror.canonicalColumn(6 - x));
+            Assert.assertEquals(board.canonicalColumn(board.canonicalColumn(x)), x);
+        }
+
+        long canonical = board.getCanonicalHash();
+        Assert.assertTrue(board.setBoardAt(xyz, 2));
+        Assert.assertTrue(board.undo());
+        Assert.assertEquals(board.getCanonicalHash(), canonical);
+
+        ConnectN symmetric = new ConnectN(7, 6, 4);
+        Assert.assertTrue(symmetric.setBoardAt(chuchu, 3));
+        Assert.assertEquals(symmetric.getCanonicalHash(), symmetric.getPositionHash());
+        Assert.assertFalse(symmetric.isCanonicalMirror());
+        Assert.assertEquals(symmetric.canonicalColumn(2), 2);
+    }
+
+    /**
+     * Test clearing boards in place and reusing them through the pool.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testResetAndPool() {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+
+        ConnectN board = new ConnectN(8, 8, 4);
+        int id = board.getID();
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(board.setBoardAt(chuchu, 0));
+        }
+        Assert.assertTrue(board.gameEnded());
+        board.reset();
+        Assert.assertEquals(board.getID(), id);
+        Assert.assertFalse(board.gameStarted());
+        Assert.assertFalse(board.hasWinner());
+        Assert.assertEquals(board.getBoardAt(0, 0), null);
+        Assert.assertEquals(board.getPositionHash(), new ConnectN(8, 8, 4).getPositionHash());
+        Assert.assertFalse(board.redo());
+        Assert.assertTrue(board.setBoardAt(xyz, 0));
+        Assert.assertEquals(board.getBoardAt(0, 0), xyz);
+
+        BoardPool pool = new BoardPool(2);
+        Assert.assertTrue(pool.release(board));
+        Assert.assertEquals(pool.available(8, 8, 4), 1);
+        ConnectN reused = pool.acquire(8, 8, 4);
+        Assert.assertTrue(reused == board, "Released boards should be reused");
+        Assert.assertNotEquals(reused.getID(), id, "Reused boards should get a new ID");
+        Assert.assertFalse(reused.gameStarted());
+        Assert.assertEquals(pool.available(8, 8, 4), 0);
+
+        Assert.assertTrue(pool.release(new ConnectN(8, 8, 4)));
+        Assert.assertTrue(pool.release(new ConnectN(8, 8, 4)));
+        Assert.assertFalse(pool.release(new ConnectN(8, 8, 4)), "Pool should be bounded");
+        Assert.assertFalse(pool.release(new ConnectN(4, 8, 4)), "Invalid boards are not pooled");
+        Assert.assertEquals(pool.acquire(10, 6, 5).getWidth(), 10);
+    }
+
+    /**
+     * Test games for more than two players.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testMultiplayer() {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+        Player geoffrey = new Player("Geoffrey");
+        Player extra = new Player("Extra");
+
+        ConnectN board = new ConnectN(8, 8, 4);
+        Assert.assertEquals(board.getPlayers(), 2);
+        Assert.assertFalse(board.setPlayers(1));
+        Assert.assertFalse(board.setPlayers(ConnectN.MAX_PLAYERS + 1));
+        Assert.assertTrue(board.setPlayers(3));
+
+        Assert.assertTrue(board.setBoardAt(chuchu, 0));
+        Assert.assertTrue(board.setBoardAt(xyz, 1));
+        Assert.assertNull(board.whosTurn(), "No turns until every seat is taken");
+        Assert.assertTrue(board.setBoardAt(geoffrey, 2));
+        Assert.assertFalse(board.setPlayers(2), "Players are fixed once the game starts");
+        Assert.assertEquals(board.whosTurn(), "Chuchu");
+        Assert.assertFalse(board.setBoardAt(extra, 3), "Every seat is taken");
+        Assert.assertFalse(board.setBoardAt(xyz, 3), "Not Xyz's turn");
+
+        for (int i = 0; i < 2; i++) {
+            Assert.assertTrue(board.setBoardAt(chuchu, 0));
+            Assert.assertTrue(board.setBoardAt(xyz, 1));
+            Assert.assertTrue(board.setBoardAt(geoffrey, 2));
+        }
+        Assert.assertEquals(board.getBoardAt(2, 2), geoffrey);
+        Assert.assertEquals(board.getBoard()[1][2], xyz);
+        Assert.assertEquals(board.winningColumns(chuchu), 0b1);
+        Assert.assertEquals(board.blockingColumns(chuchu), 0b110);
+        Assert.assertTrue(board.setBoardAt(chuchu, 0));
+        Assert.assertTrue(board.hasWinner());
+        Assert.assertEquals(board.getWinner(), chuchu);
+
+        Assert.assertTrue(board.undo());
+        Assert.assertTrue(board.undo());
+        Assert.assertEquals(board.whosTurn(), "Geoffrey");
+        Assert.assertTrue(board.redo());
+        Assert.assertTrue(board.redo());
+        Assert.assertTrue(board.hasWinner());
+
+        ConnectN copy = board.copyPosition();
+        Assert.assertEquals(copy.getPlayers(), 3);
+        Assert.assertTrue(ConnectN.compareBoards(board, copy));
+        Assert.assertEquals(copy.getPositionHash(), board.getPositionHash());
+    }
+
+    /**
+     * Test parking boards in off-heap slabs and taking them back out.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testBoardSlabs() {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+
+        BoardSlabs slabs = new BoardSlabs(new BoardPool(2));
+        ConnectN board = new ConnectN(7, 6, 4);
+        int[] moves = {3, 3, 4, 2, 5, 6};
+        for (int i = 0; i < moves.length; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(board.setBoardAt(mover, moves[i]));
+        }
+        Assert.assertTrue(board.undo());
+        long hash = board.getPositionHash();
+        int games = ConnectN.getTotalGames();
+
+        Assert.assertTrue(slabs.park(board));
+        Assert.assertEquals(board.getRedoCount(), 1, "Parking leaves the board as it was");
+        Assert.assertFalse(slabs.park(board), "A board is only parked once");
+        Assert.assertTrue(slabs.contains(board.getID()));
+        Assert.assertEquals(slabs.size(), 1);
+
+        ConnectN restored = slabs.take(board.getID());
+        Assert.assertEquals(restored.getID(), board.getID());
+        Assert.assertEquals(restored.getPositionHash(), hash);
+        Assert.assertEquals(restored.getBoardAt(3, 1), xyz);
+        Assert.assertEquals(restored.whosTurn(), "Xyz");
+        Assert.assertEquals(restored.getRedoCount(), 1);
+        Assert.assertTrue(restored.redo());
+        Assert.assertEquals(restored.getMoveAt(5), 6);
+        Assert.assertEquals(ConnectN.getTotalGames(), games, "Parked boards are not new games");
+        Assert.assertEquals(slabs.size(), 0);
+        Assert.assertNull(slabs.take(board.getID()));
+
+        restored.title = "Titled";
+        Assert.assertFalse(slabs.park(restored), "Titled boards do not fit");
+        ConnectN longName = new ConnectN(7, 6, 4);
+        Player longPlayer = new Player("A name that is far too long for a slab");
+        Assert.assertTrue(longName.setBoardAt(longPlayer, 0));
+        Assert.assertFalse(slabs.park(longName), "Long names do not fit");
+
+        for (int i = 0; i < 800; i++) {
+            ConnectN many = new ConnectN(6, 6, 4);
+            Assert.assertTrue(many.setBoardAt(chuchu, i % 6));
+            Assert.assertTrue(slabs.park(many));
+            if (i % 4 == 0) {
+                Assert.assertTrue(slabs.discard(many.getID()));
+            }
+        }
+        Assert.assertEquals(slabs.size(), 600);
+        int[] parked = new int[1];
+        slabs.forEach(many -> {
+            Assert.assertEquals(many.getBoardAt(many.getMoveAt(0), 0), chuchu);
+            parked[0]++;
+        });
+        Assert.assertEquals(parked[0], 600);
+
+        BoardSlabs copy = new BoardSlabs(new BoardPool(2));
+        copy.load(slabs.copySlabs());
+        Assert.assertEquals(copy.size(), 600, "Copies skip freed slabs");
+        Assert.assertEquals(slabs.size(), 600, "Copying leaves boards parked");
+        try {
+            copy.load(slabs.copySlabs());
+            Assert.fail("A board is only parked once");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(copy.size(), 600);
+        }
+    }
+
+    /**
+     * Test that a won board restored from a snapshot or a slab does not credit the win again.
+     *
+     * @throws IOException never, since the snapshot is kept in memory
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testRestoredWin() throws IOException {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+        ConnectN board = new ConnectN(7, 6, 4);
+        for (int i = 0; i < 7; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(board.setBoardAt(mover, i % 2));
+        }
+        Assert.assertEquals(board.getWinner(), chuchu);
+        Assert.assertEquals(chuchu.getScore(), 1);
+
+        byte[] image = BoardSnapshot.capture(Arrays.asList(board)).encode();
+        ConnectN restored = BoardSnapshot.decode(image, new BoardSlabs(new BoardPool(2)))
+                .get(board.getID());
+        Player winner = restored.getWinner();
+        Assert.assertEquals(winner, chuchu);
+        Assert.assertEquals(winner.getScore(), 1);
+        Assert.assertTrue(restored.undo());
+        Assert.assertNull(restored.getWinner());
+        Assert.assertTrue(restored.setBoardAt(winner, 0));
+        Assert.assertEquals(restored.getWinner(), winner);
+        Assert.assertEquals(winner.getScore(), 1, "A restored win is not credited again");
+
+        BoardSlabs slabs = new BoardSlabs(new BoardPool(2));
+        Assert.assertTrue(slabs.park(board));
+        ConnectN unparked = slabs.take(board.getID());
+        winner = unparked.getWinner();
+        Assert.assertEquals(winner.getScore(), 1);
+        Assert.assertTrue(unparked.undo());
+        Assert.assertTrue(unparked.setBoardAt(winner, 0));
+        Assert.assertEquals(winner.getScore(), 1, "An unparked win is not credited again");
+    }
+
+    /**
+     * Test that snapshots bring back live and parked boards and the ID counters, and that other
+     * snapshot versions are refused.
+     *
+     * @throws IOException if the temporary file cannot be used
+     */
+    @Test(priority = 1, timeOut = IO_TEST_TIMEOUT)
+    public void testBoardSnapshot() throws IOException {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+        Player third = new Player("Third");
+        ConnectN live = new ConnectN(8, 7, 5);
+        live.title = "Live";
+        Assert.assertTrue(live.setPlayers(3));
+        Player[] movers = {chuchu, xyz, third};
+        int[] moves = {3, 3, 4, 0, 7, 3};
+        for (int i = 0; i < moves.length; i++) {
+            Assert.assertTrue(live.setBoardAt(movers[i % 3], moves[i]));
+        }
+        ConnectN parked = new ConnectN(7, 6, 4);
+        Assert.assertTrue(parked.setBoardAt(chuchu, 2));
+        Assert.assertTrue(parked.setBoardAt(xyz, 5));
+        BoardSlabs slabs = new BoardSlabs(new BoardPool(2));
+        Assert.assertTrue(slabs.park(parked));
+
+        int games = ConnectN.getTotalGames();
+        int players = Player.getGlobalID();
+        BoardSnapshot snapshot = BoardSnapshot.capture(Arrays.asList(live), slabs);
+        new ConnectN(7, 6, 4);
+        new Player("Later");
+        Assert.assertTrue(slabs.discard(parked.getID()));
+        byte[] image = snapshot.encode();
+
+        /*
+         * Parked boards were copied when the snapshot was captured, and go back into slabs.
+         */
+        BoardSlabs restoredSlabs = new BoardSlabs(new BoardPool(2));
+        Map<Integer, ConnectN> restored = BoardSnapshot.decode(image, restoredSlabs);
+        Assert.assertEquals(ConnectN.getTotalGames(), games, "The board counter is restored");
+        Assert.assertEquals(Player.getGlobalID(), players, "The player counter is restored");
+        Assert.assertEquals(restored.size(), 1);
+        Assert.assertEquals(restoredSlabs.size(), 1);
+        ConnectN back = restored.get(live.getID());
+        Assert.assertEquals(back.title, "Live");
+        Assert.assertEquals(back.getPlayers(), 3);
+        Assert.assertEquals(back.getPositionHash(), live.getPositionHash());
+        Assert.assertEquals(back.getMoveCount(), moves.length);
+        Assert.assertEquals(back.getBoardAt(3, 2), third);
+        Assert.assertEquals(back.whosTurn(), "Chuchu");
+        Assert.assertTrue(back.undo(), "Move order is kept, so undo works");
+        Assert.assertNull(back.getBoardAt(3, 2));
+        back = restoredSlabs.take(parked.getID());
+        Assert.assertEquals(back.getPositionHash(), parked.getPositionHash());
+        Assert.assertEquals(back.getBoardAt(5, 0), xyz);
+
+        /*
+         * Writing to a file gives the same image. A board that is already parked, or a slab that
+         * does not hold a board, is refused without parking anything.
+         */
+        Path file = Files.createTempFile("boards", ".snapshot");
+        snapshot.write(file);
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(file), image));
+        Assert.assertEquals(BoardSnapshot.read(file, restoredSlabs).size(), 1);
+        Files.delete(file);
+        try {
+            BoardSnapshot.decode(image, restoredSlabs);
+            Assert.fail("A parked board is only parked once");
+        } catch (IOException e) {
+            Assert.assertEquals(restoredSlabs.size(), 1);
+        }
+        byte[] corrupt = Arrays.copyOf(image, image.length);
+        corrupt[image.length - 1] = 15;
+        try {
+            BoardSnapshot.decode(corrupt, new BoardSlabs(new BoardPool(2)));
+            Assert.fail("A slab that does not hold a board is refused");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("parked"));
+        }
+
+        byte[] unknown = Arrays.copyOf(image, image.length);
+        unknown[7] = 9;
+        try {
+            BoardSnapshot.decode(unknown, new BoardSlabs(new BoardPool(2)));
+            Assert.fail("Unknown versions are refused");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("version 9"));
+        }
+    }
+
+    /**
+     * Test scanning the whole board for runs.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testFindWinner() {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+
+        ConnectN board = new ConnectN(7, 6, 4);
+        Assert.assertNull(board.findWinner());
+        int[] moves = {6, 5, 5, 4, 4, 3, 4, 3, 3, 0, 3};
+        for (int i = 0; i < moves.length; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(board.setBoardAt(mover, moves[i]));
+            Assert.assertEquals(board.findWinner(true), board.findWinner(false));
+        }
+        Assert.assertTrue(board.hasWinner());
+        Assert.assertEquals(board.findWinner(), chuchu);
+        Assert.assertEquals(board.leftDia(), chuchu);
+        Assert.assertNull(board.rightDia());
+
+        /*
+         * Runs of four are not enough when N is five.
+         */
+        board = new ConnectN(8, 8, 5);
+        int[] mirrored = {0, 1, 1, 2, 2, 3, 2, 3, 3, 7, 3};
+        for (int i = 0; i < mirrored.length; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(board.setBoardAt(mover, mirrored[i]));
+        }
+        Assert.assertFalse(board.hasWinner());
+        Assert.assertNull(board.rightDia());
+        Assert.assertNull(board.findWinner(true));
+        Assert.assertNull(board.findWinner(false));
+        Assert.assertTrue(board.setBoardAt(xyz, 7));
+        Assert.assertTrue(board.setBoardAt(chuchu, 4));
+        Assert.assertTrue(board.setBoardAt(xyz, 4));
+        Assert.assertTrue(board.setBoardAt(chuchu, 4));
+        Assert.assertTrue(board.setBoardAt(xyz, 4));
+        Assert.assertTrue(board.setBoardAt(chuchu, 4));
+        Assert.assertEquals(board.rightDia(), chuchu);
+        Assert.assertEquals(board.findWinner(false), chuchu);
+    }
+
+    /**
+     * Test writing games to the record format, reading them back and replaying them.
+     *
+     * @throws IOException if the in-memory streams fail
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testGameRecords() throws IOException {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz \u00e9\u00e9");
+
+        ConnectN won = new ConnectN(7, 6, 4);
+        won.title = "Won";
+        int[] moves = {3, 3, 4, 4, 5, 6, 1, 1};
+        for (int i = 0; i < moves.length; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(won.setBoardAt(mover, moves[i]));
+        }
+        Assert.assertFalse(won.hasWinner());
+        Assert.assertTrue(won.setBoardAt(chuchu, 2));
+        Assert.assertTrue(won.hasWinner());
+        ConnectN empty = new ConnectN(16, 16, 6);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GameRecordWriter writer = new GameRecordWriter(bytes)) {
+            writer.write(won);
+            writer.write(empty);
+            Assert.assertEquals(writer.getRecords(), 2);
+        }
+        byte[] file = bytes.toByteArray();
+        Assert.assertTrue(file.length < 60, "Records should be compact, not " + file.length);
+
+        try (GameRecordReader reader = new GameRecordReader(new ByteArrayInputStream(file))) {
+            GameRecord record = reader.read();
+            Assert.assertEquals(record, GameRecord.of(won));
+            Assert.assertEquals(record.getID(), won.getID());
+            Assert.assertEquals(record.getSeatCount(), 2);
+            Assert.assertEquals(record.getPlayerName(1), xyz.getName());
+            Assert.assertEquals(record.getPlayerID(0), chuchu.getID());
+            Assert.assertEquals(record.getMoveCount(), 9);
+            Assert.assertEquals(record.getColumn(8), 2);
+            Assert.assertEquals(record.getSeat(7), 1);
+
+            int games = ConnectN.getTotalGames();
+            ConnectN replayed = record.replay();
+            Assert.assertEquals(ConnectN.getTotalGames(), games, "Replays are not new games");
+            Assert.assertTrue(ConnectN.compareBoards(won, replayed));
+            Assert.assertEquals(replayed.getPositionHash(), won.getPositionHash());
+            Assert.assertTrue(replayed.hasWinner());
+            Assert.assertEquals(replayed.findWinner(), chuchu);
+
+            GameRecord blank = reader.read();
+            Assert.assertEquals(blank.getWidth(), 16);
+            Assert.assertEquals(blank.getMoveCount(), 0);
+            Assert.assertNull(reader.read());
+            Assert.assertEquals(reader.getRecords(), 2);
+        }
+
+        /*
+         * Damaged files fail at the damaged record.
+         */
+        try (GameRecordReader reader = new GameRecordReader(
+                new ByteArrayInputStream(Arrays.copyOf(file, file.length - 1)))) {
+            Assert.assertNotNull(reader.read());
+            reader.read();
+            Assert.fail("A cut short record should not be read");
+        } catch (EOFException e) {
+            Assert.assertTrue(e.getMessage().contains("cut short"));
+        }
+        byte[] damaged = file.clone();
+        damaged[0] = 0;
+        try {
+            new GameRecordReader(new ByteArrayInputStream(damaged)).close();
+            Assert.fail("A file without the header should not be read");
+        } catch (IOException e) {
+            Assert.assertEquals(e.getMessage(), "Not a game record file");
+        }
+    }
+
+    /**
+     * Test statistics over an archive, and picking them up again as the archive grows.
+     *
+     * @throws IOException if the temporary files cannot be used
+     */
+    @Test(priority = 1, timeOut = IO_TEST_TIMEOUT)
+    public void testArchiveAnalytics() throws IOException {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+        Path archive = Files.createTempFile("games", ".cnr");
+        Path checkpoint = Files.createTempFile("games", ".checkpoint");
+        Files.delete(archive);
+        Files.delete(checkpoint);
+
+        ConnectN column = new ConnectN(7, 6, 4);
+        for (int i = 0; i < 7; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(column.setBoardAt(mover, i % 2));
+        }
+        ConnectN row = new ConnectN(7, 6, 4);
+        int[] moves = {6, 0, 6, 1, 5, 2, 5, 3};
+        for (int i = 0; i < moves.length; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(row.setBoardAt(mover, moves[i]));
+        }
+        Assert.assertEquals(row.findWinner(), xyz);
+        try (GameRecordWriter writer = GameRecordWriter.append(archive)) {
+            writer.write(column);
+            writer.write(row);
+        }
+
+        ArchiveAnalytics job = new ArchiveAnalytics(archive, checkpoint, 2);
+        try {
+            Assert.assertEquals(job.pass(), 2);
+            Assert.assertEquals(job.pass(), 0, "Games are only added once");
+        } finally {
+            job.shutdown();
+        }
+        long[] totals = job.getTotals().getTotals(7, 6, 4);
+        Assert.assertEquals(totals[ArchiveStats.GAMES], 2);
+        Assert.assertEquals(totals[ArchiveStats.FIRST_MOVER_WINS], 1);
+        Assert.assertEquals(totals[ArchiveStats.OTHER_WINS], 1);
+        Assert.assertEquals(totals[ArchiveStats.COLUMN_WINS], 1);
+        Assert.assertEquals(totals[ArchiveStats.ROW_WINS], 1);
+        Assert.assertEquals(totals[ArchiveStats.MOVES], 15);
+        long[][] openings = job.getTotals().getOpenings(7, 6, 4);
+        Assert.assertEquals(openings[0][ArchiveStats.FIRST_MOVER_WINS], 1);
+        Assert.assertEquals(openings[6][ArchiveStats.OTHER_WINS], 1);
+
+        /*
+         * A last move that completes a row and a column at once is counted as one row win.
+         */
+        ConnectN both = new ConnectN(7, 6, 4);
+        moves = new int[] {0, 3, 1, 3, 2, 3, 2, 0, 0, 1, 1, 0, 2, 1, 5, 2, 6, 3};
+        for (int i = 0; i < moves.length; i++) {
+            Player mover = xyz;
+            if (i % 2 == 1) {
+                mover = chuchu;
+            }
+            Assert.assertTrue(both.setBoardAt(mover, moves[i]));
+        }
+        Assert.assertEquals(both.findWinner(), chuchu);
+        ArchiveStats single = new ArchiveStats();
+        single.add(GameRecord.of(both));
+        long[] lines = single.getTotals(7, 6, 4);
+        Assert.assertEquals(lines[ArchiveStats.OTHER_WINS], 1);
+        Assert.assertEquals(lines[ArchiveStats.ROW_WINS], 1);
+        Assert.assertEquals(lines[ArchiveStats.COLUMN_WINS], 0);
+
+        /*
+         * A new run starts from the checkpoint and only reads games added since.
+         */
+        ConnectN unfinished = new ConnectN(8, 8, 5);
+        Assert.assertTrue(unfinished.setBoardAt(chuchu, 3));
+        try (GameRecordWriter writer = GameRecordWriter.append(archive)) {
+            writer.write(unfinished);
+        }
+        job = new ArchiveAnalytics(archive, checkpoint, 1);
+        try {
+            Assert.assertEquals(job.getTotals().getGames(), 2);
+            Assert.assertEquals(job.pass(), 1);
+        } finally {
+            job.shutdown();
+        }
+        Assert.assertEquals(job.getTotals().getGames(), 3);
+        Assert.assertEquals(job.getTotals().getTotals(8, 8, 5)[ArchiveStats.UNFINISHED], 1);
+        Assert.assertEquals(job.getTotals().getConfigurations().size(), 2);
+        Assert.assertEquals(job.getOffset(), Files.size(archive));
+
+        Files.delete(archive);
+        Files.delete(checkpoint);
+    }
+
+    /**
+     * Test that the leaderboard records each game once and ranks players by wins.
+     *
+     * @throws Exception if a worker thread fails or a leaderboard cannot be saved and read back
+     */
+    @Test(priority = 1, timeOut = IO_TEST_TIMEOUT)
+    public void testLeaderboard() throws Exception {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+        Leaderboard leaderboard = new Leaderboard();
+
+        /*
+         * The winner's score goes up once, however often the winner is asked for.
+         */
+        ConnectN board = new ConnectN(7, 6, 4);
+        Assert.assertFalse(leaderboard.record(board), "Unfinished games are not recorded");
+        for (int i = 0; i < 7; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(board.setBoardAt(mover, i % 2));
+        }
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(board.getWinner(), chuchu);
+        }
+        Assert.assertEquals(chuchu.getScore(), 1);
+        Assert.assertTrue(board.undo());
+        Assert.assertTrue(board.redo());
+        Assert.assertEquals(chuchu.getScore(), 1);
+
+        Assert.assertTrue(leaderboard.record(board));
+        Assert.assertFalse(leaderboard.record(board), "Each game counts once");
+        Assert.assertTrue(leaderboard.hasRecorded(board.getID()));
+        Assert.assertEquals(leaderboard.getGames(), 1);
+        Assert.assertEquals(leaderboard.size(), 2);
+        Assert.assertEquals(leaderboard.getPlayer(chuchu.getID()).getScore(), 1);
+        Assert.assertEquals(leaderboard.getPlayer(xyz.getID()).getScore(), 0);
+        Assert.assertEquals(leaderboard.getRank(chuchu.getID()), 1);
+        Assert.assertEquals(leaderboard.getRank(xyz.getID()), 2);
+        Assert.assertEquals(leaderboard.getRank(-5), -1);
+        Assert.assertNull(leaderboard.getPlayer(-5));
+        Assert.assertEquals(leaderboard.getTop(5).get(0).getName(), "Chuchu");
+
+        /*
+         * Ranks and the top list agree with a count over every player, ties sharing a rank.
+         */
+        Random random = new Random(48);
+        Player[] field = new Player[200];
+        int[] wins = new int[field.length];
+        for (int i = 0; i < field.length; i++) {
+            field[i] = new Player("Player " + i, 0, 1000 + i);
+        }
+        for (int game = 0; game < 2000; game++) {
+            Player first = field[random.nextInt(field.length)];
+            Player second = field[random.nextInt(field.length)];
+            Player winner = null;
+            if (game % 5 != 0) {
+                winner = first;
+                wins[first.getID() - 1000]++;
+            }
+            Assert.assertTrue(leaderboard.record(100000 + game, new Player[] {first, second},
+                    winner));
+        }
+        for (int i = 0; i < field.length; i++) {
+            if (leaderboard.getPlayer(field[i].getID()) == null) {
+                continue;
+            }
+            int ahead = 0;
+            if (wins[i] < 1) {
+                ahead++;
+            }
+            for (int j = 0; j < field.length; j++) {
+                if (wins[j] > wins[i]) {
+                    ahead++;
+                }
+            }
+            Assert.assertEquals(leaderboard.getPlayer(field[i].getID()).getScore(), wins[i]);
+            Assert.assertEquals(leaderboard.getRank(field[i].getID()), ahead + 1);
+        }
+        List<Player> top = leaderboard.getTop(10);
+        Assert.assertEquals(top.size(), 10);
+        for (int i = 1; i < top.size(); i++) {
+            Assert.assertTrue(top.get(i - 1).getScore() >= top.get(i).getScore());
+            Assert.assertTrue(leaderboard.getRank(top.get(i).getID()) <= i + 1);
+        }
+
+        /*
+         * Threads recording the same games at once count each of them once.
+         */
+        Leaderboard shared = new Leaderboard();
+        Thread[] threads = new Thread[4];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int game = 0; game < 5000; game++) {
+                    Player winner = field[game % field.length];
+                    shared.record(game, new Player[] {winner, field[(game + 1) % field.length]},
+                            winner);
+                }
+            });
+            threads[t].setUncaughtExceptionHandler((thread, e) -> failure[0] = e);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure[0]);
+        Assert.assertEquals(shared.getGames(), 5000);
+        Assert.assertEquals(shared.getPlayer(field[0].getID()).getScore(), 25);
+        Assert.assertEquals(shared.getRank(field[199].getID()), 1);
+
+        /*
+         * A saved leaderboard reads back the same, and still knows which games it has seen.
+         */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            leaderboard.write(out);
+        }
+        Leaderboard restored = Leaderboard.read(
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(restored.size(), leaderboard.size());
+        Assert.assertEquals(restored.getGames(), leaderboard.getGames());
+        List<Player> restoredTop = restored.getTop(20);
+        List<Player> savedTop = leaderboard.getTop(20);
+        for (int i = 0; i < savedTop.size(); i++) {
+            Assert.assertEquals(restoredTop.get(i), savedTop.get(i));
+            Assert.assertEquals(restoredTop.get(i).getName(), savedTop.get(i).getName());
+            Assert.assertEquals(restoredTop.get(i).getScore(), savedTop.get(i).getScore());
+        }
+        for (Player player : field) {
+            Assert.assertEquals(restored.getRank(player.getID()),
+                    leaderboard.getRank(player.getID()));
+        }
+        Assert.assertFalse(restored.record(board));
+        Assert.assertTrue(restored.hasRecorded(100000 + 1999));
+        Assert.assertFalse(restored.hasRecorded(100000 + 2000));
+    }
+
+    /**
+     * Test that the matchmaker pairs players who suit each other, and only them.
+     *
+     * @throws Exception if a worker thread fails
+     */
+    @Test(priority = 1, timeOut = IO_TEST_TIMEOUT)
+    public void testMatchmaker() throws Exception {
+        List<String> pairs = new ArrayList<String>();
+        List<String> expired = new ArrayList<String>();
+        Matchmaker<String> matchmaker = new Matchmaker<String>(50, 10000,
+            (first, second) -> pairs.add(first.getOwner() + "+" + second.getOwner()),
+            ticket -> expired.add(ticket.getOwner()));
+        int any = Matchmaker.ANY_BAND;
+        int unrated = Matchmaker.NO_RATING;
+
+        /*
+         * Players who want the same board and will play anyone are paired as they join.
+         */
+        Matchmaker.Ticket<String> chuchu = matchmaker.join("chuchu", 1, 7, 6, 4, unrated, any);
+        Assert.assertFalse(chuchu.isMatched());
+        Assert.assertFalse(matchmaker.join("chuchu again", 1, 7, 6, 4, unrated, any).isMatched(),
+                "Nobody plays themselves");
+        Assert.assertFalse(matchmaker.join("other board", 2, 8, 8, 4, unrated, any).isMatched());
+        Assert.assertEquals(matchmaker.getWaiting(), 3);
+        Matchmaker.Ticket<String> xyz = matchmaker.join("xyz", 3, 7, 6, 4, unrated, any);
+        Assert.assertTrue(xyz.isMatched());
+        Assert.assertTrue(chuchu.isMatched());
+        Assert.assertEquals(pairs, Arrays.asList("chuchu+xyz"));
+        Assert.assertEquals(xyz.getWidth(), 7);
+        Assert.assertEquals(xyz.getN(), 4);
+        Assert.assertEquals(matchmaker.getWaiting(), 2);
+        Assert.assertFalse(matchmaker.cancel(xyz), "Matched tickets cannot be cancelled");
+
+        /*
+         * Bands keep players apart until they have waited long enough for them to widen.
+         */
+        long start = System.nanoTime();
+        Matchmaker.Ticket<String> low = matchmaker.join("low", 4, 6, 6, 4, 1000, 50);
+        Assert.assertFalse(matchmaker.join("unrated", 5, 6, 6, 4, unrated, any).isMatched(),
+                "A banded player only plays rated players");
+        Matchmaker.Ticket<String> high = matchmaker.join("high", 6, 6, 6, 4, 1120, 200);
+        Assert.assertFalse(high.isMatched());
+        Assert.assertEquals(matchmaker.sweep(start), 0);
+        Assert.assertEquals(matchmaker.sweep(start + 2000000000L), 1);
+        Assert.assertTrue(low.isMatched());
+        Assert.assertTrue(high.isMatched());
+        Assert.assertEquals(pairs.get(1), "low+high");
+
+        /*
+         * Cancelled players are never paired, and players nobody suits give up in the end.
+         */
+        Matchmaker.Ticket<String> eight = matchmaker.join("eight", 7, 8, 8, 4, unrated, any);
+        Assert.assertTrue(eight.isMatched(), "Pairs with the other board player");
+        Matchmaker.Ticket<String> quitter = matchmaker.join("quitter", 8, 9, 9, 5, unrated, any);
+        Assert.assertTrue(matchmaker.cancel(quitter));
+        Assert.assertFalse(matchmaker.cancel(quitter));
+        Assert.assertFalse(matchmaker.join("late", 9, 9, 9, 5, unrated, any).isMatched());
+        Assert.assertEquals(matchmaker.getWaiting(), 3);
+        Assert.assertEquals(matchmaker.sweep(System.nanoTime() + 20000000000L), 0);
+        Assert.assertEquals(matchmaker.getWaiting(), 0);
+        expired.sort(null);
+        Assert.assertEquals(expired, Arrays.asList("chuchu again", "late", "unrated"));
+
+        /*
+         * Players joining from many threads at once are each paired at most once, and a sweep
+         * pairs any who queued without seeing each other.
+         */
+        AtomicIntegerArray matched = new AtomicIntegerArray(10000);
+        Matchmaker<Integer> busy = new Matchmaker<Integer>(0, 10000, (first, second) -> {
+            matched.incrementAndGet(first.getOwner());
+            matched.incrementAndGet(second.getOwner());
+        }, ticket -> Assert.fail("Nobody waits that long"));
+        Thread[] threads = new Thread[4];
+        Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t * 2500;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < offset + 2500; i++) {
+                    busy.join(i, i, 7, 6, 4, unrated, any);
+                }
+            });
+            threads[t].setUncaughtExceptionHandler((thread, e) -> failure[0] = e);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(failure[0]);
+        busy.sweep();
+        Assert.assertEquals(busy.getWaiting(), 0);
+        for (int i = 0; i < matched.length(); i++) {
+            Assert.assertEquals(matched.get(i), 1, "Player " + i);
+        }
+    }
+
+    /**
+     * Test the bucket boundaries, percentiles and counts of the latency histogram.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testLatencyHistogram() {
+        /*
+         * Values below 64 have buckets of their own; above that every power of two is split in
+         * 32, so a bucket is never wider than 1/32 of the values in it.
+         */
+        for (long value = 0; value < 64; value++) {
+            Assert.assertEquals(LatencyHistogram.highestValueIn(LatencyHistogram.bucketFor(value)),
+                    value);
+        }
+        Assert.assertEquals(LatencyHistogram.bucketFor(64), LatencyHistogram.bucketFor(65));
+        Assert.assertEquals(LatencyHistogram.bucketFor(66), LatencyHistogram.bucketFor(65) + 1);
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            int bucket = LatencyHistogram.bucketFor(value);
+            long highest = LatencyHistogram.highestValueIn(bucket);
+            Assert.assertTrue(highest >= value, "Value " + value);
+            Assert.assertTrue(LatencyHistogram.highestValueIn(bucket - 1) < value,
+                    "Value " + value);
+            Assert.assertTrue(highest - value <= value / 32, "Value " + value);
+        }
+        Assert.assertEquals(LatencyHistogram.bucketFor(Long.MAX_VALUE),
+                LatencyHistogram.bucketFor(Long.MAX_VALUE - (Long.MAX_VALUE >>> 6)));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getValueAtPercentile(50), 0);
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-5);
+        Assert.assertEquals(histogram.getCount(), 101);
+        Assert.assertEquals(histogram.getSum(), 5050);
+        Assert.assertEquals(histogram.getMax(), 100);
+        Assert.assertEquals(histogram.getValueAtPercentile(50), 50);
+        Assert.assertEquals(histogram.getValueAtPercentile(99), 99);
+        Assert.assertEquals(histogram.getValueAtPercentile(100), 100, "Capped at the maximum");
+
+        /*
+         * Counts at or below a bound take in whole buckets only, so they never count a value
+         * above the bound: 64 and 65 share a bucket, which only counts once the bound covers it.
+         */
+        Assert.assertEquals(histogram.getCountAtOrBelow(-1), 0);
+        Assert.assertEquals(histogram.getCountAtOrBelow(0), 1);
+        Assert.assertEquals(histogram.getCountAtOrBelow(63), 64);
+        Assert.assertEquals(histogram.getCountAtOrBelow(64), 64);
+        Assert.assertEquals(histogram.getCountAtOrBelow(65), 66);
+        Assert.assertEquals(histogram.getCountAtOrBelow(99), 100);
+        Assert.assertEquals(histogram.getCountAtOrBelow(100), 100);
+        Assert.assertEquals(histogram.getCountAtOrBelow(Long.MAX_VALUE), 101);
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(1L << 40);
+        histogram.add(other);
+        Assert.assertEquals(histogram.getCount(), 102);
+        Assert.assertEquals(histogram.getMax(), 1L << 40);
+        Assert.assertEquals(histogram.getCountAtOrBelow(Long.MAX_VALUE), 102);
+        histogram.reset();
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertEquals(histogram.getCountAtOrBelow(Long.MAX_VALUE), 0);
+    }
+
+    /**
+     * Test the rate limiter's burst, refill, wait and sweep against a clock the test controls.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testRateLimiter() {
+        AtomicLong now = new AtomicLong();
+        long interval = 100_000_000L;
+        RateLimiter<String> limiter = new RateLimiter<String>(10, 3, now::get);
+
+        // A new key takes a full burst at once, then nothing more.
+        Assert.assertEquals(limiter.waitNanos("a"), 0);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(limiter.tryAcquire("a"));
+        }
+        Assert.assertFalse(limiter.tryAcquire("a"));
+        Assert.assertEquals(limiter.waitNanos("a"), interval);
+
+        // Keys have their own buckets.
+        Assert.assertTrue(limiter.tryAcquire("b"));
+        Assert.assertEquals(limiter.size(), 2);
+
+        // Refusals take no token, and one token comes back per interval.
+        now.set(interval / 2);
+        Assert.assertEquals(limiter.waitNanos("a"), interval / 2);
+        Assert.assertFalse(limiter.tryAcquire("a"));
+        now.set(interval);
+        Assert.assertEquals(limiter.waitNanos("a"), 0);
+        Assert.assertTrue(limiter.tryAcquire("a"));
+        Assert.assertFalse(limiter.tryAcquire("a"));
+
+        // Sweeping drops only buckets that have refilled completely.
+        now.set(2 * interval);
+        Assert.assertEquals(limiter.sweep(), 1);
+        Assert.assertEquals(limiter.size(), 1);
+        now.set(4 * interval - 1);
+        Assert.assertEquals(limiter.sweep(), 0);
+        now.set(4 * interval);
+        Assert.assertEquals(limiter.sweep(), 1);
+        Assert.assertEquals(limiter.size(), 0);
+
+        // A swept key starts again with a full burst.
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(limiter.tryAcquire("a"));
+        }
+        Assert.assertFalse(limiter.tryAcquire("a"));
+        limiter.forget("a");
+        Assert.assertTrue(limiter.tryAcquire("a"));
+    }
+
+    /**
+     * Test that the async log samples routine entries once its buffer is half full, drops
+     * entries once it is full, and rotates its files.
+     *
+     * @throws IOException if the log files cannot be read
+     */
+    @Test(priority = 1, timeOut = IO_TEST_TIMEOUT)
+    public void testAsyncLog() throws IOException {
+        Path directory = Files.createTempDirectory("logs");
+        Path file = directory.resolve("test.log");
+
+        /*
+         * With the writer held back, a buffer of 16 takes routine entries freely up to half full,
+         * then keeps about one in SAMPLING of them, then drops everything.
+         */
+        AsyncLog log = new AsyncLog(file, 16, 1 << 20, 2, false);
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(log.logSampled("entry", i));
+        }
+        int kept = 0;
+        for (int i = 0; i < 1600; i++) {
+            if (log.logSampled("entry", 8 + i)) {
+                kept++;
+            }
+        }
+        Assert.assertEquals(kept, 8, "Sampled entries fill the rest of the buffer");
+        Assert.assertEquals(log.getLogged(), 16);
+        Assert.assertTrue(log.getSampledOut() > 1200, "Sampled out " + log.getSampledOut());
+        Assert.assertTrue(log.getDropped() > 0);
+        Assert.assertEquals(log.getSampledOut() + log.getDropped(), 1592);
+        long dropped = log.getDropped();
+        Assert.assertFalse(log.log("event", "error"), "Errors are dropped once the buffer is full");
+        Assert.assertEquals(log.getDropped(), dropped + 1);
+
+        log.start();
+        log.close();
+        List<String> lines = Files.readAllLines(file);
+        Assert.assertEquals(lines.size(), 17);
+        Assert.assertTrue(lines.get(0).endsWith("\"entry\":0}"), lines.get(0));
+        String notice = "\"event\":\"dropped\",\"count\":" + (dropped + 1);
+        Assert.assertTrue(lines.get(16).contains(notice), lines.get(16));
+        Assert.assertFalse(log.log("event", "late"), "A closed log takes no entries");
+        Files.delete(file);
+
+        /*
+         * Files are rotated before they outgrow the limit, and only two old ones are kept.
+         */
+        log = new AsyncLog(file, 64, 200, 2);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(log.log("entry", i, "text", "\"quoted\"\n"));
+        }
+        log.close();
+        Path first = directory.resolve("test.log.1");
+        Path second = directory.resolve("test.log.2");
+        Assert.assertTrue(Files.exists(first));
+        Assert.assertTrue(Files.exists(second));
+        Assert.assertFalse(Files.exists(directory.resolve("test.log.3")));
+        for (Path path : new Path[] {file, first, second}) {
+            Assert.assertTrue(Files.size(path) <= 200, path + " is " + Files.size(path));
+        }
+        lines = Files.readAllLines(file);
+        Assert.assertTrue(lines.get(lines.size() - 1).contains("\"entry\":19,"));
+        Assert.assertTrue(lines.get(0).contains("\"text\":\"\\\"quoted\\\"\\n\""), lines.get(0));
+        String newestRotated = Files.readAllLines(first).get(0);
+        Assert.assertFalse(newestRotated.contains("\"entry\":19,"));
+        for (Path path : new Path[] {file, first, second}) {
+            Files.delete(path);
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * Test storing and probing the shared transposition table.
+     *
+     * @throws Exception if the table's buffers cannot be reached to tear an entry
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testTranspositionTable() throws Exception {
+        /*
+         * A 64-byte table is one bucket of four entries, so every key lands in it.
+         */
+        TranspositionTable table = new TranspositionTable(100);
+        Assert.assertEquals(table.getCapacity(), 4);
+        try {
+            new TranspositionTable(32);
+            Assert.fail("A table holds at least one bucket");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("64"));
+        }
+
+        table.store(11, 5, TranspositionTable.EXACT, -123, 3);
+        table.store(12, 1, TranspositionTable.LOWER, 456, -1);
+        long result = table.probe(11);
+        Assert.assertEquals(TranspositionTable.score(result), -123);
+        Assert.assertEquals(TranspositionTable.depth(result), 5);
+        Assert.assertEquals(TranspositionTable.bound(result), TranspositionTable.EXACT);
+        Assert.assertEquals(TranspositionTable.column(result), 3);
+        result = table.probe(12);
+        Assert.assertEquals(TranspositionTable.score(result), 456);
+        Assert.assertEquals(TranspositionTable.bound(result), TranspositionTable.LOWER);
+        Assert.assertEquals(TranspositionTable.column(result), -1);
+        Assert.assertEquals(table.probe(13), 0, "Another key in the same bucket misses");
+        Assert.assertEquals(table.getProbes(), 3);
+        Assert.assertEquals(table.getHits(), 2);
+        Assert.assertEquals(table.getStores(), 2);
+
+        /*
+         * An entry whose halves come from different writes fails the XOR check and misses.
+         */
+        Field segmentsField = TranspositionTable.class.getDeclaredField("segments");
+        segmentsField.setAccessible(true);
+        ByteBuffer bucket = ((ByteBuffer[]) segmentsField.get(table))[0];
+        bucket.putLong(Long.BYTES, bucket.getLong(Long.BYTES) ^ 1);
+        Assert.assertEquals(table.probe(11), 0, "A torn entry reads as a miss");
+
+        /*
+         * Stores replace the same position, then an empty entry, then the entry with the least
+         * depth left after taking off its age.
+         */
+        table = new TranspositionTable(64);
+        table.store(21, 9, TranspositionTable.EXACT, 0, 0);
+        table.store(22, 1, TranspositionTable.EXACT, 0, 0);
+        table.store(23, 5, TranspositionTable.EXACT, 0, 0);
+        table.store(24, 7, TranspositionTable.EXACT, 0, 0);
+        table.store(25, 3, TranspositionTable.EXACT, 0, 0);
+        Assert.assertEquals(table.probe(22), 0, "The shallowest entry is replaced");
+        Assert.assertNotEquals(table.probe(25), 0);
+        table.store(21, 12, TranspositionTable.UPPER, 7, 1);
+        Assert.assertEquals(TranspositionTable.depth(table.probe(21)), 12,
+                "A position replaces its own entry");
+        for (int i = 0; i < 10; i++) {
+            table.newSearch();
+        }
+        table.store(25, 3, TranspositionTable.EXACT, 0, 0);
+        table.store(26, 1, TranspositionTable.EXACT, 0, 0);
+        Assert.assertEquals(table.probe(23), 0, "Old entries go before fresh ones");
+        for (long key : new long[] {21, 24, 25, 26}) {
+            Assert.assertNotEquals(table.probe(key), 0, "Key " + key);
+        }
+
+        /*
+         * Keys tell apart boards of other shapes and seats to move, but not mirror images.
+         */
+        Player chuchu = new Player("Chuchu");
+        ConnectN left = new ConnectN(7, 6, 4);
+        Assert.assertTrue(left.setBoardAt(chuchu, 0));
+        ConnectN right = new ConnectN(7, 6, 4);
+        Assert.assertTrue(right.setBoardAt(chuchu, 6));
+        Assert.assertEquals(TranspositionTable.key(left, 1), TranspositionTable.key(right, 1));
+        List<Long> keys = new ArrayList<Long>();
+        keys.add(TranspositionTable.key(left, 1));
+        keys.add(TranspositionTable.key(left, 0));
+        for (int[] shape : new int[][] {{8, 6, 4}, {7, 7, 4}, {7, 6, 5}}) {
+            ConnectN other = new ConnectN(shape[0], shape[1], shape[2]);
+            Assert.assertTrue(other.setBoardAt(chuchu, 0));
+            keys.add(TranspositionTable.key(other, 1));
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            for (int j = i + 1; j < keys.size(); j++) {
+                Assert.assertNotEquals(keys.get(i), keys.get(j), "Keys " + i + " and " + j);
+            }
+        }
+    }
+
+    /**
+     * Test choosing and scoring moves by search, with and without a budget.
+     */
+    @Test(priority = 1, timeOut = IO_TEST_TIMEOUT)
+    public void testSearchPolicy() {
+        Player xyz = new Player("Xyz");
+        Player chuchu = new Player("Chuchu");
+
+        /*
+         * Xyz takes a win on the spot, and otherwise blocks the one Chuchu threatens.
+         */
+        Player[] turns = {xyz, chuchu};
+        ConnectN winning = new ConnectN(7, 6, 4);
+        int[] moves = {0, 6, 0, 5, 0, 6};
+        for (int i = 0; i < moves.length; i++) {
+            Assert.assertTrue(winning.setBoardAt(turns[i % 2], moves[i]));
+        }
+        ConnectN blocking = new ConnectN(7, 6, 4);
+        moves = new int[] {6, 0, 5, 0, 6, 0};
+        for (int i = 0; i < moves.length; i++) {
+            Assert.assertTrue(blocking.setBoardAt(turns[i % 2], moves[i]));
+        }
+        for (int depth = 1; depth <= 5; depth++) {
+            SearchPolicy policy = new SearchPolicy(depth);
+            Assert.assertEquals(policy.chooseColumn(winning, xyz, chuchu, (Random) null), 0,
+                    "Depth " + depth);
+            Assert.assertEquals(winning.getMoveCount(), 6, "Searching leaves the board as it was");
+            if (depth > 1) {
+                Assert.assertEquals(policy.chooseColumn(blocking, xyz, chuchu, (Random) null), 0,
+                        "Depth " + depth);
+            }
+        }
+        try {
+            new SearchPolicy(0);
+            Assert.fail("A search looks at least one move ahead");
+        } catch (IllegalArgumentException e) {
+        }
+
+        /*
+         * A budget that runs out partway through a pass throws that pass away. Without even one
+         * finished pass, the most central open column is the answer.
+         */
+        SearchPolicy deep = new SearchPolicy(42);
+        SearchBudget budget = new SearchBudget(TimeUnit.SECONDS.toNanos(10), 1);
+        Assert.assertEquals(deep.chooseColumn(new ConnectN(7, 6, 4), xyz, chuchu, budget), 3);
+        Assert.assertTrue(budget.isExhausted());
+        Assert.assertEquals(budget.getDepth(), 0);
+        ConnectN centerFull = new ConnectN(7, 6, 4);
+        for (int i = 0; i < 6; i++) {
+            Assert.assertTrue(centerFull.setBoardAt(turns[i % 2], 3));
+        }
+        budget = new SearchBudget(TimeUnit.SECONDS.toNanos(10), 1);
+        Assert.assertEquals(deep.chooseColumn(centerFull, xyz, chuchu, budget), 4);
+
+        /*
+         * Passes that finished before the budget ran out or was cancelled keep their answer.
+         * Cancelling is noticed at the next clock check.
+         */
+        budget = new SearchBudget(TimeUnit.SECONDS.toNanos(10), 200);
+        Assert.assertEquals(deep.chooseColumn(winning, xyz, chuchu, budget), 0);
+        Assert.assertTrue(budget.isExhausted());
+        Assert.assertTrue(budget.getDepth() >= 1 && budget.getDepth() < 42,
+                "Depth " + budget.getDepth());
+        budget = new SearchBudget(TimeUnit.SECONDS.toNanos(10), Long.MAX_VALUE);
+        budget.cancel();
+        Assert.assertEquals(deep.chooseColumn(blocking, xyz, chuchu, budget), 0);
+        Assert.assertTrue(budget.isCancelled());
+        Assert.assertTrue(budget.isExhausted());
+        Assert.assertEquals(budget.getNodes(), SearchBudget.CHECK_INTERVAL);
+        Assert.assertTrue(budget.getDepth() >= 2 && budget.getDepth() < 42,
+                "Depth " + budget.getDepth());
+        Assert.assertEquals(blocking.getMoveCount(), 6, "A cut search leaves the board as it was");
+        budget = new SearchBudget(TimeUnit.SECONDS.toNanos(10), 1);
+        Assert.assertEquals(deep.scoreColumn(blocking, xyz, chuchu, 6, budget), 0,
+                "The pass that would find the loss did not finish");
+        Assert.assertEquals(budget.getDepth(), 1);
+        budget = new SearchBudget(TimeUnit.SECONDS.toNanos(10), 1000);
+        Assert.assertTrue(deep.scoreColumn(blocking, xyz, chuchu, 6, budget)
+                < -SearchPolicy.WIN_SCORE / 2);
+        Assert.assertEquals(budget.getDepth(), 2);
+        budget = new SearchBudget(TimeUnit.SECONDS.toNanos(10), 1000);
+        Assert.assertTrue(deep.scoreColumn(winning, xyz, chuchu, 0, budget)
+                > SearchPolicy.WIN_SCORE / 2);
+        Assert.assertEquals(budget.getDepth(), 1, "A forced result ends the search");
+
+        /*
+         * A transposition table changes how much is searched but not the scores or the choice.
+         */
+        Random random = new Random(125);
+        for (int game = 0; game < 10; game++) {
+            ConnectN board = new ConnectN(7, 6, 4);
+            while (board.getMoveCount() < 4 + game) {
+                Player mover = turns[board.getMoveCount() % 2];
+                if (board.placeTile(mover, random.nextInt(7)) && board.hasWinner()) {
+                    Assert.assertTrue(board.undo());
+                }
+            }
+            Player mover = turns[board.getMoveCount() % 2];
+            Player other = turns[(board.getMoveCount() + 1) % 2];
+            Assert.assertEquals(new SearchPolicy(5, new TranspositionTable(1 << 16))
+                    .chooseColumn(board, mover, other, (Random) null),
+                    new SearchPolicy(5).chooseColumn(board, mover, other, (Random) null),
+                    "Game " + game);
+            for (int x = 0; x < 7; x++) {
+                if (board.getColumnHeight(x) == 6) {
+                    continue;
+                }
+                SearchBudget withTable = new SearchBudget(TimeUnit.SECONDS.toNanos(10), 1 << 20);
+                SearchBudget without = new SearchBudget(TimeUnit.SECONDS.toNanos(10), 1 << 20);
+                Assert.assertEquals(new SearchPolicy(5, new TranspositionTable(1 << 16))
+                        .scoreColumn(board, mover, other, x, withTable),
+                        new SearchPolicy(5).scoreColumn(board, mover, other, x, without),
+                        "Game " + game + ", column " + x);
+                Assert.assertEquals(withTable.getDepth(), without.getDepth());
+            }
+        }
+    }
+
+    /**
+     * Test analyzing columns one at a time and a whole position at once.
+     */
+    @Test(priority = 1, timeOut = IO_TEST_TIMEOUT)
+    public void testPositionAnalyzer() {
+        Player xyz = new Player("Xyz");
+        Player chuchu = new Player("Chuchu");
+        Player[] turns = {xyz, chuchu};
+        SearchPolicy policy = new SearchPolicy(4);
+        long time = TimeUnit.SECONDS.toNanos(10);
+
+        /*
+         * Both sides have three in a column, Xyz in column 0 and Chuchu in column 1. For Chuchu,
+         * column 1 wins, column 0 blocks, and any other column hands Xyz the win.
+         */
+        ConnectN board = new ConnectN(7, 6, 4);
+        int[] moves = {0, 1, 0, 1, 0, 1, 2, 2, 6, 2};
+        for (int i = 0; i < moves.length; i++) {
+            Assert.assertTrue(board.setBoardAt(turns[i % 2], moves[i]));
+        }
+        ColumnAnalysis win = ColumnAnalysis.analyze(board, chuchu, xyz, 1, policy,
+                new SearchBudget(time, 1 << 20));
+        Assert.assertEquals(win.getColumn(), 1);
+        Assert.assertTrue(win.isWin());
+        Assert.assertFalse(win.isBlock());
+        Assert.assertFalse(win.isLoss());
+        Assert.assertTrue(win.getScore() > SearchPolicy.WIN_SCORE / 2);
+        ColumnAnalysis block = ColumnAnalysis.analyze(board, chuchu, xyz, 0, policy,
+                new SearchBudget(time, 1 << 20));
+        Assert.assertFalse(block.isWin());
+        Assert.assertTrue(block.isBlock());
+        Assert.assertFalse(block.isLoss());
+        ColumnAnalysis loss = ColumnAnalysis.analyze(board, chuchu, xyz, 5, policy,
+                new SearchBudget(time, 1 << 20));
+        Assert.assertFalse(loss.isWin());
+        Assert.assertFalse(loss.isBlock());
+        Assert.assertTrue(loss.isLoss());
+        Assert.assertTrue(loss.getScore() < -SearchPolicy.WIN_SCORE / 2);
+        Assert.assertEquals(loss.getDepth(), 2);
+        Assert.assertEquals(board.getMoveCount(), moves.length,
+                "Analyzing leaves the board as it was");
+
+        /*
+         * Run inline, every open column is analyzed, from left to right. The analysis of a
+         * mirrored position is the mirror of the analysis.
+         */
+        PositionAnalyzer inline = new PositionAnalyzer(Runnable::run, policy);
+        List<ColumnAnalysis[]> results = new ArrayList<ColumnAnalysis[]>();
+        inline.analyze(board, chuchu, xyz, time, 1 << 20, results::add);
+        ConnectN mirrored = new ConnectN(7, 6, 4);
+        for (int i = 0; i < moves.length; i++) {
+            Assert.assertTrue(mirrored.setBoardAt(turns[i % 2], 6 - moves[i]));
+        }
+        inline.analyze(mirrored, chuchu, xyz, time, 1 << 20, results::add);
+        Assert.assertEquals(results.size(), 2);
+        ColumnAnalysis[] direct = results.get(1);
+        ColumnAnalysis[] flipped = ColumnAnalysis.mirror(results.get(0), 7);
+        Assert.assertEquals(direct.length, 7);
+        Assert.assertEquals(flipped.length, 7);
+        for (int i = 0; i < direct.length; i++) {
+            Assert.assertEquals(direct[i].getColumn(), i);
+            Assert.assertEquals(flipped[i].getColumn(), i);
+            Assert.assertEquals(flipped[i].isWin(), direct[i].isWin(), "Column " + i);
+            Assert.assertEquals(flipped[i].isBlock(), direct[i].isBlock(), "Column " + i);
+            Assert.assertEquals(flipped[i].isLoss(), direct[i].isLoss(), "Column " + i);
+            Assert.assertEquals(flipped[i].getScore(), direct[i].getScore(), "Column " + i);
+            Assert.assertEquals(flipped[i].getDepth(), direct[i].getDepth(), "Column " + i);
+        }
+        Assert.assertTrue(direct[5].isWin());
+        Assert.assertTrue(direct[6].isBlock());
+        Assert.assertTrue(direct[1].isLoss());
+
+        /*
+         * Cancelling before the tasks finish gives null.
+         */
+        List<Runnable> queued = new ArrayList<Runnable>();
+        PositionAnalyzer queueing = new PositionAnalyzer(queued::add, policy);
+        results.clear();
+        queueing.analyze(board, chuchu, xyz, time, 1 << 20, results::add).run();
+        Assert.assertEquals(queued.size(), 7);
+        for (Runnable task : queued) {
+            task.run();
+        }
+        Assert.assertEquals(results.size(), 1);
+        Assert.assertNull(results.get(0));
+
+        /*
+         * An executor that refuses a task partway through still has done called once, with null,
+         * after the tasks it took have finished.
+         */
+        queued.clear();
+        PositionAnalyzer refusing = new PositionAnalyzer(task -> {
+            if (queued.size() == 3) {
+                throw new RejectedExecutionException("Full");
+            }
+            queued.add(task);
+        }, policy);
+        results.clear();
+        refusing.analyze(board, chuchu, xyz, time, 1 << 20, results::add);
+        Assert.assertEquals(results.size(), 0);
+        for (Runnable task : queued) {
+            task.run();
+        }
+        Assert.assertEquals(results.size(), 1);
+        Assert.assertNull(results.get(0));
+    }
+
+    /**
+     * Test fitting Elo ratings to game results.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testEloRatings() {
+        /*
+         * Scoring 76% over 100 games is about 200 points, shrunk a little by the virtual draws.
+         */
+        EloRatings ratings = new EloRatings(new long[][] {{0, 100}, {100, 0}},
+                new double[][] {{0, 76}, {24, 0}});
+        Assert.assertEquals(ratings.getPlayers(), 2);
+        double difference = ratings.getRating(0) - ratings.getRating(1);
+        Assert.assertTrue(difference > 190 && difference < 200.3, "Difference " + difference);
+        Assert.assertEquals(ratings.getRating(0) + ratings.getRating(1), 0, 1e-6);
+        EloRatings more = new EloRatings(new long[][] {{0, 400}, {400, 0}},
+                new double[][] {{0, 304}, {96, 0}});
+        Assert.assertEquals(more.getMargin(0), ratings.getMargin(0) / 2, 1.0);
+        Assert.assertTrue(ratings.getMargin(0) > 50 && ratings.getMargin(0) < 100);
+
+        /*
+         * Winning every game still gives finite ratings, and a player who has not played sits
+         * between the others.
+         */
+        ratings = new EloRatings(new long[][] {{0, 10, 0}, {10, 0, 0}, {0, 0, 0}},
+                new double[][] {{0, 10, 0}, {0, 0, 0}, {0, 0, 0}});
+        Assert.assertTrue(ratings.getRating(0) > ratings.getRating(2));
+        Assert.assertTrue(ratings.getRating(2) > ratings.getRating(1));
+        Assert.assertFalse(Double.isInfinite(ratings.getRating(0)));
+        Assert.assertFalse(Double.isInfinite(ratings.getMargin(2)));
+    }
+
+    /**
+     * Test playing a tournament, streaming its results and resuming it.
+     *
+     * @throws IOException if the results file cannot be written or read
+     */
+    @Test(priority = 1, timeOut = IO_TEST_TIMEOUT)
+    public void testTournament() throws IOException {
+        Path results = Files.createTempFile("tournament", ".results");
+        Files.delete(results);
+        String[] engines = {"random", "search:2", "greedy"};
+        int[][] configurations = {{7, 6, 4}};
+
+        Tournament tournament = new Tournament(engines, configurations,
+                Tournament.Format.ROUND_ROBIN, 2, results);
+        tournament.run(4);
+        tournament.close();
+        Assert.assertEquals(tournament.getRounds(), 4);
+        Assert.assertEquals(tournament.getPlayed(), 24);
+        Assert.assertEquals(tournament.getGames(0, 1), 8);
+        Assert.assertEquals(tournament.getPoints(0, 1) + tournament.getPoints(1, 0), 8.0);
+        EloRatings ratings = tournament.getRatings();
+        Assert.assertTrue(ratings.getRating(1) > ratings.getRating(0));
+        double points = tournament.getPoints(1, 2);
+        long size = Files.size(results);
+
+        /*
+         * Running again on the same file counts the games in it instead of playing them, and a
+         * record cut short at the end is dropped and played again.
+         */
+        tournament = new Tournament(engines, configurations, Tournament.Format.ROUND_ROBIN, 2,
+                results);
+        tournament.run(4);
+        Assert.assertEquals(tournament.getPlayed(), 0);
+        Assert.assertEquals(tournament.getGames(1, 2), 8);
+        Assert.assertEquals(tournament.getPoints(1, 2), points);
+        tournament.close();
+        Files.write(results, new byte[] {0, 0, 0, 4, 0, 0}, StandardOpenOption.APPEND);
+        tournament = new Tournament(engines, configurations, Tournament.Format.ROUND_ROBIN, 2,
+                results);
+        tournament.run(5);
+        tournament.close();
+        Assert.assertEquals(tournament.getPlayed(), 6);
+        Assert.assertEquals(tournament.getGames(0, 2), 10);
+        Assert.assertEquals(Files.size(results), size + 6 * Tournament.RECORD_BYTES);
+        try {
+            new Tournament(new String[] {"random", "greedy"}, configurations,
+                    Tournament.Format.ROUND_ROBIN, 2, results);
+            Assert.fail("Results of another tournament are not resumed");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("not the results"));
+        }
+        Files.delete(results);
+
+        /*
+         * In a Swiss tournament with an odd number of engines, each sits out in turn.
+         */
+        String[] field = {"random", "greedy", "search:1", "search:2", "search:3"};
+        tournament = new Tournament(field, configurations, Tournament.Format.SWISS, 2, null);
+        tournament.run(5);
+        Assert.assertEquals(tournament.getPlayed(), 20);
+        for (int engine = 0; engine < field.length; engine++) {
+            long games = 0;
+            for (int opponent = 0; opponent < field.length; opponent++) {
+                games += tournament.getGames(engine, opponent);
+            }
+            Assert.assertEquals(games, 8, field[engine]);
+        }
+    }
+
+    /**
+     * Test sparse boards far wider than a ConnectN board can be.
+     */
+    @Test(priority = 1, timeOut = TEST_TIMEOUT)
+    public void testSparseBoard() {
+        Player chuchu = new Player("Chuchu");
+        Player xyz = new Player("Xyz");
+
+        Assert.assertFalse(SparseBoard.isValid(5, 6, 4, 2));
+        Assert.assertFalse(SparseBoard.isValid(100000, 6, 3, 2));
+        Assert.assertFalse(SparseBoard.isValid(100000, 6, 4, ConnectN.MAX_PLAYERS + 1));
+        SparseBoard board = new SparseBoard(100000, 20, 5, 2);
+
+        /*
+         * Moves far apart only take a tile each.
+         */
+        Assert.assertTrue(board.setBoardAt(chuchu, 0));
+        Assert.assertTrue(board.setBoardAt(xyz, 99999));
+        Assert.assertTrue(board.setBoardAt(chuchu, 50000));
+        Assert.assertFalse(board.setBoardAt(chuchu, 50001), "Not Chuchu's turn");
+        Assert.assertFalse(board.setBoardAt(xyz, 100000));
+        Assert.assertEquals(board.getTileCount(), 3);
+        Assert.assertEquals(board.getBoardAt(99999, 0), xyz);
+        Assert.assertNull(board.getBoardAt(99999, 1));
+        Assert.assertNull(board.getBoardAt(12345, 0));
+        Assert.assertEquals(board.getColumnHeight(50000), 1);
+        Assert.assertEquals(board.getColumnHeight(70000), 0);
+        Assert.assertEquals(board.getColumnHeight(100000), -1);
+
+        /*
+         * A horizontal run across a tile boundary.
+         */
+        for (int x = 5; x < 9; x++) {
+            Assert.assertTrue(board.setBoardAt(xyz, x + 1000));
+            Assert.assertFalse(board.hasWinner());
+            Assert.assertTrue(board.setBoardAt(chuchu, x));
+        }
+        Assert.assertFalse(board.hasWinner(), "Column 0 is not next to column 5");
+        Assert.assertTrue(board.setBoardAt(xyz, 2000));
+        Assert.assertTrue(board.setBoardAt(chuchu, 4));
+        Assert.assertTrue(board.hasWinner());
+        Assert.assertEquals(board.getWinner(), chuchu);
+        Assert.assertTrue(board.gameEnded());
+        Assert.assertFalse(board.setBoardAt(xyz, 3));
+        Assert.assertEquals(board.getMoveCount(), 13);
+        Assert.assertEquals(board.getMoveAt(12), 4);
+
+        Assert.assertTrue(board.undo());
+        Assert.assertFalse(board.hasWinner());
+        Assert.assertNull(board.getBoardAt(4, 0));
+        Assert.assertEquals(board.whosTurn(), "Chuchu");
+
+        /*
+         * Enough scattered tiles to make the board grow its tile storage.
+         */
+        SparseBoard wide = new SparseBoard(100000, 6, 4, 2);
+        for (int i = 0; i < 500; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertTrue(wide.setBoardAt(mover, i * 100));
+        }
+        Assert.assertEquals(wide.getTileCount(), 500);
+        Assert.assertEquals(wide.getBoardAt(49900, 0), xyz);
+        Assert.assertEquals(wide.getBoardAt(49800, 0), chuchu);
+
+        /*
+         * Vertical and diagonal runs, climbing past the first row of tiles.
+         */
+        SparseBoard tall = new SparseBoard(6, 4000, 4, 2);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(tall.setBoardAt(chuchu, 0));
+            Assert.assertTrue(tall.setBoardAt(xyz, 0));
+        }
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(tall.setBoardAt(chuchu, 0));
+            Assert.assertTrue(tall.setBoardAt(xyz, 1));
+        }
+        Assert.assertTrue(tall.setBoardAt(chuchu, 0));
+        Assert.assertEquals(tall.getWinner(), chuchu);
+        Assert.assertEquals(tall.getColumnHeight(0), 10);
+
+        SparseBoard diagonal = new SparseBoard(4096, 6, 4, 2);
+        int[] moves = {4094, 4093, 4093, 4092, 4092, 4091, 4092, 4091, 4091, 4000, 4091};
+        for (int i = 0; i < moves.length; i++) {
+            Player mover = chuchu;
+            if (i % 2 == 1) {
+                mover = xyz;
+            }
+            Assert.assertFalse(diagonal.hasWinner());
+            Assert.assertTrue(diagonal.setBoardAt(mover, moves[i]));
+        }
+        Assert.assertEquals(diagonal.getWinner(), chuchu);
+        Assert.assertEquals(diagonal.getTileCount(), 2);
+
+        while (diagonal.undo()) {
+            continue;
+        }
+        Assert.assertEquals(diagonal.getMoveCount(), 0);
+        Assert.assertNull(diagonal.whosTurn());
+        Assert.assertEquals(diagonal.getColumnHeight(4091), 0);
+    }
+
     /**
      * Test the equality works.
      */